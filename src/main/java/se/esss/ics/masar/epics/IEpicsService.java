@@ -17,6 +17,8 @@
  */
 package se.esss.ics.masar.epics;
 
+import java.util.function.Consumer;
+
 import se.esss.ics.masar.epics.exception.PVReadException;
 import se.esss.ics.masar.model.ConfigPv;
 import se.esss.ics.masar.model.SnapshotPv;
@@ -24,4 +26,22 @@ import se.esss.ics.masar.model.SnapshotPv;
 public interface IEpicsService {
 
 	public <T> SnapshotPv<T> getPv(ConfigPv configPv) throws PVReadException;
+	
+	/**
+	 * @param pvName A PV name.
+	 * @return The address of the server the PV was last read from, or <code>null</code> if not known.
+	 */
+	public default String getServerAddress(String pvName) {
+		return null;
+	}
+	
+	/**
+	 * Monitors a PV, such that changes are received as they happen rather than by reading the PV repeatedly.
+	 * The monitor reconnects if the PV becomes unavailable.
+	 * @param configPv The PV.
+	 * @param listener Notified of the current value when connected, and then of each change of the value or
+	 * alarm, one event at a time. Should not block, as that delays the following events.
+	 * @return The monitor, to be closed when no longer needed.
+	 */
+	public PvMonitor monitor(ConfigPv configPv, Consumer<SnapshotPv<?>> listener);
 }
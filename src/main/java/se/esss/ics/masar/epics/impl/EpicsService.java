@@ -17,13 +17,21 @@
  */
 package se.esss.ics.masar.epics.impl;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 import org.epics.pvaClient.PvaClient;
+import org.epics.pvaClient.PvaClientChannel;
 import org.epics.pvaClient.PvaClientGetData;
+import org.epics.pvaClient.PvaClientMonitor;
 import org.epics.pvdata.pv.PVStructure;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.PvMonitor;
 import se.esss.ics.masar.epics.exception.PVReadException;
 import se.esss.ics.masar.epics.util.SnapshotPvFactory;
 import se.esss.ics.masar.model.ConfigPv;
@@ -33,13 +41,29 @@ public class EpicsService implements IEpicsService {
 
 	@Autowired
 	private PvaClient pvaClient;
+	
+	private final Map<String, String> serverAddresses = new ConcurrentHashMap<>();
+	
+	private static final String MONITOR_REQUEST = "field(value,alarm,timeStamp)";
+	
+	/**
+	 * Time in seconds a monitor waits for an event before checking whether it has been closed.
+	 */
+	private static final double MONITOR_WAIT_SECONDS = 1.0;
+	
+	private static final long MONITOR_RECONNECT_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
 	@Override
 	public <T> SnapshotPv<T> getPv(ConfigPv configPv) throws PVReadException {
 
 		PvaClientGetData pvaClientGetData;
 		try {
-			pvaClientGetData = pvaClient.channel(configPv.getPvName(), "ca", 3.0).get().getData();
+			PvaClientChannel channel = pvaClient.channel(configPv.getPvName(), "ca", 3.0);
+			String serverAddress = channel.getChannel().getRemoteAddress();
+			if (serverAddress != null) {
+				serverAddresses.put(configPv.getPvName(), serverAddress);
+			}
+			pvaClientGetData = channel.get().getData();
 			PVStructure myPVStructure = pvaClientGetData.getPVStructure();
 			return SnapshotPvFactory.createSnapshotPv(configPv, myPVStructure);
 		} catch (Exception e1) {
@@ -47,4 +71,79 @@ public class EpicsService implements IEpicsService {
 			return SnapshotPv.<T>builder().fetchStatus(false).configPv(configPv).build();
 		}		
 	}
+	
+	@Override
+	public String getServerAddress(String pvName) {
+		return serverAddresses.get(pvName);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Each monitor waits for events on a thread of its own, which is only suitable for a moderate number of PVs.
+	 */
+	@Override
+	public PvMonitor monitor(ConfigPv configPv, Consumer<SnapshotPv<?>> listener) {
+		
+		MonitorThread thread = new MonitorThread(configPv, listener);
+		thread.start();
+		return thread::close;
+	}
+	
+	private class MonitorThread extends Thread {
+		
+		private final ConfigPv configPv;
+		private final Consumer<SnapshotPv<?>> listener;
+		private volatile boolean closed;
+		
+		MonitorThread(ConfigPv configPv, Consumer<SnapshotPv<?>> listener) {
+			super("pv-monitor-" + configPv.getPvName());
+			setDaemon(true);
+			this.configPv = configPv;
+			this.listener = listener;
+		}
+		
+		void close() {
+			// Noticed within the wait time, not interrupted as that could break the connection shared with other users
+			closed = true;
+		}
+		
+		@Override
+		public void run() {
+			while (!closed) {
+				PvaClientMonitor monitor = null;
+				try {
+					monitor = pvaClient.channel(configPv.getPvName(), "ca", 3.0).monitor(MONITOR_REQUEST);
+					while (!closed) {
+						if (monitor.waitEvent(MONITOR_WAIT_SECONDS)) {
+							handleEvent(monitor);
+						}
+					}
+				} catch (Exception e) {
+					LoggerFactory.getLogger(EpicsService.class).error("Monitor of " + configPv.getPvName() + " failed: " + e.getMessage());
+					if (!closed) {
+						try {
+							Thread.sleep(MONITOR_RECONNECT_MILLIS);
+						} catch (InterruptedException e1) {
+							return;
+						}
+					}
+				} finally {
+					if (monitor != null) {
+						monitor.stop();
+					}
+				}
+			}
+		}
+		
+		private void handleEvent(PvaClientMonitor monitor) {
+			try {
+				listener.accept(SnapshotPvFactory.createSnapshotPv(configPv, monitor.getData().getPVStructure()));
+			} catch (RuntimeException e) {
+				LoggerFactory.getLogger(EpicsService.class).error("Event of " + configPv.getPvName() + " not handled", e);
+			} finally {
+				monitor.releaseEvent();
+			}
+		}
+	}
 }
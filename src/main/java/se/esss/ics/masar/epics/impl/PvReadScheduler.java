@@ -0,0 +1,240 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.epics.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.exception.PVReadException;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * Reads PVs in parallel while limiting the load on each server. PVs are grouped by the server they were last read
+ * from, as reported by {@link IEpicsService#getServerAddress(String)}. PVs not read before are grouped by the
+ * prefix of their name, i.e. the first group of a configured regular expression, or else put in a default group.
+ * <p>
+ * Each group has a maximum number of reads in progress and a maximum rate at which reads are started. Reads
+ * exceeding the limits are queued in the group, such that the threads of the executor are only used by groups
+ * below their limits.
+ * <p>
+ * Being a {@link MeterBinder}, the scheduler publishes the read latency, and the number of reads in progress and
+ * queued, of each group when declared as a bean.
+ */
+public class PvReadScheduler implements MeterBinder {
+
+	static final String DEFAULT_GROUP = "default";
+
+	private class ServerGroup {
+
+		private final String name;
+		private final Queue<Runnable> queued = new ArrayDeque<>();
+		private int inProgress;
+		private long nextStart;
+		private boolean drainScheduled;
+		private final AtomicLong reads = new AtomicLong();
+		private final AtomicLong readNanos = new AtomicLong();
+
+		private ServerGroup(String name) {
+			this.name = name;
+			// System.nanoTime() may be negative, so the first read is allowed relative to it rather than to 0
+			this.nextStart = System.nanoTime();
+		}
+
+		private synchronized int getInProgress() {
+			return inProgress;
+		}
+
+		private synchronized int getQueued() {
+			return queued.size();
+		}
+	}
+
+	private final IEpicsService epicsService;
+	private final Executor executor;
+	private final Pattern prefixPattern;
+	private final int maxConcurrentPerServer;
+	private final long minIntervalNanos;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "pv-read-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<String, ServerGroup> groups = new ConcurrentHashMap<>();
+	private final Map<String, String> servers = new ConcurrentHashMap<>();
+	private volatile MeterRegistry registry;
+
+	/**
+	 * @param epicsService Reads the PVs.
+	 * @param executor Executes the reads. Its number of threads is the total number of reads in progress.
+	 * @param prefixPattern Regular expression of which the first group is the prefix of a PV name grouping PVs
+	 * of unknown server, or <code>null</code>.
+	 * @param maxConcurrentPerServer Maximum number of reads in progress per group.
+	 * @param maxRatePerServer Maximum number of reads started per second and group, or 0 for no limit.
+	 */
+	public PvReadScheduler(IEpicsService epicsService, Executor executor, Pattern prefixPattern,
+			int maxConcurrentPerServer, double maxRatePerServer) {
+		if (maxConcurrentPerServer < 1) {
+			throw new IllegalArgumentException("The number of concurrent reads per server must be at least 1");
+		}
+		this.epicsService = epicsService;
+		this.executor = executor;
+		this.prefixPattern = prefixPattern;
+		this.maxConcurrentPerServer = maxConcurrentPerServer;
+		this.minIntervalNanos = maxRatePerServer > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxRatePerServer) : 0;
+	}
+
+	/**
+	 * Schedules a read of a PV.
+	 * @param configPv The PV.
+	 * @return Completed with the value read, or exceptionally with {@link PVReadException} if the PV could not be
+	 * read.
+	 */
+	public CompletableFuture<SnapshotPv<?>> read(ConfigPv configPv) {
+
+		CompletableFuture<SnapshotPv<?>> future = new CompletableFuture<>();
+		ServerGroup group = groups.computeIfAbsent(getGroupName(configPv.getPvName()), this::createGroup);
+
+		Runnable read = () -> {
+			long start = System.nanoTime();
+			SnapshotPv<?> snapshotPv = null;
+			Exception failure = null;
+			try {
+				snapshotPv = epicsService.getPv(configPv);
+			} catch (PVReadException | RuntimeException e) {
+				failure = e;
+			}
+			group.readNanos.addAndGet(System.nanoTime() - start);
+			group.reads.incrementAndGet();
+			String server = epicsService.getServerAddress(configPv.getPvName());
+			if (server != null) {
+				servers.put(configPv.getPvName(), server);
+			}
+			synchronized (group) {
+				group.inProgress--;
+			}
+			drain(group);
+
+			// Completed last, such that the statistics include the read when the caller proceeds
+			if (failure == null) {
+				future.complete(snapshotPv);
+			} else {
+				future.completeExceptionally(failure);
+			}
+		};
+
+		synchronized (group) {
+			group.queued.add(read);
+		}
+		drain(group);
+		return future;
+	}
+
+	/**
+	 * @param pvName A PV name.
+	 * @return The group of the PV: the server it was last read from if known, otherwise its prefix.
+	 */
+	String getGroupName(String pvName) {
+		String server = servers.get(pvName);
+		if (server != null) {
+			return server;
+		}
+		if (prefixPattern != null) {
+			Matcher matcher = prefixPattern.matcher(pvName);
+			if (matcher.find() && matcher.groupCount() > 0 && matcher.group(1) != null) {
+				return matcher.group(1);
+			}
+		}
+		return DEFAULT_GROUP;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.registry = registry;
+		groups.values().forEach(group -> register(group, registry));
+	}
+
+	public void shutdown() {
+		timer.shutdownNow();
+	}
+
+	private ServerGroup createGroup(String name) {
+		ServerGroup group = new ServerGroup(name);
+		MeterRegistry meterRegistry = registry;
+		if (meterRegistry != null) {
+			register(group, meterRegistry);
+		}
+		return group;
+	}
+
+	private void register(ServerGroup group, MeterRegistry registry) {
+		FunctionTimer.builder("masar.epics.read", group, g -> g.reads.get(), g -> g.readNanos.get(),
+				TimeUnit.NANOSECONDS).tag("server", group.name).description("PV reads per server")
+				.register(registry);
+		Gauge.builder("masar.epics.read.in.progress", group, ServerGroup::getInProgress).tag("server", group.name)
+				.description("PV reads in progress per server").register(registry);
+		Gauge.builder("masar.epics.read.queued", group, ServerGroup::getQueued).tag("server", group.name)
+				.description("PV reads waiting for the limits of their server").register(registry);
+	}
+
+	/**
+	 * Starts queued reads of a group as far as its limits allow. If the rate limit is reached, the group is drained
+	 * again once the next read may start.
+	 */
+	private void drain(ServerGroup group) {
+		List<Runnable> reads = new ArrayList<>();
+		synchronized (group) {
+			while (!group.queued.isEmpty() && group.inProgress < maxConcurrentPerServer) {
+				long now = System.nanoTime();
+				if (minIntervalNanos > 0 && now - group.nextStart < 0) {
+					if (!group.drainScheduled) {
+						group.drainScheduled = true;
+						timer.schedule(() -> {
+							synchronized (group) {
+								group.drainScheduled = false;
+							}
+							drain(group);
+						}, group.nextStart - now, TimeUnit.NANOSECONDS);
+					}
+					break;
+				}
+				group.nextStart = now + minIntervalNanos;
+				group.inProgress++;
+				reads.add(group.queued.poll());
+			}
+		}
+		reads.forEach(executor::execute);
+	}
+}
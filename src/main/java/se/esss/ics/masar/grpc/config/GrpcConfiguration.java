@@ -0,0 +1,60 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.grpc.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import se.esss.ics.masar.grpc.impl.MasarGrpcService;
+import se.esss.ics.masar.grpc.impl.ProtoConverter;
+import se.esss.ics.masar.services.IServices;
+
+/**
+ * Starts a gRPC server exposing {@link MasarGrpcService} if <code>masar.grpc.enabled=true</code>.
+ */
+@Configuration
+@ConditionalOnProperty(name = "masar.grpc.enabled", havingValue = "true")
+public class GrpcConfiguration {
+
+	@Autowired
+	private IServices services;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Bean
+	public MasarGrpcService masarGrpcService(@Value("${masar.grpc.chunk-size:1000}") int chunkSize,
+			@Value("${masar.grpc.max-stall-seconds:60}") long maxStallSeconds) {
+		return new MasarGrpcService(services, new ProtoConverter(objectMapper), chunkSize,
+				TimeUnit.SECONDS.toMillis(maxStallSeconds));
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "shutdown")
+	public Server grpcServer(MasarGrpcService masarGrpcService, @Value("${masar.grpc.port:9090}") int port) {
+		return ServerBuilder.forPort(port).addService(masarGrpcService).build();
+	}
+}
@@ -0,0 +1,224 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.grpc.impl;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import se.esss.ics.masar.grpc.proto.FolderContent;
+import se.esss.ics.masar.grpc.proto.GetFolderRequest;
+import se.esss.ics.masar.grpc.proto.GetSnapshotRequest;
+import se.esss.ics.masar.grpc.proto.GetSnapshotsRequest;
+import se.esss.ics.masar.grpc.proto.GetSnapshotsResponse;
+import se.esss.ics.masar.grpc.proto.MasarGrpc;
+import se.esss.ics.masar.grpc.proto.SnapshotChunk;
+import se.esss.ics.masar.grpc.proto.SnapshotHeader;
+import se.esss.ics.masar.grpc.proto.TakeSnapshotRequest;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
+import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.exception.AdmissionRejectedException;
+import se.esss.ics.masar.services.exception.ConfigNotFoundException;
+import se.esss.ics.masar.services.exception.NodeNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotNotFoundException;
+
+/**
+ * Implementation of the gRPC service defined in <code>masar.proto</code>, delegating to {@link IServices}.
+ * <p>
+ * Snapshot values are read from the database with {@link IServices#streamSnapshotPvs(int, java.util.function.Consumer)}
+ * and sent in chunks as they are read. The reading thread waits while the transport buffer of the call is full, such
+ * that a slow client does not cause the values to accumulate in memory.
+ * <p>
+ * While waiting, the call holds a pooled database connection and an open cursor, so a few stalled clients could
+ * exhaust the connection pool. A call of which the client has not been ready to receive for the maximum stall time is
+ * therefore aborted with <code>DEADLINE_EXCEEDED</code>, which releases the connection. The stream as a whole is not
+ * limited, so large snapshots can be sent to slow clients that keep reading.
+ */
+public class MasarGrpcService extends MasarGrpc.MasarImplBase {
+
+	private static final int MAX_CHUNK_SIZE = 10000;
+
+	private IServices services;
+	private ProtoConverter protoConverter;
+	private int defaultChunkSize;
+	private long maxStallMillis;
+
+	private Logger logger = LoggerFactory.getLogger(MasarGrpcService.class);
+
+	/**
+	 * @param services The service implementation.
+	 * @param protoConverter Converter of model objects to messages.
+	 * @param defaultChunkSize Number of PV values per chunk if not specified by the client.
+	 * @param maxStallMillis Time after which streaming a snapshot is aborted if the client is continuously not ready
+	 * to receive more values.
+	 */
+	public MasarGrpcService(IServices services, ProtoConverter protoConverter, int defaultChunkSize,
+			long maxStallMillis) {
+		this.services = services;
+		this.protoConverter = protoConverter;
+		this.defaultChunkSize = defaultChunkSize;
+		this.maxStallMillis = maxStallMillis;
+	}
+
+	@Override
+	public void takeSnapshot(TakeSnapshotRequest request, StreamObserver<SnapshotHeader> responseObserver) {
+		try {
+			Snapshot snapshot = services.takeSnapshot(request.getConfigId());
+			responseObserver.onNext(protoConverter.toSnapshotHeader(snapshot));
+			responseObserver.onCompleted();
+		} catch (RuntimeException e) {
+			responseObserver.onError(toStatusException(e));
+		}
+	}
+
+	@Override
+	public void getSnapshots(GetSnapshotsRequest request, StreamObserver<GetSnapshotsResponse> responseObserver) {
+		try {
+			// Zero is the default of an unset field, i.e. no limit
+			if (request.getLimit() < 0) {
+				throw new IllegalArgumentException("Limit must not be negative.");
+			}
+			SnapshotQuery query = new SnapshotQuery();
+			query.setFrom(request.getFrom() == 0 ? null : new Date(request.getFrom()));
+			query.setTo(request.getTo() == 0 ? null : new Date(request.getTo()));
+			query.setUserName(request.getUserName().isEmpty() ? null : request.getUserName());
+			query.setComment(request.getComment().isEmpty() ? null : request.getComment());
+			query.setCursor(request.getCursor().isEmpty() ? null : request.getCursor());
+			query.setLimit(request.getLimit() == 0 ? null : request.getLimit());
+
+			List<Snapshot> snapshots = services.getSnapshots(request.getConfigId(), query);
+
+			GetSnapshotsResponse.Builder response = GetSnapshotsResponse.newBuilder();
+			for (Snapshot snapshot : snapshots) {
+				response.addSnapshots(protoConverter.toSnapshotHeader(snapshot));
+			}
+			if (request.getLimit() > 0 && snapshots.size() == request.getLimit()) {
+				response.setNextCursor(SnapshotQuery.cursorOf(snapshots.get(snapshots.size() - 1)));
+			}
+			responseObserver.onNext(response.build());
+			responseObserver.onCompleted();
+		} catch (RuntimeException e) {
+			responseObserver.onError(toStatusException(e));
+		}
+	}
+
+	@Override
+	public void getFolder(GetFolderRequest request, StreamObserver<FolderContent> responseObserver) {
+		try {
+			responseObserver.onNext(protoConverter.toFolderContent(services.getFolder(request.getNodeId())));
+			responseObserver.onCompleted();
+		} catch (RuntimeException e) {
+			responseObserver.onError(toStatusException(e));
+		}
+	}
+
+	@Override
+	public void getSnapshot(GetSnapshotRequest request, StreamObserver<SnapshotChunk> responseObserver) {
+
+		ServerCallStreamObserver<SnapshotChunk> observer = (ServerCallStreamObserver<SnapshotChunk>) responseObserver;
+		Object readyLock = new Object();
+		observer.setOnReadyHandler(() -> {
+			synchronized (readyLock) {
+				readyLock.notifyAll();
+			}
+		});
+
+		int chunkSize = request.getChunkSize() > 0 ? Math.min(request.getChunkSize(), MAX_CHUNK_SIZE)
+				: defaultChunkSize;
+
+		try {
+			Snapshot snapshot = services.getSnapshotHeader(request.getSnapshotId());
+			SnapshotChunk.Builder chunk = SnapshotChunk.newBuilder()
+					.setHeader(protoConverter.toSnapshotHeader(snapshot));
+
+			services.streamSnapshotPvs(request.getSnapshotId(), snapshotPv -> {
+				chunk.addValues(protoConverter.toPvValue(snapshotPv));
+				if (chunk.getValuesCount() >= chunkSize) {
+					awaitReady(observer, readyLock);
+					observer.onNext(chunk.build());
+					chunk.clear();
+				}
+			});
+
+			if (chunk.getValuesCount() > 0 || chunk.hasHeader()) {
+				awaitReady(observer, readyLock);
+				observer.onNext(chunk.build());
+			}
+			observer.onCompleted();
+		} catch (RuntimeException e) {
+			if (!observer.isCancelled()) {
+				observer.onError(toStatusException(e));
+			}
+		}
+	}
+
+	/**
+	 * Blocks until the call can accept another message without buffering.
+	 * @throws StatusRuntimeException if the call is cancelled or the client has not been ready for the maximum stall
+	 * time, which aborts reading from the database.
+	 */
+	private void awaitReady(ServerCallStreamObserver<?> observer, Object readyLock) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxStallMillis);
+		synchronized (readyLock) {
+			while (!observer.isReady()) {
+				if (observer.isCancelled()) {
+					throw Status.CANCELLED.withDescription("Call cancelled by client").asRuntimeException();
+				}
+				long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remainingMillis <= 0) {
+					throw Status.DEADLINE_EXCEEDED.withDescription("Client too slow to receive the snapshot")
+							.asRuntimeException();
+				}
+				try {
+					// The timeout guards against a missed cancellation, which does not invoke the ready handler
+					readyLock.wait(Math.min(remainingMillis, 1000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw Status.CANCELLED.withCause(e).asRuntimeException();
+				}
+			}
+		}
+	}
+
+	private StatusRuntimeException toStatusException(RuntimeException exception) {
+		if (exception instanceof StatusRuntimeException) {
+			return (StatusRuntimeException) exception;
+		}
+		Status status;
+		if (exception instanceof SnapshotNotFoundException || exception instanceof ConfigNotFoundException
+				|| exception instanceof NodeNotFoundException) {
+			status = Status.NOT_FOUND;
+		} else if (exception instanceof IllegalArgumentException) {
+			status = Status.INVALID_ARGUMENT;
+		} else if (exception instanceof AdmissionRejectedException) {
+			status = Status.RESOURCE_EXHAUSTED;
+		} else {
+			logger.error("Failed to process gRPC call", exception);
+			status = Status.INTERNAL;
+		}
+		return status.withDescription(exception.getMessage()).asRuntimeException();
+	}
+}
@@ -0,0 +1,154 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.grpc.impl;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.esss.ics.masar.grpc.proto.DoubleArray;
+import se.esss.ics.masar.grpc.proto.FolderContent;
+import se.esss.ics.masar.grpc.proto.LongArray;
+import se.esss.ics.masar.grpc.proto.NodeHeader;
+import se.esss.ics.masar.grpc.proto.PvValue;
+import se.esss.ics.masar.grpc.proto.SnapshotHeader;
+import se.esss.ics.masar.grpc.proto.StringArray;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.model.NodeType;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * Converts model objects to the messages defined in <code>masar.proto</code>. Unset strings and times are
+ * represented by the protobuf default values, i.e. empty strings and zero.
+ */
+public class ProtoConverter {
+
+	private ObjectMapper objectMapper;
+
+	public ProtoConverter(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	public NodeHeader toNodeHeader(Node node) {
+		return NodeHeader.newBuilder().setId(node.getId()).setName(nullToEmpty(node.getName()))
+				.setType(NodeType.CONFIGURATION.equals(node.getNodeType()) ? NodeHeader.Type.CONFIGURATION
+						: NodeHeader.Type.FOLDER)
+				.setCreated(toMillis(node.getCreated())).setLastModified(toMillis(node.getLastModified())).build();
+	}
+
+	public FolderContent toFolderContent(Folder folder) {
+		FolderContent.Builder builder = FolderContent.newBuilder().setNode(toNodeHeader(folder));
+		if (folder.getParent() != null) {
+			builder.setParent(toNodeHeader(folder.getParent()));
+		}
+		if (folder.getChildNodes() != null) {
+			for (Node childNode : folder.getChildNodes()) {
+				builder.addChildNodes(toNodeHeader(childNode));
+			}
+		}
+		return builder.build();
+	}
+
+	public SnapshotHeader toSnapshotHeader(Snapshot snapshot) {
+		return SnapshotHeader.newBuilder().setId(snapshot.getId()).setConfigId(snapshot.getConfigId())
+				.setCreated(toMillis(snapshot.getCreated())).setUserName(nullToEmpty(snapshot.getUserName()))
+				.setComment(nullToEmpty(snapshot.getComment())).setApprove(snapshot.isApprove()).build();
+	}
+
+	public PvValue toPvValue(SnapshotPv<?> snapshotPv) {
+		PvValue.Builder builder = PvValue.newBuilder().setDtype(snapshotPv.getDtype())
+				.setSeverity(snapshotPv.getSeverity()).setStatus(snapshotPv.getStatus()).setTime(snapshotPv.getTime())
+				.setTimens(snapshotPv.getTimens()).setFetchStatus(snapshotPv.isFetchStatus());
+		ConfigPv configPv = snapshotPv.getConfigPv();
+		if (configPv != null) {
+			builder.setConfigPvId(configPv.getId()).setPvName(nullToEmpty(configPv.getPvName()))
+					.setGroupName(nullToEmpty(configPv.getGroupname())).setTags(nullToEmpty(configPv.getTags()))
+					.setReadonly(configPv.isReadonly());
+		}
+		setValue(builder, snapshotPv.getValue());
+		return builder.build();
+	}
+
+	private void setValue(PvValue.Builder builder, Object value) {
+		if (value == null) {
+			return;
+		}
+		if (value instanceof Double || value instanceof Float) {
+			builder.setDoubleValue(((Number) value).doubleValue());
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			builder.setLongValue(((Number) value).longValue());
+		} else if (value instanceof String) {
+			builder.setStringValue((String) value);
+		} else if (value instanceof double[]) {
+			DoubleArray.Builder array = DoubleArray.newBuilder();
+			for (double element : (double[]) value) {
+				array.addValues(element);
+			}
+			builder.setDoubleArray(array);
+		} else if (value instanceof float[]) {
+			DoubleArray.Builder array = DoubleArray.newBuilder();
+			for (float element : (float[]) value) {
+				array.addValues(element);
+			}
+			builder.setDoubleArray(array);
+		} else if (value instanceof long[]) {
+			LongArray.Builder array = LongArray.newBuilder();
+			for (long element : (long[]) value) {
+				array.addValues(element);
+			}
+			builder.setLongArray(array);
+		} else if (value instanceof int[]) {
+			LongArray.Builder array = LongArray.newBuilder();
+			for (int element : (int[]) value) {
+				array.addValues(element);
+			}
+			builder.setLongArray(array);
+		} else if (value instanceof short[]) {
+			LongArray.Builder array = LongArray.newBuilder();
+			for (short element : (short[]) value) {
+				array.addValues(element);
+			}
+			builder.setLongArray(array);
+		} else if (value instanceof String[]) {
+			StringArray.Builder array = StringArray.newBuilder();
+			for (String element : (String[]) value) {
+				array.addValues(nullToEmpty(element));
+			}
+			builder.setStringArray(array);
+		} else {
+			try {
+				builder.setJsonValue(objectMapper.writeValueAsString(value));
+			} catch (JsonProcessingException e) {
+				throw new IllegalStateException("Unable to encode value of type " + value.getClass().getName(), e);
+			}
+		}
+	}
+
+	private static long toMillis(Date date) {
+		return date == null ? 0 : date.getTime();
+	}
+
+	private static String nullToEmpty(String string) {
+		return string == null ? "" : string;
+	}
+}
@@ -0,0 +1,12 @@
+/**
+ * This package contains a gRPC interface to the service, defined in <code>src/main/proto/masar.proto</code>, for
+ * clients transferring many or large snapshots. It is an alternative to the REST API backed by the same
+ * {@link se.esss.ics.masar.services.IServices} implementation.
+ * 
+ * <p>
+ * See {@link se.esss.ics.masar.grpc.config.GrpcConfiguration} for information on how to enable the server.
+ * </p>
+ * 
+ */
+
+package se.esss.ics.masar.grpc;
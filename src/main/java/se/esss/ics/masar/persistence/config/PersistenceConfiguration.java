@@ -19,6 +19,7 @@ package se.esss.ics.masar.persistence.config;
 
 import javax.sql.DataSource;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
@@ -31,6 +32,11 @@ import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zaxxer.hikari.HikariDataSource;
 
+import se.esss.ics.masar.persistence.dao.TreeStore;
+import se.esss.ics.masar.persistence.dao.impl.ClosureTableTreeStore;
+import se.esss.ics.masar.persistence.dao.impl.MaterializedPathTreeStore;
+import se.esss.ics.masar.persistence.dao.impl.NodeTreeIndex;
+
 @Configuration
 @PropertySource("classpath:/${dbengine}.properties")
 public class PersistenceConfiguration {
@@ -84,6 +90,20 @@ public class PersistenceConfiguration {
 		return new SimpleJdbcInsert(dataSource).withTableName("userName").usingGeneratedKeyColumns("id");
 	}
 
+	@Bean
+	public SimpleJdbcInsert snapshotScheduleInsert() {
+		DataSource dataSource = dataSource();
+
+		return new SimpleJdbcInsert(dataSource).withTableName("snapshot_schedule").usingGeneratedKeyColumns("id");
+	}
+
+	@Bean
+	public SimpleJdbcInsert snapshotTriggerInsert() {
+		DataSource dataSource = dataSource();
+
+		return new SimpleJdbcInsert(dataSource).withTableName("snapshot_trigger").usingGeneratedKeyColumns("id");
+	}
+
 	@Bean
 	public JdbcTemplate jdbcTemplate() {
 		DataSource dataSource = dataSource();
@@ -105,4 +125,32 @@ public class PersistenceConfiguration {
 		return new SimpleJdbcInsert(dataSource()).withTableName("node_closure");
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Closure table storage of the node tree, the default.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "masar.tree-store", havingValue = "closure", matchIfMissing = true)
+	public TreeStore closureTableTreeStore() {
+		return new ClosureTableTreeStore();
+	}
+
+	/**
+	 * Materialized path storage of the node tree, enabled with masar.tree-store=path.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "masar.tree-store", havingValue = "path")
+	public TreeStore materializedPathTreeStore() {
+		return new MaterializedPathTreeStore();
+	}
+
+	/**
+	 * In-memory index of the node tree, enabled with masar.tree-index.enabled=true. Must
+	 * only be enabled when a single service instance writes to the database.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "masar.tree-index.enabled", havingValue = "true")
+	public NodeTreeIndex nodeTreeIndex() {
+		return new NodeTreeIndex();
+	}
+
+}
@@ -1,5 +1,8 @@
 package se.esss.ics.masar.persistence.dao;
 
+import java.util.Date;
+import java.util.List;
+
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.Folder;
 import se.esss.ics.masar.model.Node;
@@ -35,6 +38,34 @@ public interface ConfigDAO {
 	 */
 	public Folder getFolder(int nodeId);
 	
+	/**
+	 * Retrieves a folder and its entire sub-tree down to the specified depth. Child nodes are
+	 * nested {@link Folder} and {@link Config} objects.
+	 * @param nodeId The node id of the folder. If there is no folder corresponding to the node id, 
+	 * a {@link se.esss.ics.masar.services.exception.NodeNotFoundException} is thrown.
+	 * @param depth The maximum depth relative to the folder. 0 returns only the folder, 1 the folder and its child nodes etc.
+	 * @param includePvs If <code>true</code>, the PV lists of the configurations in the sub-tree are loaded.
+	 * @return A {@link Folder} object.
+	 */
+	public Folder getFolderTree(int nodeId, int depth, boolean includePvs);
+	
+	/**
+	 * Computes the version of a node as returned by {@link #getFolder(int)} or {@link #getConfiguration(int)},
+	 * i.e. including its parent and child nodes, without loading it.
+	 * @param nodeId The node id.
+	 * @return A {@link NodeVersion} object, or <code>null</code> if there is no node corresponding to the node id.
+	 */
+	public NodeVersion getNodeVersion(int nodeId);
+	
+	/**
+	 * Computes the version of a sub-tree as returned by {@link #getFolderTree(int, int, boolean)} without 
+	 * loading it.
+	 * @param nodeId The node id of the root of the sub-tree.
+	 * @param depth The maximum depth relative to the root of the sub-tree.
+	 * @return A {@link NodeVersion} object, or <code>null</code> if there is no node corresponding to the node id.
+	 */
+	public NodeVersion getFolderTreeVersion(int nodeId, int depth);
+	
 	/**
 	 * Retrieves a configuration identified by the node id. 
 	 * @param nodeId If there is no node corresponding to the node id, an {@link IllegalArgumentException} is thrown.
@@ -52,6 +83,18 @@ public interface ConfigDAO {
 	 * @return The database id of the new snapshot.
 	 */
 	public Snapshot savePreliminarySnapshot(Snapshot snapshot);
+	
+	/**
+	 * Saves several preliminary snapshots in one transaction, all with the same creation time.
+	 * 
+	 * @param snapshots
+	 *            The {@link Snapshot} objects to save together with the data read
+	 *            from the PVs
+	 * @param created
+	 *            The creation time of all snapshots
+	 * @return The new snapshots, in the order of the argument.
+	 */
+	public List<Snapshot> savePreliminarySnapshots(List<Snapshot> snapshots, Date created);
 
 	/**
 	 * Deletes a {@link Node}, folder or configuration. If the node is a folder, 
@@ -60,8 +103,9 @@ public interface ConfigDAO {
 	 * 
 	 * @param nodeId
 	 *            The node id node to delete.
+	 * @return The ids of the deleted configurations, i.e. the node itself or the configurations in its sub-tree.
 	 */
-	public void deleteNode(int nodeId);
+	public List<Integer> deleteNode(int nodeId);
 
 	public Folder moveNode(int nodeId, int targetNodeId);
 
@@ -76,8 +120,27 @@ public interface ConfigDAO {
 	 * Renames an existing node.
 	 * @param nodeId The node id of the node subject to change. The root folder's name cannot be changed.
 	 * @param name The new name of the node. The name and node type must be unique in the parent folder.
-	 * @return The updated {@link Node} object.
+	 * @return The updated {@link Node} object, i.e. a {@link Folder} with its child nodes or a {@link Config} with
+	 * its PVs, as returned by the REST API.
 	 */
 	public Node renameNode(int nodeId, String name);
+	
+	/**
+	 * Resolves a slash-separated path of node names, e.g. "/Linac/RF/Cavity-3", starting from the root folder. 
+	 * All but the last path element must be folder names.
+	 * @param path The path. Empty path elements are ignored, i.e. "/" and "" resolve to the root folder.
+	 * @return The {@link Node} objects (without parent and child nodes) matching the path. Since a folder and 
+	 * a configuration in the same parent folder may have the same name, at most two nodes are returned.
+	 * If no node matches the path, a {@link se.esss.ics.masar.services.exception.NodeNotFoundException} is thrown.
+	 */
+	public List<Node> getNodesByPath(String path);
+	
+	/**
+	 * Retrieves the path from the root folder to a node.
+	 * @param nodeId The node id. If there is no node corresponding to the node id, 
+	 * a {@link se.esss.ics.masar.services.exception.NodeNotFoundException} is thrown.
+	 * @return The list of {@link Node} objects from the root folder to the node, both included.
+	 */
+	public List<Node> getNodePath(int nodeId);
 
 }
@@ -0,0 +1,100 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Committed snapshot of a configuration against which the live values of its PVs are compared. A PV has drifted
+ * when its value deviates from the value in the snapshot by more than its tolerance.
+ */
+public class DriftReference {
+
+	private int configId;
+	private int snapshotId;
+	private double defaultTolerance;
+	private Map<String, Double> tolerances = new HashMap<>();
+	private Date created;
+
+	/**
+	 * @return The node id of the configuration.
+	 */
+	public int getConfigId() {
+		return configId;
+	}
+
+	public void setConfigId(int configId) {
+		this.configId = configId;
+	}
+
+	/**
+	 * @return The id of the reference snapshot.
+	 */
+	public int getSnapshotId() {
+		return snapshotId;
+	}
+
+	public void setSnapshotId(int snapshotId) {
+		this.snapshotId = snapshotId;
+	}
+
+	/**
+	 * @return The tolerance of PVs without a tolerance of their own, 0 by default.
+	 */
+	public double getDefaultTolerance() {
+		return defaultTolerance;
+	}
+
+	public void setDefaultTolerance(double defaultTolerance) {
+		this.defaultTolerance = defaultTolerance;
+	}
+
+	/**
+	 * @return The tolerances of individual PVs by PV name. A tolerance is the maximum absolute difference of a
+	 * numeric value, or of each element of a numeric array. Other values must be equal.
+	 */
+	public Map<String, Double> getTolerances() {
+		return tolerances;
+	}
+
+	public void setTolerances(Map<String, Double> tolerances) {
+		this.tolerances = tolerances;
+	}
+
+	/**
+	 * @param pvName A PV name.
+	 * @return The tolerance of the PV.
+	 */
+	public double getTolerance(String pvName) {
+		Double tolerance = tolerances == null ? null : tolerances.get(pvName);
+		return tolerance == null ? defaultTolerance : tolerance;
+	}
+
+	/**
+	 * @return The time the reference was set.
+	 */
+	public Date getCreated() {
+		return created;
+	}
+
+	public void setCreated(Date created) {
+		this.created = created;
+	}
+}
@@ -0,0 +1,50 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.List;
+
+/**
+ * Storage of {@link DriftReference}s, at most one per configuration.
+ */
+public interface DriftReferenceDAO {
+
+	/**
+	 * Sets the reference of a configuration, replacing any previous reference.
+	 * @param reference The reference.
+	 * @return The saved reference, including its creation time.
+	 */
+	public DriftReference setReference(DriftReference reference);
+
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return The reference of the configuration, or <code>null</code> if none is set.
+	 */
+	public DriftReference getReference(int configId);
+
+	/**
+	 * @return The references of all configurations.
+	 */
+	public List<DriftReference> getReferences();
+
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return <code>true</code> if a reference was set.
+	 */
+	public boolean deleteReference(int configId);
+}
@@ -0,0 +1,45 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+
+/**
+ * Storage of the leases electing the single service instance running a task, such as the snapshot scheduler or
+ * the snapshot triggers, when several instances share the database. Leases are created by the database
+ * migrations.
+ */
+public interface LeaseDAO {
+
+	/**
+	 * Acquires or renews a lease. Only one owner holds a lease at any time, until it expires.
+	 * @param name The name of the lease.
+	 * @param owner Identifies the caller.
+	 * @param now The current time.
+	 * @param expires The time the lease expires unless renewed.
+	 * @return <code>true</code> if the caller holds the lease.
+	 */
+	public boolean acquireLease(String name, String owner, Date now, Date expires);
+
+	/**
+	 * Releases a lease held by the caller.
+	 * @param name The name of the lease.
+	 * @param owner Identifies the caller.
+	 */
+	public void releaseLease(String name, String owner);
+}
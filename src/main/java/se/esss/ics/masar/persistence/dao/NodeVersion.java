@@ -0,0 +1,49 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+
+/**
+ * Identifies the state of a part of the node tree, such as a folder and its child nodes, without loading it.
+ * Any change of a node within that part changes the digest, so it can serve as an HTTP entity tag.
+ */
+public class NodeVersion {
+
+	private final String digest;
+	private final Date lastModified;
+
+	public NodeVersion(String digest, Date lastModified) {
+		this.digest = digest;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return A digest of the id, name, type and modification time of all nodes.
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * @return The latest modification time of all nodes.
+	 */
+	public Date getLastModified() {
+		return lastModified;
+	}
+}
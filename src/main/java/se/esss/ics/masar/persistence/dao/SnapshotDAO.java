@@ -18,9 +18,11 @@
 package se.esss.ics.masar.persistence.dao;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
 
 public interface SnapshotDAO {
 
@@ -33,6 +35,14 @@ public interface SnapshotDAO {
 	 */
 	public List<Snapshot> getSnapshots(int configId);
 	
+	/**
+	 * Get a filtered page of committed snapshots for the specified configuration id, newest first.
+	 * @param configId The database id of the configuration see {@link Config#getId()}
+	 * @param query Filter and page specification.
+	 * @return A list of {@link Snapshot} objects, at most {@link SnapshotQuery#getLimit()}.
+	 */
+	public List<Snapshot> getSnapshots(int configId, SnapshotQuery query);
+	
 	/**
 	 * Get a snapshot.
 	 * @param snapshotId The database id of the snapshot, see {@link CommittedSnapshot#getId()}.
@@ -42,6 +52,34 @@ public interface SnapshotDAO {
 	 */
 	public Snapshot getSnapshot(int snapshotId, boolean commitedOnly);
 	
+	/**
+	 * Get a snapshot including only the PVs selected by a filter.
+	 * @param snapshotId The database id of the snapshot.
+	 * @param commitedOnly If <code>true</code>, the snapshot must be a committed one.
+	 * @param filter Selects the PVs to include, and whether their values are read.
+	 * @return A {@link Snapshot} object, or <code>null</code> under the same conditions as
+	 * {@link #getSnapshot(int, boolean)}.
+	 */
+	public Snapshot getSnapshot(int snapshotId, boolean commitedOnly, SnapshotPvFilter filter);
+	
+	/**
+	 * Get a snapshot without its PV values.
+	 * @param snapshotId The database id of the snapshot.
+	 * @param commitedOnly If <code>true</code>, the snapshot must be a committed one.
+	 * @return A {@link Snapshot} object without PV values, or <code>null</code> under the same conditions as
+	 * {@link #getSnapshot(int, boolean)}.
+	 */
+	public Snapshot getSnapshotHeader(int snapshotId, boolean commitedOnly);
+	
+	/**
+	 * Reads the PV values of a snapshot one by one and passes them to a consumer, such that the values never need to
+	 * be held in memory all at once. Should be called in a (read only) transaction, as some JDBC drivers ignore
+	 * the fetch size in auto-commit mode.
+	 * @param snapshotId The database id of the snapshot.
+	 * @param consumer Consumer called once per PV value.
+	 */
+	public void streamSnapshotPvs(int snapshotId, Consumer<SnapshotPv<?>> consumer);
+	
 	/**
 	 * "Saves" the snapshot by adding a user id and non-null comment. 
 	 * @param snapshotId The database id of the snapshot, see {@link CommittedSnapshot#getId()}.
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects a subset of the PVs of a snapshot. All criteria that are set must match for a PV to be selected, and
+ * an empty filter selects all PVs. The criteria are evaluated by the database, such that values of PVs that are
+ * not selected are neither transferred nor decoded.
+ */
+public class SnapshotPvFilter {
+
+	private List<String> pvNames;
+	private String glob;
+	private String regex;
+	private String groupName;
+	private String tag;
+	private boolean valuesIncluded = true;
+
+	/**
+	 * @return Only PVs with one of these names are selected, if not <code>null</code>.
+	 */
+	public List<String> getPvNames() {
+		return pvNames;
+	}
+
+	public void setPvNames(List<String> pvNames) {
+		this.pvNames = pvNames;
+	}
+
+	/**
+	 * @return Only PVs with a name matching this glob pattern are selected, if not <code>null</code>. The
+	 * wildcards are <code>*</code> for any number of characters and <code>?</code> for a single character.
+	 */
+	public String getGlob() {
+		return glob;
+	}
+
+	public void setGlob(String glob) {
+		this.glob = glob;
+	}
+
+	/**
+	 * @return Only PVs with a name containing a match of this regular expression are selected, if not
+	 * <code>null</code>.
+	 */
+	public String getRegex() {
+		return regex;
+	}
+
+	/**
+	 * @param regex A regular expression, or <code>null</code>. The database evaluates the expression, so only the
+	 * syntax common to Java, POSIX and MySQL regular expressions should be relied upon.
+	 * @throws IllegalArgumentException if the expression is invalid.
+	 */
+	public void setRegex(String regex) {
+		if (regex != null) {
+			Pattern.compile(regex);
+		}
+		this.regex = regex;
+	}
+
+	/**
+	 * @return Only PVs of this group are selected, if not <code>null</code>.
+	 */
+	public String getGroupName() {
+		return groupName;
+	}
+
+	public void setGroupName(String groupName) {
+		this.groupName = groupName;
+	}
+
+	/**
+	 * @return Only PVs having this tag in their comma separated list of tags are selected, if not
+	 * <code>null</code>.
+	 */
+	public String getTag() {
+		return tag;
+	}
+
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * @return <code>false</code> if only the PV metadata (name, alarm status, time stamp etc.) is wanted, in which
+	 * case the values are not read from the database and {@link se.esss.ics.masar.model.SnapshotPv#getValue()} is
+	 * <code>null</code>.
+	 */
+	public boolean isValuesIncluded() {
+		return valuesIncluded;
+	}
+
+	public void setValuesIncluded(boolean valuesIncluded) {
+		this.valuesIncluded = valuesIncluded;
+	}
+}
@@ -0,0 +1,150 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Date;
+
+import se.esss.ics.masar.model.Snapshot;
+
+/**
+ * Filter and page specification when listing the snapshots of a configuration. Snapshots are ordered by creation
+ * time and id, newest first. Pages are defined by a cursor, i.e. the position of the last snapshot of the previous
+ * page, such that the cost of retrieving a page does not depend on how many snapshots precede it.
+ */
+public class SnapshotQuery {
+
+	private Date from;
+	private Date to;
+	private String userName;
+	private String comment;
+	private Timestamp cursorCreated;
+	private int cursorId;
+	private Integer limit;
+
+	/**
+	 * @return Only snapshots created at or after this time are included, if not <code>null</code>.
+	 */
+	public Date getFrom() {
+		return from;
+	}
+
+	public void setFrom(Date from) {
+		this.from = from;
+	}
+
+	/**
+	 * @return Only snapshots created before this time are included, if not <code>null</code>.
+	 */
+	public Date getTo() {
+		return to;
+	}
+
+	public void setTo(Date to) {
+		this.to = to;
+	}
+
+	/**
+	 * @return Only snapshots committed by this user are included, if not <code>null</code>.
+	 */
+	public String getUserName() {
+		return userName;
+	}
+
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	/**
+	 * @return Only snapshots with a comment containing this string, ignoring case, are included, if not
+	 * <code>null</code>.
+	 */
+	public String getComment() {
+		return comment;
+	}
+
+	public void setComment(String comment) {
+		this.comment = comment;
+	}
+
+	/**
+	 * @return Creation time of the last snapshot of the previous page, or <code>null</code> for the first page.
+	 */
+	public Timestamp getCursorCreated() {
+		return cursorCreated;
+	}
+
+	/**
+	 * @return Id of the last snapshot of the previous page. Only relevant if {@link #getCursorCreated()} is not
+	 * <code>null</code>.
+	 */
+	public int getCursorId() {
+		return cursorId;
+	}
+
+	/**
+	 * @param cursor A cursor as created by {@link #cursorOf(Snapshot)}, or <code>null</code> for the first page.
+	 * @throws IllegalArgumentException if the cursor is invalid.
+	 */
+	public void setCursor(String cursor) {
+		if (cursor == null) {
+			cursorCreated = null;
+			return;
+		}
+		try {
+			String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("/");
+			cursorCreated = Timestamp.from(Instant.parse(parts[0]));
+			cursorId = Integer.parseInt(parts[1]);
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException | DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid cursor " + cursor);
+		}
+	}
+
+	/**
+	 * @return The maximum number of snapshots to return, <code>null</code> for no limit.
+	 */
+	public Integer getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param limit The maximum number of snapshots to return, <code>null</code> for no limit.
+	 * @throws IllegalArgumentException if the limit is not positive.
+	 */
+	public void setLimit(Integer limit) {
+		if (limit != null && limit <= 0) {
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * @param snapshot The last snapshot of a page.
+	 * @return An opaque cursor selecting the page following the snapshot.
+	 */
+	public static String cursorOf(Snapshot snapshot) {
+		// For a java.sql.Timestamp, toInstant() keeps the sub-millisecond part of the creation time
+		Instant created = snapshot.getCreated().toInstant();
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((created + "/" + snapshot.getId()).getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,143 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+
+/**
+ * Schedule of snapshots of a configuration taken and committed by the service.
+ */
+public class SnapshotSchedule {
+
+	private int id;
+	private int configId;
+	private String cron;
+	private String userName;
+	private String commentTemplate;
+	private boolean enabled = true;
+	private Date nextRun;
+	private Date lastRun;
+	private Integer lastSnapshotId;
+	private String lastError;
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return The node id of the configuration.
+	 */
+	public int getConfigId() {
+		return configId;
+	}
+
+	public void setConfigId(int configId) {
+		this.configId = configId;
+	}
+
+	/**
+	 * @return Cron expression of six fields, the first being the second, e.g. <code>0 0 6 * * MON-FRI</code>.
+	 * Evaluated in the time zone of the service.
+	 */
+	public String getCron() {
+		return cron;
+	}
+
+	public void setCron(String cron) {
+		this.cron = cron;
+	}
+
+	/**
+	 * @return The user name the snapshots are committed with.
+	 */
+	public String getUserName() {
+		return userName;
+	}
+
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	/**
+	 * @return The comment the snapshots are committed with, in which <code>{time}</code> is replaced by the time
+	 * of the run, <code>{config}</code> by the configuration id and <code>{schedule}</code> by the schedule id.
+	 */
+	public String getCommentTemplate() {
+		return commentTemplate;
+	}
+
+	public void setCommentTemplate(String commentTemplate) {
+		this.commentTemplate = commentTemplate;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return The time of the next run, set by the service.
+	 */
+	public Date getNextRun() {
+		return nextRun;
+	}
+
+	public void setNextRun(Date nextRun) {
+		this.nextRun = nextRun;
+	}
+
+	/**
+	 * @return The time the last run started, or <code>null</code> if never run.
+	 */
+	public Date getLastRun() {
+		return lastRun;
+	}
+
+	public void setLastRun(Date lastRun) {
+		this.lastRun = lastRun;
+	}
+
+	/**
+	 * @return The id of the snapshot committed by the last run, or <code>null</code> if it failed.
+	 */
+	public Integer getLastSnapshotId() {
+		return lastSnapshotId;
+	}
+
+	public void setLastSnapshotId(Integer lastSnapshotId) {
+		this.lastSnapshotId = lastSnapshotId;
+	}
+
+	/**
+	 * @return The reason the last run failed, or <code>null</code>.
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+}
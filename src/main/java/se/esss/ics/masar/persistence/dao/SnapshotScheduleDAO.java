@@ -0,0 +1,78 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Storage of {@link SnapshotSchedule}s. The service instance running them is elected with a lease, see
+ * {@link LeaseDAO}.
+ */
+public interface SnapshotScheduleDAO {
+
+	/**
+	 * @param schedule The schedule to save.
+	 * @return The saved schedule, including its id.
+	 */
+	public SnapshotSchedule createSchedule(SnapshotSchedule schedule);
+
+	/**
+	 * @param scheduleId The id of a schedule.
+	 * @return The schedule, or <code>null</code> if it does not exist.
+	 */
+	public SnapshotSchedule getSchedule(int scheduleId);
+
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return The schedules of the configuration.
+	 */
+	public List<SnapshotSchedule> getSchedules(int configId);
+
+	/**
+	 * @param scheduleId The id of a schedule.
+	 * @return <code>true</code> if the schedule existed.
+	 */
+	public boolean deleteSchedule(int scheduleId);
+
+	/**
+	 * @param now The current time.
+	 * @return The enabled schedules of which the next run is due.
+	 */
+	public List<SnapshotSchedule> getDueSchedules(Date now);
+
+	/**
+	 * Marks a schedule as running, unless a run is in progress already.
+	 * @param scheduleId The id of a schedule.
+	 * @param now The current time.
+	 * @param staleBefore Runs that started before this time are considered abandoned, e.g. by a stopped service
+	 * instance.
+	 * @return <code>true</code> if the caller may run the schedule.
+	 */
+	public boolean claimRun(int scheduleId, Date now, Date staleBefore);
+
+	/**
+	 * Records the outcome of a run claimed by {@link #claimRun(int, Date, Date)}.
+	 * @param scheduleId The id of the schedule.
+	 * @param lastRun The time the run started.
+	 * @param nextRun The time of the next run.
+	 * @param snapshotId The id of the committed snapshot, or <code>null</code> if the run failed.
+	 * @param error The reason of failure, or <code>null</code>.
+	 */
+	public void finishRun(int scheduleId, Date lastRun, Date nextRun, Integer snapshotId, String error);
+}
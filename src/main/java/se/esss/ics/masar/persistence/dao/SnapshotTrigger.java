@@ -0,0 +1,221 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+
+/**
+ * Trigger of snapshots of a configuration taken and committed by the service when a monitored PV meets a
+ * condition. The PV is either the one named, or any PV of the configuration in the named group.
+ */
+public class SnapshotTrigger {
+
+	public enum Condition {
+		/**
+		 * The value of the PV changes.
+		 */
+		CHANGES,
+		/**
+		 * The value of the PV changes to the value of the trigger.
+		 */
+		EQUALS,
+		/**
+		 * The alarm severity of the PV rises to at least the minimum severity of the trigger.
+		 */
+		SEVERITY
+	}
+
+	private int id;
+	private int configId;
+	private String pvName;
+	private String groupName;
+	private Condition condition;
+	private String value;
+	private int minSeverity = 2;
+	private long debounceMillis;
+	private long minIntervalSeconds = 60;
+	private String userName;
+	private String commentTemplate;
+	private boolean enabled = true;
+	private Date lastFired;
+	private Integer lastSnapshotId;
+	private String lastError;
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return The node id of the configuration.
+	 */
+	public int getConfigId() {
+		return configId;
+	}
+
+	public void setConfigId(int configId) {
+		this.configId = configId;
+	}
+
+	/**
+	 * @return The name of the monitored PV, which need not be part of the configuration, or <code>null</code> if
+	 * the PVs of a group are monitored.
+	 */
+	public String getPvName() {
+		return pvName;
+	}
+
+	public void setPvName(String pvName) {
+		this.pvName = pvName;
+	}
+
+	/**
+	 * @return The group of the PVs of the configuration that are monitored, or <code>null</code> if a single
+	 * PV is monitored.
+	 */
+	public String getGroupName() {
+		return groupName;
+	}
+
+	public void setGroupName(String groupName) {
+		this.groupName = groupName;
+	}
+
+	public Condition getCondition() {
+		return condition;
+	}
+
+	public void setCondition(Condition condition) {
+		this.condition = condition;
+	}
+
+	/**
+	 * @return The value of an {@link Condition#EQUALS} condition. Numeric values are compared as numbers, other
+	 * values as strings.
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	public void setValue(String value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return The severity of a {@link Condition#SEVERITY} condition: 1 (MINOR), 2 (MAJOR, the default) or 3
+	 * (INVALID).
+	 */
+	public int getMinSeverity() {
+		return minSeverity;
+	}
+
+	public void setMinSeverity(int minSeverity) {
+		this.minSeverity = minSeverity;
+	}
+
+	/**
+	 * @return Time in milliseconds the condition must hold before a snapshot is taken. For a
+	 * {@link Condition#CHANGES} condition, changes within this time after the first one are ignored.
+	 */
+	public long getDebounceMillis() {
+		return debounceMillis;
+	}
+
+	public void setDebounceMillis(long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * @return Minimum time in seconds between two snapshots of the trigger. Events within this time are ignored.
+	 */
+	public long getMinIntervalSeconds() {
+		return minIntervalSeconds;
+	}
+
+	public void setMinIntervalSeconds(long minIntervalSeconds) {
+		this.minIntervalSeconds = minIntervalSeconds;
+	}
+
+	/**
+	 * @return The user name the snapshots are committed with.
+	 */
+	public String getUserName() {
+		return userName;
+	}
+
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	/**
+	 * @return The comment the snapshots are committed with, in which <code>{time}</code> is replaced by the time
+	 * of the event, <code>{pv}</code> and <code>{value}</code> by the PV meeting the condition and its value,
+	 * <code>{config}</code> by the configuration id and <code>{trigger}</code> by the trigger id.
+	 */
+	public String getCommentTemplate() {
+		return commentTemplate;
+	}
+
+	public void setCommentTemplate(String commentTemplate) {
+		this.commentTemplate = commentTemplate;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return The time of the last event that took a snapshot, or <code>null</code> if never fired.
+	 */
+	public Date getLastFired() {
+		return lastFired;
+	}
+
+	public void setLastFired(Date lastFired) {
+		this.lastFired = lastFired;
+	}
+
+	/**
+	 * @return The id of the snapshot committed at the last event, or <code>null</code> if it failed.
+	 */
+	public Integer getLastSnapshotId() {
+		return lastSnapshotId;
+	}
+
+	public void setLastSnapshotId(Integer lastSnapshotId) {
+		this.lastSnapshotId = lastSnapshotId;
+	}
+
+	/**
+	 * @return The reason the last snapshot failed, or <code>null</code>.
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+}
@@ -0,0 +1,65 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Storage of {@link SnapshotTrigger}s.
+ */
+public interface SnapshotTriggerDAO {
+
+	/**
+	 * @param trigger The trigger to save.
+	 * @return The saved trigger, including its id.
+	 */
+	public SnapshotTrigger createTrigger(SnapshotTrigger trigger);
+
+	/**
+	 * @param triggerId The id of a trigger.
+	 * @return The trigger, or <code>null</code> if it does not exist.
+	 */
+	public SnapshotTrigger getTrigger(int triggerId);
+
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return The triggers of the configuration.
+	 */
+	public List<SnapshotTrigger> getTriggers(int configId);
+
+	/**
+	 * @return The enabled triggers of all configurations.
+	 */
+	public List<SnapshotTrigger> getEnabledTriggers();
+
+	/**
+	 * @param triggerId The id of a trigger.
+	 * @return <code>true</code> if the trigger existed.
+	 */
+	public boolean deleteTrigger(int triggerId);
+
+	/**
+	 * Records the outcome of a snapshot taken by a trigger.
+	 * @param triggerId The id of the trigger.
+	 * @param fired The time of the event.
+	 * @param snapshotId The id of the committed snapshot, or <code>null</code> if it failed.
+	 * @param error The reason of failure, or <code>null</code>.
+	 */
+	public void triggerFired(int triggerId, Date fired, Integer snapshotId, String error);
+}
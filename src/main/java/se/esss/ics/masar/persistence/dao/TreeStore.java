@@ -0,0 +1,77 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import se.esss.ics.masar.model.Node;
+
+/**
+ * Storage of the hierarchical structure of the node tree. The <code>node</code> table
+ * holds the node data and the id of the parent node, while an implementation of this interface
+ * maintains whatever additional structure it needs to answer ancestor and sub-tree queries efficiently.
+ * 
+ * Implementations must be called in the same transaction as the change of the <code>node</code> table. 
+ * Only the structure of the configured implementation is maintained, so it is rebuilt at startup in case the
+ * database was previously used with another implementation.
+ */
+public interface TreeStore {
+
+	/**
+	 * Adds a node to the tree structure. The node must already exist in the <code>node</code> table.
+	 * @param nodeId The id of the new node.
+	 * @param parentId The id of the parent node.
+	 */
+	public void insertNode(int nodeId, int parentId);
+	
+	/**
+	 * Moves a node and its sub-tree to a new parent node.
+	 * @param nodeId The id of the node to move.
+	 * @param targetNodeId The id of the new parent node.
+	 */
+	public void moveNode(int nodeId, int targetNodeId);
+	
+	/**
+	 * Retrieves the path of a node.
+	 * @param nodeId The id of a node.
+	 * @return The list of nodes from the root node to the specified node, both inclusive. An empty list is
+	 * returned if the node does not exist.
+	 */
+	public List<Node> getNodePath(int nodeId);
+	
+	/**
+	 * Queries all nodes of a sub-tree, the root of the sub-tree included, down to a maximum depth. The rows are
+	 * ordered such that parent nodes precede their child nodes.
+	 * @param nodeId The id of the root node of the sub-tree.
+	 * @param depth The maximum depth relative to the root node of the sub-tree.
+	 * @param columns The select list, where the nodes of the sub-tree are referenced with the alias <code>n</code>.
+	 * @param joins Join clauses, may reference the nodes of the sub-tree with alias <code>n</code>.
+	 * @param extractor Extractor processing the rows.
+	 * @return The result of the extractor.
+	 */
+	public <T> T querySubTree(int nodeId, int depth, String columns, String joins, ResultSetExtractor<T> extractor);
+
+	/**
+	 * Brings the tree structure in line with the parent ids of the <code>node</code> table, adding the nodes
+	 * created and moving the nodes moved while another implementation was in use.
+	 * @return The number of rows changed, 0 if the structure was up to date.
+	 */
+	public int rebuild();
+}
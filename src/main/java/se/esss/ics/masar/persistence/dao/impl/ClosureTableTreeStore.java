@@ -0,0 +1,126 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.persistence.dao.TreeStore;
+
+/**
+ * {@link TreeStore} maintaining a closure table, i.e. one row in <code>node_closure</code> per
+ * (ancestor, descendant) pair including the node itself at depth 0.
+ * 
+ * Sub-tree and ancestor queries are single index lookups, at the cost of O(depth) rows per node. Moving a node
+ * rewrites O(size of sub-tree x number of ancestors) rows.
+ */
+public class ClosureTableTreeStore implements TreeStore {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Logger logger = LoggerFactory.getLogger(ClosureTableTreeStore.class);
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		int count = rebuild();
+		if (count > 0) {
+			logger.warn("Rebuilt the closure table of the node tree, {} rows changed", count);
+		}
+	}
+
+	@Override
+	public void insertNode(int nodeId, int parentId) {
+
+		jdbcTemplate.update(
+				"insert into node_closure (ancestor, descendant, depth) " + "select t.ancestor, " + nodeId
+						+ ", t.depth + 1  from node_closure as t where t.descendant = ? union all select ?, ?, 0",
+				parentId, nodeId, nodeId);
+	}
+
+	@Override
+	public void moveNode(int nodeId, int targetNodeId) {
+
+		jdbcTemplate.update("delete from node_closure where "
+				+ "descendant in (select descendant from node_closure where ancestor=?) "
+				+ "and ancestor in (select ancestor from node_closure where descendant=? and ancestor != descendant)",
+				nodeId, nodeId);
+
+		jdbcTemplate.update("insert into node_closure (ancestor, descendant, depth) "
+				+ "select supertree.ancestor, subtree.descendant, supertree.depth + subtree.depth + 1 AS depth "
+				+ "from node_closure as supertree " + "cross join node_closure as subtree "
+				+ "where supertree.descendant=? and subtree.ancestor=?", targetNodeId, nodeId);
+	}
+
+	@Override
+	public List<Node> getNodePath(int nodeId) {
+
+		return jdbcTemplate.query(
+				"select n.* from node_closure as nc join node as n on n.id=nc.ancestor where nc.descendant=? order by nc.depth desc",
+				new Object[] { nodeId }, new NodeRowMapper());
+	}
+
+	@Override
+	public <T> T querySubTree(int nodeId, int depth, String columns, String joins, ResultSetExtractor<T> extractor) {
+
+		return jdbcTemplate.query("select " + columns + " from node_closure as nc join node as n on n.id=nc.descendant "
+				+ joins + " where nc.ancestor=? and nc.depth<=? order by nc.depth", new Object[] { nodeId, depth },
+				extractor);
+	}
+
+	@Override
+	public int rebuild() {
+
+		Set<List<Integer>> expected = new HashSet<>();
+		NodePaths.load(jdbcTemplate).forEach((nodeId, path) -> {
+			for (int i = 0; i < path.size(); i++) {
+				expected.add(Arrays.asList(path.get(i), nodeId, path.size() - 1 - i));
+			}
+		});
+		Set<List<Integer>> existing = new HashSet<>(jdbcTemplate.query(
+				"select ancestor, descendant, depth from node_closure",
+				(resultSet, rowNum) -> Arrays.asList(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3))));
+
+		// Stale rows are deleted first, as a row of the wrong depth has the same key as its replacement
+		List<Object[]> stale = existing.stream().filter(row -> !expected.contains(row))
+				.map(row -> new Object[] { row.get(0), row.get(1) }).collect(Collectors.toList());
+		List<Object[]> missing = new ArrayList<>();
+		expected.stream().filter(row -> !existing.contains(row)).forEach(row -> missing.add(row.toArray()));
+		if (!stale.isEmpty()) {
+			jdbcTemplate.batchUpdate("delete from node_closure where ancestor=? and descendant=?", stale);
+		}
+		if (!missing.isEmpty()) {
+			jdbcTemplate.batchUpdate("insert into node_closure (ancestor, descendant, depth) values (?, ?, ?)", missing);
+		}
+		return stale.size() + missing.size();
+	}
+}
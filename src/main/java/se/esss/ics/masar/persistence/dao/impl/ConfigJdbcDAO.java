@@ -19,7 +19,10 @@ package se.esss.ics.masar.persistence.dao.impl;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +32,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.transaction.annotation.Transactional;
@@ -44,7 +48,9 @@ import se.esss.ics.masar.model.NodeType;
 import se.esss.ics.masar.model.Snapshot;
 import se.esss.ics.masar.model.SnapshotPv;
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.NodeVersion;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.TreeStore;
 import se.esss.ics.masar.services.exception.NodeNotFoundException;
 
 public class ConfigJdbcDAO implements ConfigDAO {
@@ -76,25 +82,70 @@ public class ConfigJdbcDAO implements ConfigDAO {
 	@Autowired
 	private JdbcTemplate jdbcTemplate;
 
+	@Autowired
+	private TreeStore treeStore;
+
+	/**
+	 * Optional in-memory index of the node tree. If present, folder, parent and child node lookups are
+	 * served from the index rather than the database.
+	 */
+	@Autowired(required = false)
+	private NodeTreeIndex nodeTreeIndex;
+
 	private Logger logger = LoggerFactory.getLogger(ConfigJdbcDAO.class);
 
+	private static final String NODE_COLUMNS = "n.id, n.name, n.type, n.created, n.last_modified, c.description, c._system, c.active";
+
+	/**
+	 * Selects a node, its parent and its child nodes in one round trip. The relation column
+	 * is interpreted by {@link NodeWithRelativesExtractor}.
+	 */
+	private static final String NODE_WITH_RELATIVES_QUERY = 
+			"select " + NODE_COLUMNS + ", " + NodeWithRelativesExtractor.SELF + " as relation "
+			+ "from node as n left join config as c on n.id=c.node_id where n.id=? "
+			+ "union all "
+			+ "select " + NODE_COLUMNS + ", " + NodeWithRelativesExtractor.PARENT + " as relation "
+			+ "from node as child join node as n on n.id=child.parent_id left join config as c on n.id=c.node_id "
+			+ "where child.id=? "
+			+ "union all "
+			+ "select " + NODE_COLUMNS + ", " + NodeWithRelativesExtractor.CHILD + " as relation "
+			+ "from node as n left join config as c on n.id=c.node_id where n.parent_id=?";
+
+
+	/**
+	 * Selects the columns needed by {@link NodeVersionExtractor} for a node, its parent and its child nodes. 
+	 */
+	private static final String NODE_VERSION_QUERY =
+			"select n.id, n.name, n.type, n.last_modified from node as n where n.id=? "
+			+ "union all "
+			+ "select n.id, n.name, n.type, n.last_modified from node as child join node as n on n.id=child.parent_id "
+			+ "where child.id=? "
+			+ "union all "
+			+ "select n.id, n.name, n.type, n.last_modified from node as n where n.parent_id=?";
+
 	@Transactional
 	@Override
 	public Folder createFolder(final Folder folder) {
 
 		Node newNode = newNode(folder);
 
-		return getFolder(newNode.getId());
+		return toFolder(getNode(newNode.getId()));
 	}
 
 	@Transactional
 	@Override
 	public Folder getFolder(int nodeId) {
-		Node node = getNode(nodeId);
+		if (nodeTreeIndex != null) {
+			return nodeTreeIndex.getFolder(nodeId);
+		}
+		return toFolder(getNode(nodeId));
+	}
+
+	private Folder toFolder(Node node) {
 		if (node instanceof Folder) {
 			return (Folder) node;
 		} else {
-			throw new NodeNotFoundException(String.format("Node id=%d is not a folder node", nodeId));
+			throw new NodeNotFoundException(String.format("Node id=%d is not a folder node", node.getId()));
 		}
 	}
 
@@ -111,16 +162,21 @@ public class ConfigJdbcDAO implements ConfigDAO {
 
 	}
 
-	private Node getParentNode(int nodeId) {
+	@Override
+	public NodeVersion getNodeVersion(int nodeId) {
+		return jdbcTemplate.query(NODE_VERSION_QUERY, new Object[] { nodeId, nodeId, nodeId },
+				new NodeVersionExtractor());
+	}
 
-		try {
-			int parentNodeId = jdbcTemplate.queryForObject(
-					"select ancestor from node_closure where descendant=? and depth=1", new Object[] { nodeId },
-					Integer.class);
-			return getNodeInternal(parentNodeId);
-		} catch (DataAccessException e) {
-			return null;
+	@Override
+	public NodeVersion getFolderTreeVersion(int nodeId, int depth) {
+
+		if (depth < 0) {
+			throw new IllegalArgumentException("Depth of folder tree must not be negative");
 		}
+
+		return treeStore.querySubTree(nodeId, depth, "n.id, n.name, n.type, n.last_modified", "",
+				new NodeVersionExtractor());
 	}
 
 	private Node newNode(final Node node) {
@@ -129,60 +185,230 @@ public class ConfigJdbcDAO implements ConfigDAO {
 			throw new IllegalArgumentException("Cannot create a node without a parent.");
 		}
 
-		Node parent = getNodeInternal(node.getParent().getId());
-
-		// The node to be created cannot have same name and type as any of the parent's
-		// child nodes
+		int parentId = node.getParent().getId();
 
-		List<Node> childNodes = getChildNodes(parent.getId());
-		if (doesNameClash(node, childNodes)) {
-			throw new IllegalArgumentException("Node of same name and type already exists in parent node.");
-		}
+		// Throws NodeNotFoundException if parent does not exist
+		getNodeHeader(parentId);
 	
 		Timestamp now = Timestamp.from(Instant.now());
 
-		Map<String, Object> params = new HashMap<>(2);
+		Map<String, Object> params = new HashMap<>(5);
 		params.put("type", node.getNodeType().toString());
 		params.put("created", now);
 		params.put("last_modified", now);
 		params.put("name", node.getName());
+		params.put("parent_id", parentId);
 
-		int newNodeId = nodeInsert.executeAndReturnKey(params).intValue();
+		int newNodeId;
+		try {
+			newNodeId = nodeInsert.executeAndReturnKey(params).intValue();
+		} catch (DuplicateKeyException e) {
+			// The node to be created cannot have same name and type as any of the parent's
+			// child nodes, this is enforced by a unique index on node(parent_id, name, type).
+			throw new IllegalArgumentException("Node of same name and type already exists in parent node.");
+		}
 
-		jdbcTemplate.update(
-				"insert into node_closure (ancestor, descendant, depth) " + "select t.ancestor, " + newNodeId
-						+ ", t.depth + 1  from node_closure as t where t.descendant = ? union all select ?, ?, 0",
-				parent.getId(), newNodeId, newNodeId);
+		treeStore.insertNode(newNodeId, parentId);
 
 		// Update the last modified date of the parent folder
-		jdbcTemplate.update("update node set last_modified=? where id=?", Timestamp.from(Instant.now()), parent.getId());
+		jdbcTemplate.update("update node set last_modified=? where id=?", Timestamp.from(Instant.now()), parentId);
+
+		if (nodeTreeIndex != null) {
+			nodeTreeIndex.nodeCreated(newNodeId, parentId);
+		}
 
 		return getNodeInternal(newNodeId);
 	}
 
-	private Node getNode(int nodeId) {
+	@Transactional
+	@Override
+	public Folder getFolderTree(int nodeId, int depth, boolean includePvs) {
+
+		if (depth < 0) {
+			throw new IllegalArgumentException("Depth of folder tree must not be negative");
+		}
 
-		Node node = getNodeInternal(nodeId);
+		// Rows are ordered such that parent nodes precede their child nodes, as expected by FolderTreeExtractor
+		Node node = treeStore.querySubTree(nodeId, depth, NODE_COLUMNS + ", n.parent_id",
+				"left join config as c on n.id=c.node_id", new FolderTreeExtractor());
 
-		if (node.getNodeType().equals(NodeType.CONFIGURATION)) {
+		if (node == null) {
+			throw new NodeNotFoundException(String.format("Unable to retrieve node id=%d, node not found", nodeId));
+		}
+		if (!(node instanceof Folder)) {
+			throw new NodeNotFoundException(String.format("Node id=%d is not a folder node", nodeId));
+		}
+
+		if (includePvs) {
+			Map<Integer, Config> configs = new HashMap<>();
+			collectConfigs(node, configs);
+			if (!configs.isEmpty()) {
+				setConfigPvs(nodeId, depth, configs);
+			}
+		}
+
+		return (Folder) node;
+	}
+
+	private void collectConfigs(Node node, Map<Integer, Config> configs) {
+		if (node instanceof Config) {
+			configs.put(node.getId(), (Config) node);
+		} else {
+			for (Node childNode : ((Folder) node).getChildNodes()) {
+				collectConfigs(childNode, configs);
+			}
+		}
+	}
+
+	/**
+	 * Loads the PVs of all configurations in a sub-tree in one query and assigns them to the
+	 * configuration objects.
+	 */
+	private void setConfigPvs(int nodeId, int depth, Map<Integer, Config> configs) {
 
-			Config config = jdbcTemplate.queryForObject(
-					"select n.*, c.* from node as n join config as c on n.id=c.node_id where" + " n.id=? and n.type=?",
-					new Object[] { nodeId, NodeType.CONFIGURATION.toString() }, new ConfigRowMapper());
+		Map<Integer, List<ConfigPv>> configPvs = new HashMap<>();
+		for (Integer configId : configs.keySet()) {
+			configPvs.put(configId, new ArrayList<>());
+		}
+
+		ConfigPvRowMapper configPvRowMapper = new ConfigPvRowMapper();
+		treeStore.querySubTree(nodeId, depth, "config_pv.*, config_pv_relation.config_id",
+				"join config_pv_relation on config_pv_relation.config_id=n.id "
+						+ "join config_pv on config_pv.id=config_pv_relation.config_pv_id",
+				resultSet -> {
+					while (resultSet.next()) {
+						configPvs.get(resultSet.getInt("config_id"))
+								.add(configPvRowMapper.mapRow(resultSet, resultSet.getRow()));
+					}
+					return null;
+				});
+
+		for (Config config : configs.values()) {
+			config.setConfigPvList(configPvs.get(config.getId()));
+		}
+	}
 
-			config.setConfigPvList(getConfigPvs(config.getId()));
-			config.setParent(getParentNode(config.getId()));
-			return config;
+	@Override
+	public List<Node> getNodesByPath(String path) {
+
+		List<String> names = new ArrayList<>();
+		for (String name : path.split("/")) {
+			if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+
+		List<Node> nodes;
+		if (nodeTreeIndex != null) {
+			nodes = nodeTreeIndex.getNodesByPath(names);
+		} else if (names.isEmpty()) {
+			nodes = Collections.singletonList(getNodeInternal(Node.ROOT_NODE_ID));
 		} else {
-			return Folder.builder().created(node.getCreated()).lastModified(node.getLastModified()).id(node.getId())
-					.childNodes(getChildNodes(node.getId())).parent(getParentNode(nodeId)).name(node.getName()).build();
+			// Resolve all path elements in one query, each join is a lookup in the unique index on
+			// node(parent_id, name, type)
+			StringBuilder sql = new StringBuilder("select n").append(names.size()).append(".* from node as n0");
+			List<Object> params = new ArrayList<>();
+			for (int i = 1; i <= names.size(); i++) {
+				sql.append(" join node as n").append(i).append(" on n").append(i).append(".parent_id=n").append(i - 1)
+						.append(".id and n").append(i).append(".name=?");
+				params.add(names.get(i - 1));
+				if (i < names.size()) {
+					sql.append(" and n").append(i).append(".type=?");
+					params.add(NodeType.FOLDER.toString());
+				}
+			}
+			sql.append(" where n0.id=?");
+			params.add(Node.ROOT_NODE_ID);
+			nodes = jdbcTemplate.query(sql.toString(), params.toArray(), new NodeRowMapper());
 		}
+
+		if (nodes.isEmpty()) {
+			throw new NodeNotFoundException(String.format("No node found for path %s", path));
+		}
+		return nodes;
+	}
+
+	@Override
+	public List<Node> getNodePath(int nodeId) {
+
+		if (nodeTreeIndex != null) {
+			return nodeTreeIndex.getNodePath(nodeId);
+		}
+
+		List<Node> nodes = treeStore.getNodePath(nodeId);
+
+		if (nodes.isEmpty()) {
+			throw new NodeNotFoundException(String.format("Unable to retrieve node id=%d, node not found", nodeId));
+		}
+		return nodes;
+	}
+
+	/**
+	 * Retrieves a node together with its parent and child nodes in a single query. For configurations the list
+	 * of PVs is loaded in a second query.
+	 * @param nodeId The id of the node to retrieve.
+	 * @return A {@link Folder} or {@link Config} object.
+	 */
+	private Node getNode(int nodeId) {
+
+		Node node = jdbcTemplate.query(NODE_WITH_RELATIVES_QUERY, new Object[] { nodeId, nodeId, nodeId },
+				new NodeWithRelativesExtractor());
+
+		if (node == null) {
+			throw new NodeNotFoundException(String.format("Unable to retrieve node id=%d, node not found", nodeId));
+		}
+
+		if (node instanceof Config) {
+			((Config) node).setConfigPvList(getConfigPvs(nodeId));
+		}
+
+		return node;
+	}
+
+	/**
+	 * Retrieves the header of a node, i.e. id, name, type and dates, but neither PVs nor child nodes. The
+	 * parent of the returned node only holds the parent's node id, or is <code>null</code> for the root folder.
+	 * Structural operations (move, rename, delete) should use this method rather than {@link #getNode(int)}.
+	 * @param nodeId The id of the node to retrieve.
+	 * @return A {@link Node} object.
+	 */
+	private Node getNodeHeader(int nodeId) {
+
+		if (nodeTreeIndex != null) {
+			Node node = nodeTreeIndex.getNode(nodeId);
+			node.setParent(nodeTreeIndex.getParentNode(nodeId));
+			return node;
+		}
+		return readNodeHeader(nodeId);
+	}
+
+	/**
+	 * Same as {@link #getNodeHeader(int)}, but always reads from the database.
+	 */
+	private Node readNodeHeader(int nodeId) {
+
+		NodeRowMapper nodeRowMapper = new NodeRowMapper();
+		List<Node> nodes = jdbcTemplate.query("select * from node where id=?", new Object[] { nodeId },
+				(resultSet, rowIndex) -> {
+					Node node = nodeRowMapper.mapRow(resultSet, rowIndex);
+					int parentId = resultSet.getInt("parent_id");
+					if (!resultSet.wasNull()) {
+						Node parent = new Node();
+						parent.setId(parentId);
+						node.setParent(parent);
+					}
+					return node;
+				});
+
+		if (nodes.isEmpty()) {
+			throw new NodeNotFoundException(String.format("Unable to retrieve node id=%d, node not found", nodeId));
+		}
+		return nodes.get(0);
 	}
 
 	private List<Node> getChildNodes(int nodeId) {
 
-		return jdbcTemplate.query("select n.* from node as n join node_closure as nc on n.id=nc.descendant where "
-				+ "nc.ancestor=? and nc.depth=1", new Object[] { nodeId }, new NodeRowMapper());
+		return jdbcTemplate.query("select * from node where parent_id=?", new Object[] { nodeId }, new NodeRowMapper());
 	}
 
 	@Override
@@ -263,26 +489,32 @@ public class ConfigJdbcDAO implements ConfigDAO {
 	}
 
 	@Override
-	public void deleteNode(int nodeId) {
+	public List<Integer> deleteNode(int nodeId) {
 
 		// Root node may not be deleted
 		if (nodeId == Node.ROOT_NODE_ID) {
-			return;
+			return Collections.emptyList();
 		}
-		Node nodeToDelete = getNode(nodeId);
+		Node nodeToDelete = getNodeHeader(nodeId);
 		Node parentNode = nodeToDelete.getParent();
-		if (nodeToDelete instanceof Config) {
+		List<Integer> deletedConfigIds = new ArrayList<>();
+		if (NodeType.CONFIGURATION.equals(nodeToDelete.getNodeType())) {
 			deleteConfiguration(nodeId);
+			deletedConfigIds.add(nodeId);
 		} else {
-			Folder folderToDelete = (Folder) nodeToDelete;
-			for (Node node : folderToDelete.getChildNodes()) {
-				deleteNode(node.getId());
+			for (Node node : getChildNodes(nodeId)) {
+				deletedConfigIds.addAll(deleteNode(node.getId()));
 			}
 		}
 		jdbcTemplate.update("delete from node where id=?", nodeId);
 
 		// Update last modified date of the parent node
 		jdbcTemplate.update("update node set last_modified=? where id=?", Timestamp.from(Instant.now()), parentNode.getId());
+
+		if (nodeTreeIndex != null) {
+			nodeTreeIndex.nodeDeleted(nodeId, parentNode.getId());
+		}
+		return deletedConfigIds;
 	}
 
 	private void deleteOrphanedPVs(Collection<Integer> pvList) {
@@ -296,12 +528,38 @@ public class ConfigJdbcDAO implements ConfigDAO {
 		}
 	}
 
+	@Transactional
 	@Override
 	public Snapshot savePreliminarySnapshot(Snapshot snapshot) {
 
+		int snapshotId = insertPreliminarySnapshot(snapshot, Timestamp.from(Instant.now()));
+
+		return snapshotDAO.getSnapshot(snapshotId, false);
+
+	}
+
+	@Transactional
+	@Override
+	public List<Snapshot> savePreliminarySnapshots(List<Snapshot> snapshots, Date created) {
+
+		Timestamp timestamp = new Timestamp(created.getTime());
+		List<Integer> snapshotIds = new ArrayList<>(snapshots.size());
+		for (Snapshot snapshot : snapshots) {
+			snapshotIds.add(insertPreliminarySnapshot(snapshot, timestamp));
+		}
+
+		List<Snapshot> savedSnapshots = new ArrayList<>(snapshotIds.size());
+		for (int snapshotId : snapshotIds) {
+			savedSnapshots.add(snapshotDAO.getSnapshot(snapshotId, false));
+		}
+		return savedSnapshots;
+	}
+
+	private int insertPreliminarySnapshot(Snapshot snapshot, Timestamp created) {
+
 		Map<String, Object> snapshotParams = new HashMap<>();
 		snapshotParams.put("config_id", snapshot.getConfigId());
-		snapshotParams.put("created", Timestamp.from(Instant.now()));
+		snapshotParams.put("created", created);
 
 		int snapshotId = snapshotInsert.executeAndReturnKey(snapshotParams).intValue();
 
@@ -328,48 +586,41 @@ public class ConfigJdbcDAO implements ConfigDAO {
 			snapshotPvInsert.execute(params);
 		}
 
-		return snapshotDAO.getSnapshot(snapshotId, false);
-
+		return snapshotId;
 	}
 
 	@Override
 	@Transactional
 	public Folder moveNode(int nodeId, int targetNodeId) {
 
-		Node sourceNode = getNode(nodeId);
+		Node sourceNode = getNodeHeader(nodeId);
 
 		int parentNodeId = sourceNode.getParent().getId();
 
-		Folder targetNode = getFolder(targetNodeId);
+		Node targetNode = getNodeHeader(targetNodeId);
+		if (!NodeType.FOLDER.equals(targetNode.getNodeType())) {
+			throw new NodeNotFoundException(String.format("Node id=%d is not a folder node", targetNodeId));
+		}
 
-		if (doesNameClash(sourceNode, targetNode.getChildNodes())) {
+		try {
+			// Explicitly keeping last_modified prevents MySQL from updating it in the moved node.
+			jdbcTemplate.update("update node set parent_id=?, last_modified=last_modified where id=?", targetNodeId,
+					nodeId);
+		} catch (DuplicateKeyException e) {
 			throw new IllegalArgumentException("Node of same name and type already exists in target node.");
 		}
 
-		jdbcTemplate.update("delete from node_closure where "
-				+ "descendant in (select descendant from node_closure where ancestor=?) "
-				+ "and ancestor in (select ancestor from node_closure where descendant=? and ancestor != descendant)",
-				nodeId, nodeId);
-
-		jdbcTemplate.update("insert into node_closure (ancestor, descendant, depth) "
-				+ "select supertree.ancestor, subtree.descendant, supertree.depth + subtree.depth + 1 AS depth "
-				+ "from node_closure as supertree " + "cross join node_closure as subtree "
-				+ "where supertree.descendant=? and subtree.ancestor=?", targetNodeId, nodeId);
+		treeStore.moveNode(nodeId, targetNodeId);
 
 		// Update the last modified date of the source and target folder.
 		jdbcTemplate.update("update node set last_modified=? where id=? or id=?", Timestamp.from(Instant.now()), targetNodeId,
 				parentNodeId);
 
-		return getFolder(targetNodeId);
-	}
-
-	protected boolean doesNameClash(Node nodeToCheck, List<Node> existingNodes) {
-		for (Node node : existingNodes) {
-			if (node.getName().equals(nodeToCheck.getName()) && node.getNodeType().equals(nodeToCheck.getNodeType())) {
-				return true;
-			}
+		if (nodeTreeIndex != null) {
+			nodeTreeIndex.nodeMoved(nodeId, parentNodeId, targetNodeId);
 		}
-		return false;
+
+		return toFolder(getNode(targetNodeId));
 	}
 
 	@Override
@@ -388,7 +639,19 @@ public class ConfigJdbcDAO implements ConfigDAO {
 
 		jdbcTemplate.update("update config set description=?, _system=? where node_id=?", config.getDescription(),
 				config.getSystem(), config.getId());
-		jdbcTemplate.update("update node set name=? where id=?", config.getName(), config.getId());
+		// The node row may be unchanged, in which case MySQL would not update last_modified, but the version of
+		// the node must change with the configuration and its PVs.
+		try {
+			jdbcTemplate.update("update node set name=?, last_modified=? where id=?", config.getName(),
+					Timestamp.from(Instant.now()), config.getId());
+		} catch (DuplicateKeyException e) {
+			throw new IllegalArgumentException(
+					"Cannot change name of configuration as an existing node with same name and type exists.");
+		}
+
+		if (nodeTreeIndex != null) {
+			nodeTreeIndex.nodesUpdated(config.getId());
+		}
 
 		return getConfiguration(config.getId());
 	}
@@ -401,22 +664,22 @@ public class ConfigJdbcDAO implements ConfigDAO {
 			throw new IllegalArgumentException("Cannot change name of root folder");
 		}
 
-		Node nodeToChange = getNode(nodeId);
-
-		Folder parentFolder = getFolder(nodeToChange.getParent().getId());
-
-		// Create a node object used to check name clash
-		Node tmp = new Node();
-		tmp.setName(name);
-		tmp.setNodeType(nodeToChange.getNodeType());
-
-		if (doesNameClash(tmp, parentFolder.getChildNodes())) {
+		int updated;
+		try {
+			updated = jdbcTemplate.update("update node set name=? where id=?", name, nodeId);
+		} catch (DuplicateKeyException e) {
 			throw new IllegalArgumentException(
 					"Cannot change name of node as an existing node with same name and type exists.");
 		}
+		if (updated == 0) {
+			throw new NodeNotFoundException(String.format("Unable to retrieve node id=%d, node not found", nodeId));
+		}
 
-		jdbcTemplate.update("update node set name=? where id=?", name, nodeId);
+		if (nodeTreeIndex != null) {
+			nodeTreeIndex.nodesUpdated(nodeId);
+		}
 
+		// The full node, as clients of the rename endpoint read its child nodes or PVs
 		return getNode(nodeId);
 	}
 
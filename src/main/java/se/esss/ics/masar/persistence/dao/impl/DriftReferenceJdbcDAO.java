@@ -0,0 +1,99 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
+
+public class DriftReferenceJdbcDAO implements DriftReferenceDAO {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Transactional
+	@Override
+	public DriftReference setReference(DriftReference reference) {
+
+		jdbcTemplate.update("delete from drift_reference where config_id=?", reference.getConfigId());
+		jdbcTemplate.update("insert into drift_reference (config_id, snapshot_id, default_tolerance, created) values (?, ?, ?, ?)",
+				reference.getConfigId(), reference.getSnapshotId(), reference.getDefaultTolerance(),
+				new Timestamp(System.currentTimeMillis()));
+
+		if (reference.getTolerances() != null && !reference.getTolerances().isEmpty()) {
+			List<Object[]> tolerances = new ArrayList<>();
+			reference.getTolerances().forEach((pvName, tolerance) -> 
+				tolerances.add(new Object[] { reference.getConfigId(), pvName, tolerance }));
+			jdbcTemplate.batchUpdate("insert into drift_tolerance (config_id, pv_name, tolerance) values (?, ?, ?)",
+					tolerances);
+		}
+
+		return getReference(reference.getConfigId());
+	}
+
+	@Override
+	public DriftReference getReference(int configId) {
+
+		List<DriftReference> references = getReferences("where config_id=?", configId);
+
+		return references.isEmpty() ? null : references.get(0);
+	}
+
+	@Override
+	public List<DriftReference> getReferences() {
+
+		return getReferences("");
+	}
+
+	private List<DriftReference> getReferences(String where, Object... args) {
+
+		Map<Integer, DriftReference> references = new LinkedHashMap<>();
+		jdbcTemplate.query("select config_id, snapshot_id, default_tolerance, created from drift_reference " + where 
+				+ " order by config_id", args, resultSet -> {
+			DriftReference reference = new DriftReference();
+			reference.setConfigId(resultSet.getInt("config_id"));
+			reference.setSnapshotId(resultSet.getInt("snapshot_id"));
+			reference.setDefaultTolerance(resultSet.getDouble("default_tolerance"));
+			reference.setCreated(resultSet.getTimestamp("created"));
+			references.put(reference.getConfigId(), reference);
+		});
+		jdbcTemplate.query("select config_id, pv_name, tolerance from drift_tolerance " + where, args, resultSet -> {
+			DriftReference reference = references.get(resultSet.getInt("config_id"));
+			if (reference != null) {
+				reference.getTolerances().put(resultSet.getString("pv_name"), resultSet.getDouble("tolerance"));
+			}
+		});
+
+		return new ArrayList<>(references.values());
+	}
+
+	@Override
+	public boolean deleteReference(int configId) {
+
+		return jdbcTemplate.update("delete from drift_reference where config_id=?", configId) > 0;
+	}
+}
@@ -0,0 +1,72 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.model.NodeType;
+
+/**
+ * Assembles a nested tree of {@link Folder} and {@link se.esss.ics.masar.model.Config} objects from
+ * a result set holding all nodes of a sub-tree. Rows must be ordered by depth relative to the sub-tree root such that
+ * a parent node is always read before its child nodes. Each row must contain the node columns, the config columns
+ * (<code>null</code> for folders) and a <code>parent_id</code> column.
+ * 
+ * The extractor returns the root node of the sub-tree, or <code>null</code> if the result set is empty.
+ */
+public class FolderTreeExtractor implements ResultSetExtractor<Node> {
+
+	@Override
+	public Node extractData(ResultSet resultSet) throws SQLException {
+
+		ConfigRowMapper configRowMapper = new ConfigRowMapper();
+		Map<Integer, Folder> folders = new HashMap<>();
+		Node root = null;
+		int rowIndex = 0;
+
+		while (resultSet.next()) {
+			Node node;
+			if (NodeType.CONFIGURATION.toString().equals(resultSet.getString("type"))) {
+				node = configRowMapper.mapRow(resultSet, rowIndex);
+			} else {
+				Folder folder = Folder.builder().id(resultSet.getInt("id")).name(resultSet.getString("name"))
+						.created(resultSet.getTimestamp("created"))
+						.lastModified(resultSet.getTimestamp("last_modified")).childNodes(new ArrayList<>()).build();
+				folders.put(folder.getId(), folder);
+				node = folder;
+			}
+
+			if (root == null) {
+				root = node;
+			} else {
+				folders.get(resultSet.getInt("parent_id")).getChildNodes().add(node);
+			}
+			rowIndex++;
+		}
+
+		return root;
+	}
+}
@@ -0,0 +1,47 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+
+public class LeaseJdbcDAO implements LeaseDAO {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Override
+	public boolean acquireLease(String name, String owner, Date now, Date expires) {
+
+		// Atomic, such that only one caller succeeds while the lease is held
+		return jdbcTemplate.update("update lease set owner=?, expires=? "
+				+ "where name=? and (owner=? or owner is null or expires<?)", 
+				owner, new Timestamp(expires.getTime()), name, owner, new Timestamp(now.getTime())) > 0;
+	}
+
+	@Override
+	public void releaseLease(String name, String owner) {
+
+		jdbcTemplate.update("update lease set owner=null where name=? and owner=?", name, owner);
+	}
+}
@@ -0,0 +1,206 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.persistence.dao.TreeStore;
+
+/**
+ * {@link TreeStore} maintaining the materialized path of each node in the <code>node.path</code> column, i.e.
+ * the ids of all ancestors of a node and the node itself.
+ * 
+ * On PostgreSQL the column is of type <code>ltree</code> (e.g. <code>0.5.12</code>) if the extension could be
+ * installed, and sub-tree queries use its GiST index. Otherwise the path is a string of the form
+ * <code>/0/5/12/</code> and sub-tree queries are prefix range scans on a B-tree index.
+ * 
+ * Each node has exactly one row, and moving a node updates one row per node in the moved sub-tree.
+ * 
+ * The path column is only maintained by this class, so it is rebuilt at startup in case the database has been used
+ * with another {@link TreeStore} implementation.
+ */
+public class MaterializedPathTreeStore implements TreeStore {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private volatile Boolean ltree;
+
+	private Logger logger = LoggerFactory.getLogger(MaterializedPathTreeStore.class);
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		int count = rebuild();
+		if (count > 0) {
+			logger.warn("Rebuilt the materialized paths of the node tree, {} nodes changed", count);
+		}
+	}
+
+	@Override
+	public void insertNode(int nodeId, int parentId) {
+
+		String path = childPath(getPath(parentId), nodeId);
+		jdbcTemplate.update(isLtree() ? "update node set path=text2ltree(?) where id=?" : "update node set path=? where id=?",
+				path, nodeId);
+	}
+
+	@Override
+	public void moveNode(int nodeId, int targetNodeId) {
+
+		String oldPath = getPath(nodeId);
+		String newPath = childPath(getPath(targetNodeId), nodeId);
+
+		// Explicitly keeping last_modified prevents MySQL from updating it in all moved nodes.
+		if (isLtree()) {
+			jdbcTemplate.update("update node set path=case when path=text2ltree(?) then text2ltree(?) "
+					+ "else text2ltree(?) || subpath(path, nlevel(text2ltree(?))) end, last_modified=last_modified "
+					+ "where path <@ text2ltree(?)", oldPath, newPath, newPath, oldPath, oldPath);
+		} else {
+			jdbcTemplate.update(
+					"update node set path=concat(?, substr(path, ?)), last_modified=last_modified where path like ?",
+					newPath, oldPath.length() + 1, oldPath + "%");
+		}
+	}
+
+	@Override
+	public List<Node> getNodePath(int nodeId) {
+
+		String path = getPath(nodeId);
+		if (path == null) {
+			return Collections.emptyList();
+		}
+
+		List<Integer> ids = new ArrayList<>();
+		for (String id : path.split(isLtree() ? "\\." : "/")) {
+			if (!id.isEmpty()) {
+				ids.add(Integer.valueOf(id));
+			}
+		}
+
+		Map<Integer, Node> nodes = new HashMap<>();
+		for (Node node : jdbcTemplate.query(
+				"select * from node where id in (" + ids.stream().map(id -> "?").collect(Collectors.joining(",")) + ")",
+				ids.toArray(), new NodeRowMapper())) {
+			nodes.put(node.getId(), node);
+		}
+		return ids.stream().map(nodes::get).collect(Collectors.toList());
+	}
+
+	@Override
+	public <T> T querySubTree(int nodeId, int depth, String columns, String joins, ResultSetExtractor<T> extractor) {
+
+		String path = getPath(nodeId);
+		if (path == null) {
+			return jdbcTemplate.query("select " + columns + " from node as n " + joins + " where 1=0", extractor);
+		}
+
+		// Long, as depth may be Integer.MAX_VALUE. nlevel() of the root node is 1.
+		long maxLevel = (long) level(path) + depth;
+		if (isLtree()) {
+			return jdbcTemplate.query("select " + columns + " from node as n " + joins
+					+ " where n.path <@ text2ltree(?) and nlevel(n.path)<=? order by nlevel(n.path)",
+					new Object[] { path, maxLevel + 1 }, extractor);
+		}
+		// A path at level L contains L + 2 separators. The length of a path increases with its level, so 
+		// ordering by length puts parent nodes first.
+		return jdbcTemplate.query("select " + columns + " from node as n " + joins
+				+ " where n.path like ? and length(n.path) - length(replace(n.path, '/', ''))<=? order by length(n.path)",
+				new Object[] { path + "%", maxLevel + 2 }, extractor);
+	}
+
+	@Override
+	public int rebuild() {
+
+		Map<Integer, String> existing = new HashMap<>();
+		jdbcTemplate.query("select id, path from node",
+				resultSet -> { existing.put(resultSet.getInt("id"), resultSet.getString("path")); });
+
+		List<Object[]> changed = new ArrayList<>();
+		NodePaths.load(jdbcTemplate).forEach((nodeId, ids) -> {
+			String path = isLtree() ? ids.stream().map(String::valueOf).collect(Collectors.joining("."))
+					: ids.stream().map(String::valueOf).collect(Collectors.joining("/", "/", "/"));
+			if (!path.equals(existing.get(nodeId))) {
+				changed.add(new Object[] { path, nodeId });
+			}
+		});
+		if (!changed.isEmpty()) {
+			// Explicitly keeping last_modified prevents MySQL from updating it in all changed nodes.
+			jdbcTemplate.batchUpdate(isLtree() ? "update node set path=text2ltree(?), last_modified=last_modified where id=?"
+					: "update node set path=?, last_modified=last_modified where id=?", changed);
+		}
+		return changed.size();
+	}
+
+	private String getPath(int nodeId) {
+		List<String> paths = jdbcTemplate.queryForList("select path from node where id=?", new Object[] { nodeId },
+				String.class);
+		return paths.isEmpty() ? null : paths.get(0);
+	}
+
+	private String childPath(String parentPath, int nodeId) {
+		return isLtree() ? parentPath + "." + nodeId : parentPath + nodeId + "/";
+	}
+
+	/**
+	 * @return The number of ancestors of the node with the given path, i.e. 0 for the root node.
+	 */
+	private int level(String path) {
+		char separator = isLtree() ? '.' : '/';
+		int count = 0;
+		for (char c : path.toCharArray()) {
+			if (c == separator) {
+				count++;
+			}
+		}
+		return isLtree() ? count : count - 2;
+	}
+
+	private boolean isLtree() {
+		if (ltree == null) {
+			ltree = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+				for (String table : new String[] { "node", "NODE" }) {
+					try (ResultSet columns = connection.getMetaData().getColumns(null, null, table, "%")) {
+						while (columns.next()) {
+							if ("path".equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+								return "ltree".equalsIgnoreCase(columns.getString("TYPE_NAME"));
+							}
+						}
+					}
+				}
+				return false;
+			});
+		}
+		return ltree;
+	}
+}
@@ -0,0 +1,69 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The ancestors of every node, computed from <code>node.parent_id</code>. The parent id is written by
+ * {@link ConfigJdbcDAO} whichever {@link se.esss.ics.masar.persistence.dao.TreeStore} is used, so it is the
+ * reference from which the structure of a tree store is rebuilt.
+ */
+class NodePaths {
+
+	private NodePaths() {
+	}
+
+	/**
+	 * @param jdbcTemplate Template reading the <code>node</code> table.
+	 * @return The ids of the nodes from the root node to each node, both inclusive, by node id.
+	 */
+	static Map<Integer, List<Integer>> load(JdbcTemplate jdbcTemplate) {
+
+		Map<Integer, Integer> parentIds = new HashMap<>();
+		jdbcTemplate.query("select id, parent_id from node", resultSet -> {
+			int parentId = resultSet.getInt("parent_id");
+			parentIds.put(resultSet.getInt("id"), resultSet.wasNull() ? null : parentId);
+		});
+
+		Map<Integer, List<Integer>> paths = new HashMap<>();
+		for (Integer nodeId : parentIds.keySet()) {
+			// Walks up to the first node of which the path is known, then fills in the paths down again
+			List<Integer> unknown = new ArrayList<>();
+			Integer id = nodeId;
+			while (id != null && !paths.containsKey(id)) {
+				unknown.add(id);
+				id = parentIds.get(id);
+			}
+			List<Integer> path = id == null ? Collections.emptyList() : paths.get(id);
+			for (int i = unknown.size() - 1; i >= 0; i--) {
+				List<Integer> childPath = new ArrayList<>(path);
+				childPath.add(unknown.get(i));
+				paths.put(unknown.get(i), childPath);
+				path = childPath;
+			}
+		}
+		return paths;
+	}
+}
@@ -0,0 +1,405 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.model.NodeType;
+import se.esss.ics.masar.services.exception.NodeNotFoundException;
+
+/**
+ * In-memory index of the node tree, i.e. the node headers (id, name, type and dates) and the
+ * parent/child relations. The index is loaded from the <code>node</code> table
+ * and answers folder, parent and child node lookups without accessing the database. Name clashes are not checked
+ * here, they are rejected by the unique index on <code>node(parent_id, name, type)</code>.
+ * 
+ * Structural changes are applied incrementally once the surrounding transaction has been committed. If
+ * an update fails the index is invalidated and reloaded on next access.
+ * 
+ * NOTE: the index is local to the service instance. It must not be enabled when several service 
+ * instances write to the same database.
+ */
+public class NodeTreeIndex {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private Map<Integer, Node> nodes = new HashMap<>();
+	private Map<Integer, Integer> parents = new HashMap<>();
+	private Map<Integer, Set<Integer>> children = new HashMap<>();
+
+	private volatile boolean loaded = false;
+
+	private Logger logger = LoggerFactory.getLogger(NodeTreeIndex.class);
+
+	public NodeTreeIndex() {
+	}
+
+	public NodeTreeIndex(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		load();
+	}
+
+	/**
+	 * (Re-)loads the complete index from the database.
+	 */
+	public void load() {
+		lock.writeLock().lock();
+		try {
+			nodes.clear();
+			parents.clear();
+			children.clear();
+			Map<Integer, Integer> parentIds = new HashMap<>();
+			NodeRowMapper nodeRowMapper = new NodeRowMapper();
+			jdbcTemplate.query("select * from node", resultSet -> {
+				Node node = nodeRowMapper.mapRow(resultSet, resultSet.getRow());
+				nodes.put(node.getId(), node);
+				children.put(node.getId(), new LinkedHashSet<>());
+				int parentId = resultSet.getInt("parent_id");
+				if (!resultSet.wasNull()) {
+					parentIds.put(node.getId(), parentId);
+				}
+			});
+			parentIds.forEach(this::link);
+			loaded = true;
+			logger.info("Loaded node tree index, {} nodes", nodes.size());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Marks the index as stale such that it is reloaded on next access. Takes the write lock, such that a load in
+	 * progress cannot mark the index as loaded with data read before the invalidation.
+	 */
+	public void invalidate() {
+		lock.writeLock().lock();
+		try {
+			loaded = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param nodeId A node id.
+	 * @return The {@link Node} header, i.e. without parent or child nodes.
+	 * @throws NodeNotFoundException if the node does not exist.
+	 */
+	public Node getNode(int nodeId) {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			return copy(getExisting(nodeId));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param nodeId A node id.
+	 * @return The parent {@link Node} header, or <code>null</code> for the root node.
+	 * @throws NodeNotFoundException if the node does not exist.
+	 */
+	public Node getParentNode(int nodeId) {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			getExisting(nodeId);
+			Integer parentId = parents.get(nodeId);
+			return parentId == null ? null : copy(nodes.get(parentId));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param nodeId A node id.
+	 * @return The child {@link Node} headers of the node. 
+	 * @throws NodeNotFoundException if the node does not exist.
+	 */
+	public List<Node> getChildNodes(int nodeId) {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			getExisting(nodeId);
+			return children.get(nodeId).stream().map(id -> copy(nodes.get(id))).collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param nodeId A node id.
+	 * @return A {@link Folder} including parent and child nodes.
+	 * @throws NodeNotFoundException if the node does not exist or is not a folder.
+	 */
+	public Folder getFolder(int nodeId) {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			Node node = getExisting(nodeId);
+			if (!NodeType.FOLDER.equals(node.getNodeType())) {
+				throw new NodeNotFoundException(String.format("Node id=%d is not a folder node", nodeId));
+			}
+			Integer parentId = parents.get(nodeId);
+			return Folder.builder().created(node.getCreated()).lastModified(node.getLastModified()).id(nodeId)
+					.name(node.getName()).parent(parentId == null ? null : copy(nodes.get(parentId)))
+					.childNodes(children.get(nodeId).stream().map(id -> copy(nodes.get(id))).collect(Collectors.toList()))
+					.build();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Resolves a path of node names starting from the root folder.
+	 * @param names The node names. All but the last must be folder names.
+	 * @return The {@link Node} headers matching the path, or an empty list if there is no match.
+	 */
+	public List<Node> getNodesByPath(List<String> names) {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			if (names.isEmpty()) {
+				return Collections.singletonList(copy(getExisting(Node.ROOT_NODE_ID)));
+			}
+			List<Integer> matches = Collections.singletonList(Node.ROOT_NODE_ID);
+			for (int i = 0; i < names.size(); i++) {
+				String name = names.get(i);
+				boolean last = i == names.size() - 1;
+				matches = children.get(matches.get(0)).stream().filter(id -> {
+					Node child = nodes.get(id);
+					return child.getName().equals(name) && (last || NodeType.FOLDER.equals(child.getNodeType()));
+				}).collect(Collectors.toList());
+				if (matches.isEmpty()) {
+					return Collections.emptyList();
+				}
+			}
+			return matches.stream().map(id -> copy(nodes.get(id))).collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param nodeId A node id.
+	 * @return The {@link Node} headers from the root folder to the node, both included.
+	 * @throws NodeNotFoundException if the node does not exist.
+	 */
+	public List<Node> getNodePath(int nodeId) {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			LinkedList<Node> path = new LinkedList<>();
+			Integer id = nodeId;
+			while (id != null) {
+				path.addFirst(copy(getExisting(id)));
+				id = parents.get(id);
+			}
+			return path;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a new node to the index once the current transaction has been committed.
+	 * @param nodeId The id of the new node.
+	 * @param parentId The id of the parent node.
+	 */
+	public void nodeCreated(int nodeId, int parentId) {
+		afterCommit(() -> {
+			refresh(nodeId, parentId);
+			link(nodeId, parentId);
+		});
+	}
+
+	/**
+	 * Moves a node in the index once the current transaction has been committed.
+	 * @param nodeId The id of the moved node.
+	 * @param sourceId The id of the previous parent node.
+	 * @param targetId The id of the new parent node.
+	 */
+	public void nodeMoved(int nodeId, int sourceId, int targetId) {
+		afterCommit(() -> {
+			unlink(nodeId);
+			link(nodeId, targetId);
+			refresh(nodeId, sourceId, targetId);
+		});
+	}
+
+	/**
+	 * Refreshes the header (name and dates) of nodes once the current transaction has been committed.
+	 * @param nodeIds The ids of the updated nodes.
+	 */
+	public void nodesUpdated(Integer... nodeIds) {
+		afterCommit(() -> refresh(nodeIds));
+	}
+
+	/**
+	 * Removes a node and its sub-tree from the index once the current transaction has been committed.
+	 * @param nodeId The id of the deleted node.
+	 * @param parentId The id of the parent node.
+	 */
+	public void nodeDeleted(int nodeId, int parentId) {
+		afterCommit(() -> {
+			unlink(nodeId);
+			remove(nodeId);
+			refresh(parentId);
+		});
+	}
+
+	private void ensureLoaded() {
+		if (!loaded) {
+			lock.writeLock().lock();
+			try {
+				// Another thread may have loaded the index while this one was waiting for the lock
+				if (!loaded) {
+					load();
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private Node getExisting(int nodeId) {
+		Node node = nodes.get(nodeId);
+		if (node == null) {
+			throw new NodeNotFoundException(String.format("Unable to retrieve node id=%d, node not found", nodeId));
+		}
+		return node;
+	}
+
+	private void afterCommit(Runnable update) {
+		Runnable guardedUpdate = () -> {
+			lock.writeLock().lock();
+			try {
+				if (!loaded) {
+					return;
+				}
+				update.run();
+			} catch (RuntimeException e) {
+				logger.warn("Failed to update node tree index, invalidating", e);
+				invalidate();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		};
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					guardedUpdate.run();
+				}
+			});
+		} else {
+			guardedUpdate.run();
+		}
+	}
+
+	private void link(int nodeId, int parentId) {
+		parents.put(nodeId, parentId);
+		children.computeIfAbsent(parentId, id -> new LinkedHashSet<>()).add(nodeId);
+	}
+
+	private void unlink(int nodeId) {
+		Integer parentId = parents.remove(nodeId);
+		if (parentId != null && children.containsKey(parentId)) {
+			children.get(parentId).remove(nodeId);
+		}
+	}
+
+	private void remove(int nodeId) {
+		Set<Integer> childIds = children.remove(nodeId);
+		if (childIds != null) {
+			for (Integer childId : childIds) {
+				parents.remove(childId);
+				remove(childId);
+			}
+		}
+		nodes.remove(nodeId);
+	}
+
+	/**
+	 * Re-reads the headers of the specified nodes. Nodes that no longer exist are ignored.
+	 */
+	private void refresh(Integer... nodeIds) {
+		Collection<Integer> ids = new LinkedHashSet<>(Arrays.asList(nodeIds));
+		String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+		List<Node> refreshed = jdbcTemplate.query("select * from node where id in (" + placeholders + ")",
+				ids.toArray(), new NodeRowMapper());
+		for (Node node : refreshed) {
+			nodes.put(node.getId(), node);
+			children.computeIfAbsent(node.getId(), id -> new LinkedHashSet<>());
+		}
+	}
+
+	private Node copy(Node node) {
+		Node copy = new Node();
+		copy.setId(node.getId());
+		copy.setName(node.getName());
+		copy.setNodeType(node.getNodeType());
+		copy.setCreated(node.getCreated());
+		copy.setLastModified(node.getLastModified());
+		return copy;
+	}
+
+	/**
+	 * @return The number of nodes in the index.
+	 */
+	public int size() {
+		ensureLoaded();
+		lock.readLock().lock();
+		try {
+			return nodes.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.util.DigestUtils;
+
+import se.esss.ics.masar.persistence.dao.NodeVersion;
+
+/**
+ * Computes a {@link NodeVersion} from rows holding the <code>id</code>, <code>name</code>, <code>type</code> and
+ * <code>last_modified</code> columns of a set of nodes. The digest does not depend on the order of the rows.
+ * 
+ * The extractor returns <code>null</code> if the result set is empty.
+ */
+public class NodeVersionExtractor implements ResultSetExtractor<NodeVersion> {
+
+	@Override
+	public NodeVersion extractData(ResultSet resultSet) throws SQLException {
+
+		Map<Integer, String> nodes = new TreeMap<>();
+		long lastModified = 0;
+
+		while (resultSet.next()) {
+			Timestamp timestamp = resultSet.getTimestamp("last_modified");
+			long time = timestamp == null ? 0 : timestamp.getTime();
+			int id = resultSet.getInt("id");
+			nodes.put(id, id + "/" + resultSet.getString("name") + "/" + resultSet.getString("type") + "/" + time);
+			lastModified = Math.max(lastModified, time);
+		}
+
+		if (nodes.isEmpty()) {
+			return null;
+		}
+
+		String digest = DigestUtils
+				.md5DigestAsHex(String.join("\n", nodes.values()).getBytes(StandardCharsets.UTF_8));
+		return new NodeVersion(digest, new Date(lastModified));
+	}
+}
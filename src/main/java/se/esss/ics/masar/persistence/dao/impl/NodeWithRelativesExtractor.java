@@ -0,0 +1,82 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import se.esss.ics.masar.model.Config;
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.model.NodeType;
+
+/**
+ * Assembles a {@link Node} from a result set holding the node itself, its parent node and its
+ * child nodes. Each row must contain the node columns, the config columns (<code>null</code> for folders)
+ * and a <code>relation</code> column set to one of {@link #SELF}, {@link #PARENT} or {@link #CHILD}.
+ * 
+ * The extractor returns <code>null</code> if the result set does not contain a row for the node itself.
+ */
+public class NodeWithRelativesExtractor implements ResultSetExtractor<Node> {
+
+	public static final int SELF = 0;
+	public static final int PARENT = 1;
+	public static final int CHILD = 2;
+
+	@Override
+	public Node extractData(ResultSet resultSet) throws SQLException {
+
+		NodeRowMapper nodeRowMapper = new NodeRowMapper();
+		Node self = null;
+		Node parent = null;
+		List<Node> childNodes = new ArrayList<>();
+		int rowIndex = 0;
+
+		while (resultSet.next()) {
+			switch (resultSet.getInt("relation")) {
+			case SELF:
+				self = NodeType.CONFIGURATION.toString().equals(resultSet.getString("type"))
+						? new ConfigRowMapper().mapRow(resultSet, rowIndex)
+						: nodeRowMapper.mapRow(resultSet, rowIndex);
+				break;
+			case PARENT:
+				parent = nodeRowMapper.mapRow(resultSet, rowIndex);
+				break;
+			default:
+				childNodes.add(nodeRowMapper.mapRow(resultSet, rowIndex));
+			}
+			rowIndex++;
+		}
+
+		if (self == null) {
+			return null;
+		}
+
+		if (self instanceof Config) {
+			self.setParent(parent);
+			return self;
+		}
+
+		return Folder.builder().created(self.getCreated()).lastModified(self.getLastModified()).id(self.getId())
+				.childNodes(childNodes).parent(parent).name(self.getName()).build();
+	}
+}
@@ -17,12 +17,20 @@
  */
 package se.esss.ics.masar.persistence.dao.impl;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -30,20 +38,49 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import se.esss.ics.masar.model.Snapshot;
 import se.esss.ics.masar.model.SnapshotPv;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotPvFilter;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
 
 public class SnapshotJdbcDAO implements SnapshotDAO {
 
 	@Autowired
 	private SimpleJdbcInsert userNameInsert;
 
-	@Autowired
 	private JdbcTemplate jdbcTemplate;
 
-	@Autowired
-	private ObjectMapper objectMapper;
+	private final TypedValueReaders typedValueReaders;
+
+	/**
+	 * Number of rows fetched per round trip when streaming snapshot values. For MySQL, the connection must be
+	 * configured with useCursorFetch=true for this to take effect.
+	 */
+	@Value("${masar.snapshot.fetch-size:1000}")
+	private int fetchSize;
 
 	private static final int NO_USER = -1;
 
+	private static final String SNAPSHOT_PV_QUERY = 
+			"select * from snapshot_pv join config_pv on snapshot_pv.config_pv_id=config_pv.id where snapshot_id=?";
+
+	private static final String SNAPSHOT_PV_METADATA_QUERY = 
+			"select snapshot_id, dtype, severity, status, time, timens, fetch_status, config_pv.* from snapshot_pv "
+					+ "join config_pv on snapshot_pv.config_pv_id=config_pv.id where snapshot_id=?";
+
+	private final String regexOperator;
+
+	/**
+	 * @param jdbcTemplate Template accessing the database, of which the product name is read at construction.
+	 * @param objectMapper Mapper of JSON encoded PV values.
+	 */
+	public SnapshotJdbcDAO(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.typedValueReaders = new TypedValueReaders(objectMapper);
+		// The operator matching a string against a regular expression, which is not standardized
+		String product = jdbcTemplate
+				.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+		this.regexOperator = "PostgreSQL".equalsIgnoreCase(product) ? "~" : "regexp";
+	}
+
 	@Override
 	public void commitSnapshot(int snapshotId, String userName, String comment) {
 
@@ -66,18 +103,121 @@ public class SnapshotJdbcDAO implements SnapshotDAO {
 
 	@Override
 	public List<Snapshot> getSnapshots(int configId) {
-		return jdbcTemplate.query(
+		return getSnapshots(configId, new SnapshotQuery());
+	}
+
+	@Override
+	public List<Snapshot> getSnapshots(int configId, SnapshotQuery query) {
+
+		StringBuilder sql = new StringBuilder(
 				"select snapshot.id, config_id, username_id, created, comment, approve, name from snapshot join "
-						+ "username on snapshot.username_id=username.id where snapshot.config_id=?",
-				new Object[] { configId }, new SnapshotRowMapper());
+						+ "username on snapshot.username_id=username.id where snapshot.config_id=?");
+		List<Object> params = new ArrayList<>();
+		params.add(configId);
+
+		if (query.getFrom() != null) {
+			sql.append(" and snapshot.created>=?");
+			params.add(new Timestamp(query.getFrom().getTime()));
+		}
+		if (query.getTo() != null) {
+			sql.append(" and snapshot.created<?");
+			params.add(new Timestamp(query.getTo().getTime()));
+		}
+		if (query.getUserName() != null) {
+			sql.append(" and username.name=?");
+			params.add(query.getUserName());
+		}
+		if (query.getComment() != null) {
+			sql.append(" and lower(snapshot.comment) like ?");
+			params.add("%" + escapeLike(query.getComment().toLowerCase()) + "%");
+		}
+		if (query.getCursorCreated() != null) {
+			// The redundant upper bound on created lets the database use a range scan on the
+			// (config_id, created, id) index
+			sql.append(" and snapshot.created<=? and (snapshot.created<? or snapshot.id<?)");
+			params.add(query.getCursorCreated());
+			params.add(query.getCursorCreated());
+			params.add(query.getCursorId());
+		}
+		sql.append(" order by snapshot.created desc, snapshot.id desc");
+		if (query.getLimit() != null) {
+			sql.append(" limit ?");
+			params.add(query.getLimit());
+		}
+
+		return jdbcTemplate.query(sql.toString(), params.toArray(), new SnapshotRowMapper());
+	}
+
+	private String escapeLike(String value) {
+		return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
 	}
 
 	@Override
 	public Snapshot getSnapshot(int snapshotId, boolean committedOnly) {
 
-		Snapshot snapshot;
+		Snapshot snapshot = getSnapshotHeader(snapshotId, committedOnly);
+		if (snapshot == null) {
+			return null;
+		}
+
+		List<SnapshotPv<?>> snapshotValues = jdbcTemplate.query(SNAPSHOT_PV_QUERY, new Object[] { snapshotId },
+				new SnapshotPvRowMapper(typedValueReaders));
+
+		snapshot.setSnapshotPvList(snapshotValues);
+
+		return snapshot;
+	}
+
+	@Override
+	public Snapshot getSnapshot(int snapshotId, boolean committedOnly, SnapshotPvFilter filter) {
+
+		Snapshot snapshot = getSnapshotHeader(snapshotId, committedOnly);
+		if (snapshot == null) {
+			return null;
+		}
+
+		StringBuilder sql = new StringBuilder(
+				filter.isValuesIncluded() ? SNAPSHOT_PV_QUERY : SNAPSHOT_PV_METADATA_QUERY);
+		List<Object> params = new ArrayList<>();
+		params.add(snapshotId);
+
+		if (filter.getPvNames() != null) {
+			if (filter.getPvNames().isEmpty()) {
+				snapshot.setSnapshotPvList(Collections.emptyList());
+				return snapshot;
+			}
+			sql.append(" and config_pv.name in (")
+					.append(String.join(",", Collections.nCopies(filter.getPvNames().size(), "?"))).append(")");
+			params.addAll(filter.getPvNames());
+		}
+		if (filter.getGlob() != null) {
+			sql.append(" and config_pv.name like ?");
+			params.add(escapeLike(filter.getGlob()).replace('*', '%').replace('?', '_'));
+		}
+		if (filter.getRegex() != null) {
+			sql.append(" and config_pv.name ").append(regexOperator).append(" ?");
+			params.add(filter.getRegex());
+		}
+		if (filter.getGroupName() != null) {
+			sql.append(" and config_pv.groupName=?");
+			params.add(filter.getGroupName());
+		}
+		if (filter.getTag() != null) {
+			sql.append(" and concat(',', replace(config_pv.tags, ' ', ''), ',') like ?");
+			params.add("%," + escapeLike(filter.getTag().trim()) + ",%");
+		}
+
+		snapshot.setSnapshotPvList(jdbcTemplate.query(sql.toString(), params.toArray(),
+				new SnapshotPvRowMapper(typedValueReaders)));
+
+		return snapshot;
+	}
+
+	@Override
+	public Snapshot getSnapshotHeader(int snapshotId, boolean committedOnly) {
+
 		try {
-			snapshot = committedOnly ? jdbcTemplate.queryForObject(
+			return committedOnly ? jdbcTemplate.queryForObject(
 					"select snapshot.id, config_id, username_id, created, comment, approve, name from snapshot join username on snapshot.username_id=username.id where snapshot.id=?",
 					new Object[] { snapshotId }, new SnapshotRowMapper())
 					: jdbcTemplate.queryForObject(
@@ -87,14 +227,19 @@ public class SnapshotJdbcDAO implements SnapshotDAO {
 			// No committed snapshot corresponding to snapshotId found
 			return null;
 		}
+	}
 
-		List<SnapshotPv<?>> snapshotValues = jdbcTemplate.query(
-				"select * from snapshot_pv join config_pv on snapshot_pv.config_pv_id=config_pv.id where snapshot_id=?",
-				new Object[] { snapshotId }, new SnapshotPvRowMapper(objectMapper));
-
-		snapshot.setSnapshotPvList(snapshotValues);
-
-		return snapshot;
+	@Override
+	public void streamSnapshotPvs(int snapshotId, Consumer<SnapshotPv<?>> consumer) {
+
+		SnapshotPvRowMapper rowMapper = new SnapshotPvRowMapper(typedValueReaders);
+		jdbcTemplate.query(connection -> {
+			PreparedStatement statement = connection.prepareStatement(SNAPSHOT_PV_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(fetchSize);
+			statement.setInt(1, snapshotId);
+			return statement;
+		}, (RowCallbackHandler) resultSet -> consumer.accept(rowMapper.mapRow(resultSet, resultSet.getRow())));
 	}
 
 	@Override
@@ -20,6 +20,7 @@ package se.esss.ics.masar.persistence.dao.impl;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -28,49 +29,112 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import se.esss.ics.masar.model.ConfigPv;
 import se.esss.ics.masar.model.SnapshotPv;
 
+/**
+ * Maps rows of <code>snapshot_pv</code> joined with <code>config_pv</code>. Column indexes are resolved
+ * once per {@link ResultSet}, so an instance must not be shared between concurrent queries. Value readers are
+ * taken from a {@link TypedValueReaders} registry, which may be shared. If the result set has no <code>value</code>
+ * column, the PVs are mapped without value.
+ */
 @SuppressWarnings("rawtypes")
 public class SnapshotPvRowMapper implements RowMapper<SnapshotPv<?>> {
 	
-	private ObjectMapper objectMapper;
-	
+	private TypedValueReaders typedValueReaders;
+
+	private ResultSet resultSet;
+	private int id;
+	private int groupName;
+	private int name;
+	private int readonly;
+	private int tags;
+	private int dtype;
+	private int fetchStatus;
+	private int snapshotId;
+	private int severity;
+	private int status;
+	private int time;
+	private int timens;
+	private int value;
+	private int clazz;
+
+	private static final int NO_COLUMN = -1;
+
+	private static final Logger logger = LoggerFactory.getLogger(SnapshotPvRowMapper.class);
+
 	public SnapshotPvRowMapper(ObjectMapper objectMapper) {
-		this.objectMapper = objectMapper;
+		this(new TypedValueReaders(objectMapper));
+	}
+
+	public SnapshotPvRowMapper(TypedValueReaders typedValueReaders) {
+		this.typedValueReaders = typedValueReaders;
 	}
 
 	@Override
 	public SnapshotPv<?> mapRow(ResultSet resultSet, int rowIndex) throws SQLException {
 		
-		ConfigPv configPv = new ConfigPvRowMapper().mapRow(resultSet, rowIndex);
+		if (resultSet != this.resultSet) {
+			resolveColumns(resultSet);
+		}
+
+		ConfigPv configPv = ConfigPv.builder()
+				.id(resultSet.getInt(id))
+				.groupname(resultSet.getString(groupName))
+				.pvName(resultSet.getString(name))
+				.readonly(resultSet.getBoolean(readonly))
+				.tags(resultSet.getString(tags))
+				.build();
 		
 		return SnapshotPv.builder()
-				.dtype(resultSet.getInt("dtype"))
-				.fetchStatus(resultSet.getBoolean("fetch_status"))
-				.snapshotId(resultSet.getInt("snapshot_id"))
-				.severity(resultSet.getInt("severity"))
-				.status(resultSet.getInt("status"))
-				.time(resultSet.getLong("time"))
-				.timens(resultSet.getInt("timens"))
+				.dtype(resultSet.getInt(dtype))
+				.fetchStatus(resultSet.getBoolean(fetchStatus))
+				.snapshotId(resultSet.getInt(snapshotId))
+				.severity(resultSet.getInt(severity))
+				.status(resultSet.getInt(status))
+				.time(resultSet.getLong(time))
+				.timens(resultSet.getInt(timens))
 				.configPv(configPv)
-				.value(getTypedValue(resultSet.getString("value"), resultSet.getString("clazz")))
+				.value(value == NO_COLUMN ? null : getTypedValue(resultSet.getString(value), resultSet.getString(clazz)))
 				.build();
 	
 	}
+
+	private void resolveColumns(ResultSet resultSet) throws SQLException {
+		id = resultSet.findColumn("id");
+		groupName = resultSet.findColumn("groupName");
+		name = resultSet.findColumn("name");
+		readonly = resultSet.findColumn("readonly");
+		tags = resultSet.findColumn("tags");
+		dtype = resultSet.findColumn("dtype");
+		fetchStatus = resultSet.findColumn("fetch_status");
+		snapshotId = resultSet.findColumn("snapshot_id");
+		severity = resultSet.findColumn("severity");
+		status = resultSet.findColumn("status");
+		time = resultSet.findColumn("time");
+		timens = resultSet.findColumn("timens");
+		// Queries for metadata only do not select the value
+		value = findOptionalColumn(resultSet, "value");
+		clazz = findOptionalColumn(resultSet, "clazz");
+		this.resultSet = resultSet;
+	}
 	
-	@SuppressWarnings("unchecked")
+	private int findOptionalColumn(ResultSet resultSet, String column) {
+		try {
+			return resultSet.findColumn(column);
+		} catch (SQLException e) {
+			return NO_COLUMN;
+		}
+	}
+
 	protected Object getTypedValue(String valueAsString, String className) {
 		
 		if(className == null) {
-			LoggerFactory.getLogger(SnapshotPvRowMapper.class).error("Not attempting to read a value of null class name");
+			logger.error("Not attempting to read a value of null class name");
 			return null;
 		}
 		
 		try {
-			Class clazz = Class.forName(className);
-			
-			return objectMapper.readValue(valueAsString, clazz);
-			
+			return typedValueReaders.getReader(className).readValue(valueAsString);
 		} catch (Exception e) {
-			LoggerFactory.getLogger(SnapshotPvRowMapper.class).error(e.getMessage());
+			logger.error(e.getMessage());
 			return null;
 		}
 	}
@@ -0,0 +1,112 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+
+public class SnapshotScheduleJdbcDAO implements SnapshotScheduleDAO {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private SimpleJdbcInsert snapshotScheduleInsert;
+
+	private static final String SCHEDULE_COLUMNS = "id, config_id, cron, user_name, comment_template, enabled, "
+			+ "next_run, last_run, last_snapshot_id, last_error";
+
+	@Override
+	public SnapshotSchedule createSchedule(SnapshotSchedule schedule) {
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("config_id", schedule.getConfigId());
+		params.put("cron", schedule.getCron());
+		params.put("user_name", schedule.getUserName());
+		params.put("comment_template", schedule.getCommentTemplate());
+		params.put("enabled", schedule.isEnabled());
+		params.put("next_run", toTimestamp(schedule.getNextRun()));
+
+		int scheduleId = snapshotScheduleInsert.executeAndReturnKey(params).intValue();
+
+		return getSchedule(scheduleId);
+	}
+
+	@Override
+	public SnapshotSchedule getSchedule(int scheduleId) {
+
+		List<SnapshotSchedule> schedules = jdbcTemplate.query(
+				"select " + SCHEDULE_COLUMNS + " from snapshot_schedule where id=?", new Object[] { scheduleId },
+				new SnapshotScheduleRowMapper());
+
+		return schedules.isEmpty() ? null : schedules.get(0);
+	}
+
+	@Override
+	public List<SnapshotSchedule> getSchedules(int configId) {
+
+		return jdbcTemplate.query(
+				"select " + SCHEDULE_COLUMNS + " from snapshot_schedule where config_id=? order by id",
+				new Object[] { configId }, new SnapshotScheduleRowMapper());
+	}
+
+	@Override
+	public boolean deleteSchedule(int scheduleId) {
+
+		return jdbcTemplate.update("delete from snapshot_schedule where id=?", scheduleId) > 0;
+	}
+
+	@Override
+	public List<SnapshotSchedule> getDueSchedules(Date now) {
+
+		return jdbcTemplate.query(
+				"select " + SCHEDULE_COLUMNS + " from snapshot_schedule where enabled=? and next_run<=? order by next_run",
+				new Object[] { true, toTimestamp(now) }, new SnapshotScheduleRowMapper());
+	}
+
+	@Override
+	public boolean claimRun(int scheduleId, Date now, Date staleBefore) {
+
+		// Atomic, such that only one caller succeeds
+		return jdbcTemplate.update("update snapshot_schedule set running_since=? "
+				+ "where id=? and (running_since is null or running_since<?)", 
+				toTimestamp(now), scheduleId, toTimestamp(staleBefore)) > 0;
+	}
+
+	@Override
+	public void finishRun(int scheduleId, Date lastRun, Date nextRun, Integer snapshotId, String error) {
+
+		jdbcTemplate.update("update snapshot_schedule set running_since=null, last_run=?, next_run=?, "
+				+ "last_snapshot_id=?, last_error=? where id=?", 
+				toTimestamp(lastRun), toTimestamp(nextRun), snapshotId, error, scheduleId);
+	}
+
+	private static Timestamp toTimestamp(Date date) {
+		return date == null ? null : new Timestamp(date.getTime());
+	}
+}
@@ -0,0 +1,102 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
+
+public class SnapshotTriggerJdbcDAO implements SnapshotTriggerDAO {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private SimpleJdbcInsert snapshotTriggerInsert;
+
+	private static final String TRIGGER_COLUMNS = "id, config_id, pv_name, group_name, condition_type, "
+			+ "condition_value, min_severity, debounce_ms, min_interval_seconds, user_name, comment_template, enabled, "
+			+ "last_fired, last_snapshot_id, last_error";
+
+	@Override
+	public SnapshotTrigger createTrigger(SnapshotTrigger trigger) {
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("config_id", trigger.getConfigId());
+		params.put("pv_name", trigger.getPvName());
+		params.put("group_name", trigger.getGroupName());
+		params.put("condition_type", trigger.getCondition().name());
+		params.put("condition_value", trigger.getValue());
+		params.put("min_severity", trigger.getMinSeverity());
+		params.put("debounce_ms", trigger.getDebounceMillis());
+		params.put("min_interval_seconds", trigger.getMinIntervalSeconds());
+		params.put("user_name", trigger.getUserName());
+		params.put("comment_template", trigger.getCommentTemplate());
+		params.put("enabled", trigger.isEnabled());
+
+		int triggerId = snapshotTriggerInsert.executeAndReturnKey(params).intValue();
+
+		return getTrigger(triggerId);
+	}
+
+	@Override
+	public SnapshotTrigger getTrigger(int triggerId) {
+
+		List<SnapshotTrigger> triggers = jdbcTemplate.query(
+				"select " + TRIGGER_COLUMNS + " from snapshot_trigger where id=?", new Object[] { triggerId },
+				new SnapshotTriggerRowMapper());
+
+		return triggers.isEmpty() ? null : triggers.get(0);
+	}
+
+	@Override
+	public List<SnapshotTrigger> getTriggers(int configId) {
+
+		return jdbcTemplate.query("select " + TRIGGER_COLUMNS + " from snapshot_trigger where config_id=? order by id",
+				new Object[] { configId }, new SnapshotTriggerRowMapper());
+	}
+
+	@Override
+	public List<SnapshotTrigger> getEnabledTriggers() {
+
+		return jdbcTemplate.query("select " + TRIGGER_COLUMNS + " from snapshot_trigger where enabled=? order by id",
+				new Object[] { true }, new SnapshotTriggerRowMapper());
+	}
+
+	@Override
+	public boolean deleteTrigger(int triggerId) {
+
+		return jdbcTemplate.update("delete from snapshot_trigger where id=?", triggerId) > 0;
+	}
+
+	@Override
+	public void triggerFired(int triggerId, Date fired, Integer snapshotId, String error) {
+
+		jdbcTemplate.update("update snapshot_trigger set last_fired=?, last_snapshot_id=?, last_error=? where id=?",
+				new Timestamp(fired.getTime()), snapshotId, error, triggerId);
+	}
+}
@@ -0,0 +1,52 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+
+public class SnapshotTriggerRowMapper implements RowMapper<SnapshotTrigger> {
+
+	@Override
+	public SnapshotTrigger mapRow(ResultSet resultSet, int rowIndex) throws SQLException {
+
+		SnapshotTrigger trigger = new SnapshotTrigger();
+		trigger.setId(resultSet.getInt("id"));
+		trigger.setConfigId(resultSet.getInt("config_id"));
+		trigger.setPvName(resultSet.getString("pv_name"));
+		trigger.setGroupName(resultSet.getString("group_name"));
+		trigger.setCondition(Condition.valueOf(resultSet.getString("condition_type")));
+		trigger.setValue(resultSet.getString("condition_value"));
+		trigger.setMinSeverity(resultSet.getInt("min_severity"));
+		trigger.setDebounceMillis(resultSet.getLong("debounce_ms"));
+		trigger.setMinIntervalSeconds(resultSet.getLong("min_interval_seconds"));
+		trigger.setUserName(resultSet.getString("user_name"));
+		trigger.setCommentTemplate(resultSet.getString("comment_template"));
+		trigger.setEnabled(resultSet.getBoolean("enabled"));
+		trigger.setLastFired(resultSet.getTimestamp("last_fired"));
+		int lastSnapshotId = resultSet.getInt("last_snapshot_id");
+		trigger.setLastSnapshotId(resultSet.wasNull() ? null : lastSnapshotId);
+		trigger.setLastError(resultSet.getString("last_error"));
+		return trigger;
+	}
+}
@@ -0,0 +1,68 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.ClassUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Registry of Jackson {@link ObjectReader}s keyed by the class name stored in the <code>clazz</code> column
+ * of <code>snapshot_pv</code>, i.e. the canonical name of the value class. Readers for the value types created
+ * by {@link se.esss.ics.masar.epics.util.SnapshotPvFactory} are created up front, other class names are
+ * resolved once and then cached.
+ * 
+ * Instances are thread safe and meant to be shared between queries.
+ */
+public class TypedValueReaders {
+
+	private static final Class<?>[] VALUE_TYPES = { Byte.class, Short.class, Integer.class, Long.class, Float.class,
+			Double.class, Boolean.class, String.class, byte[].class, short[].class, int[].class, long[].class,
+			float[].class, double[].class, String[].class };
+
+	private ObjectMapper objectMapper;
+
+	private Map<String, ObjectReader> readers = new ConcurrentHashMap<>();
+
+	public TypedValueReaders(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+		for (Class<?> clazz : VALUE_TYPES) {
+			readers.put(clazz.getCanonicalName(), objectMapper.readerFor(clazz));
+		}
+	}
+
+	/**
+	 * @param className The canonical name of a class, e.g. <code>java.lang.Double</code> or <code>int[]</code>.
+	 * @return A reader for values of the class.
+	 * @throws ClassNotFoundException if the class cannot be loaded.
+	 */
+	public ObjectReader getReader(String className) throws ClassNotFoundException {
+
+		ObjectReader reader = readers.get(className);
+		if (reader == null) {
+			// ClassUtils, unlike Class.forName, also understands array class names like int[]
+			reader = objectMapper.readerFor(ClassUtils.forName(className, TypedValueReaders.class.getClassLoader()));
+			readers.put(className, reader);
+		}
+		return reader;
+	}
+}
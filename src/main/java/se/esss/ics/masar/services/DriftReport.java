@@ -0,0 +1,129 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The PVs of a configuration of which the live values deviate from its reference snapshot by more than their
+ * tolerance, see {@link se.esss.ics.masar.persistence.dao.DriftReference}.
+ */
+public class DriftReport {
+
+	/**
+	 * A PV that has drifted.
+	 */
+	public static class DriftedPv {
+
+		private final String pvName;
+		private final Object referenceValue;
+		private final Object liveValue;
+		private final Double deviation;
+		private final double tolerance;
+		private final Date since;
+
+		public DriftedPv(String pvName, Object referenceValue, Object liveValue, Double deviation, double tolerance,
+				Date since) {
+			this.pvName = pvName;
+			this.referenceValue = referenceValue;
+			this.liveValue = liveValue;
+			this.deviation = deviation;
+			this.tolerance = tolerance;
+			this.since = since;
+		}
+
+		public String getPvName() {
+			return pvName;
+		}
+
+		public Object getReferenceValue() {
+			return referenceValue;
+		}
+
+		public Object getLiveValue() {
+			return liveValue;
+		}
+
+		/**
+		 * @return The absolute difference of numeric values, the largest one of numeric arrays, or
+		 * <code>null</code> if the values are not numeric or of different lengths.
+		 */
+		public Double getDeviation() {
+			return deviation;
+		}
+
+		public double getTolerance() {
+			return tolerance;
+		}
+
+		/**
+		 * @return The time the PV was first found to have drifted.
+		 */
+		public Date getSince() {
+			return since;
+		}
+	}
+
+	private final int configId;
+	private final int snapshotId;
+	private final int pvCount;
+	private final int connectedCount;
+	private final List<DriftedPv> driftedPvs;
+
+	public DriftReport(int configId, int snapshotId, int pvCount, int connectedCount, List<DriftedPv> driftedPvs) {
+		this.configId = configId;
+		this.snapshotId = snapshotId;
+		this.pvCount = pvCount;
+		this.connectedCount = connectedCount;
+		this.driftedPvs = driftedPvs;
+	}
+
+	public int getConfigId() {
+		return configId;
+	}
+
+	/**
+	 * @return The id of the reference snapshot.
+	 */
+	public int getSnapshotId() {
+		return snapshotId;
+	}
+
+	/**
+	 * @return The number of monitored PVs, those read successfully in the reference snapshot.
+	 */
+	public int getPvCount() {
+		return pvCount;
+	}
+
+	/**
+	 * @return The number of monitored PVs of which a live value has been received. The others cannot be
+	 * compared.
+	 */
+	public int getConnectedCount() {
+		return connectedCount;
+	}
+
+	/**
+	 * @return The PVs that have drifted, by PV name.
+	 */
+	public List<DriftedPv> getDriftedPvs() {
+		return driftedPvs;
+	}
+}
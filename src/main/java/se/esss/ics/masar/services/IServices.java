@@ -18,17 +18,43 @@
 package se.esss.ics.masar.services;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.Folder;
 import se.esss.ics.masar.model.Node;
 import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.NodeVersion;
+import se.esss.ics.masar.persistence.dao.SnapshotPvFilter;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
 
 public interface IServices {
 	
 	public Folder createFolder(Folder folder);
 	
 	public Folder getFolder(int nodeId);
+	
+	public Folder getFolderTree(int nodeId, Integer depth, boolean includePvs);
+	
+	/**
+	 * Computes the version of a folder or configuration, including its parent and child nodes, without loading it.
+	 * @param nodeId The node id.
+	 * @return A {@link NodeVersion} object, or <code>null</code> if the node does not exist.
+	 */
+	public NodeVersion getNodeVersion(int nodeId);
+	
+	/**
+	 * Computes the version of a folder tree as returned by {@link #getFolderTree(int, Integer, boolean)} without
+	 * loading it.
+	 * @param nodeId The node id of the folder.
+	 * @param depth Optional maximum depth of the sub-tree.
+	 * @return A {@link NodeVersion} object, or <code>null</code> if the node does not exist.
+	 */
+	public NodeVersion getFolderTreeVersion(int nodeId, Integer depth);
 		
 	public Config createNewConfiguration(Config configuration);
 	
@@ -36,11 +62,156 @@ public interface IServices {
 			
 	public Snapshot takeSnapshot(int configId);
 	
+	/**
+	 * Takes preliminary snapshots of several configurations. PVs contained in more than one of the configurations
+	 * are read once, and PVs are read in parallel.
+	 * @param configIds The node ids of the configurations.
+	 * @return One preliminary snapshot per configuration, in the order of the ids. All have the same creation time
+	 * and are saved in one transaction.
+	 * @throws se.esss.ics.masar.services.exception.ConfigNotFoundException if a configuration does not exist.
+	 */
+	public List<Snapshot> takeSnapshots(List<Integer> configIds);
+	
+	/**
+	 * Takes a preliminary snapshot asynchronously, such that the caller need not wait for all PVs to be read.
+	 * @param configId The node id of the configuration.
+	 * @return The submitted job, which reports the progress and eventually the snapshot id.
+	 * @throws se.esss.ics.masar.services.exception.ConfigNotFoundException if the configuration does not exist.
+	 */
+	public SnapshotJob submitSnapshotJob(int configId);
+	
+	/**
+	 * Takes a preliminary snapshot asynchronously, notifying a listener of each PV read.
+	 * @param configId The node id of the configuration.
+	 * @param listener Receives the PV values as they are read, and the job once finished.
+	 * @return The submitted job.
+	 * @throws se.esss.ics.masar.services.exception.ConfigNotFoundException if the configuration does not exist.
+	 */
+	public SnapshotJob submitSnapshotJob(int configId, SnapshotJobListener listener);
+	
+	/**
+	 * @param jobId The id of a job returned by {@link #submitSnapshotJob(int)}.
+	 * @return The job.
+	 * @throws se.esss.ics.masar.services.exception.SnapshotJobNotFoundException if the job does not exist, or
+	 * finished longer ago than the retention time.
+	 */
+	public SnapshotJob getSnapshotJob(String jobId);
+	
 	public Snapshot commitSnapshot(int snapshotId, String userName, String comment);
 	
+	/**
+	 * Takes and commits a snapshot on behalf of a {@link SnapshotSchedule} or a {@link SnapshotTrigger}, subject
+	 * to the admission limits of scheduled snapshots.
+	 * @param configId The node id of the configuration.
+	 * @param userName The user name of the committed snapshot.
+	 * @param comment The comment of the committed snapshot.
+	 * @return The committed snapshot.
+	 * @throws se.esss.ics.masar.services.exception.ConfigNotFoundException if the configuration does not exist.
+	 */
+	public Snapshot takeScheduledSnapshot(int configId, String userName, String comment);
+	
+	/**
+	 * @param schedule A schedule, of which the id, next run and outcome of the last run are ignored.
+	 * @return The saved schedule, including its id and the time of its first run.
+	 * @throws IllegalArgumentException if the cron expression is invalid, or if the user name or comment
+	 * template is missing.
+	 * @throws se.esss.ics.masar.services.exception.ConfigNotFoundException if the configuration does not exist.
+	 */
+	public SnapshotSchedule createSnapshotSchedule(SnapshotSchedule schedule);
+	
+	public List<SnapshotSchedule> getSnapshotSchedules(int configId);
+	
+	/**
+	 * @param scheduleId The id of a schedule.
+	 * @throws se.esss.ics.masar.services.exception.SnapshotScheduleNotFoundException if the schedule does not exist.
+	 */
+	public void deleteSnapshotSchedule(int scheduleId);
+	
+	/**
+	 * @param trigger A trigger, of which the id and outcome of the last snapshot are ignored.
+	 * @return The saved trigger, including its id.
+	 * @throws IllegalArgumentException if the trigger is incomplete, e.g. neither a PV nor a group is specified.
+	 * @throws se.esss.ics.masar.services.exception.ConfigNotFoundException if the configuration does not exist.
+	 */
+	public SnapshotTrigger createSnapshotTrigger(SnapshotTrigger trigger);
+	
+	public List<SnapshotTrigger> getSnapshotTriggers(int configId);
+	
+	/**
+	 * @param triggerId The id of a trigger.
+	 * @throws se.esss.ics.masar.services.exception.SnapshotTriggerNotFoundException if the trigger does not exist.
+	 */
+	public void deleteSnapshotTrigger(int triggerId);
+	
+	/**
+	 * Marks a committed snapshot as the reference of its configuration, replacing any previous reference.
+	 * @param reference The reference, of which the creation time is ignored.
+	 * @return The saved reference.
+	 * @throws IllegalArgumentException if the snapshot belongs to another configuration, or if a tolerance is
+	 * negative.
+	 * @throws se.esss.ics.masar.services.exception.SnapshotNotFoundException if the snapshot does not exist or is
+	 * not committed.
+	 */
+	public DriftReference setDriftReference(DriftReference reference);
+	
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return The reference of the configuration.
+	 * @throws se.esss.ics.masar.services.exception.DriftReferenceNotFoundException if no reference is set.
+	 */
+	public DriftReference getDriftReference(int configId);
+	
+	/**
+	 * @param configId The node id of a configuration.
+	 * @throws se.esss.ics.masar.services.exception.DriftReferenceNotFoundException if no reference is set.
+	 */
+	public void deleteDriftReference(int configId);
+	
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return The PVs of which the live values currently deviate from the reference snapshot.
+	 * @throws IllegalArgumentException if drift detection is not enabled.
+	 * @throws se.esss.ics.masar.services.exception.DriftReferenceNotFoundException if no reference is set.
+	 */
+	public DriftReport getDrift(int configId);
+	
 	public List<Snapshot> getSnapshots(int configId);
 	
+	/**
+	 * Get a filtered page of committed snapshots of a configuration, newest first.
+	 * @param configId The node id of the configuration.
+	 * @param query Filter and page specification.
+	 * @return A list of {@link Snapshot} objects without PV values.
+	 */
+	public List<Snapshot> getSnapshots(int configId, SnapshotQuery query);
+	
 	public Snapshot getSnapshot(int snapshotId);
+	
+	/**
+	 * Get a committed snapshot including only the PVs selected by a filter.
+	 * @param snapshotId The database id of the snapshot.
+	 * @param filter Selects the PVs to include, and whether their values are read.
+	 * @return A {@link Snapshot} object.
+	 * @throws se.esss.ics.masar.services.exception.SnapshotNotFoundException if there is no committed snapshot with
+	 * the specified id.
+	 */
+	public Snapshot getSnapshot(int snapshotId, SnapshotPvFilter filter);
+	
+	/**
+	 * Get a committed snapshot without its PV values.
+	 * @param snapshotId The database id of the snapshot.
+	 * @return A {@link Snapshot} object. 
+	 * @throws se.esss.ics.masar.services.exception.SnapshotNotFoundException if there is no committed snapshot with
+	 * the specified id.
+	 */
+	public Snapshot getSnapshotHeader(int snapshotId);
+	
+	/**
+	 * Passes the PV values of a snapshot one by one to a consumer, without loading all values into memory.
+	 * @param snapshotId The database id of the snapshot.
+	 * @param consumer Consumer called once per PV value.
+	 */
+	public void streamSnapshotPvs(int snapshotId, Consumer<SnapshotPv<?>> consumer);
 		
 	public void deleteSnapshot(int snapshotId);
 	
@@ -51,5 +222,9 @@ public interface IServices {
 	public Config updateConfiguration(Config config);
 	
 	public Node renameNode(int nodeId, String name);
+	
+	public List<Node> getNodesByPath(String path);
+	
+	public List<Node> getNodePath(int nodeId);
 
 }
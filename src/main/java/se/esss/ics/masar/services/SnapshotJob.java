@@ -0,0 +1,149 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress and outcome of a snapshot taken asynchronously. Acquisition progress is updated by the job thread and may
+ * be read concurrently.
+ */
+public class SnapshotJob {
+
+	public enum Status {
+		/** Waiting for an executor thread. */
+		QUEUED,
+		/** Reading PVs. */
+		RUNNING,
+		/** The preliminary snapshot has been saved, see {@link SnapshotJob#getSnapshotId()}. */
+		COMPLETED,
+		/** The job has failed, see {@link SnapshotJob#getError()}. */
+		FAILED
+	}
+
+	private final String id;
+	private final int configId;
+	private final int pvCount;
+	private final Date submitted = new Date();
+	private final AtomicInteger read = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile Status status = Status.QUEUED;
+	private volatile Date finished;
+	private volatile Integer snapshotId;
+	private volatile String error;
+
+	public SnapshotJob(String id, int configId, int pvCount) {
+		this.id = id;
+		this.configId = configId;
+		this.pvCount = pvCount;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getConfigId() {
+		return configId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * @return The time the job completed or failed, <code>null</code> if not yet finished.
+	 */
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return The number of PVs of the configuration.
+	 */
+	public int getPvCount() {
+		return pvCount;
+	}
+
+	/**
+	 * @return The number of PVs read successfully so far.
+	 */
+	public int getRead() {
+		return read.get();
+	}
+
+	/**
+	 * @return The number of PVs that could not be read so far.
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return The number of PVs not yet attempted.
+	 */
+	public int getPending() {
+		return pvCount - read.get() - failed.get();
+	}
+
+	/**
+	 * @return The id of the preliminary snapshot once the job has completed, otherwise <code>null</code>.
+	 */
+	public Integer getSnapshotId() {
+		return snapshotId;
+	}
+
+	/**
+	 * @return The reason of failure of a failed job, otherwise <code>null</code>.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public boolean isDone() {
+		return status == Status.COMPLETED || status == Status.FAILED;
+	}
+
+	public void started() {
+		status = Status.RUNNING;
+	}
+
+	public void pvRead() {
+		read.incrementAndGet();
+	}
+
+	public void pvFailed() {
+		failed.incrementAndGet();
+	}
+
+	public void completed(int snapshotId) {
+		this.snapshotId = snapshotId;
+		finished = new Date();
+		status = Status.COMPLETED;
+	}
+
+	public void failed(String error) {
+		this.error = error;
+		finished = new Date();
+		status = Status.FAILED;
+	}
+}
@@ -0,0 +1,51 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services;
+
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * Receives the results of an asynchronous snapshot job as they become available. PVs are read in parallel, and
+ * the methods are called one at a time in the order the reads complete, not necessarily on the same thread.
+ */
+public interface SnapshotJobListener {
+
+	/**
+	 * Called when a PV has been read.
+	 * @param snapshotPv The value read.
+	 */
+	default void pvRead(SnapshotPv<?> snapshotPv) {
+	}
+
+	/**
+	 * Called when a PV could not be read. The PV is left out of the snapshot, or kept with fetch status
+	 * <code>false</code> if the EPICS layer returned it as such.
+	 * @param configPv The PV.
+	 * @param error The reason.
+	 */
+	default void pvFailed(ConfigPv configPv, String error) {
+	}
+
+	/**
+	 * Called once the job has completed or failed.
+	 * @param job The job.
+	 */
+	default void jobFinished(SnapshotJob job) {
+	}
+}
@@ -17,30 +17,213 @@
  */
 package se.esss.ics.masar.services.config;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import se.esss.ics.masar.epics.IEpicsService;
 import se.esss.ics.masar.epics.impl.EpicsService;
+import se.esss.ics.masar.epics.impl.PvReadScheduler;
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
 import se.esss.ics.masar.persistence.dao.impl.ConfigJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.DriftReferenceJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.LeaseJdbcDAO;
 import se.esss.ics.masar.persistence.dao.impl.SnapshotJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.SnapshotScheduleJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.SnapshotTriggerJdbcDAO;
+import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.impl.AdmissionController;
+import se.esss.ics.masar.services.impl.AdmissionController.Limits;
+import se.esss.ics.masar.services.impl.AdmissionController.Workload;
+import se.esss.ics.masar.services.impl.DriftMonitor;
+import se.esss.ics.masar.services.impl.SnapshotCache;
+import se.esss.ics.masar.services.impl.SnapshotCoalescer;
+import se.esss.ics.masar.services.impl.SnapshotScheduler;
+import se.esss.ics.masar.services.impl.SnapshotTriggerManager;
 
 @Configuration
 public class ServicesConfiguration {
 
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	@Bean
 	public ConfigDAO configDAO() {
 		return new ConfigJdbcDAO();
 	}
 	
 	@Bean SnapshotDAO snapshotDAO() {
-		return new SnapshotJdbcDAO();
+		return new SnapshotJdbcDAO(jdbcTemplate, objectMapper);
+	}
+	
+	@Bean
+	public LeaseDAO leaseDAO() {
+		return new LeaseJdbcDAO();
+	}
+	
+	@Bean
+	public SnapshotScheduleDAO snapshotScheduleDAO() {
+		return new SnapshotScheduleJdbcDAO();
+	}
+	
+	@Bean
+	public SnapshotTriggerDAO snapshotTriggerDAO() {
+		return new SnapshotTriggerJdbcDAO();
+	}
+	
+	@Bean
+	public DriftReferenceDAO driftReferenceDAO() {
+		return new DriftReferenceJdbcDAO();
+	}
+	
+	@Bean
+	public SnapshotCache snapshotCache(@Value("${masar.snapshot.cache.max-bytes:268435456}") long maximumBytes) {
+		return new SnapshotCache(maximumBytes);
+	}
+	
+	@Bean
+	public SnapshotCoalescer snapshotCoalescer(@Value("${masar.snapshot.coalesce.window-ms:0}") long windowMillis,
+			@Value("${masar.snapshot.coalesce.shared-snapshot:false}") boolean sharedSnapshot) {
+		return new SnapshotCoalescer(windowMillis, sharedSnapshot);
+	}
+	
+	@Bean
+	public AdmissionController admissionController(
+			@Value("${masar.snapshot.admission.interactive.max-concurrent:4}") int interactiveConcurrent,
+			@Value("${masar.snapshot.admission.interactive.max-queued:16}") int interactiveQueued,
+			@Value("${masar.snapshot.admission.scheduled.max-concurrent:2}") int scheduledConcurrent,
+			@Value("${masar.snapshot.admission.scheduled.max-queued:8}") int scheduledQueued,
+			@Value("${masar.snapshot.admission.batch.max-concurrent:1}") int batchConcurrent,
+			@Value("${masar.snapshot.admission.batch.max-queued:2}") int batchQueued,
+			@Value("${masar.snapshot.admission.max-wait-ms:30000}") long maxWaitMillis) {
+		Map<Workload, Limits> limits = new EnumMap<>(Workload.class);
+		limits.put(Workload.INTERACTIVE, new Limits(interactiveConcurrent, interactiveQueued, maxWaitMillis));
+		limits.put(Workload.SCHEDULED, new Limits(scheduledConcurrent, scheduledQueued, maxWaitMillis));
+		limits.put(Workload.BATCH, new Limits(batchConcurrent, batchQueued, maxWaitMillis));
+		return new AdmissionController(limits);
+	}
+	
+	/**
+	 * Executor of asynchronous snapshot jobs. Jobs beyond the number of threads are queued, and submissions
+	 * beyond the queue capacity are rejected.
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor snapshotJobExecutor(@Value("${masar.snapshot.jobs.threads:4}") int threads,
+			@Value("${masar.snapshot.jobs.queue-capacity:100}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("snapshot-job-");
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(60);
+		return executor;
 	}
 	
 	@Bean
 	public IEpicsService epicsService() {
 		return new EpicsService();
 	}
+	
+	/**
+	 * Executor of PV reads, its number of threads being the total number of reads in progress.
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor pvReadExecutor(@Value("${masar.epics.read.threads:32}") int threads) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setThreadNamePrefix("pv-read-");
+		return executor;
+	}
+	
+	@Bean(destroyMethod = "shutdown")
+	public PvReadScheduler pvReadScheduler(@Qualifier("pvReadExecutor") TaskExecutor pvReadExecutor,
+			@Value("${masar.epics.read.prefix-pattern:^([^:]+):}") String prefixPattern,
+			@Value("${masar.epics.read.max-concurrent-per-server:4}") int maxConcurrentPerServer,
+			@Value("${masar.epics.read.max-rate-per-server:0}") double maxRatePerServer) {
+		return new PvReadScheduler(epicsService(), pvReadExecutor, 
+				prefixPattern.isEmpty() ? null : Pattern.compile(prefixPattern), maxConcurrentPerServer, maxRatePerServer);
+	}
+	
+	/**
+	 * Executor of the runs of snapshot schedules.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "masar.scheduler.enabled", havingValue = "true")
+	public ThreadPoolTaskExecutor scheduledSnapshotExecutor(@Value("${masar.scheduler.threads:2}") int threads) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(0);
+		executor.setThreadNamePrefix("scheduled-snapshot-");
+		return executor;
+	}
+	
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name = "masar.scheduler.enabled", havingValue = "true")
+	public SnapshotScheduler snapshotScheduler(IServices services,
+			@Qualifier("scheduledSnapshotExecutor") TaskExecutor scheduledSnapshotExecutor,
+			@Value("${masar.scheduler.poll-seconds:10}") long pollSeconds,
+			@Value("${masar.scheduler.lease-seconds:60}") long leaseSeconds,
+			@Value("${masar.scheduler.stale-run-minutes:60}") long staleRunMinutes) {
+		return new SnapshotScheduler(snapshotScheduleDAO(), leaseDAO(), services, scheduledSnapshotExecutor,
+				TimeUnit.SECONDS.toMillis(pollSeconds), TimeUnit.SECONDS.toMillis(leaseSeconds),
+				TimeUnit.MINUTES.toMillis(staleRunMinutes));
+	}
+	
+	/**
+	 * Executor of the snapshots of snapshot triggers.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "masar.trigger.enabled", havingValue = "true")
+	public ThreadPoolTaskExecutor triggeredSnapshotExecutor(@Value("${masar.trigger.threads:2}") int threads) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(0);
+		executor.setThreadNamePrefix("triggered-snapshot-");
+		return executor;
+	}
+	
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name = "masar.trigger.enabled", havingValue = "true")
+	public SnapshotTriggerManager snapshotTriggerManager(IServices services,
+			@Qualifier("triggeredSnapshotExecutor") TaskExecutor triggeredSnapshotExecutor,
+			@Value("${masar.trigger.poll-seconds:10}") long pollSeconds,
+			@Value("${masar.trigger.lease-seconds:60}") long leaseSeconds,
+			@Value("${masar.trigger.max-per-minute:10}") int maxPerMinute) {
+		return new SnapshotTriggerManager(snapshotTriggerDAO(), leaseDAO(), services, epicsService(),
+				triggeredSnapshotExecutor, TimeUnit.SECONDS.toMillis(pollSeconds), TimeUnit.SECONDS.toMillis(leaseSeconds),
+				maxPerMinute);
+	}
+	
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name = "masar.drift.enabled", havingValue = "true")
+	public DriftMonitor driftMonitor(@Value("${masar.drift.poll-seconds:30}") long pollSeconds,
+			@Value("${masar.drift.max-monitors:1000}") int maxMonitors) {
+		return new DriftMonitor(driftReferenceDAO(), snapshotDAO(), epicsService(), TimeUnit.SECONDS.toMillis(pollSeconds),
+				maxMonitors);
+	}
 }
@@ -0,0 +1,40 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.exception;
+
+/**
+ * Thrown when a snapshot is not taken because too many are already being taken or waiting.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = -3270563402893374181L;
+	
+	private final long retryAfterSeconds;
+	
+	public AdmissionRejectedException(String message, long retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+	
+	/**
+	 * @return The estimated time after which the request may be admitted.
+	 */
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
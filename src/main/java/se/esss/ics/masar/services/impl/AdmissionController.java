@@ -0,0 +1,185 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import se.esss.ics.masar.services.exception.AdmissionRejectedException;
+
+/**
+ * Limits the number of snapshots being taken at once, such that bursts of requests do not exhaust the database
+ * connections or the PV read threads. Each kind of workload has its own bulkhead of a maximum number of snapshots
+ * in progress and a bounded number of snapshots waiting, such that e.g. a batch of scripted snapshots does not
+ * delay interactive ones. Snapshots beyond the queue bound, or waiting longer than the maximum wait time, are
+ * rejected with an {@link AdmissionRejectedException}.
+ * <p>
+ * Being a {@link MeterBinder}, the controller publishes the number of snapshots in progress, waiting and
+ * rejected per workload when declared as a bean.
+ */
+public class AdmissionController implements MeterBinder {
+
+	public enum Workload {
+		INTERACTIVE, SCHEDULED, BATCH
+	}
+
+	/**
+	 * Limits of a workload.
+	 */
+	public static class Limits {
+
+		private final int maxConcurrent;
+		private final int maxQueued;
+		private final long maxWaitMillis;
+
+		/**
+		 * @param maxConcurrent Maximum number of snapshots in progress.
+		 * @param maxQueued Maximum number of snapshots waiting for one in progress to finish.
+		 * @param maxWaitMillis Maximum time a snapshot waits.
+		 */
+		public Limits(int maxConcurrent, int maxQueued, long maxWaitMillis) {
+			if (maxConcurrent < 1) {
+				throw new IllegalArgumentException("The number of concurrent snapshots must be at least 1");
+			}
+			this.maxConcurrent = maxConcurrent;
+			this.maxQueued = maxQueued;
+			this.maxWaitMillis = maxWaitMillis;
+		}
+	}
+
+	private static class Bulkhead {
+
+		private final Limits limits;
+		private final Semaphore permits;
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicLong rejected = new AtomicLong();
+		// Exponentially weighted mean duration of admitted snapshots
+		private volatile double meanMillis = 1000;
+
+		private Bulkhead(Limits limits) {
+			this.limits = limits;
+			this.permits = new Semaphore(limits.maxConcurrent, true);
+		}
+
+		private int getActive() {
+			return limits.maxConcurrent - permits.availablePermits();
+		}
+	}
+
+	private final Map<Workload, Bulkhead> bulkheads = new EnumMap<>(Workload.class);
+
+	/**
+	 * @param limits The limits of each workload. All workloads must be specified.
+	 */
+	public AdmissionController(Map<Workload, Limits> limits) {
+		for (Workload workload : Workload.values()) {
+			if (!limits.containsKey(workload)) {
+				throw new IllegalArgumentException("No limits specified for workload " + workload);
+			}
+			bulkheads.put(workload, new Bulkhead(limits.get(workload)));
+		}
+	}
+
+	/**
+	 * Takes a snapshot once admitted, waiting if the maximum number of snapshots of the workload are in progress.
+	 * @param workload The workload of the snapshot.
+	 * @param task Takes the snapshot.
+	 * @return The result of the task.
+	 * @throws AdmissionRejectedException if too many snapshots are waiting, or the snapshot waited too long.
+	 */
+	public <T> T execute(Workload workload, Supplier<T> task) {
+		Bulkhead bulkhead = bulkheads.get(workload);
+		acquire(workload, bulkhead);
+		long start = System.nanoTime();
+		try {
+			return task.get();
+		} finally {
+			double millis = (System.nanoTime() - start) / 1e6;
+			bulkhead.meanMillis = 0.8 * bulkhead.meanMillis + 0.2 * millis;
+			bulkhead.permits.release();
+		}
+	}
+
+	/**
+	 * Rejects a snapshot that is to be taken asynchronously right away if it would be rejected by
+	 * {@link #execute(Workload, Supplier)} now, such that the caller need not wait for the result to know.
+	 * @param workload The workload of the snapshot.
+	 * @throws AdmissionRejectedException if too many snapshots are waiting.
+	 */
+	public void checkCapacity(Workload workload) {
+		Bulkhead bulkhead = bulkheads.get(workload);
+		if (bulkhead.permits.availablePermits() == 0 && bulkhead.queued.get() >= bulkhead.limits.maxQueued) {
+			throw reject(workload, bulkhead);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		bulkheads.forEach((workload, bulkhead) -> {
+			String tag = workload.name().toLowerCase();
+			Gauge.builder("masar.snapshot.admission.active", bulkhead, Bulkhead::getActive).tag("workload", tag)
+					.description("Snapshots in progress").register(registry);
+			Gauge.builder("masar.snapshot.admission.queued", bulkhead.queued, AtomicInteger::get).tag("workload", tag)
+					.description("Snapshots waiting to be admitted").register(registry);
+			FunctionCounter.builder("masar.snapshot.admission.rejected", bulkhead.rejected, AtomicLong::get)
+					.tag("workload", tag).description("Snapshots rejected as too many were waiting")
+					.register(registry);
+		});
+	}
+
+	private void acquire(Workload workload, Bulkhead bulkhead) {
+		try {
+			// Unlike tryAcquire(), honours the fairness towards waiting snapshots
+			if (bulkhead.permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+			if (bulkhead.queued.incrementAndGet() > bulkhead.limits.maxQueued) {
+				bulkhead.queued.decrementAndGet();
+				throw reject(workload, bulkhead);
+			}
+			try {
+				if (!bulkhead.permits.tryAcquire(bulkhead.limits.maxWaitMillis, TimeUnit.MILLISECONDS)) {
+					throw reject(workload, bulkhead);
+				}
+			} finally {
+				bulkhead.queued.decrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw reject(workload, bulkhead);
+		}
+	}
+
+	private AdmissionRejectedException reject(Workload workload, Bulkhead bulkhead) {
+		bulkhead.rejected.incrementAndGet();
+		// Time for the snapshots in progress and waiting to finish
+		double waitMillis = bulkhead.meanMillis * (bulkhead.queued.get() + 1) / bulkhead.limits.maxConcurrent;
+		long retryAfterSeconds = Math.max(1, (long) Math.ceil(waitMillis / 1000));
+		return new AdmissionRejectedException("Too many " + workload.name().toLowerCase()
+				+ " snapshots in progress, retry after " + retryAfterSeconds + " s.", retryAfterSeconds);
+	}
+}
@@ -0,0 +1,308 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.PvMonitor;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.services.DriftReport;
+import se.esss.ics.masar.services.DriftReport.DriftedPv;
+
+/**
+ * Monitors the PVs of the {@link DriftReference} snapshots, and compares each change of a live value with the
+ * reference value, such that drift is known without reading the PVs or taking snapshots. The references are
+ * reloaded at each poll, so every service instance monitors the PVs and can report drift.
+ * <p>
+ * A PV is monitored once, however many references contain it. As {@link IEpicsService} implementations may hold
+ * a thread per monitor, at most <code>maxMonitors</code> distinct PVs are monitored. The PVs of a reference beyond
+ * that limit are logged and never connected, so its {@link DriftReport#getConnectedCount()} stays below its
+ * {@link DriftReport#getPvCount()}.
+ * <p>
+ * Being a {@link MeterBinder}, the monitor publishes the number of drifted PVs of each configuration.
+ */
+public class DriftMonitor implements MeterBinder {
+
+	private final DriftReferenceDAO driftReferenceDAO;
+	private final SnapshotDAO snapshotDAO;
+	private final IEpicsService epicsService;
+	private final long pollMillis;
+	private final int maxMonitors;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "drift-monitor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<Integer, ReferenceState> references = new ConcurrentHashMap<>();
+	// Modified while holding this, concurrent for the gauge
+	private final Map<String, SharedMonitor> monitors = new ConcurrentHashMap<>();
+	private final Set<Integer> registeredConfigIds = ConcurrentHashMap.newKeySet();
+	private volatile MeterRegistry registry;
+
+	private Logger logger = LoggerFactory.getLogger(DriftMonitor.class);
+
+	private static class ReferenceState {
+
+		private final DriftReference reference;
+		private final Map<String, SnapshotPv<?>> referencePvs;
+		private final List<String> monitoredPvNames = new ArrayList<>();
+		// Guarded by this
+		private final Set<String> connected = new HashSet<>();
+		private final Map<String, DriftedPv> drifted = new TreeMap<>();
+
+		ReferenceState(DriftReference reference, Map<String, SnapshotPv<?>> referencePvs) {
+			this.reference = reference;
+			this.referencePvs = referencePvs;
+		}
+
+		synchronized void update(String pvName, SnapshotPv<?> livePv) {
+			if (!livePv.isFetchStatus()) {
+				return;
+			}
+			connected.add(pvName);
+			Object referenceValue = referencePvs.get(pvName).getValue();
+			Object liveValue = livePv.getValue();
+			double tolerance = reference.getTolerance(pvName);
+			Double deviation = getDeviation(referenceValue, liveValue);
+			if (deviation == null ? Objects.deepEquals(referenceValue, liveValue) : deviation <= tolerance) {
+				drifted.remove(pvName);
+			} else {
+				DriftedPv previous = drifted.get(pvName);
+				drifted.put(pvName, new DriftedPv(pvName, referenceValue, liveValue, deviation, tolerance,
+						previous == null ? new Date() : previous.getSince()));
+			}
+		}
+
+		synchronized DriftReport getReport() {
+			return new DriftReport(reference.getConfigId(), reference.getSnapshotId(), referencePvs.size(),
+					connected.size(), new ArrayList<>(drifted.values()));
+		}
+
+		synchronized int getDriftedCount() {
+			return drifted.size();
+		}
+	}
+
+	private static class SharedMonitor {
+
+		private final List<ReferenceState> states = new CopyOnWriteArrayList<>();
+		private volatile SnapshotPv<?> last;
+		private PvMonitor monitor;
+
+		void update(String pvName, SnapshotPv<?> livePv) {
+			last = livePv;
+			states.forEach(state -> state.update(pvName, livePv));
+		}
+	}
+
+	/**
+	 * @param driftReferenceDAO Stores the references.
+	 * @param snapshotDAO Loads the reference snapshots.
+	 * @param epicsService Monitors the PVs.
+	 * @param pollMillis Interval at which the references are reloaded.
+	 * @param maxMonitors Maximum number of distinct PVs monitored.
+	 */
+	public DriftMonitor(DriftReferenceDAO driftReferenceDAO, SnapshotDAO snapshotDAO, IEpicsService epicsService,
+			long pollMillis, int maxMonitors) {
+		this.driftReferenceDAO = driftReferenceDAO;
+		this.snapshotDAO = snapshotDAO;
+		this.epicsService = epicsService;
+		this.pollMillis = pollMillis;
+		this.maxMonitors = maxMonitors;
+	}
+
+	public void start() {
+		timer.scheduleWithFixedDelay(() -> {
+			try {
+				poll();
+			} catch (RuntimeException e) {
+				// Not thrown, as that would cancel polling
+				logger.error("Polling drift references failed", e);
+			}
+		}, 0, pollMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		timer.shutdownNow();
+		monitors.values().forEach(sharedMonitor -> sharedMonitor.monitor.close());
+		monitors.clear();
+		references.clear();
+	}
+
+	/**
+	 * Reloads the references, starting and stopping monitors as references are set and deleted.
+	 */
+	public synchronized void poll() {
+		Map<Integer, DriftReference> current = new HashMap<>();
+		driftReferenceDAO.getReferences().forEach(reference -> current.put(reference.getConfigId(), reference));
+
+		references.values().removeIf(state -> {
+			DriftReference reference = current.get(state.reference.getConfigId());
+			if (reference != null && reference.getSnapshotId() == state.reference.getSnapshotId()
+					&& Objects.equals(reference.getCreated(), state.reference.getCreated())) {
+				current.remove(reference.getConfigId());
+				return false;
+			}
+			unsubscribe(state);
+			return true;
+		});
+		current.values().forEach(this::add);
+	}
+
+	private void add(DriftReference reference) {
+		Snapshot snapshot = snapshotDAO.getSnapshot(reference.getSnapshotId(), true);
+		if (snapshot == null || snapshot.getSnapshotPvList() == null) {
+			logger.warn("Reference snapshot {} of configuration {} not found", reference.getSnapshotId(),
+					reference.getConfigId());
+			return;
+		}
+		// PVs that could not be read have no reference value. Sorted, such that the same PVs are monitored at the limit
+		Map<String, SnapshotPv<?>> referencePvs = new TreeMap<>();
+		for (SnapshotPv<?> snapshotPv : snapshot.getSnapshotPvList()) {
+			if (snapshotPv.isFetchStatus()) {
+				referencePvs.put(snapshotPv.getConfigPv().getPvName(), snapshotPv);
+			}
+		}
+		ReferenceState state = new ReferenceState(reference, referencePvs);
+		for (SnapshotPv<?> snapshotPv : referencePvs.values()) {
+			subscribe(state, snapshotPv.getConfigPv());
+		}
+		if (state.monitoredPvNames.size() < referencePvs.size()) {
+			logger.warn("Only {} of the {} PVs of configuration {} are monitored for drift, as {} PVs are monitored",
+					state.monitoredPvNames.size(), referencePvs.size(), reference.getConfigId(), maxMonitors);
+		}
+		references.put(reference.getConfigId(), state);
+
+		MeterRegistry meterRegistry = registry;
+		if (meterRegistry != null) {
+			register(reference.getConfigId(), meterRegistry);
+		}
+	}
+
+	private void subscribe(ReferenceState state, ConfigPv configPv) {
+		String pvName = configPv.getPvName();
+		SharedMonitor sharedMonitor = monitors.get(pvName);
+		if (sharedMonitor == null) {
+			if (monitors.size() >= maxMonitors) {
+				return;
+			}
+			SharedMonitor newMonitor = new SharedMonitor();
+			newMonitor.states.add(state);
+			newMonitor.monitor = epicsService.monitor(configPv, livePv -> newMonitor.update(pvName, livePv));
+			monitors.put(pvName, newMonitor);
+		} else {
+			sharedMonitor.states.add(state);
+			// The monitor has already delivered the current value to the other references
+			SnapshotPv<?> last = sharedMonitor.last;
+			if (last != null) {
+				state.update(pvName, last);
+			}
+		}
+		state.monitoredPvNames.add(pvName);
+	}
+
+	private void unsubscribe(ReferenceState state) {
+		for (String pvName : state.monitoredPvNames) {
+			SharedMonitor sharedMonitor = monitors.get(pvName);
+			sharedMonitor.states.remove(state);
+			if (sharedMonitor.states.isEmpty()) {
+				sharedMonitor.monitor.close();
+				monitors.remove(pvName);
+			}
+		}
+	}
+
+	/**
+	 * @param configId The node id of a configuration.
+	 * @return The drift of the configuration, or <code>null</code> if no reference of the configuration is
+	 * monitored.
+	 */
+	public DriftReport getDrift(int configId) {
+		ReferenceState state = references.get(configId);
+		return state == null ? null : state.getReport();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.registry = registry;
+		Gauge.builder("masar.drift.monitors", monitors, Map::size).description("PVs monitored for drift").register(registry);
+		references.keySet().forEach(configId -> register(configId, registry));
+	}
+
+	private void register(int configId, MeterRegistry registry) {
+		// Meters cannot be removed, so the gauge of a deleted reference remains at 0
+		if (registeredConfigIds.add(configId)) {
+			Gauge.builder("masar.drift.pvs", references, r -> {
+				ReferenceState state = r.get(configId);
+				return state == null ? 0 : state.getDriftedCount();
+			}).tag("config", Integer.toString(configId))
+					.description("PVs of which the live value deviates from the reference snapshot").register(registry);
+		}
+	}
+
+	/**
+	 * @param referenceValue A value.
+	 * @param liveValue Another value.
+	 * @return The absolute difference of numeric values, the largest one of numeric arrays of the same length,
+	 * otherwise <code>null</code>.
+	 */
+	static Double getDeviation(Object referenceValue, Object liveValue) {
+		if (referenceValue instanceof Number && liveValue instanceof Number) {
+			return Math.abs(((Number) referenceValue).doubleValue() - ((Number) liveValue).doubleValue());
+		}
+		if (referenceValue == null || liveValue == null || !referenceValue.getClass().isArray()
+				|| !liveValue.getClass().isArray() || Array.getLength(referenceValue) != Array.getLength(liveValue)) {
+			return null;
+		}
+		double deviation = 0;
+		for (int i = 0; i < Array.getLength(referenceValue); i++) {
+			Double elementDeviation = getDeviation(Array.get(referenceValue, i), Array.get(liveValue, i));
+			if (elementDeviation == null) {
+				return null;
+			}
+			deviation = Math.max(deviation, elementDeviation);
+		}
+		return deviation;
+	}
+}
@@ -18,15 +18,30 @@
 package se.esss.ics.masar.services.impl;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.transaction.annotation.Transactional;
 
-import se.esss.ics.masar.epics.IEpicsService;
 import se.esss.ics.masar.epics.exception.PVReadException;
+import se.esss.ics.masar.epics.impl.PvReadScheduler;
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.ConfigPv;
 import se.esss.ics.masar.model.Folder;
@@ -34,10 +49,29 @@ import se.esss.ics.masar.model.Node;
 import se.esss.ics.masar.model.Snapshot;
 import se.esss.ics.masar.model.SnapshotPv;
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.NodeVersion;
+import se.esss.ics.masar.persistence.dao.SnapshotPvFilter;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
+import se.esss.ics.masar.services.DriftReport;
 import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.SnapshotJob;
+import se.esss.ics.masar.services.SnapshotJobListener;
+import se.esss.ics.masar.services.impl.AdmissionController.Workload;
+import se.esss.ics.masar.services.exception.AdmissionRejectedException;
 import se.esss.ics.masar.services.exception.ConfigNotFoundException;
+import se.esss.ics.masar.services.exception.DriftReferenceNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotJobNotFoundException;
 import se.esss.ics.masar.services.exception.SnapshotNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotScheduleNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotTriggerNotFoundException;
 
 
 public class Services implements IServices{
@@ -50,7 +84,39 @@ public class Services implements IServices{
 	private SnapshotDAO snapshotDAO;
 	
 	@Autowired
-	private IEpicsService epicsService;
+	private SnapshotScheduleDAO snapshotScheduleDAO;
+	
+	@Autowired
+	private SnapshotTriggerDAO snapshotTriggerDAO;
+	
+	@Autowired
+	private DriftReferenceDAO driftReferenceDAO;
+	
+	@Autowired(required = false)
+	private DriftMonitor driftMonitor;
+	
+	@Autowired
+	private SnapshotCache snapshotCache;
+	
+	@Autowired
+	private SnapshotCoalescer snapshotCoalescer;
+	
+	@Autowired
+	@Qualifier("snapshotJobExecutor")
+	private TaskExecutor snapshotJobExecutor;
+	
+	@Autowired
+	private PvReadScheduler pvReadScheduler;
+	
+	@Autowired
+	private AdmissionController admissionController;
+	
+	@Value("${masar.snapshot.jobs.retention-minutes:60}")
+	private long jobRetentionMinutes;
+	
+	private final Map<String, SnapshotJob> snapshotJobs = new ConcurrentHashMap<>();
+	
+	private static final SnapshotJobListener NO_LISTENER = new SnapshotJobListener() {};
 	
 	private Logger logger = LoggerFactory.getLogger(Services.class.getName());
 	
@@ -71,44 +137,357 @@ public class Services implements IServices{
 	}
 	
 	@Override
-	@Transactional
 	public Snapshot takeSnapshot(int nodeId) {
 		
+		Config config = getExistingConfiguration(nodeId);
+		
+		// Not transactional as the connection would be held while reading the PVs. The DAO saves the
+		// preliminary snapshot in one transaction. Coalesced requests do not read PVs, so only reading is subject
+		// to admission.
+		Supplier<List<SnapshotPv<?>>> reader = 
+				() -> admissionController.execute(Workload.INTERACTIVE, () -> readPvs(config, NO_LISTENER));
+		return snapshotCoalescer.takeSnapshot(nodeId, reader, snapshotPvs -> {
+			Snapshot snapshot = Snapshot.builder()
+					.configId(nodeId)
+					.snapshotPvList(snapshotPvs)
+					.build();
+			return configDAO.savePreliminarySnapshot(snapshot);
+		});
+	}
+	
+	@Override
+	public List<Snapshot> takeSnapshots(List<Integer> configIds) {
+		
+		if(configIds == null || configIds.isEmpty()) {
+			throw new IllegalArgumentException("No configuration specified.");
+		}
+		
+		List<Config> configs = new ArrayList<>();
+		for(int configId : new LinkedHashSet<>(configIds)) {
+			configs.add(getExistingConfiguration(configId));
+		}
+		
+		return admissionController.execute(Workload.BATCH, () -> {
+			// PVs are shared by configurations, so each one is only read once
+			Map<Integer, CompletableFuture<SnapshotPv<?>>> reads = new LinkedHashMap<>();
+			Date acquired = new Date();
+			for(Config config : configs) {
+				for(ConfigPv configPv : config.getConfigPvList()) {
+					reads.computeIfAbsent(configPv.getId(), id -> pvReadScheduler.read(configPv));
+				}
+			}
+			
+			List<Snapshot> snapshots = new ArrayList<>(configs.size());
+			for(Config config : configs) {
+				List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
+				for(ConfigPv configPv : config.getConfigPvList()) {
+					SnapshotPv<?> snapshotPv = getReadResult(reads.get(configPv.getId()));
+					if(snapshotPv != null) {
+						snapshotPvs.add(snapshotPv);
+					}
+				}
+				snapshots.add(Snapshot.builder()
+						.configId(config.getId())
+						.snapshotPvList(snapshotPvs)
+						.build());
+			}
+			
+			return configDAO.savePreliminarySnapshots(snapshots, acquired);
+		});
+	}
+	
+	@Override
+	public SnapshotJob submitSnapshotJob(int configId) {
+		return submitSnapshotJob(configId, NO_LISTENER);
+	}
+	
+	@Override
+	public SnapshotJob submitSnapshotJob(int configId, SnapshotJobListener listener) {
+		
+		Config config = getExistingConfiguration(configId);
+		admissionController.checkCapacity(Workload.INTERACTIVE);
+		
+		purgeSnapshotJobs();
+		SnapshotJob job = new SnapshotJob(UUID.randomUUID().toString(), configId, config.getConfigPvList().size());
+		snapshotJobs.put(job.getId(), job);
+		
+		try {
+			snapshotJobExecutor.execute(() -> runSnapshotJob(job, config, listener));
+		} catch (TaskRejectedException e) {
+			snapshotJobs.remove(job.getId());
+			throw new AdmissionRejectedException("Too many snapshot jobs submitted.", 1);
+		}
+		return job;
+	}
+	
+	@Override
+	public SnapshotJob getSnapshotJob(String jobId) {
+		SnapshotJob job = snapshotJobs.get(jobId);
+		if(job == null) {
+			throw new SnapshotJobNotFoundException("Snapshot job with id=" + jobId + " not found.");
+		}
+		return job;
+	}
+	
+	private void runSnapshotJob(SnapshotJob job, Config config, SnapshotJobListener listener) {
+		
+		try {
+			Snapshot savedSnapshot = admissionController.execute(Workload.INTERACTIVE, () -> {
+				job.started();
+				List<SnapshotPv<?>> snapshotPvs = readPvs(config, new SnapshotJobListener() {
+					
+					@Override
+					public void pvRead(SnapshotPv<?> snapshotPv) {
+						job.pvRead();
+						listener.pvRead(snapshotPv);
+					}
+					
+					@Override
+					public void pvFailed(ConfigPv configPv, String error) {
+						job.pvFailed();
+						listener.pvFailed(configPv, error);
+					}
+				});
+				
+				Snapshot snapshot = Snapshot.builder()
+						.configId(job.getConfigId())
+						.snapshotPvList(snapshotPvs)
+						.build();
+				
+				// The DAO writes the snapshot and its PVs in one transaction
+				return configDAO.savePreliminarySnapshot(snapshot);
+			});
+			job.completed(savedSnapshot.getId());
+		} catch (RuntimeException e) {
+			logger.error("Snapshot job " + job.getId() + " failed", e);
+			job.failed(e.getMessage());
+		}
+		listener.jobFinished(job);
+	}
+	
+	private void purgeSnapshotJobs() {
+		long oldest = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(jobRetentionMinutes);
+		snapshotJobs.values().removeIf(job -> job.isDone() && job.getFinished().getTime() < oldest);
+	}
+	
+	private Config getExistingConfiguration(int nodeId) {
+		
 		Config config = configDAO.getConfiguration(nodeId);
 		
 		if(config == null) {
 			throw new ConfigNotFoundException("Configuration with id=" + nodeId + " does not exist.");
 		}
+		return config;
+	}
+	
+	/**
+	 * Reads the PVs of a configuration in parallel. PVs of which the read fails with an exception are left out,
+	 * while PVs that could not be read by the EPICS layer are kept with fetch status <code>false</code>, as in a
+	 * synchronous snapshot. Both are reported to the listener as failed.
+	 * @param config The configuration.
+	 * @param listener Notified as each PV is read, one PV at a time.
+	 * @return The values read, in the order of the configuration.
+	 */
+	private List<SnapshotPv<?>> readPvs(Config config, SnapshotJobListener listener) {
 		
-		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
-		
+		Object lock = new Object();
+		List<CompletableFuture<SnapshotPv<?>>> reads = new ArrayList<>();
 		for(ConfigPv configPv : config.getConfigPvList()) {
-			try {
-				snapshotPvs.add(epicsService.getPv(configPv));
-			} catch (PVReadException e) {
-				logger.error(e.getMessage());
-			}
+			reads.add(pvReadScheduler.read(configPv).whenComplete((snapshotPv, throwable) -> {
+				synchronized (lock) {
+					if(throwable == null && snapshotPv.isFetchStatus()) {
+						listener.pvRead(snapshotPv);
+					} else if(throwable == null) {
+						listener.pvFailed(configPv, "PV could not be read");
+					} else {
+						listener.pvFailed(configPv, getCause(throwable).getMessage());
+					}
+				}
+			}));
 		}
 		
-		Snapshot snapshot = Snapshot.builder()
-				.configId(nodeId)
-				.snapshotPvList(snapshotPvs)
-				.build();
-		
-		return configDAO.savePreliminarySnapshot(snapshot);
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
+		for(CompletableFuture<SnapshotPv<?>> read : reads) {
+			SnapshotPv<?> snapshotPv = getReadResult(read);
+			if(snapshotPv != null) {
+				snapshotPvs.add(snapshotPv);
+			}
+		}
+		return snapshotPvs;
+	}
 	
+	/**
+	 * @param read A read scheduled by the {@link PvReadScheduler}.
+	 * @return The value read, or <code>null</code> if the PV could not be read.
+	 */
+	private SnapshotPv<?> getReadResult(CompletableFuture<SnapshotPv<?>> read) {
+		try {
+			return read.join();
+		} catch (CompletionException e) {
+			Throwable cause = getCause(e);
+			if(cause instanceof PVReadException) {
+				logger.error(cause.getMessage());
+				return null;
+			}
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+	
+	private static Throwable getCause(Throwable throwable) {
+		return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
 	}
 		
 	@Override
 	public Snapshot commitSnapshot(int snapshotId, String userName, String comment) {
 		snapshotDAO.commitSnapshot(snapshotId, userName, comment);
 		
-		return snapshotDAO.getSnapshot(snapshotId, true);
+		return snapshotCache.get(snapshotId, id -> snapshotDAO.getSnapshot(id, true));
+	}
+	
+	@Override
+	public Snapshot takeScheduledSnapshot(int configId, String userName, String comment) {
+		
+		Config config = getExistingConfiguration(configId);
+		
+		Snapshot preliminarySnapshot = admissionController.execute(Workload.SCHEDULED, () -> {
+			Snapshot snapshot = Snapshot.builder()
+					.configId(configId)
+					.snapshotPvList(readPvs(config, NO_LISTENER))
+					.build();
+			return configDAO.savePreliminarySnapshot(snapshot);
+		});
+		
+		return commitSnapshot(preliminarySnapshot.getId(), userName, comment);
+	}
+	
+	@Override
+	public SnapshotSchedule createSnapshotSchedule(SnapshotSchedule schedule) {
+		
+		if(schedule.getUserName() == null || schedule.getUserName().isEmpty()) {
+			throw new IllegalArgumentException("User name of scheduled snapshots not specified.");
+		}
+		if(schedule.getCommentTemplate() == null || schedule.getCommentTemplate().isEmpty()) {
+			throw new IllegalArgumentException("Comment of scheduled snapshots not specified.");
+		}
+		getExistingConfiguration(schedule.getConfigId());
+		
+		// Also validates the cron expression
+		schedule.setNextRun(SnapshotScheduler.getNextRun(schedule.getCron(), new Date()));
+		return snapshotScheduleDAO.createSchedule(schedule);
+	}
+	
+	@Override
+	public List<SnapshotSchedule> getSnapshotSchedules(int configId) {
+		return snapshotScheduleDAO.getSchedules(configId);
+	}
+	
+	@Override
+	public void deleteSnapshotSchedule(int scheduleId) {
+		if(!snapshotScheduleDAO.deleteSchedule(scheduleId)) {
+			throw new SnapshotScheduleNotFoundException("Snapshot schedule with id=" + scheduleId + " not found.");
+		}
+	}
+	
+	@Override
+	public SnapshotTrigger createSnapshotTrigger(SnapshotTrigger trigger) {
+		
+		if((trigger.getPvName() == null) == (trigger.getGroupName() == null)) {
+			throw new IllegalArgumentException("Either a PV or a group of PVs must be specified.");
+		}
+		if(trigger.getCondition() == null) {
+			throw new IllegalArgumentException("Condition of snapshot trigger not specified.");
+		}
+		if(trigger.getCondition() == Condition.EQUALS && trigger.getValue() == null) {
+			throw new IllegalArgumentException("Value of snapshot trigger not specified.");
+		}
+		if(trigger.getCondition() == Condition.SEVERITY && (trigger.getMinSeverity() < 1 || trigger.getMinSeverity() > 3)) {
+			throw new IllegalArgumentException("Severity of snapshot trigger must be 1 (MINOR), 2 (MAJOR) or 3 (INVALID).");
+		}
+		if(trigger.getDebounceMillis() < 0 || trigger.getMinIntervalSeconds() < 0) {
+			throw new IllegalArgumentException("Debounce time and minimum interval must not be negative.");
+		}
+		if(trigger.getUserName() == null || trigger.getUserName().isEmpty()) {
+			throw new IllegalArgumentException("User name of triggered snapshots not specified.");
+		}
+		if(trigger.getCommentTemplate() == null || trigger.getCommentTemplate().isEmpty()) {
+			throw new IllegalArgumentException("Comment of triggered snapshots not specified.");
+		}
+		getExistingConfiguration(trigger.getConfigId());
+		
+		return snapshotTriggerDAO.createTrigger(trigger);
+	}
+	
+	@Override
+	public List<SnapshotTrigger> getSnapshotTriggers(int configId) {
+		return snapshotTriggerDAO.getTriggers(configId);
+	}
+	
+	@Override
+	public void deleteSnapshotTrigger(int triggerId) {
+		if(!snapshotTriggerDAO.deleteTrigger(triggerId)) {
+			throw new SnapshotTriggerNotFoundException("Snapshot trigger with id=" + triggerId + " not found.");
+		}
+	}
+	
+	@Override
+	public DriftReference setDriftReference(DriftReference reference) {
+		
+		Snapshot snapshot = snapshotDAO.getSnapshotHeader(reference.getSnapshotId(), true);
+		if(snapshot == null) {
+			throw new SnapshotNotFoundException("Snapshot with id=" + reference.getSnapshotId()  + " not found.");
+		}
+		if(snapshot.getConfigId() != reference.getConfigId()) {
+			throw new IllegalArgumentException("Snapshot with id=" + reference.getSnapshotId() + " does not belong to configuration with id=" + reference.getConfigId() + ".");
+		}
+		if(reference.getDefaultTolerance() < 0 || (reference.getTolerances() != null && reference.getTolerances().values().stream().anyMatch(tolerance -> tolerance == null || tolerance < 0))) {
+			throw new IllegalArgumentException("Tolerances must not be negative.");
+		}
+		
+		DriftReference savedReference = driftReferenceDAO.setReference(reference);
+		if(driftMonitor != null) {
+			driftMonitor.poll();
+		}
+		return savedReference;
+	}
+	
+	@Override
+	public DriftReference getDriftReference(int configId) {
+		DriftReference reference = driftReferenceDAO.getReference(configId);
+		if(reference == null) {
+			throw new DriftReferenceNotFoundException("Drift reference of configuration with id=" + configId + " not found.");
+		}
+		return reference;
+	}
+	
+	@Override
+	public void deleteDriftReference(int configId) {
+		if(!driftReferenceDAO.deleteReference(configId)) {
+			throw new DriftReferenceNotFoundException("Drift reference of configuration with id=" + configId + " not found.");
+		}
+		if(driftMonitor != null) {
+			driftMonitor.poll();
+		}
+	}
+	
+	@Override
+	public DriftReport getDrift(int configId) {
+		if(driftMonitor == null) {
+			throw new IllegalArgumentException("Drift detection is not enabled.");
+		}
+		DriftReport report = driftMonitor.getDrift(configId);
+		if(report == null) {
+			throw new DriftReferenceNotFoundException("Drift reference of configuration with id=" + configId + " not found.");
+		}
+		return report;
 	}
 	
 	@Override
 	public void deleteSnapshot(int snapshotId) {
 		snapshotDAO.deleteSnapshot(snapshotId);
+		snapshotCache.evictSnapshot(snapshotId);
 	}
 	
 	@Override
@@ -116,15 +495,44 @@ public class Services implements IServices{
 		return snapshotDAO.getSnapshots(configId);
 	}
 	
+	@Override
+	public List<Snapshot> getSnapshots(int configId, SnapshotQuery query){
+		return snapshotDAO.getSnapshots(configId, query);
+	}
+	
 	@Override
 	public Snapshot getSnapshot(int snapshotId){
-		Snapshot snapshot = snapshotDAO.getSnapshot(snapshotId, true);
+		Snapshot snapshot = snapshotCache.get(snapshotId, id -> snapshotDAO.getSnapshot(id, true));
 		if(snapshot == null) {
 			throw new SnapshotNotFoundException("Snapshot with id=" + snapshotId  + " not found.");
 		}
 		return snapshot;
 	}
 	
+	@Override
+	public Snapshot getSnapshot(int snapshotId, SnapshotPvFilter filter){
+		Snapshot snapshot = snapshotDAO.getSnapshot(snapshotId, true, filter);
+		if(snapshot == null) {
+			throw new SnapshotNotFoundException("Snapshot with id=" + snapshotId  + " not found.");
+		}
+		return snapshot;
+	}
+	
+	@Override
+	public Snapshot getSnapshotHeader(int snapshotId) {
+		Snapshot snapshot = snapshotDAO.getSnapshotHeader(snapshotId, true);
+		if(snapshot == null) {
+			throw new SnapshotNotFoundException("Snapshot with id=" + snapshotId  + " not found.");
+		}
+		return snapshot;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public void streamSnapshotPvs(int snapshotId, Consumer<SnapshotPv<?>> consumer) {
+		snapshotDAO.streamSnapshotPvs(snapshotId, consumer);
+	}
+	
 	@Override
 	public Folder createFolder(Folder folder) {
 		
@@ -140,6 +548,21 @@ public class Services implements IServices{
 		return  configDAO.getFolder(nodeId);
 	}
 	
+	@Override
+	public Folder getFolderTree(int nodeId, Integer depth, boolean includePvs) {
+		return configDAO.getFolderTree(nodeId, depth == null ? Integer.MAX_VALUE : depth, includePvs);
+	}
+	
+	@Override
+	public NodeVersion getNodeVersion(int nodeId) {
+		return configDAO.getNodeVersion(nodeId);
+	}
+	
+	@Override
+	public NodeVersion getFolderTreeVersion(int nodeId, Integer depth) {
+		return configDAO.getFolderTreeVersion(nodeId, depth == null ? Integer.MAX_VALUE : depth);
+	}
+	
 	
 	@Override
 	@Transactional
@@ -150,7 +573,7 @@ public class Services implements IServices{
 	@Override
 	@Transactional
 	public void deleteNode(int nodeId) {
-		configDAO.deleteNode(nodeId);
+		snapshotCache.evictConfigurations(configDAO.deleteNode(nodeId));
 	}
 	
 	@Override
@@ -164,4 +587,14 @@ public class Services implements IServices{
 	public Node renameNode(int nodeId, String name) {
 		return configDAO.renameNode(nodeId, name);
 	}
+	
+	@Override
+	public List<Node> getNodesByPath(String path) {
+		return configDAO.getNodesByPath(path);
+	}
+	
+	@Override
+	public List<Node> getNodePath(int nodeId) {
+		return configDAO.getNodePath(nodeId);
+	}
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.impl;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * Read-through cache of committed snapshots, including their values. A committed snapshot is never modified, so
+ * entries only need to be evicted when the snapshot is deleted. Entries are weighted by an estimate of their
+ * size in memory, and rarely used entries are evicted when the total exceeds the configured maximum.
+ * <p>
+ * Cached {@link Snapshot} objects are shared between callers and must not be modified.
+ * <p>
+ * Being a {@link MeterBinder}, the cache publishes its metrics to the actuator when declared as a bean.
+ */
+public class SnapshotCache implements MeterBinder {
+
+	private final Cache<Integer, Snapshot> cache;
+	private final long maximumBytes;
+
+	/**
+	 * @param maximumBytes Approximate upper limit of the memory used by cached snapshots. Zero disables caching.
+	 */
+	public SnapshotCache(long maximumBytes) {
+		this.maximumBytes = maximumBytes;
+		cache = Caffeine.newBuilder()
+				.maximumWeight(maximumBytes)
+				.weigher((Integer snapshotId, Snapshot snapshot) -> (int) Math.min(Integer.MAX_VALUE, sizeOf(snapshot)))
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param snapshotId The database id of a committed snapshot.
+	 * @param loader Loads the snapshot if not cached. May return <code>null</code>, which is not cached.
+	 * @return The snapshot, or <code>null</code> if the loader returned <code>null</code>.
+	 */
+	public Snapshot get(int snapshotId, IntFunction<Snapshot> loader) {
+		return cache.get(snapshotId, loader::apply);
+	}
+
+	/**
+	 * Evicts a deleted snapshot once the current transaction, if any, has been committed. Evicting earlier would
+	 * let a concurrent read cache the snapshot again before the deletion is visible.
+	 * @param snapshotId The database id of the snapshot.
+	 */
+	public void evictSnapshot(int snapshotId) {
+		afterCommit(() -> cache.invalidate(snapshotId));
+	}
+
+	/**
+	 * Evicts the snapshots of deleted configurations. As for {@link #evictSnapshot(int)}, the eviction takes place
+	 * once the current transaction has been committed.
+	 * @param configIds The ids of the deleted configurations.
+	 */
+	public void evictConfigurations(Collection<Integer> configIds) {
+		if (configIds.isEmpty()) {
+			return;
+		}
+		Set<Integer> configIdSet = new HashSet<>(configIds);
+		afterCommit(() -> cache.asMap().values().removeIf(snapshot -> configIdSet.contains(snapshot.getConfigId())));
+	}
+
+	private void afterCommit(Runnable eviction) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					eviction.run();
+				}
+			});
+		} else {
+			eviction.run();
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		new CaffeineCacheMetrics(cache, "snapshots", Collections.emptyList()).bindTo(registry);
+		Gauge.builder("masar.snapshot.cache.hit.ratio", cache, c -> c.stats().hitRate())
+				.description("Ratio of snapshot requests served from the cache").register(registry);
+		Gauge.builder("masar.snapshot.cache.size", cache,
+				c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+				.description("Estimated memory used by cached snapshots").baseUnit("bytes").register(registry);
+		Gauge.builder("masar.snapshot.cache.max.size", this, c -> c.maximumBytes)
+				.description("Maximum memory used by cached snapshots").baseUnit("bytes").register(registry);
+	}
+
+	/**
+	 * @param snapshot A snapshot.
+	 * @return A rough estimate of the memory used by the snapshot, its PVs and their values.
+	 */
+	static long sizeOf(Snapshot snapshot) {
+		long size = 128 + valueSize(snapshot.getComment()) + valueSize(snapshot.getUserName());
+		if (snapshot.getSnapshotPvList() != null) {
+			for (SnapshotPv<?> snapshotPv : snapshot.getSnapshotPvList()) {
+				size += 96 + valueSize(snapshotPv.getValue());
+				ConfigPv configPv = snapshotPv.getConfigPv();
+				if (configPv != null) {
+					size += 48 + valueSize(configPv.getPvName()) + valueSize(configPv.getGroupname())
+							+ valueSize(configPv.getTags());
+				}
+			}
+		}
+		return size;
+	}
+
+	private static long valueSize(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return 40 + 2L * ((String) value).length();
+		}
+		if (!value.getClass().isArray()) {
+			return 16;
+		}
+		int length = Array.getLength(value);
+		Class<?> type = value.getClass().getComponentType();
+		if (!type.isPrimitive()) {
+			long size = 16 + 4L * length;
+			for (int i = 0; i < length; i++) {
+				size += valueSize(Array.get(value, i));
+			}
+			return size;
+		}
+		if (type == double.class || type == long.class) {
+			return 16 + 8L * length;
+		}
+		if (type == int.class || type == float.class) {
+			return 16 + 4L * length;
+		}
+		if (type == short.class || type == char.class) {
+			return 16 + 2L * length;
+		}
+		return 16L + length;
+	}
+}
@@ -0,0 +1,135 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * Coalesces snapshots of the same configuration requested within a time window, such that the PVs are only read
+ * once. The first request of a window reads the PVs, and requests arriving while it is in progress, or shortly
+ * after, wait for its values instead of reading the PVs again. Each of them then either saves its own preliminary
+ * snapshot of the shared values, or receives the preliminary snapshot saved by the first request.
+ * <p>
+ * Being a {@link MeterBinder}, the coalescer publishes the number of coalesced requests when declared as a bean.
+ */
+public class SnapshotCoalescer implements MeterBinder {
+
+	private static class Acquisition {
+
+		private final long started = System.currentTimeMillis();
+		private final CompletableFuture<List<SnapshotPv<?>>> values = new CompletableFuture<>();
+		private final CompletableFuture<Snapshot> snapshot = new CompletableFuture<>();
+	}
+
+	private final long windowMillis;
+	private final boolean sharedSnapshot;
+	private final Map<Integer, Acquisition> acquisitions = new ConcurrentHashMap<>();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * @param windowMillis Time since the start of an acquisition during which later requests for the same
+	 * configuration use its values, even if the PVs have been read already. Requests always use the values of an
+	 * acquisition still reading the PVs. Zero disables coalescing.
+	 * @param sharedSnapshot If <code>true</code>, coalesced requests receive the preliminary snapshot saved by the
+	 * first request, otherwise each request saves its own.
+	 */
+	public SnapshotCoalescer(long windowMillis, boolean sharedSnapshot) {
+		this.windowMillis = windowMillis;
+		this.sharedSnapshot = sharedSnapshot;
+	}
+
+	/**
+	 * Takes a preliminary snapshot of a configuration, unless one is being taken.
+	 * @param configId The node id of the configuration.
+	 * @param reader Reads the PVs of the configuration.
+	 * @param writer Saves a preliminary snapshot of PV values.
+	 * @return The preliminary snapshot.
+	 */
+	public Snapshot takeSnapshot(int configId, Supplier<List<SnapshotPv<?>>> reader,
+			Function<List<SnapshotPv<?>>, Snapshot> writer) {
+
+		if (windowMillis <= 0) {
+			return writer.apply(reader.get());
+		}
+
+		Acquisition created = new Acquisition();
+		acquisitions.values().removeIf(acquisition -> acquisition.snapshot.isDone() && !isOpen(acquisition));
+		Acquisition acquisition = acquisitions.merge(configId, created,
+				(existing, candidate) -> isOpen(existing) ? existing : candidate);
+
+		if (acquisition != created) {
+			coalesced.incrementAndGet();
+			return sharedSnapshot ? join(acquisition.snapshot) : writer.apply(join(acquisition.values));
+		}
+
+		try {
+			List<SnapshotPv<?>> values = reader.get();
+			acquisition.values.complete(values);
+			Snapshot snapshot = writer.apply(values);
+			acquisition.snapshot.complete(snapshot);
+			return snapshot;
+		} catch (RuntimeException e) {
+			// Later requests start over rather than fail as well
+			acquisitions.remove(configId, acquisition);
+			acquisition.values.completeExceptionally(e);
+			acquisition.snapshot.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The number of requests that did not read the PVs themselves.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("masar.snapshot.coalesced", coalesced, AtomicLong::get)
+				.description("Snapshot requests served by the acquisition of a concurrent request").register(registry);
+	}
+
+	private boolean isOpen(Acquisition acquisition) {
+		return !acquisition.values.isDone() || System.currentTimeMillis() - acquisition.started <= windowMillis;
+	}
+
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.impl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.services.IServices;
+
+/**
+ * Takes and commits the snapshots of the {@link SnapshotSchedule}s as they become due.
+ * <p>
+ * When several service instances share the database, only the instance holding the scheduler lease runs
+ * schedules. The lease is renewed at each poll, and taken over by another instance once it expires. Each run is
+ * additionally claimed in the database, such that a run is skipped while the previous run of the same schedule is
+ * still in progress, e.g. on an instance that lost the lease. The next run is computed when a run finishes, so
+ * occurrences passed during a long run are skipped rather than run back to back.
+ * <p>
+ * Being a {@link MeterBinder}, the scheduler publishes the number of runs and whether it holds the lease.
+ */
+public class SnapshotScheduler implements MeterBinder {
+
+	static final String LEASE_NAME = "snapshot-scheduler";
+
+	private final SnapshotScheduleDAO snapshotScheduleDAO;
+	private final LeaseDAO leaseDAO;
+	private final IServices services;
+	private final Executor executor;
+	private final long pollMillis;
+	private final long leaseMillis;
+	private final long staleRunMillis;
+	private final String owner;
+	private final Set<Integer> running = ConcurrentHashMap.newKeySet();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "snapshot-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile boolean leader;
+
+	private Logger logger = LoggerFactory.getLogger(SnapshotScheduler.class);
+
+	/**
+	 * @param snapshotScheduleDAO Stores the schedules.
+	 * @param leaseDAO Stores the lease.
+	 * @param services Takes the snapshots.
+	 * @param executor Executes the runs.
+	 * @param pollMillis Interval at which due schedules are polled and the lease is renewed.
+	 * @param leaseMillis Time after which the lease expires unless renewed. Must exceed the poll interval.
+	 * @param staleRunMillis Time after which a run in progress is considered abandoned, e.g. by a stopped instance.
+	 */
+	public SnapshotScheduler(SnapshotScheduleDAO snapshotScheduleDAO, LeaseDAO leaseDAO, IServices services,
+			Executor executor, long pollMillis, long leaseMillis, long staleRunMillis) {
+		if (leaseMillis <= pollMillis) {
+			throw new IllegalArgumentException("The scheduler lease must last longer than the poll interval.");
+		}
+		this.snapshotScheduleDAO = snapshotScheduleDAO;
+		this.leaseDAO = leaseDAO;
+		this.services = services;
+		this.executor = executor;
+		this.pollMillis = pollMillis;
+		this.leaseMillis = leaseMillis;
+		this.staleRunMillis = staleRunMillis;
+		this.owner = getHostName() + "/" + UUID.randomUUID();
+	}
+
+	public void start() {
+		timer.scheduleWithFixedDelay(() -> {
+			try {
+				poll();
+			} catch (RuntimeException e) {
+				// Not thrown, as that would cancel polling
+				logger.error("Polling snapshot schedules failed", e);
+			}
+		}, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		timer.shutdownNow();
+		if (leader) {
+			leader = false;
+			leaseDAO.releaseLease(LEASE_NAME, owner);
+		}
+	}
+
+	/**
+	 * Renews or acquires the lease, and if held starts the runs of the due schedules.
+	 */
+	void poll() {
+		Date now = new Date();
+		leader = leaseDAO.acquireLease(LEASE_NAME, owner, now, new Date(now.getTime() + leaseMillis));
+		if (!leader) {
+			return;
+		}
+		for (SnapshotSchedule schedule : snapshotScheduleDAO.getDueSchedules(now)) {
+			if (running.contains(schedule.getId())
+					|| !snapshotScheduleDAO.claimRun(schedule.getId(), now, new Date(now.getTime() - staleRunMillis))) {
+				logger.info("Skipping run of snapshot schedule {} as the previous run is in progress", schedule.getId());
+				skipped.incrementAndGet();
+				continue;
+			}
+			running.add(schedule.getId());
+			try {
+				executor.execute(() -> run(schedule, now));
+			} catch (RejectedExecutionException e) {
+				// Retried at the next poll
+				running.remove(schedule.getId());
+				snapshotScheduleDAO.finishRun(schedule.getId(), schedule.getLastRun(), schedule.getNextRun(),
+						schedule.getLastSnapshotId(), schedule.getLastError());
+				skipped.incrementAndGet();
+			}
+		}
+	}
+
+	private void run(SnapshotSchedule schedule, Date started) {
+		Integer snapshotId = null;
+		String error = null;
+		try {
+			Snapshot snapshot = services.takeScheduledSnapshot(schedule.getConfigId(), schedule.getUserName(),
+					formatComment(schedule, started));
+			snapshotId = snapshot.getId();
+			succeeded.incrementAndGet();
+		} catch (RuntimeException e) {
+			logger.error("Run of snapshot schedule " + schedule.getId() + " failed", e);
+			error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+			failed.incrementAndGet();
+		} finally {
+			try {
+				snapshotScheduleDAO.finishRun(schedule.getId(), started, getNextRun(schedule.getCron(), new Date()),
+						snapshotId, error);
+			} finally {
+				running.remove(schedule.getId());
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if this instance held the lease at the last poll.
+	 */
+	public boolean isLeader() {
+		return leader;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("masar.scheduler.runs", succeeded, AtomicLong::get).tag("outcome", "success")
+				.description("Runs of snapshot schedules").register(registry);
+		FunctionCounter.builder("masar.scheduler.runs", failed, AtomicLong::get).tag("outcome", "failure")
+				.description("Runs of snapshot schedules").register(registry);
+		FunctionCounter.builder("masar.scheduler.runs", skipped, AtomicLong::get).tag("outcome", "skipped")
+				.description("Runs of snapshot schedules").register(registry);
+		Gauge.builder("masar.scheduler.leader", this, s -> s.leader ? 1 : 0)
+				.description("Whether this instance runs the snapshot schedules").register(registry);
+	}
+
+	/**
+	 * @param cron A cron expression of six fields, evaluated in the default time zone.
+	 * @param after A time.
+	 * @return The first time matching the expression after the given time.
+	 * @throws IllegalArgumentException if the expression is invalid.
+	 */
+	public static Date getNextRun(String cron, Date after) {
+		if (cron == null) {
+			throw new IllegalArgumentException("Cron expression of snapshot schedule not specified.");
+		}
+		return new CronSequenceGenerator(cron).next(after);
+	}
+
+	static String formatComment(SnapshotSchedule schedule, Date started) {
+		return schedule.getCommentTemplate()
+				.replace("{time}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(started))
+				.replace("{schedule}", Integer.toString(schedule.getId()))
+				.replace("{config}", Integer.toString(schedule.getConfigId()));
+	}
+
+	private static String getHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return "unknown";
+		}
+	}
+}
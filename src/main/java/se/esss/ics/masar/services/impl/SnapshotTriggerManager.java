@@ -0,0 +1,426 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.services.impl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.PvMonitor;
+import se.esss.ics.masar.model.Config;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
+import se.esss.ics.masar.services.IServices;
+
+/**
+ * Monitors the PVs of the enabled {@link SnapshotTrigger}s, and takes and commits a snapshot when a condition
+ * is met. A condition is met by a transition of the PV, e.g. its value changing to the value of the trigger, so
+ * the first event after connecting only establishes the state of the PV. When several triggers watch the same
+ * PV, the PV is monitored once.
+ * <p>
+ * A flapping PV is kept from flooding the database in three ways: the condition must still hold after the
+ * debounce time of the trigger, snapshots of a trigger are at least its minimum interval apart, and all triggers
+ * together take at most a maximum number of snapshots per minute. Events beyond the limits are counted and
+ * otherwise ignored.
+ * <p>
+ * The snapshot is not the state at the moment of the event: the PVs of the configuration are read once the
+ * debounce time has elapsed and an executor thread is available, like those of a scheduled snapshot. Only the PVs
+ * of triggers are monitored, so no other values of the event time are known. The event time is kept as the time the
+ * trigger fired and in the <code>{time}</code> placeholder of the comment.
+ * <p>
+ * When several service instances share the database, only the instance holding the trigger lease monitors the
+ * PVs. The triggers are reloaded, and the lease renewed, at each poll.
+ * <p>
+ * Being a {@link MeterBinder}, the manager publishes the number of events and snapshots, and the number of
+ * monitored PVs.
+ */
+public class SnapshotTriggerManager implements MeterBinder {
+
+	static final String LEASE_NAME = "snapshot-trigger";
+
+	private final SnapshotTriggerDAO snapshotTriggerDAO;
+	private final LeaseDAO leaseDAO;
+	private final IServices services;
+	private final IEpicsService epicsService;
+	private final Executor executor;
+	private final long pollMillis;
+	private final long leaseMillis;
+	private final int maxPerMinute;
+	private final String owner;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "snapshot-trigger");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Guarded by this
+	private final Map<Integer, TriggerState> triggers = new HashMap<>();
+	private final Map<String, PvMonitor> monitors = new HashMap<>();
+	private final Deque<Long> recentSnapshots = new ArrayDeque<>();
+	private final AtomicLong events = new AtomicLong();
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong suppressed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private volatile boolean leader;
+
+	private Logger logger = LoggerFactory.getLogger(SnapshotTriggerManager.class);
+
+	private static class TriggerState {
+
+		private final SnapshotTrigger trigger;
+		private Set<String> pvNames;
+		private final Map<String, SnapshotPv<?>> values = new HashMap<>();
+		private ScheduledFuture<?> pending;
+		private long lastFired;
+
+		TriggerState(SnapshotTrigger trigger, Set<String> pvNames) {
+			this.trigger = trigger;
+			this.pvNames = pvNames;
+			this.lastFired = trigger.getLastFired() == null ? 0 : trigger.getLastFired().getTime();
+		}
+	}
+
+	/**
+	 * @param snapshotTriggerDAO Stores the triggers.
+	 * @param leaseDAO Stores the lease.
+	 * @param services Takes the snapshots, and provides the PVs of the groups of configurations.
+	 * @param epicsService Monitors the PVs.
+	 * @param executor Executes the snapshots.
+	 * @param pollMillis Interval at which the triggers are reloaded and the lease is renewed.
+	 * @param leaseMillis Time after which the lease expires unless renewed. Must exceed the poll interval.
+	 * @param maxPerMinute Maximum number of snapshots of all triggers per minute.
+	 */
+	public SnapshotTriggerManager(SnapshotTriggerDAO snapshotTriggerDAO, LeaseDAO leaseDAO,
+			IServices services, IEpicsService epicsService, Executor executor, long pollMillis, long leaseMillis,
+			int maxPerMinute) {
+		if (leaseMillis <= pollMillis) {
+			throw new IllegalArgumentException("The trigger lease must last longer than the poll interval.");
+		}
+		this.snapshotTriggerDAO = snapshotTriggerDAO;
+		this.leaseDAO = leaseDAO;
+		this.services = services;
+		this.epicsService = epicsService;
+		this.executor = executor;
+		this.pollMillis = pollMillis;
+		this.leaseMillis = leaseMillis;
+		this.maxPerMinute = maxPerMinute;
+		this.owner = getHostName() + "/" + UUID.randomUUID();
+	}
+
+	public void start() {
+		timer.scheduleWithFixedDelay(() -> {
+			try {
+				poll();
+			} catch (RuntimeException e) {
+				// Not thrown, as that would cancel polling
+				logger.error("Polling snapshot triggers failed", e);
+			}
+		}, 0, pollMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		timer.shutdownNow();
+		update(Collections.emptyMap());
+		if (leader) {
+			leader = false;
+			leaseDAO.releaseLease(LEASE_NAME, owner);
+		}
+	}
+
+	/**
+	 * Renews or acquires the lease, and if held reloads the triggers. Otherwise all monitors are closed, also if
+	 * the lease cannot be renewed because the database is unavailable, as another instance may take over.
+	 */
+	void poll() {
+		Date now = new Date();
+		boolean acquired = false;
+		try {
+			acquired = leaseDAO.acquireLease(LEASE_NAME, owner, now, new Date(now.getTime() + leaseMillis));
+		} finally {
+			leader = acquired;
+			if (!acquired) {
+				update(Collections.emptyMap());
+			}
+		}
+		if (!acquired) {
+			return;
+		}
+
+		// The PVs of groups are resolved before locking, as that reads the configurations
+		Map<SnapshotTrigger, Set<String>> enabledTriggers = new LinkedHashMap<>();
+		for (SnapshotTrigger trigger : snapshotTriggerDAO.getEnabledTriggers()) {
+			Set<String> pvNames = getPvNames(trigger);
+			if (pvNames.isEmpty()) {
+				logger.warn("Snapshot trigger {} has no PV to monitor", trigger.getId());
+			} else {
+				enabledTriggers.put(trigger, pvNames);
+			}
+		}
+		update(enabledTriggers);
+	}
+
+	private Set<String> getPvNames(SnapshotTrigger trigger) {
+		if (trigger.getPvName() != null) {
+			return Collections.singleton(trigger.getPvName());
+		}
+		Config config = services.getConfiguration(trigger.getConfigId());
+		if (config == null || config.getConfigPvList() == null) {
+			return Collections.emptySet();
+		}
+		return config.getConfigPvList().stream()
+				.filter(configPv -> trigger.getGroupName().equals(configPv.getGroupname()))
+				.map(ConfigPv::getPvName).collect(Collectors.toSet());
+	}
+
+	private synchronized void update(Map<SnapshotTrigger, Set<String>> enabledTriggers) {
+
+		Map<Integer, SnapshotTrigger> enabledById = new HashMap<>();
+		enabledTriggers.keySet().forEach(trigger -> enabledById.put(trigger.getId(), trigger));
+
+		triggers.values().removeIf(state -> {
+			if (enabledById.containsKey(state.trigger.getId())) {
+				return false;
+			}
+			if (state.pending != null) {
+				state.pending.cancel(false);
+			}
+			return true;
+		});
+		enabledTriggers.forEach((trigger, pvNames) -> {
+			TriggerState state = triggers.get(trigger.getId());
+			if (state == null) {
+				triggers.put(trigger.getId(), new TriggerState(trigger, pvNames));
+			} else {
+				// The PVs of a group change with the configuration
+				state.pvNames = pvNames;
+				state.values.keySet().retainAll(pvNames);
+			}
+		});
+
+		Set<String> pvNames = new HashSet<>();
+		triggers.values().forEach(state -> pvNames.addAll(state.pvNames));
+		monitors.entrySet().removeIf(entry -> {
+			if (pvNames.contains(entry.getKey())) {
+				return false;
+			}
+			entry.getValue().close();
+			return true;
+		});
+		for (String pvName : pvNames) {
+			if (!monitors.containsKey(pvName)) {
+				monitors.put(pvName, epicsService.monitor(ConfigPv.builder().pvName(pvName).build(),
+						snapshotPv -> onEvent(pvName, snapshotPv)));
+			}
+		}
+	}
+
+	synchronized void onEvent(String pvName, SnapshotPv<?> snapshotPv) {
+		if (!monitors.containsKey(pvName)) {
+			// Received after closing the monitor
+			return;
+		}
+		events.incrementAndGet();
+		Date eventTime = new Date();
+		for (TriggerState state : triggers.values()) {
+			if (!state.pvNames.contains(pvName)) {
+				continue;
+			}
+			SnapshotPv<?> previous = state.values.put(pvName, snapshotPv);
+			if (previous != null && state.pending == null && isTransition(state.trigger, previous, snapshotPv)) {
+				state.pending = timer.schedule(() -> fire(state, pvName, snapshotPv, eventTime),
+						state.trigger.getDebounceMillis(), TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private synchronized void fire(TriggerState state, String pvName, SnapshotPv<?> snapshotPv, Date eventTime) {
+		state.pending = null;
+		SnapshotTrigger trigger = state.trigger;
+		if (triggers.get(trigger.getId()) != state) {
+			return;
+		}
+		SnapshotPv<?> current = state.values.get(pvName);
+		if (trigger.getCondition() != Condition.CHANGES && (current == null || !holds(trigger, current))) {
+			// Flapped back within the debounce time
+			suppressed.incrementAndGet();
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now - state.lastFired < TimeUnit.SECONDS.toMillis(trigger.getMinIntervalSeconds()) || !acquirePermit(now)) {
+			logger.info("Snapshot trigger {} rate limited, event of {} ignored", trigger.getId(), pvName);
+			suppressed.incrementAndGet();
+			return;
+		}
+		state.lastFired = now;
+
+		String comment = formatComment(trigger, pvName, snapshotPv, eventTime);
+		try {
+			executor.execute(() -> takeSnapshot(trigger, comment, eventTime));
+		} catch (RejectedExecutionException e) {
+			logger.warn("Snapshot trigger {} rejected, event of {} ignored", trigger.getId(), pvName);
+			suppressed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param now The current time.
+	 * @return <code>true</code> if less than the maximum number of snapshots were taken during the last minute.
+	 */
+	private boolean acquirePermit(long now) {
+		while (!recentSnapshots.isEmpty() && recentSnapshots.peekFirst() <= now - TimeUnit.MINUTES.toMillis(1)) {
+			recentSnapshots.removeFirst();
+		}
+		if (recentSnapshots.size() >= maxPerMinute) {
+			return false;
+		}
+		recentSnapshots.addLast(now);
+		return true;
+	}
+
+	private void takeSnapshot(SnapshotTrigger trigger, String comment, Date eventTime) {
+		Integer snapshotId = null;
+		String error = null;
+		try {
+			Snapshot snapshot = services.takeScheduledSnapshot(trigger.getConfigId(), trigger.getUserName(), comment);
+			snapshotId = snapshot.getId();
+			fired.incrementAndGet();
+		} catch (RuntimeException e) {
+			logger.error("Snapshot of trigger " + trigger.getId() + " failed", e);
+			error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+			failed.incrementAndGet();
+		}
+		snapshotTriggerDAO.triggerFired(trigger.getId(), eventTime, snapshotId, error);
+	}
+
+	/**
+	 * @return <code>true</code> if this instance held the lease at the last poll.
+	 */
+	public boolean isLeader() {
+		return leader;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("masar.trigger.events", events, AtomicLong::get)
+				.description("Events of PVs monitored by snapshot triggers").register(registry);
+		FunctionCounter.builder("masar.trigger.snapshots", fired, AtomicLong::get).tag("outcome", "success")
+				.description("Snapshots of snapshot triggers").register(registry);
+		FunctionCounter.builder("masar.trigger.snapshots", failed, AtomicLong::get).tag("outcome", "failure")
+				.description("Snapshots of snapshot triggers").register(registry);
+		FunctionCounter.builder("masar.trigger.snapshots", suppressed, AtomicLong::get).tag("outcome", "suppressed")
+				.description("Snapshots of snapshot triggers").register(registry);
+		Gauge.builder("masar.trigger.monitors", this, SnapshotTriggerManager::getMonitorCount)
+				.description("PVs monitored by snapshot triggers").register(registry);
+	}
+
+	private synchronized int getMonitorCount() {
+		return monitors.size();
+	}
+
+	static boolean isTransition(SnapshotTrigger trigger, SnapshotPv<?> previous, SnapshotPv<?> current) {
+		if (trigger.getCondition() == Condition.CHANGES) {
+			return !Objects.deepEquals(previous.getValue(), current.getValue());
+		}
+		return holds(trigger, current) && !holds(trigger, previous);
+	}
+
+	static boolean holds(SnapshotTrigger trigger, SnapshotPv<?> snapshotPv) {
+		if (!snapshotPv.isFetchStatus()) {
+			return false;
+		}
+		switch (trigger.getCondition()) {
+		case EQUALS:
+			return matches(snapshotPv.getValue(), trigger.getValue());
+		case SEVERITY:
+			return snapshotPv.getSeverity() >= trigger.getMinSeverity();
+		default:
+			return false;
+		}
+	}
+
+	private static boolean matches(Object value, String expected) {
+		if (value == null || expected == null) {
+			return false;
+		}
+		if (value instanceof Number) {
+			try {
+				return ((Number) value).doubleValue() == Double.parseDouble(expected.trim());
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return expected.equals(value.toString());
+	}
+
+	static String formatComment(SnapshotTrigger trigger, String pvName, SnapshotPv<?> snapshotPv, Date eventTime) {
+		Object value = snapshotPv.getValue();
+		return trigger.getCommentTemplate()
+				.replace("{time}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(eventTime))
+				.replace("{pv}", pvName)
+				.replace("{value}", value != null && value.getClass().isArray() ? "[...]" : String.valueOf(value))
+				.replace("{trigger}", Integer.toString(trigger.getId()))
+				.replace("{config}", Integer.toString(trigger.getConfigId()));
+	}
+
+	private static String getHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * @return The names of the monitored PVs, sorted.
+	 */
+	synchronized List<String> getMonitoredPvNames() {
+		return monitors.keySet().stream().sorted().collect(Collectors.toList());
+	}
+}
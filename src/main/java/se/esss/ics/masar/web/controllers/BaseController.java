@@ -17,18 +17,33 @@
  */
 package se.esss.ics.masar.web.controllers;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TreeMap;
+
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
 
+import se.esss.ics.masar.persistence.dao.NodeVersion;
+import se.esss.ics.masar.services.exception.AdmissionRejectedException;
 import se.esss.ics.masar.services.exception.ConfigNotFoundException;
+import se.esss.ics.masar.services.exception.DriftReferenceNotFoundException;
 import se.esss.ics.masar.services.exception.NodeNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotJobNotFoundException;
 import se.esss.ics.masar.services.exception.SnapshotNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotScheduleNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotTriggerNotFoundException;
 
 @RestController
 public abstract class BaseController {
@@ -51,6 +66,44 @@ public abstract class BaseController {
 		return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
 	}
 	
+	@ExceptionHandler(SnapshotJobNotFoundException.class)
+	public ResponseEntity<String> handleSnapshotJobNotFoundException(HttpServletRequest req,
+			SnapshotJobNotFoundException exception) {
+		log(exception);
+		return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+	}
+	
+	@ExceptionHandler(SnapshotScheduleNotFoundException.class)
+	public ResponseEntity<String> handleSnapshotScheduleNotFoundException(HttpServletRequest req,
+			SnapshotScheduleNotFoundException exception) {
+		log(exception);
+		return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+	}
+	
+	@ExceptionHandler(SnapshotTriggerNotFoundException.class)
+	public ResponseEntity<String> handleSnapshotTriggerNotFoundException(HttpServletRequest req,
+			SnapshotTriggerNotFoundException exception) {
+		log(exception);
+		return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+	}
+	
+	@ExceptionHandler(DriftReferenceNotFoundException.class)
+	public ResponseEntity<String> handleDriftReferenceNotFoundException(HttpServletRequest req,
+			DriftReferenceNotFoundException exception) {
+		log(exception);
+		return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+	}
+	
+	@ExceptionHandler(AdmissionRejectedException.class)
+	public ResponseEntity<String> handleAdmissionRejectedException(HttpServletRequest req,
+			AdmissionRejectedException exception) {
+		// Expected under load, so not logged with a stack trace
+		logger.warn(exception.getMessage());
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(exception.getRetryAfterSeconds()))
+				.body(exception.getMessage());
+	}
+	
 	@ExceptionHandler(IllegalArgumentException.class)
 	public ResponseEntity<String> handleIllegalArgumentException(HttpServletRequest req,
 			IllegalArgumentException exception) {
@@ -65,6 +118,46 @@ public abstract class BaseController {
 		return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
 	}
 	
+	/**
+	 * Sets the ETag and Last-Modified headers of a GET request from validators computed without loading the
+	 * response body, and checks them against the If-None-Match and If-Modified-Since request headers. Since the 
+	 * request parameters select the representation (e.g. the depth of a folder tree), they are part of the ETag,
+	 * as is the Accept header selecting the format.
+	 * @param request The request.
+	 * @param validator A string that changes whenever the resource changes.
+	 * @param lastModified The modification time of the resource, or <code>null</code> if not known.
+	 * @return <code>true</code> if the response status has been set to 304, in which case the handler must
+	 * return <code>null</code>.
+	 */
+	protected boolean checkNotModified(WebRequest request, String validator, Date lastModified) {
+		StringBuilder tag = new StringBuilder(validator);
+		new TreeMap<>(request.getParameterMap()).forEach((name, values) -> 
+			tag.append('&').append(name).append('=').append(String.join(",", values)));
+		tag.append('&').append(request.getHeader(HttpHeaders.ACCEPT));
+		if (request instanceof NativeWebRequest) {
+			HttpServletResponse response = ((NativeWebRequest) request).getNativeResponse(HttpServletResponse.class);
+			if (response != null && !response.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT)) {
+				response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+			}
+		}
+		String etag = "\"" + DigestUtils.md5DigestAsHex(tag.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+		return request.checkNotModified(etag, lastModified == null ? -1 : lastModified.getTime());
+	}
+	
+	protected boolean checkNotModified(WebRequest request, NodeVersion version) {
+		// A missing node is reported by the handler when loading it
+		return version != null && checkNotModified(request, version.getDigest(), version.getLastModified());
+	}
+	
+	/**
+	 * @param request The request.
+	 * @return <code>true</code> if the request contains an If-None-Match or If-Modified-Since header.
+	 */
+	protected boolean isConditional(WebRequest request) {
+		return request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+				|| request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+	}
+	
 	private void log(Throwable throwable) {
 		logger.error("Intercepted {}", throwable.getClass().getName(), throwable);
 	}
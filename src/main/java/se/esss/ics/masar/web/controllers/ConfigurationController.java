@@ -17,11 +17,18 @@
  */
 package se.esss.ics.masar.web.controllers;
 
+import java.util.Date;
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -30,12 +37,20 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import io.swagger.annotations.ApiOperation;
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.Folder;
 import se.esss.ics.masar.model.Node;
 import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.services.DriftReport;
 import se.esss.ics.masar.services.IServices;
 
 
@@ -71,9 +86,30 @@ public class ConfigurationController extends BaseController{
 	 */
 	@ApiOperation(value = "Get a folder and its child nodes", produces = JSON)
 	@GetMapping("/folder/{nodeId}")
-	public Folder getFolder(@PathVariable final int nodeId) {
+	public Folder getFolder(@PathVariable final int nodeId, WebRequest request) {
+		if (checkNotModified(request, services.getNodeVersion(nodeId))) {
+			return null;
+		}
 		return services.getFolder(nodeId);
 	}
+	
+	/**
+	 * Get a folder and its entire sub-tree in one request.
+	 * @param nodeId The database id of the folder.
+	 * @param depth Optional maximum depth of the returned sub-tree relative to the folder. If not specified, the
+	 * complete sub-tree is returned.
+	 * @param includePvs If <code>false</code>, the PV lists of the configurations in the sub-tree are omitted.
+	 * @return A {@link Folder} object where child nodes are nested {@link Folder} and {@link Config} objects.
+	 */
+	@ApiOperation(value = "Get a folder and its sub-tree", produces = JSON)
+	@GetMapping("/folder/{nodeId}/tree")
+	public Folder getFolderTree(@PathVariable final int nodeId, @RequestParam(value = "depth", required = false) Integer depth,
+			@RequestParam(value = "includePvs", defaultValue = "true") boolean includePvs, WebRequest request) {
+		if (checkNotModified(request, services.getFolderTreeVersion(nodeId, depth))) {
+			return null;
+		}
+		return services.getFolderTree(nodeId, depth, includePvs);
+	}
 
 	@ApiOperation(value = "Create a new configuration", consumes = JSON)
 	@PutMapping("/config")
@@ -83,7 +119,10 @@ public class ConfigurationController extends BaseController{
 	
 	@ApiOperation(value = "Get configuration and its list of PVs", produces = JSON)
 	@GetMapping("/config/{nodeId}")
-	public Config getConfiguration(@PathVariable final int nodeId) {
+	public Config getConfiguration(@PathVariable final int nodeId, WebRequest request) {
+		if (checkNotModified(request, services.getNodeVersion(nodeId))) {
+			return null;
+		}
 		return services.getConfiguration(nodeId);
 	}
 	
@@ -108,10 +147,142 @@ public class ConfigurationController extends BaseController{
 	}
 	
 	
-	@ApiOperation(value = "Get all snapshots for a config. NOTE: preliminary snapshots are not included.", produces = JSON)
+	/**
+	 * Get the snapshots of a configuration, newest first. If a limit is specified and the page is full, the
+	 * response contains a <code>Link</code> header with <code>rel="next"</code> pointing to the next page.
+	 * @param nodeId The node id of the configuration.
+	 * @param from If specified, only snapshots created at or after this time (ISO 8601) are included.
+	 * @param to If specified, only snapshots created before this time (ISO 8601) are included.
+	 * @param user If specified, only snapshots committed by this user are included.
+	 * @param comment If specified, only snapshots with a comment containing this string (ignoring case) are included.
+	 * @param cursor Cursor identifying a page, as found in the <code>Link</code> header of the previous page.
+	 * @param limit Maximum number of snapshots to return.
+	 * @return A list of {@link Snapshot} objects without PV values.
+	 */
+	@ApiOperation(value = "Get snapshots for a config, newest first. NOTE: preliminary snapshots are not included.", produces = JSON)
 	@GetMapping("/config/{nodeId}/snapshots")
-	public List<Snapshot> getSnapshots(@PathVariable int nodeId) {
-		return services.getSnapshots(nodeId);
+	public ResponseEntity<List<Snapshot>> getSnapshots(@PathVariable int nodeId,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date to,
+			@RequestParam(required = false) String user, 
+			@RequestParam(required = false) String comment,
+			@RequestParam(required = false) String cursor, 
+			@RequestParam(required = false) Integer limit) {
+		
+		if (limit != null && limit < 1) {
+			throw new IllegalArgumentException("Limit must be positive.");
+		}
+		if (from == null && to == null && user == null && comment == null && cursor == null && limit == null) {
+			return ResponseEntity.ok(services.getSnapshots(nodeId));
+		}
+		
+		SnapshotQuery query = new SnapshotQuery();
+		query.setFrom(from);
+		query.setTo(to);
+		query.setUserName(user);
+		query.setComment(comment);
+		query.setCursor(cursor);
+		query.setLimit(limit);
+		
+		List<Snapshot> snapshots = services.getSnapshots(nodeId, query);
+		
+		if (limit != null && snapshots.size() == limit) {
+			String next = ServletUriComponentsBuilder.fromCurrentRequest()
+					.replaceQueryParam("cursor", SnapshotQuery.cursorOf(snapshots.get(snapshots.size() - 1)))
+					.toUriString();
+			return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(snapshots);
+		}
+		return ResponseEntity.ok(snapshots);
+	}
+	
+	/**
+	 * Creates a schedule of snapshots of a configuration, which are taken and committed by the service.
+	 * @param nodeId The node id of the configuration.
+	 * @param schedule A {@link SnapshotSchedule} object. The cron expression, user name and comment template
+	 * must be non-null.
+	 * @return The saved schedule, including the time of its first run.
+	 */
+	@ApiOperation(value = "Create a schedule of snapshots of a configuration, taken and committed by the service. "
+			+ "The cron expression has six fields, the first being the second.", consumes = JSON, produces = JSON)
+	@PutMapping("/config/{nodeId}/schedule")
+	public SnapshotSchedule createSnapshotSchedule(@PathVariable int nodeId, @RequestBody SnapshotSchedule schedule) {
+		schedule.setConfigId(nodeId);
+		return services.createSnapshotSchedule(schedule);
+	}
+	
+	@ApiOperation(value = "Get the snapshot schedules of a configuration, including the outcome of their last run.", produces = JSON)
+	@GetMapping("/config/{nodeId}/schedules")
+	public List<SnapshotSchedule> getSnapshotSchedules(@PathVariable int nodeId) {
+		return services.getSnapshotSchedules(nodeId);
+	}
+	
+	@ApiOperation(value = "Delete a snapshot schedule. Snapshots taken by the schedule are kept.")
+	@DeleteMapping("/schedule/{scheduleId}")
+	public void deleteSnapshotSchedule(@PathVariable int scheduleId) {
+		services.deleteSnapshotSchedule(scheduleId);
+	}
+	
+	/**
+	 * Creates a trigger of snapshots of a configuration, which are taken and committed by the service when a
+	 * monitored PV meets a condition.
+	 * @param nodeId The node id of the configuration.
+	 * @param trigger A {@link SnapshotTrigger} object. Either the PV name or the group name must be non-null, as
+	 * must the condition, user name and comment template.
+	 * @return The saved trigger.
+	 */
+	@ApiOperation(value = "Create a trigger of snapshots of a configuration, taken and committed by the service when "
+			+ "a PV, or any PV of a group of the configuration, meets a condition.", consumes = JSON, produces = JSON)
+	@PutMapping("/config/{nodeId}/trigger")
+	public SnapshotTrigger createSnapshotTrigger(@PathVariable int nodeId, @RequestBody SnapshotTrigger trigger) {
+		trigger.setConfigId(nodeId);
+		return services.createSnapshotTrigger(trigger);
+	}
+	
+	@ApiOperation(value = "Get the snapshot triggers of a configuration, including the outcome of their last snapshot.", produces = JSON)
+	@GetMapping("/config/{nodeId}/triggers")
+	public List<SnapshotTrigger> getSnapshotTriggers(@PathVariable int nodeId) {
+		return services.getSnapshotTriggers(nodeId);
+	}
+	
+	@ApiOperation(value = "Delete a snapshot trigger. Snapshots taken by the trigger are kept.")
+	@DeleteMapping("/trigger/{triggerId}")
+	public void deleteSnapshotTrigger(@PathVariable int triggerId) {
+		services.deleteSnapshotTrigger(triggerId);
+	}
+	
+	/**
+	 * Marks a committed snapshot as the reference of a configuration. The service monitors the PVs of the
+	 * snapshot and reports those of which the live value deviates from the reference value by more than the
+	 * tolerance of the PV.
+	 * @param nodeId The node id of the configuration.
+	 * @param reference A {@link DriftReference} object with the snapshot id and tolerances.
+	 * @return The saved reference.
+	 */
+	@ApiOperation(value = "Mark a committed snapshot as the reference of its configuration, against which the live "
+			+ "PV values are continuously compared. Replaces any previous reference.", consumes = JSON, produces = JSON)
+	@PutMapping("/config/{nodeId}/reference")
+	public DriftReference setDriftReference(@PathVariable int nodeId, @RequestBody DriftReference reference) {
+		reference.setConfigId(nodeId);
+		return services.setDriftReference(reference);
+	}
+	
+	@ApiOperation(value = "Get the reference snapshot and tolerances of a configuration.", produces = JSON)
+	@GetMapping("/config/{nodeId}/reference")
+	public DriftReference getDriftReference(@PathVariable int nodeId) {
+		return services.getDriftReference(nodeId);
+	}
+	
+	@ApiOperation(value = "Delete the reference of a configuration, which stops drift detection. The snapshot is kept.")
+	@DeleteMapping("/config/{nodeId}/reference")
+	public void deleteDriftReference(@PathVariable int nodeId) {
+		services.deleteDriftReference(nodeId);
+	}
+	
+	@ApiOperation(value = "Get the PVs of a configuration of which the live value deviates from the reference snapshot "
+			+ "by more than their tolerance.", produces = JSON)
+	@GetMapping("/config/{nodeId}/drift")
+	public DriftReport getDrift(@PathVariable int nodeId) {
+		return services.getDrift(nodeId);
 	}
 	
 	@ApiOperation(value = "Moves a node (and the sub-tree in case of a folder node) to another target folder.", produces = JSON)
@@ -125,4 +296,25 @@ public class ConfigurationController extends BaseController{
 	public Node renameNode(@PathVariable int nodeId, @RequestParam(value = "name", required = true) String name) {
 		return services.renameNode(nodeId, name);
 	}
+	
+	/**
+	 * Resolves a path of node names, e.g. /path/Linac/RF/Cavity-3, starting from the root folder.
+	 * @param request The request, from which the path following /path is extracted.
+	 * @return The nodes matching the path. Since a folder and a configuration in the same folder may
+	 * have the same name, the list may contain two nodes.
+	 */
+	@ApiOperation(value = "Get the node(s) identified by a path of node names, e.g. /path/folder/config", produces = JSON)
+	@GetMapping("/path/**")
+	public List<Node> getNodesByPath(HttpServletRequest request) {
+		String path = new AntPathMatcher().extractPathWithinPattern(
+				(String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE),
+				(String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE));
+		return services.getNodesByPath(path);
+	}
+	
+	@ApiOperation(value = "Get the list of nodes from the root folder to the specified node", produces = JSON)
+	@GetMapping("/node/{nodeId}/path")
+	public List<Node> getNodePath(@PathVariable int nodeId) {
+		return services.getNodePath(nodeId);
+	}
 }
@@ -17,18 +17,47 @@
  */
 package se.esss.ics.masar.web.controllers;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import io.swagger.annotations.ApiOperation;
+import se.esss.ics.masar.model.ConfigPv;
 import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.SnapshotPvFilter;
 import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.SnapshotJob;
+import se.esss.ics.masar.services.SnapshotJobListener;
 
 @RestController
 public class SnapshotController extends BaseController {
@@ -36,17 +65,190 @@ public class SnapshotController extends BaseController {
 	@Autowired
 	private IServices services;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${masar.snapshot.live.timeout-ms:600000}")
+	private long liveTimeout;
+
+	private Logger logger = LoggerFactory.getLogger(SnapshotController.class);
+
 	@ApiOperation(value = "Take a snapshot, i.e. save preliminary.")
 	@PutMapping("/snapshot/{configId}")
 	public Snapshot takeSnapshot(@PathVariable int configId) {
 		return services.takeSnapshot(configId);
 	}
 
-	@ApiOperation(value = "Get a snapshot, including its values.", consumes = JSON)
+	@ApiOperation(value = "Take snapshots of several configurations, i.e. save preliminary. PVs contained in "
+			+ "several configurations are read once, and all snapshots have the same creation time.", consumes = JSON)
+	@PostMapping("/snapshot/batch")
+	public List<Snapshot> takeSnapshots(@RequestBody List<Integer> configIds) {
+		return services.takeSnapshots(configIds);
+	}
+
+	@ApiOperation(value = "Take a snapshot asynchronously. Responds with 202 and a job that can be polled at the "
+			+ "location given in the response.")
+	@PutMapping(value = "/snapshot/{configId}", params = "async=true")
+	public ResponseEntity<SnapshotJob> takeSnapshotAsync(@PathVariable int configId) {
+		SnapshotJob job = services.submitSnapshotJob(configId);
+		URI location = ServletUriComponentsBuilder.fromCurrentContextPath().path("/snapshot/jobs/{jobId}")
+				.buildAndExpand(job.getId()).toUri();
+		return ResponseEntity.accepted().location(location).body(job);
+	}
+
+	/**
+	 * Takes a snapshot and streams the acquisition as server-sent events: a <code>pv</code> event holding the
+	 * {@link SnapshotPv} for each PV read, a <code>failed</code> event holding the {@link ConfigPv} for each PV that
+	 * could not be read, and a final <code>job</code> event holding the finished {@link SnapshotJob}, including the
+	 * id of the preliminary snapshot.
+	 * @param configId The node id of the configuration.
+	 * @return The event stream.
+	 */
+	@ApiOperation(value = "Take a snapshot, streaming each PV as it is read as a server-sent event. The final "
+			+ "event holds the job, including the preliminary snapshot id.", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@GetMapping(value = "/snapshot/{configId}/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter takeSnapshotLive(@PathVariable int configId) {
+
+		SseEmitter emitter = new SseEmitter(liveTimeout);
+
+		// Acquisition continues if the client goes away, such that the snapshot is saved regardless
+		services.submitSnapshotJob(configId, new SnapshotJobListener() {
+
+			private boolean connected = true;
+
+			@Override
+			public void pvRead(SnapshotPv<?> snapshotPv) {
+				send("pv", snapshotPv);
+			}
+
+			@Override
+			public void pvFailed(ConfigPv configPv, String error) {
+				send("failed", configPv);
+			}
+
+			@Override
+			public void jobFinished(SnapshotJob job) {
+				send("job", job);
+				if (connected) {
+					emitter.complete();
+				}
+			}
+
+			private void send(String name, Object data) {
+				if (!connected) {
+					return;
+				}
+				try {
+					emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+				} catch (IOException | IllegalStateException e) {
+					logger.debug("Live snapshot of configuration {} no longer sent: {}", configId, e.getMessage());
+					connected = false;
+				}
+			}
+		});
+
+		return emitter;
+	}
+
+	@ApiOperation(value = "Get the progress of an asynchronous snapshot job, and the snapshot id once completed.")
+	@GetMapping("/snapshot/jobs/{jobId}")
+	public SnapshotJob getSnapshotJob(@PathVariable String jobId) {
+		return services.getSnapshotJob(jobId);
+	}
+
+	/**
+	 * Get a snapshot, optionally restricted to a subset of its PVs.
+	 * @param snapshotId The database id of the snapshot.
+	 * @param pv PV names to include. May be repeated, or a comma separated list.
+	 * @param glob Name pattern, where <code>*</code> matches any number of characters and <code>?</code> a single one.
+	 * @param regex Regular expression that must match (part of) the PV name.
+	 * @param group Group name of the PVs to include.
+	 * @param tag Tag of the PVs to include.
+	 * @param values If <code>false</code>, the PVs are returned without values.
+	 * @return A {@link Snapshot} object.
+	 */
+	@ApiOperation(value = "Get a snapshot, including its values. Optional parameters select a subset of the PVs, "
+			+ "values=false omits the values.", produces = JSON)
 	@GetMapping("/snapshot/{snapshotId}")
-	public Snapshot getSnapshot(@PathVariable int snapshotId) {
+	public Snapshot getSnapshot(@PathVariable int snapshotId, 
+			@RequestParam(required = false) List<String> pv,
+			@RequestParam(required = false) String glob, 
+			@RequestParam(required = false) String regex,
+			@RequestParam(required = false) String group, 
+			@RequestParam(required = false) String tag,
+			@RequestParam(defaultValue = "true") boolean values,
+			WebRequest request) {
+
+		// Committed snapshots never change, so only the header is needed to evaluate a conditional request
+		if (isConditional(request) && checkNotModified(request, services.getSnapshotHeader(snapshotId))) {
+			return null;
+		}
+
+		Snapshot snapshot;
+		if (pv == null && glob == null && regex == null && group == null && tag == null && values) {
+			snapshot = services.getSnapshot(snapshotId);
+		} else {
+			SnapshotPvFilter filter = new SnapshotPvFilter();
+			filter.setPvNames(pv);
+			filter.setGlob(glob);
+			filter.setRegex(regex);
+			filter.setGroupName(group);
+			filter.setTag(tag);
+			filter.setValuesIncluded(values);
+			snapshot = services.getSnapshot(snapshotId, filter);
+		}
+
+		checkNotModified(request, snapshot);
+		return snapshot;
+	}
+
+	@ApiOperation(value = "Get a snapshot, including its values, streamed from the database. "
+			+ "The response has the same format as GET /snapshot/{snapshotId}, but memory use does not depend on the number of values.")
+	@GetMapping(value = "/snapshot/{snapshotId}/stream", produces = JSON)
+	public StreamingResponseBody streamSnapshot(@PathVariable int snapshotId, WebRequest request) {
+
+		// Resolved before the response is committed such that a missing snapshot results in 404
+		Snapshot snapshot = services.getSnapshotHeader(snapshotId);
+		if (checkNotModified(request, snapshot)) {
+			return null;
+		}
+		ObjectNode header = objectMapper.valueToTree(snapshot);
+		header.remove("snapshotPvList");
+
+		// Flushing after each value would send one chunk per PV
+		ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+		return outputStream -> {
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)
+					.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+				generator.writeStartObject();
+				Iterator<Map.Entry<String, JsonNode>> fields = header.fields();
+				while (fields.hasNext()) {
+					Map.Entry<String, JsonNode> field = fields.next();
+					generator.writeFieldName(field.getKey());
+					generator.writeTree(field.getValue());
+				}
+				generator.writeArrayFieldStart("snapshotPvList");
+				try {
+					services.streamSnapshotPvs(snapshotId, snapshotPv -> {
+						try {
+							writer.writeValue(generator, snapshotPv);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				generator.writeEndArray();
+				generator.writeEndObject();
+			}
+		};
+	}
 
-		return services.getSnapshot(snapshotId);
+	private boolean checkNotModified(WebRequest request, Snapshot snapshot) {
+		return checkNotModified(request, "snapshot/" + snapshot.getId() + "/" + 
+				(snapshot.getCreated() == null ? "" : snapshot.getCreated().getTime()), snapshot.getCreated());
 	}
 
 	@ApiOperation(value = "Delete a snapshot", consumes = JSON)
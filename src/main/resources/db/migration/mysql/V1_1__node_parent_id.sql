@@ -0,0 +1,10 @@
+-- Denormalized parent id of a node, used to enforce unique name and type
+-- among the child nodes of a folder. The root folder has no parent.
+ALTER TABLE node ADD COLUMN parent_id INTEGER;
+ALTER TABLE node ADD CONSTRAINT node_parent_fk FOREIGN KEY (parent_id) REFERENCES node(id);
+
+-- Do not touch last_modified when populating the new column
+UPDATE node SET parent_id = (SELECT ancestor FROM node_closure WHERE descendant = node.id AND depth = 1), 
+  last_modified = last_modified;
+
+CREATE UNIQUE INDEX node_parent_name_type_idx ON node(parent_id, name, type);
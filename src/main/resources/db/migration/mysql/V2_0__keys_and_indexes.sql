@@ -0,0 +1,42 @@
+-- Primary keys and indexes matching the queries issued by ConfigJdbcDAO and SnapshotJdbcDAO.
+
+-- Every tree query looks up the closure table on (ancestor, depth) or (descendant, depth).
+-- The third column makes the indexes covering for the closure-only sub queries.
+ALTER TABLE node_closure ADD PRIMARY KEY (ancestor, descendant),
+  ADD KEY node_closure_ancestor_idx (ancestor, depth, descendant),
+  ADD KEY node_closure_descendant_idx (descendant, depth, ancestor);
+
+-- Superseded by the primary key of node
+ALTER TABLE node DROP KEY node_idx;
+
+ALTER TABLE config ADD PRIMARY KEY (node_id);
+
+-- config_pv_idx is superseded by the primary key. The reverse index is used when
+-- checking if a PV is still referenced by any configuration.
+ALTER TABLE config_pv_relation ADD PRIMARY KEY (config_id, config_pv_id),
+  DROP KEY config_pv_idx,
+  ADD KEY config_pv_relation_pv_idx (config_pv_id);
+
+-- Superseded by the unique constraint on config_pv.name
+ALTER TABLE config_pv DROP KEY pv_name_idx;
+
+-- The primary key was declared on snapshot_id only, which cannot hold more than one PV per snapshot
+ALTER TABLE snapshot_pv DROP PRIMARY KEY,
+  ADD PRIMARY KEY (snapshot_id, config_pv_id),
+  ADD KEY snapshot_pv_config_pv_idx (config_pv_id);
+
+-- A missing unique constraint may have created duplicate user names. Point all snapshots
+-- to the first occurrence of a name before removing the duplicates.
+UPDATE snapshot AS s 
+  JOIN username AS u ON s.username_id = u.id
+  JOIN (SELECT name, MIN(id) AS id FROM username GROUP BY name) AS k ON k.name = u.name
+  SET s.username_id = k.id
+  WHERE u.id <> k.id;
+DELETE u FROM username AS u 
+  JOIN (SELECT name, MIN(id) AS id FROM username GROUP BY name) AS k ON k.name = u.name
+  WHERE u.id <> k.id;
+
+ALTER TABLE username ADD UNIQUE KEY username_name_unique (name),
+  DROP KEY username_idx;
+
+ALTER TABLE snapshot ADD KEY snapshot_username_idx (username_id);
@@ -0,0 +1,10 @@
+-- Materialized path of each node of the form /0/5/12/, maintained by MaterializedPathTreeStore 
+-- (masar.tree-store=path).
+ALTER TABLE node ADD COLUMN path VARCHAR(760) CHARACTER SET ascii;
+
+-- Do not touch last_modified when populating the new column
+UPDATE node SET path = (SELECT CONCAT('/', GROUP_CONCAT(ancestor ORDER BY depth DESC SEPARATOR '/'), '/') 
+  FROM node_closure WHERE descendant = node.id), 
+  last_modified = last_modified;
+
+CREATE INDEX node_path_idx ON node(path);
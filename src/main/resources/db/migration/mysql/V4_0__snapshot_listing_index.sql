@@ -0,0 +1,4 @@
+-- Keyset pagination of the snapshots of a configuration, ordered by (created, id).
+-- snapshot_config_idx is superseded by the new index.
+ALTER TABLE snapshot ADD KEY snapshot_config_created_idx (config_id, created, id),
+  DROP KEY snapshot_config_idx;
@@ -0,0 +1,29 @@
+-- Schedules of snapshots taken and committed by the service, see SnapshotScheduler.
+-- running_since is set while a run is in progress, such that runs of a schedule do not overlap.
+CREATE TABLE IF NOT EXISTS snapshot_schedule (
+  id INTEGER PRIMARY KEY AUTO_INCREMENT,
+  config_id INTEGER NOT NULL,
+  cron VARCHAR(100) NOT NULL,
+  user_name VARCHAR(50) NOT NULL,
+  comment_template TEXT NOT NULL,
+  enabled BOOLEAN NOT NULL DEFAULT TRUE,
+  next_run TIMESTAMP NULL,
+  last_run TIMESTAMP NULL,
+  last_snapshot_id INTEGER,
+  last_error TEXT,
+  running_since TIMESTAMP NULL,
+  KEY snapshot_schedule_config_idx (config_id),
+  KEY snapshot_schedule_next_run_idx (next_run),
+  FOREIGN KEY (config_id) REFERENCES node(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Leases electing the single service instance running a task, e.g. the snapshot scheduler
+CREATE TABLE IF NOT EXISTS lease (
+  name VARCHAR(50) PRIMARY KEY,
+  owner VARCHAR(200),
+  expires TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) ENGINE=InnoDB;
+
+-- Expired once inserted. An epoch literal would be read in the session time zone and may fall below the
+-- TIMESTAMP range.
+INSERT INTO lease (name, owner, expires) VALUES ('snapshot-scheduler', NULL, CURRENT_TIMESTAMP);
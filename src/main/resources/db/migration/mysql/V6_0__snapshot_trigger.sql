@@ -0,0 +1,24 @@
+-- Triggers of snapshots taken and committed by the service when a monitored PV meets a condition,
+-- see SnapshotTriggerManager. The PV is either pv_name, or any PV of the configuration in group_name.
+CREATE TABLE IF NOT EXISTS snapshot_trigger (
+  id INTEGER PRIMARY KEY AUTO_INCREMENT,
+  config_id INTEGER NOT NULL,
+  pv_name VARCHAR(255),
+  group_name VARCHAR(255),
+  condition_type VARCHAR(20) NOT NULL,
+  condition_value TEXT,
+  min_severity INTEGER NOT NULL DEFAULT 2,
+  debounce_ms BIGINT NOT NULL DEFAULT 0,
+  min_interval_seconds BIGINT NOT NULL DEFAULT 60,
+  user_name VARCHAR(50) NOT NULL,
+  comment_template TEXT NOT NULL,
+  enabled BOOLEAN NOT NULL DEFAULT TRUE,
+  last_fired TIMESTAMP NULL,
+  last_snapshot_id INTEGER,
+  last_error TEXT,
+  KEY snapshot_trigger_config_idx (config_id),
+  FOREIGN KEY (config_id) REFERENCES node(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Expired once inserted, see V5_0__snapshot_schedule.sql
+INSERT INTO lease (name, owner, expires) VALUES ('snapshot-trigger', NULL, CURRENT_TIMESTAMP);
@@ -0,0 +1,18 @@
+-- Reference snapshots of configurations, against which the live values are compared, see DriftMonitor.
+-- PVs without a tolerance of their own use the default tolerance.
+CREATE TABLE IF NOT EXISTS drift_reference (
+  config_id INTEGER PRIMARY KEY,
+  snapshot_id INTEGER NOT NULL,
+  default_tolerance DOUBLE NOT NULL DEFAULT 0,
+  created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  FOREIGN KEY (config_id) REFERENCES node(id) ON DELETE CASCADE,
+  FOREIGN KEY (snapshot_id) REFERENCES snapshot(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS drift_tolerance (
+  config_id INTEGER NOT NULL,
+  pv_name VARCHAR(255) NOT NULL,
+  tolerance DOUBLE NOT NULL,
+  PRIMARY KEY (config_id, pv_name),
+  FOREIGN KEY (config_id) REFERENCES drift_reference(config_id) ON DELETE CASCADE
+) ENGINE=InnoDB;
@@ -0,0 +1,3 @@
+-- Compare node names case-sensitively, as PostgreSQL and H2 do, such that the unique index
+-- node_parent_name_type_idx lets "Foo" and "foo" coexist in the same folder.
+ALTER TABLE node MODIFY name VARCHAR(50) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL;
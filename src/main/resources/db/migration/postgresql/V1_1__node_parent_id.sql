@@ -0,0 +1,11 @@
+-- Denormalized parent id of a node, used to enforce unique name and type
+-- among the child nodes of a folder. The root folder has no parent.
+ALTER TABLE node ADD COLUMN parent_id INTEGER;
+ALTER TABLE node ADD CONSTRAINT node_parent_fk FOREIGN KEY (parent_id) REFERENCES node(id);
+
+-- Do not touch last_modified when populating the new column
+ALTER TABLE node DISABLE TRIGGER node_updated_at_modtime;
+UPDATE node SET parent_id = (SELECT ancestor FROM node_closure WHERE descendant = node.id AND depth = 1);
+ALTER TABLE node ENABLE TRIGGER node_updated_at_modtime;
+
+CREATE UNIQUE INDEX IF NOT EXISTS node_parent_name_type_idx ON node(parent_id, name, type);
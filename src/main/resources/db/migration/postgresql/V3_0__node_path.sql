@@ -0,0 +1,24 @@
+-- Materialized path of each node, maintained by MaterializedPathTreeStore (masar.tree-store=path).
+-- Uses the ltree extension if it can be installed, a path string of the form /0/5/12/ otherwise.
+ALTER TABLE node DISABLE TRIGGER node_updated_at_modtime;
+
+DO $$
+BEGIN
+  CREATE EXTENSION IF NOT EXISTS ltree;
+  ALTER TABLE node ADD COLUMN path ltree;
+  UPDATE node SET path = (SELECT text2ltree(string_agg(ancestor::text, '.' ORDER BY depth DESC)) 
+    FROM node_closure WHERE descendant = node.id);
+  CREATE INDEX node_path_idx ON node USING GIST (path);
+EXCEPTION WHEN OTHERS THEN
+  ALTER TABLE node ADD COLUMN path VARCHAR(2048);
+  UPDATE node SET path = (SELECT '/' || string_agg(ancestor::text, '/' ORDER BY depth DESC) || '/' 
+    FROM node_closure WHERE descendant = node.id);
+  CREATE INDEX node_path_idx ON node(path varchar_pattern_ops);
+END $$;
+
+ALTER TABLE node ENABLE TRIGGER node_updated_at_modtime;
+
+-- Moving a folder updates the path of all nodes in its sub-tree, which should not count as a modification
+DROP TRIGGER node_updated_at_modtime ON node;
+CREATE TRIGGER node_updated_at_modtime BEFORE UPDATE ON node FOR EACH ROW 
+  WHEN (OLD.path IS NOT DISTINCT FROM NEW.path) EXECUTE PROCEDURE update_updated_at_column();
@@ -0,0 +1,27 @@
+-- Schedules of snapshots taken and committed by the service, see SnapshotScheduler.
+-- running_since is set while a run is in progress, such that runs of a schedule do not overlap.
+CREATE TABLE IF NOT EXISTS snapshot_schedule (
+  id SERIAL PRIMARY KEY,
+  config_id INTEGER NOT NULL REFERENCES node(id) ON DELETE CASCADE,
+  cron TEXT NOT NULL,
+  user_name TEXT NOT NULL,
+  comment_template TEXT NOT NULL,
+  enabled BOOLEAN NOT NULL DEFAULT TRUE,
+  next_run TIMESTAMP,
+  last_run TIMESTAMP,
+  last_snapshot_id INTEGER,
+  last_error TEXT,
+  running_since TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS snapshot_schedule_config_idx ON snapshot_schedule(config_id);
+CREATE INDEX IF NOT EXISTS snapshot_schedule_next_run_idx ON snapshot_schedule(next_run);
+
+-- Leases electing the single service instance running a task, e.g. the snapshot scheduler
+CREATE TABLE IF NOT EXISTS lease (
+  name VARCHAR(50) PRIMARY KEY,
+  owner VARCHAR(200),
+  expires TIMESTAMP NOT NULL
+);
+
+INSERT INTO lease (name, owner, expires) VALUES ('snapshot-scheduler', NULL, '1970-01-01 00:00:00');
@@ -0,0 +1,15 @@
+-- Reference snapshots of configurations, against which the live values are compared, see DriftMonitor.
+-- PVs without a tolerance of their own use the default tolerance.
+CREATE TABLE IF NOT EXISTS drift_reference (
+  config_id INTEGER PRIMARY KEY REFERENCES node(id) ON DELETE CASCADE,
+  snapshot_id INTEGER NOT NULL REFERENCES snapshot(id) ON DELETE CASCADE,
+  default_tolerance DOUBLE PRECISION NOT NULL DEFAULT 0,
+  created TIMESTAMP NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS drift_tolerance (
+  config_id INTEGER NOT NULL REFERENCES drift_reference(config_id) ON DELETE CASCADE,
+  pv_name TEXT NOT NULL,
+  tolerance DOUBLE PRECISION NOT NULL,
+  PRIMARY KEY (config_id, pv_name)
+);
@@ -0,0 +1,5 @@
+-- Moving a node updates its parent_id, which should not count as a modification of the node
+DROP TRIGGER node_updated_at_modtime ON node;
+CREATE TRIGGER node_updated_at_modtime BEFORE UPDATE ON node FOR EACH ROW 
+  WHEN (OLD.path IS NOT DISTINCT FROM NEW.path AND OLD.parent_id IS NOT DISTINCT FROM NEW.parent_id) 
+  EXECUTE PROCEDURE update_updated_at_column();
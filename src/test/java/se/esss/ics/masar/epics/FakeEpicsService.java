@@ -0,0 +1,72 @@
+package se.esss.ics.masar.epics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import se.esss.ics.masar.epics.exception.PVReadException;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * In-memory PVs for tests. Values are set with {@link #post(String, SnapshotPv)}, which notifies the open monitors
+ * of the PV and is returned by subsequent reads.
+ */
+public class FakeEpicsService implements IEpicsService {
+
+	private final Map<String, SnapshotPv<?>> values = new ConcurrentHashMap<>();
+	private final Map<String, List<Consumer<SnapshotPv<?>>>> listeners = new ConcurrentHashMap<>();
+	private final List<String> closed = new CopyOnWriteArrayList<>();
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> SnapshotPv<T> getPv(ConfigPv configPv) throws PVReadException {
+		SnapshotPv<?> snapshotPv = values.get(configPv.getPvName());
+		if (snapshotPv == null) {
+			throw new PVReadException("No value of " + configPv.getPvName());
+		}
+		return (SnapshotPv<T>) snapshotPv;
+	}
+
+	@Override
+	public PvMonitor monitor(ConfigPv configPv, Consumer<SnapshotPv<?>> listener) {
+		String pvName = configPv.getPvName();
+		listeners.computeIfAbsent(pvName, name -> new CopyOnWriteArrayList<>()).add(listener);
+		SnapshotPv<?> current = values.get(pvName);
+		if (current != null) {
+			listener.accept(current);
+		}
+		return () -> {
+			listeners.get(pvName).remove(listener);
+			closed.add(pvName);
+		};
+	}
+
+	/**
+	 * Sets the value of a PV and notifies its monitors.
+	 * @param pvName The PV name.
+	 * @param snapshotPv The new value, alarm and fetch status.
+	 */
+	public void post(String pvName, SnapshotPv<?> snapshotPv) {
+		values.put(pvName, snapshotPv);
+		listeners.getOrDefault(pvName, new ArrayList<>()).forEach(listener -> listener.accept(snapshotPv));
+	}
+
+	/**
+	 * @param pvName A PV name.
+	 * @return The number of open monitors of the PV.
+	 */
+	public int getMonitorCount(String pvName) {
+		return listeners.getOrDefault(pvName, new ArrayList<>()).size();
+	}
+
+	/**
+	 * @return The names of the PVs of the monitors closed so far, in the order closed.
+	 */
+	public List<String> getClosed() {
+		return closed;
+	}
+}
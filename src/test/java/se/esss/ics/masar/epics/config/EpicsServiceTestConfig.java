@@ -9,6 +9,8 @@ import org.epics.pvaClient.PvaClient;
 import org.epics.pvaClient.PvaClientChannel;
 import org.epics.pvaClient.PvaClientGet;
 import org.epics.pvaClient.PvaClientGetData;
+import org.epics.pvaClient.PvaClientMonitor;
+import org.epics.pvaClient.PvaClientMonitorData;
 import org.epics.pvaccess.PVFactory;
 import org.epics.pvdata.factory.BasePVInt;
 import org.epics.pvdata.factory.BasePVLong;
@@ -42,6 +44,14 @@ public class EpicsServiceTestConfig {
 		when(pvaClientGet.getData()).thenReturn(pvaClientGetData);
 		when(pvaClientChannel.get()).thenReturn(pvaClientGet);
 		
+		PvaClientMonitor pvaClientMonitor = mock(PvaClientMonitor.class);
+		PvaClientMonitorData pvaClientMonitorData = mock(PvaClientMonitorData.class);
+		when(pvaClientMonitorData.getPVStructure()).thenReturn(getDefaultPVStructure());
+		when(pvaClientMonitor.getData()).thenReturn(pvaClientMonitorData);
+		// One event, then none
+		when(pvaClientMonitor.waitEvent(anyDouble())).thenReturn(true, false);
+		when(pvaClientChannel.monitor(anyString())).thenReturn(pvaClientMonitor);
+		
 		when(pvaClient.channel(anyString(), anyString(), anyDouble())).thenReturn(pvaClientChannel);
 		when(pvaClient.channel(anyString(), anyString(), anyDouble())).thenAnswer(new Answer<PvaClientChannel>() {
 			
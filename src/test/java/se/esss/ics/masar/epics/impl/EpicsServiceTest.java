@@ -2,6 +2,11 @@ package se.esss.ics.masar.epics.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,6 +16,7 @@ import org.springframework.test.context.ContextHierarchy;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.PvMonitor;
 import se.esss.ics.masar.epics.config.EpicsServiceTestConfig;
 import se.esss.ics.masar.epics.exception.PVReadException;
 import se.esss.ics.masar.model.ConfigPv;
@@ -43,4 +49,20 @@ public class EpicsServiceTest {
 		SnapshotPv snapshotPv = epicsService.getPv(configPv);
 		assertFalse(snapshotPv.isFetchStatus());
 	}
+
+	@Test
+	public void testMonitor() throws InterruptedException {
+		ConfigPv configPv = ConfigPv.builder()
+				.pvName("channelName")
+				.build();
+		BlockingQueue<SnapshotPv<?>> events = new ArrayBlockingQueue<>(10);
+		PvMonitor pvMonitor = epicsService.monitor(configPv, events::add);
+		try {
+			SnapshotPv<?> snapshotPv = events.poll(10, TimeUnit.SECONDS);
+			assertEquals(7, snapshotPv.getValue());
+			assertTrue(snapshotPv.isFetchStatus());
+		} finally {
+			pvMonitor.close();
+		}
+	}
 }
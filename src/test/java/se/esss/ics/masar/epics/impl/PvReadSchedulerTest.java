@@ -0,0 +1,164 @@
+package se.esss.ics.masar.epics.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import se.esss.ics.masar.epics.FakeEpicsService;
+import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.exception.PVReadException;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.SnapshotPv;
+
+public class PvReadSchedulerTest {
+
+	private static final Pattern PREFIX = Pattern.compile("^([^:]+):");
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(8);
+	private final Map<String, AtomicInteger> inProgress = new ConcurrentHashMap<>();
+	private final Map<String, Integer> maxInProgress = new ConcurrentHashMap<>();
+	private final AtomicInteger totalInProgress = new AtomicInteger();
+	private final AtomicInteger maxTotalInProgress = new AtomicInteger();
+	private final Map<String, String> servers = new ConcurrentHashMap<>();
+
+	/**
+	 * Takes 20 ms per read, fails reading PVs named "fail", and reports the server of PVs once read.
+	 */
+	private final IEpicsService epicsService = new FakeEpicsService() {
+
+		@Override
+		public <T> SnapshotPv<T> getPv(ConfigPv configPv) throws PVReadException {
+			String prefix = configPv.getPvName().split(":")[0];
+			int count = inProgress.computeIfAbsent(prefix, p -> new AtomicInteger()).incrementAndGet();
+			maxInProgress.merge(prefix, count, Math::max);
+			maxTotalInProgress.accumulateAndGet(totalInProgress.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(20);
+				if (configPv.getPvName().endsWith("fail")) {
+					throw new PVReadException("Read failure");
+				}
+				servers.put(configPv.getPvName(), "ioc-" + prefix + ":5064");
+				return SnapshotPv.<T>builder().configPv(configPv).fetchStatus(true).build();
+			} catch (InterruptedException e) {
+				throw new PVReadException("Interrupted");
+			} finally {
+				inProgress.get(prefix).decrementAndGet();
+				totalInProgress.decrementAndGet();
+			}
+		}
+
+		@Override
+		public String getServerAddress(String pvName) {
+			return servers.get(pvName);
+		}
+	};
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrencyPerServer() throws Exception {
+
+		PvReadScheduler scheduler = new PvReadScheduler(epicsService, executor, PREFIX, 2, 0);
+		List<CompletableFuture<SnapshotPv<?>>> reads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			reads.add(scheduler.read(ConfigPv.builder().pvName("A:pv" + i).build()));
+			reads.add(scheduler.read(ConfigPv.builder().pvName("B:pv" + i).build()));
+		}
+		for (CompletableFuture<SnapshotPv<?>> read : reads) {
+			assertTrue(read.get(10, TimeUnit.SECONDS).isFetchStatus());
+		}
+
+		assertEquals(2, maxInProgress.get("A").intValue());
+		assertEquals(2, maxInProgress.get("B").intValue());
+		// Both servers are read in parallel
+		assertTrue(maxTotalInProgress.get() > 2);
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+
+		PvReadScheduler scheduler = new PvReadScheduler(epicsService, executor, PREFIX, 8, 100);
+		long start = System.nanoTime();
+		List<CompletableFuture<SnapshotPv<?>>> reads = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			reads.add(scheduler.read(ConfigPv.builder().pvName("A:pv" + i).build()));
+		}
+		for (CompletableFuture<SnapshotPv<?>> read : reads) {
+			read.get(10, TimeUnit.SECONDS);
+		}
+
+		// Reads start 10 ms apart
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testGroups() throws Exception {
+
+		PvReadScheduler scheduler = new PvReadScheduler(epicsService, executor, PREFIX, 2, 0);
+		assertEquals("A", scheduler.getGroupName("A:pv"));
+		assertEquals(PvReadScheduler.DEFAULT_GROUP, scheduler.getGroupName("pv"));
+
+		scheduler.read(ConfigPv.builder().pvName("A:pv").build()).get(10, TimeUnit.SECONDS);
+		assertEquals("ioc-A:5064", scheduler.getGroupName("A:pv"));
+
+		scheduler = new PvReadScheduler(epicsService, executor, null, 2, 0);
+		assertEquals(PvReadScheduler.DEFAULT_GROUP, scheduler.getGroupName("B:pv"));
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testReadFailure() throws Exception {
+
+		PvReadScheduler scheduler = new PvReadScheduler(epicsService, executor, PREFIX, 1, 0);
+		CompletableFuture<SnapshotPv<?>> failure = scheduler.read(ConfigPv.builder().pvName("A:fail").build());
+		CompletableFuture<SnapshotPv<?>> success = scheduler.read(ConfigPv.builder().pvName("A:pv").build());
+
+		try {
+			failure.get(10, TimeUnit.SECONDS);
+			fail("Expected failure");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PVReadException);
+		}
+		// A failed read releases its slot
+		assertTrue(success.get(10, TimeUnit.SECONDS).isFetchStatus());
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+
+		PvReadScheduler scheduler = new PvReadScheduler(epicsService, executor, PREFIX, 2, 0);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		scheduler.bindTo(registry);
+
+		scheduler.read(ConfigPv.builder().pvName("A:pv1").build()).get(10, TimeUnit.SECONDS);
+		scheduler.read(ConfigPv.builder().pvName("A:pv2").build()).get(10, TimeUnit.SECONDS);
+
+		assertEquals(2.0, registry.get("masar.epics.read").tag("server", "A").functionTimer().count(), 0.0);
+		assertTrue(registry.get("masar.epics.read").tag("server", "A").functionTimer()
+				.mean(TimeUnit.MILLISECONDS) >= 20);
+		assertEquals(0.0, registry.get("masar.epics.read.queued").tag("server", "A").gauge().value(), 0.0);
+		scheduler.shutdown();
+	}
+}
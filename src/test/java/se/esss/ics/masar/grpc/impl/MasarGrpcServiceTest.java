@@ -0,0 +1,226 @@
+package se.esss.ics.masar.grpc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import se.esss.ics.masar.grpc.proto.FolderContent;
+import se.esss.ics.masar.grpc.proto.GetFolderRequest;
+import se.esss.ics.masar.grpc.proto.GetSnapshotRequest;
+import se.esss.ics.masar.grpc.proto.GetSnapshotsRequest;
+import se.esss.ics.masar.grpc.proto.MasarGrpc;
+import se.esss.ics.masar.grpc.proto.NodeHeader;
+import se.esss.ics.masar.grpc.proto.PvValue;
+import se.esss.ics.masar.grpc.proto.SnapshotChunk;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.model.NodeType;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.exception.SnapshotNotFoundException;
+
+public class MasarGrpcServiceTest {
+
+	private IServices services;
+
+	private Server server;
+
+	private ManagedChannel channel;
+
+	private MasarGrpc.MasarBlockingStub stub;
+
+	@Before
+	public void setUp() throws Exception {
+		services = mock(IServices.class);
+		String name = InProcessServerBuilder.generateName();
+		server = InProcessServerBuilder.forName(name).directExecutor()
+				.addService(new MasarGrpcService(services, new ProtoConverter(new ObjectMapper()), 2, 60000)).build().start();
+		channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+		stub = MasarGrpc.newBlockingStub(channel);
+	}
+
+	@After
+	public void tearDown() {
+		channel.shutdownNow();
+		server.shutdownNow();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGetSnapshot() {
+
+		when(services.getSnapshotHeader(7)).thenReturn(Snapshot.builder().id(7).configId(1).comment("comment").build());
+		doAnswer(invocation -> {
+			Consumer<SnapshotPv<?>> consumer = invocation.getArgument(1);
+			consumer.accept(SnapshotPv.builder().value(1.5).configPv(ConfigPv.builder().pvName("a").build()).build());
+			consumer.accept(SnapshotPv.builder().value(new double[] { 1, 2 }).build());
+			consumer.accept(SnapshotPv.builder().value(new int[] { 3 }).build());
+			consumer.accept(SnapshotPv.builder().value("text").build());
+			consumer.accept(SnapshotPv.builder().build());
+			return null;
+		}).when(services).streamSnapshotPvs(eq(7), any(Consumer.class));
+
+		List<SnapshotChunk> chunks = new ArrayList<>();
+		stub.getSnapshot(GetSnapshotRequest.newBuilder().setSnapshotId(7).build()).forEachRemaining(chunks::add);
+
+		assertEquals(3, chunks.size());
+		assertEquals("comment", chunks.get(0).getHeader().getComment());
+		assertFalse(chunks.get(1).hasHeader());
+
+		List<PvValue> values = new ArrayList<>();
+		chunks.forEach(chunk -> values.addAll(chunk.getValuesList()));
+		assertEquals(5, values.size());
+		assertEquals("a", values.get(0).getPvName());
+		assertEquals(1.5, values.get(0).getDoubleValue(), 0.0);
+		assertEquals(Arrays.asList(1.0, 2.0), values.get(1).getDoubleArray().getValuesList());
+		assertEquals(Arrays.asList(3L), values.get(2).getLongArray().getValuesList());
+		assertEquals("text", values.get(3).getStringValue());
+		assertEquals(PvValue.ValueCase.VALUE_NOT_SET, values.get(4).getValueCase());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGetSnapshotSlowClient() {
+
+		when(services.getSnapshotHeader(7)).thenReturn(Snapshot.builder().id(7).configId(1).build());
+		doAnswer(invocation -> {
+			Consumer<SnapshotPv<?>> consumer = invocation.getArgument(1);
+			consumer.accept(SnapshotPv.builder().value(1.5).build());
+			consumer.accept(SnapshotPv.builder().value(2.5).build());
+			return null;
+		}).when(services).streamSnapshotPvs(eq(7), any(Consumer.class));
+
+		// A client that never becomes ready
+		ServerCallStreamObserver<SnapshotChunk> observer = mock(ServerCallStreamObserver.class);
+		new MasarGrpcService(services, new ProtoConverter(new ObjectMapper()), 2, 100)
+				.getSnapshot(GetSnapshotRequest.newBuilder().setSnapshotId(7).build(), observer);
+
+		ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+		verify(observer).onError(error.capture());
+		assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(error.getValue()).getCode());
+		verify(observer, never()).onNext(any());
+	}
+
+	@Test
+	public void testGetSnapshotSlowReadingClient() throws Exception {
+
+		when(services.getSnapshotHeader(7)).thenReturn(Snapshot.builder().id(7).configId(1).build());
+		doAnswer(invocation -> {
+			Consumer<SnapshotPv<?>> consumer = invocation.getArgument(1);
+			for (int i = 0; i < 16; i++) {
+				consumer.accept(SnapshotPv.builder().value(1.5).build());
+			}
+			return null;
+		}).when(services).streamSnapshotPvs(eq(7), any(Consumer.class));
+
+		// A client that stalls for 50 ms before each chunk, 400 ms in total
+		ScheduledExecutorService client = Executors.newSingleThreadScheduledExecutor();
+		AtomicLong readyAt = new AtomicLong();
+		List<Runnable> onReadyHandler = new ArrayList<>();
+		ServerCallStreamObserver<SnapshotChunk> observer = mock(ServerCallStreamObserver.class);
+		doAnswer(invocation -> {
+			onReadyHandler.add(invocation.getArgument(0));
+			return null;
+		}).when(observer).setOnReadyHandler(any(Runnable.class));
+		when(observer.isReady()).thenAnswer(invocation -> System.nanoTime() >= readyAt.get());
+		Runnable stall = () -> {
+			readyAt.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+			client.schedule(() -> onReadyHandler.get(0).run(), 50, TimeUnit.MILLISECONDS);
+		};
+		stall.run();
+		doAnswer(invocation -> {
+			stall.run();
+			return null;
+		}).when(observer).onNext(any());
+
+		try {
+			new MasarGrpcService(services, new ProtoConverter(new ObjectMapper()), 2, 200)
+					.getSnapshot(GetSnapshotRequest.newBuilder().setSnapshotId(7).build(), observer);
+		} finally {
+			client.shutdownNow();
+		}
+
+		// The stream takes longer than the stall limit, but no single stall does
+		verify(observer, times(8)).onNext(any());
+		verify(observer).onCompleted();
+		verify(observer, never()).onError(any());
+	}
+
+	@Test
+	public void testGetSnapshotNotFound() {
+
+		when(services.getSnapshotHeader(8)).thenThrow(new SnapshotNotFoundException("Not found"));
+
+		Iterator<SnapshotChunk> chunks = stub.getSnapshot(GetSnapshotRequest.newBuilder().setSnapshotId(8).build());
+		try {
+			chunks.hasNext();
+			fail("Exception expected here");
+		} catch (StatusRuntimeException e) {
+			assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+		}
+	}
+
+	@Test
+	public void testGetSnapshotsNegativeLimit() {
+
+		try {
+			stub.getSnapshots(GetSnapshotsRequest.newBuilder().setConfigId(1).setLimit(-1).build());
+			fail("Exception expected here");
+		} catch (StatusRuntimeException e) {
+			assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+		}
+	}
+
+	@Test
+	public void testGetFolder() {
+
+		Node config = new Node();
+		config.setId(2);
+		config.setName("config");
+		config.setNodeType(NodeType.CONFIGURATION);
+		Folder folder = Folder.builder().id(1).name("folder").parent(Folder.builder().id(0).build())
+				.childNodes(Arrays.asList(config)).build();
+		when(services.getFolder(1)).thenReturn(folder);
+
+		FolderContent content = stub.getFolder(GetFolderRequest.newBuilder().setNodeId(1).build());
+
+		assertEquals("folder", content.getNode().getName());
+		assertTrue(content.hasParent());
+		assertEquals(NodeHeader.Type.CONFIGURATION, content.getChildNodes(0).getType());
+	}
+}
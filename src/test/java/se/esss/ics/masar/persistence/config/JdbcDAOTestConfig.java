@@ -26,7 +26,7 @@ public class JdbcDAOTestConfig {
 	
 	@Bean
 	public SnapshotDAO snapshotDAO() {
-		return new SnapshotJdbcDAO();
+		return new SnapshotJdbcDAO(jdbcTemplate(), objectMapper());
 	}
 	
 	@Bean
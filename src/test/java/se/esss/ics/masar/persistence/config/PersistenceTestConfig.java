@@ -2,17 +2,34 @@ package se.esss.ics.masar.persistence.config;
 
 
 import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
 import se.esss.ics.masar.persistence.dao.impl.ConfigJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.DriftReferenceJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.LeaseJdbcDAO;
 import se.esss.ics.masar.persistence.dao.impl.SnapshotJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.SnapshotScheduleJdbcDAO;
+import se.esss.ics.masar.persistence.dao.impl.SnapshotTriggerJdbcDAO;
 
 @Configuration
 public class PersistenceTestConfig {
 
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
 
 	@Bean
 	public ConfigDAO configDAO() {
@@ -22,9 +39,28 @@ public class PersistenceTestConfig {
 	
 	@Bean
 	public SnapshotDAO snapshotDAO() {
-		return new SnapshotJdbcDAO();
+		return new SnapshotJdbcDAO(jdbcTemplate, objectMapper);
 	}
 
+	@Bean
+	public LeaseDAO leaseDAO() {
+		return new LeaseJdbcDAO();
+	}
+
+	@Bean
+	public SnapshotScheduleDAO snapshotScheduleDAO() {
+		return new SnapshotScheduleJdbcDAO();
+	}
+	
+	@Bean
+	public SnapshotTriggerDAO snapshotTriggerDAO() {
+		return new SnapshotTriggerJdbcDAO();
+	}
+	
+	@Bean
+	public DriftReferenceDAO driftReferenceDAO() {
+		return new DriftReferenceJdbcDAO();
+	}
 	
 	@Bean("flyway")
 	public Flyway flyway() {
@@ -0,0 +1,62 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.StatementCallback;
+
+/**
+ * {@link JdbcTemplate} counting the number of statements sent to the database. Used to verify
+ * that DAO methods do not issue more queries than expected.
+ */
+public class CountingJdbcTemplate extends JdbcTemplate {
+
+	private AtomicInteger statementCount = new AtomicInteger();
+
+	public CountingJdbcTemplate(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	@Override
+	public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action)
+			throws DataAccessException {
+		statementCount.incrementAndGet();
+		return super.execute(psc, action);
+	}
+
+	@Override
+	public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+		statementCount.incrementAndGet();
+		return super.execute(action);
+	}
+
+	public int getStatementCount() {
+		return statementCount.get();
+	}
+
+	public void resetStatementCount() {
+		statementCount.set(0);
+	}
+}
@@ -1,15 +1,20 @@
 package se.esss.ics.masar.persistence.dao.impl;
 
 import static org.assertj.core.api.Assertions.fail;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.flywaydb.test.FlywayTestExecutionListener;
 import org.flywaydb.test.annotation.FlywayTest;
@@ -17,12 +22,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.ContextHierarchy;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.ConfigPv;
@@ -33,7 +40,18 @@ import se.esss.ics.masar.model.SnapshotPv;
 import se.esss.ics.masar.persistence.config.PersistenceConfiguration;
 import se.esss.ics.masar.persistence.config.PersistenceTestConfig;
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+import se.esss.ics.masar.persistence.dao.NodeVersion;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotPvFilter;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
 import se.esss.ics.masar.services.exception.NodeNotFoundException;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -49,6 +67,21 @@ public class DAOTest {
 	@Autowired
 	private SnapshotDAO snapshotDAO;
 
+	@Autowired
+	private SnapshotScheduleDAO snapshotScheduleDAO;
+
+	@Autowired
+	private LeaseDAO leaseDAO;
+
+	@Autowired
+	private SnapshotTriggerDAO snapshotTriggerDAO;
+
+	@Autowired
+	private DriftReferenceDAO driftReferenceDAO;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
 	@Test(expected = NodeNotFoundException.class)
 	@FlywayTest(invokeCleanDB = true)
 	public void testCreateConfigNoParentFound() {
@@ -240,7 +273,7 @@ public class DAOTest {
 		Config config = configDAO
 				.createConfiguration(Config.builder().name("Config").description("Desc").parent(folder2).build());
 
-		configDAO.deleteNode(folder1.getId());
+		assertEquals(Arrays.asList(config.getId()), configDAO.deleteNode(folder1.getId()));
 
 		root = configDAO.getFolder(Node.ROOT_NODE_ID);
 	
@@ -363,6 +396,249 @@ public class DAOTest {
 		snapshotDAO.commitSnapshot(newSnapshot.getId(), "user", "comment");
 	}
 
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testSavePreliminarySnapshots() {
+
+		Config config1 = configDAO.createConfiguration(Config.builder().name("Config 1")
+				.parent(configDAO.getFolder(Node.ROOT_NODE_ID))
+				.configPvList(Arrays.asList(ConfigPv.builder().pvName("pv1").build(),
+						ConfigPv.builder().pvName("pv2").build()))
+				.build());
+		Config config2 = configDAO.createConfiguration(Config.builder().name("Config 2")
+				.parent(configDAO.getFolder(Node.ROOT_NODE_ID))
+				.configPvList(Arrays.asList(ConfigPv.builder().pvName("pv2").build()))
+				.build());
+
+		List<Snapshot> snapshots = new ArrayList<>();
+		for (Config config : Arrays.asList(config1, config2)) {
+			List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
+			for (ConfigPv configPv : config.getConfigPvList()) {
+				snapshotPvs.add(SnapshotPv.<Integer>builder().dtype(1).fetchStatus(true).severity(0).status(0)
+						.time(1000L).timens(0).value(configPv.getId()).configPv(configPv).build());
+			}
+			snapshots.add(Snapshot.builder().configId(config.getId()).snapshotPvList(snapshotPvs).build());
+		}
+
+		Date created = new Date(1500000000000L);
+		List<Snapshot> savedSnapshots = configDAO.savePreliminarySnapshots(snapshots, created);
+
+		assertEquals(2, savedSnapshots.size());
+		assertEquals(config1.getId(), savedSnapshots.get(0).getConfigId());
+		assertEquals(2, savedSnapshots.get(0).getSnapshotPvList().size());
+		assertEquals(config2.getId(), savedSnapshots.get(1).getConfigId());
+		assertEquals(1, savedSnapshots.get(1).getSnapshotPvList().size());
+		assertEquals(created.getTime(), savedSnapshots.get(0).getCreated().getTime());
+		assertEquals(created.getTime(), savedSnapshots.get(1).getCreated().getTime());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testStreamSnapshotPvs() {
+
+		Config config = Config.builder().active(true).name("My config").parent(configDAO.getFolder(Node.ROOT_NODE_ID))
+				.description("description").configPvList(Arrays.asList(ConfigPv.builder().pvName("pv1").build(),
+						ConfigPv.builder().pvName("pv2").build()))
+				.build();
+
+		config = configDAO.createConfiguration(config);
+
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
+		for (ConfigPv configPv : config.getConfigPvList()) {
+			snapshotPvs.add(SnapshotPv.<double[]>builder().dtype(1).fetchStatus(true).severity(0).status(0).time(1000L)
+					.timens(0).value(new double[] { 1.0, 2.0 }).configPv(configPv).build());
+		}
+
+		Snapshot snapshot = configDAO.savePreliminarySnapshot(
+				Snapshot.builder().approve(true).configId(config.getId()).snapshotPvList(snapshotPvs).build());
+		snapshotDAO.commitSnapshot(snapshot.getId(), "user", "comment");
+
+		Snapshot header = snapshotDAO.getSnapshotHeader(snapshot.getId(), true);
+		assertEquals("comment", header.getComment());
+
+		List<SnapshotPv<?>> streamedPvs = new ArrayList<>();
+		snapshotDAO.streamSnapshotPvs(snapshot.getId(), streamedPvs::add);
+
+		assertEquals(2, streamedPvs.size());
+		assertArrayEquals(new double[] { 1.0, 2.0 }, (double[]) streamedPvs.get(0).getValue(), 0.0);
+		assertNull(snapshotDAO.getSnapshotHeader(-1, true));
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testNodeVersion() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+		Folder folder = configDAO.createFolder(Folder.builder().name("Folder").parent(root).build());
+		Folder subFolder = configDAO.createFolder(Folder.builder().name("SubFolder").parent(folder).build());
+
+		NodeVersion version = configDAO.getNodeVersion(folder.getId());
+		NodeVersion treeVersion = configDAO.getFolderTreeVersion(Node.ROOT_NODE_ID, Integer.MAX_VALUE);
+		assertNotNull(version.getLastModified());
+		assertEquals(version.getDigest(), configDAO.getNodeVersion(folder.getId()).getDigest());
+
+		// Renaming a child node does not modify the parent node, but changes the version of the parent
+		configDAO.renameNode(subFolder.getId(), "Renamed");
+		assertNotEquals(version.getDigest(), configDAO.getNodeVersion(folder.getId()).getDigest());
+		assertNotEquals(treeVersion.getDigest(),
+				configDAO.getFolderTreeVersion(Node.ROOT_NODE_ID, Integer.MAX_VALUE).getDigest());
+
+		// Nodes below the depth limit are not part of the version
+		treeVersion = configDAO.getFolderTreeVersion(Node.ROOT_NODE_ID, 1);
+		configDAO.renameNode(subFolder.getId(), "Renamed again");
+		assertEquals(treeVersion.getDigest(), configDAO.getFolderTreeVersion(Node.ROOT_NODE_ID, 1).getDigest());
+
+		assertNull(configDAO.getNodeVersion(-1));
+		assertNull(configDAO.getFolderTreeVersion(-1, 1));
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testNodeVersionOfUpdatedConfiguration() throws Exception {
+
+		Config config = configDAO.createConfiguration(Config.builder().name("Config").description("description")
+				.parent(configDAO.getFolder(Node.ROOT_NODE_ID))
+				.configPvList(Arrays.asList(ConfigPv.builder().pvName("pv1").build())).build());
+		NodeVersion version = configDAO.getNodeVersion(config.getId());
+
+		// Only the description and PV list change, not the node row itself
+		Thread.sleep(5);
+		configDAO.updateConfiguration(Config.builder().id(config.getId()).name("Config").parent(config.getParent())
+				.description("other description").configPvList(new ArrayList<>()).build());
+
+		assertNotEquals(version.getDigest(), configDAO.getNodeVersion(config.getId()).getDigest());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetSnapshotsPaginated() throws InterruptedException {
+
+		Config config = configDAO.createConfiguration(Config.builder().name("My config")
+				.parent(configDAO.getFolder(Node.ROOT_NODE_ID)).description("description").build());
+
+		Snapshot snapshot = Snapshot.builder().approve(true).configId(config.getId())
+				.snapshotPvList(Collections.emptyList()).build();
+		for (int i = 0; i < 5; i++) {
+			int snapshotId = configDAO.savePreliminarySnapshot(snapshot).getId();
+			snapshotDAO.commitSnapshot(snapshotId, i % 2 == 0 ? "even" : "odd", "Comment_" + i);
+			// Distinct creation times for the time range filter
+			Thread.sleep(5);
+		}
+
+		List<Snapshot> all = snapshotDAO.getSnapshots(config.getId());
+		assertEquals(5, all.size());
+		// Newest first
+		assertEquals("Comment_4", all.get(0).getComment());
+
+		SnapshotQuery query = new SnapshotQuery();
+		query.setLimit(2);
+		List<Snapshot> page = snapshotDAO.getSnapshots(config.getId(), query);
+		assertEquals(Arrays.asList(all.get(0).getId(), all.get(1).getId()), ids(page));
+
+		query.setCursor(SnapshotQuery.cursorOf(page.get(1)));
+		page = snapshotDAO.getSnapshots(config.getId(), query);
+		assertEquals(Arrays.asList(all.get(2).getId(), all.get(3).getId()), ids(page));
+
+		query.setCursor(SnapshotQuery.cursorOf(page.get(1)));
+		page = snapshotDAO.getSnapshots(config.getId(), query);
+		assertEquals(Arrays.asList(all.get(4).getId()), ids(page));
+
+		query = new SnapshotQuery();
+		query.setUserName("odd");
+		assertEquals(2, snapshotDAO.getSnapshots(config.getId(), query).size());
+
+		query = new SnapshotQuery();
+		query.setComment("ment_3");
+		assertEquals(Arrays.asList(all.get(1).getId()), ids(snapshotDAO.getSnapshots(config.getId(), query)));
+
+		// Wildcards in the comment filter are matched literally
+		query.setComment("%");
+		assertTrue(snapshotDAO.getSnapshots(config.getId(), query).isEmpty());
+
+		query = new SnapshotQuery();
+		query.setFrom(all.get(2).getCreated());
+		query.setTo(all.get(0).getCreated());
+		assertEquals(Arrays.asList(all.get(1).getId(), all.get(2).getId()),
+				ids(snapshotDAO.getSnapshots(config.getId(), query)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSnapshotQueryInvalidCursor() {
+		new SnapshotQuery().setCursor("invalid");
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetSnapshotFiltered() {
+
+		Config config = Config.builder().active(true).name("My config").parent(configDAO.getFolder(Node.ROOT_NODE_ID))
+				.description("description")
+				.configPvList(Arrays.asList(ConfigPv.builder().pvName("RF:Cav1:Amp").groupname("rf").tags("a, b").build(),
+						ConfigPv.builder().pvName("RF:Cav2:Amp").groupname("rf").tags("b").build(),
+						ConfigPv.builder().pvName("MAG:Q1_Cur").groupname("mag").tags("ab").build()))
+				.build();
+
+		config = configDAO.createConfiguration(config);
+
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
+		for (ConfigPv configPv : config.getConfigPvList()) {
+			snapshotPvs.add(SnapshotPv.<Double>builder().dtype(1).fetchStatus(true).severity(0).status(0).time(1000L)
+					.timens(0).value(7.7).configPv(configPv).build());
+		}
+
+		int snapshotId = configDAO.savePreliminarySnapshot(
+				Snapshot.builder().approve(true).configId(config.getId()).snapshotPvList(snapshotPvs).build()).getId();
+		snapshotDAO.commitSnapshot(snapshotId, "user", "comment");
+
+		SnapshotPvFilter filter = new SnapshotPvFilter();
+		assertEquals(3, snapshotDAO.getSnapshot(snapshotId, true, filter).getSnapshotPvList().size());
+
+		filter.setPvNames(Arrays.asList("RF:Cav2:Amp", "Unknown"));
+		assertEquals(Arrays.asList("RF:Cav2:Amp"), pvNames(snapshotDAO.getSnapshot(snapshotId, true, filter)));
+
+		filter = new SnapshotPvFilter();
+		filter.setGlob("RF:*:Amp");
+		assertEquals(2, snapshotDAO.getSnapshot(snapshotId, true, filter).getSnapshotPvList().size());
+
+		// Underscore is not a wildcard in a glob
+		filter.setGlob("MAG:Q?_Cur");
+		assertEquals(1, snapshotDAO.getSnapshot(snapshotId, true, filter).getSnapshotPvList().size());
+		filter.setGlob("MAG_Q1_Cur");
+		assertTrue(snapshotDAO.getSnapshot(snapshotId, true, filter).getSnapshotPvList().isEmpty());
+
+		filter = new SnapshotPvFilter();
+		filter.setRegex("Cav[0-9]");
+		filter.setTag("a");
+		assertEquals(Arrays.asList("RF:Cav1:Amp"), pvNames(snapshotDAO.getSnapshot(snapshotId, true, filter)));
+
+		filter = new SnapshotPvFilter();
+		filter.setGroupName("mag");
+		filter.setValuesIncluded(false);
+		Snapshot snapshot = snapshotDAO.getSnapshot(snapshotId, true, filter);
+		assertEquals(Arrays.asList("MAG:Q1_Cur"), pvNames(snapshot));
+		assertNull(snapshot.getSnapshotPvList().get(0).getValue());
+		assertEquals(1000L, snapshot.getSnapshotPvList().get(0).getTime());
+
+		filter.setPvNames(Collections.emptyList());
+		assertTrue(snapshotDAO.getSnapshot(snapshotId, true, filter).getSnapshotPvList().isEmpty());
+
+		assertNull(snapshotDAO.getSnapshot(-1, true, filter));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSnapshotPvFilterInvalidRegex() {
+		new SnapshotPvFilter().setRegex("[");
+	}
+
+	private List<String> pvNames(Snapshot snapshot) {
+		return snapshot.getSnapshotPvList().stream().map(snapshotPv -> snapshotPv.getConfigPv().getPvName())
+				.collect(Collectors.toList());
+	}
+
+	private List<Integer> ids(List<Snapshot> snapshots) {
+		return snapshots.stream().map(Snapshot::getId).collect(Collectors.toList());
+	}
+
 	@Test
 	@FlywayTest(invokeCleanDB = true)
 	public void testGetSnapshotsNoSnapshots() {
@@ -467,9 +743,14 @@ public class DAOTest {
 
 		Date lastModifiedOfSource = folder1.getLastModified();
 		Date lastModifiedOfTarget = root.getLastModified();
+		int movedNodeId = folder2.getId();
+		Date lastModifiedOfMoved = configDAO.getFolder(movedNodeId).getLastModified();
 
 		folder2 = configDAO.moveNode(folder2.getId(), Node.ROOT_NODE_ID);
 
+		// Moving does not modify the moved node itself
+		assertEquals(lastModifiedOfMoved, configDAO.getFolder(movedNodeId).getLastModified());
+
 		root = configDAO.getFolder(Node.ROOT_NODE_ID);
 		folder1 = configDAO.getFolder(folder1.getId());
 
@@ -589,23 +870,6 @@ public class DAOTest {
 
 	}
 
-	@Test
-	public void testNameClash() {
-
-		Node n1 = Folder.builder().name("n1").build();
-		Node n2 = Folder.builder().name("n1").build();
-		Node n3 = Folder.builder().name("n3").build();
-
-		ConfigJdbcDAO jdbcDAO = (ConfigJdbcDAO) configDAO;
-
-		assertTrue(jdbcDAO.doesNameClash(n1, Arrays.asList(n2, n3)));
-		assertFalse(jdbcDAO.doesNameClash(n1, Arrays.asList(n3)));
-
-		Node n4 = Config.builder().name("n1").build();
-
-		assertFalse(jdbcDAO.doesNameClash(n1, Arrays.asList(n4)));
-	}
-	
 	@Test(expected = IllegalArgumentException.class)
 	public void testRenameRootFolder() {
 		configDAO.renameNode(Node.ROOT_NODE_ID, null);
@@ -656,4 +920,343 @@ public class DAOTest {
 		assertTrue(folder1.getLastModified().getTime() > lastModified.getTime());
 	}
 
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetNodeQueryCount() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+
+		Folder folder1 = configDAO.createFolder(Folder.builder().name("Folder1").parent(root).build());
+		configDAO.createFolder(Folder.builder().name("Folder2").parent(folder1).build());
+
+		Config config = configDAO.createConfiguration(Config.builder().description("description").name("Config1")
+				.parent(folder1).configPvList(Arrays.asList(ConfigPv.builder().pvName("pvName").build())).build());
+
+		CountingJdbcTemplate countingJdbcTemplate = new CountingJdbcTemplate(jdbcTemplate.getDataSource());
+		ReflectionTestUtils.setField(configDAO, "jdbcTemplate", countingJdbcTemplate);
+
+		try {
+			// Node, parent and child nodes of a folder are retrieved in one round trip
+			folder1 = configDAO.getFolder(folder1.getId());
+			assertEquals(1, countingJdbcTemplate.getStatementCount());
+			assertEquals(root.getId(), folder1.getParent().getId());
+			assertEquals(2, folder1.getChildNodes().size());
+
+			// A configuration needs one additional query for the PV list
+			countingJdbcTemplate.resetStatementCount();
+			config = configDAO.getConfiguration(config.getId());
+			assertEquals(2, countingJdbcTemplate.getStatementCount());
+			assertEquals(folder1.getId(), config.getParent().getId());
+			assertEquals(1, config.getConfigPvList().size());
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "jdbcTemplate", jdbcTemplate);
+		}
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetFolderTree() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+
+		Folder folder1 = configDAO.createFolder(Folder.builder().name("Folder1").parent(root).build());
+		Folder folder2 = configDAO.createFolder(Folder.builder().name("Folder2").parent(folder1).build());
+
+		ConfigPv configPv1 = ConfigPv.builder().pvName("configPv1").build();
+		ConfigPv configPv2 = ConfigPv.builder().pvName("configPv2").build();
+
+		configDAO.createConfiguration(Config.builder().description("description").name("Config1").parent(folder2)
+				.configPvList(Arrays.asList(configPv1, configPv2)).build());
+
+		Folder tree = configDAO.getFolderTree(folder1.getId(), Integer.MAX_VALUE, true);
+
+		assertEquals(1, tree.getChildNodes().size());
+		Folder subFolder = (Folder) tree.getChildNodes().get(0);
+		assertEquals("Folder2", subFolder.getName());
+		Config config = (Config) subFolder.getChildNodes().get(0);
+		assertEquals("Config1", config.getName());
+		assertEquals(2, config.getConfigPvList().size());
+
+		tree = configDAO.getFolderTree(folder1.getId(), Integer.MAX_VALUE, false);
+		config = (Config) ((Folder) tree.getChildNodes().get(0)).getChildNodes().get(0);
+		assertTrue(config.getConfigPvList() == null || config.getConfigPvList().isEmpty());
+
+		tree = configDAO.getFolderTree(folder1.getId(), 1, false);
+		assertTrue(((Folder) tree.getChildNodes().get(0)).getChildNodes().isEmpty());
+	}
+
+	@Test(expected = NodeNotFoundException.class)
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetFolderTreeNonExistingFolder() {
+		configDAO.getFolderTree(-1, 1, false);
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testNodeTreeIndex() {
+
+		NodeTreeIndex nodeTreeIndex = new NodeTreeIndex(jdbcTemplate);
+		ReflectionTestUtils.setField(configDAO, "nodeTreeIndex", nodeTreeIndex);
+
+		try {
+			Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+
+			Folder folder1 = configDAO.createFolder(Folder.builder().name("Folder1").parent(root).build());
+			Folder folder2 = configDAO.createFolder(Folder.builder().name("Folder2").parent(folder1).build());
+			configDAO.createConfiguration(Config.builder().description("description").name("Config1").parent(folder2).build());
+
+			assertEquals(4, nodeTreeIndex.size());
+
+			// Folder lookups do not touch the database
+			CountingJdbcTemplate countingJdbcTemplate = new CountingJdbcTemplate(jdbcTemplate.getDataSource());
+			ReflectionTestUtils.setField(configDAO, "jdbcTemplate", countingJdbcTemplate);
+			folder1 = configDAO.getFolder(folder1.getId());
+			ReflectionTestUtils.setField(configDAO, "jdbcTemplate", jdbcTemplate);
+			assertEquals(0, countingJdbcTemplate.getStatementCount());
+			assertEquals(1, folder1.getChildNodes().size());
+			assertEquals(Node.ROOT_NODE_ID, folder1.getParent().getId());
+
+			configDAO.moveNode(folder2.getId(), Node.ROOT_NODE_ID);
+			assertEquals(2, configDAO.getFolder(Node.ROOT_NODE_ID).getChildNodes().size());
+			assertTrue(configDAO.getFolder(folder1.getId()).getChildNodes().isEmpty());
+			assertEquals(Node.ROOT_NODE_ID, nodeTreeIndex.getParentNode(folder2.getId()).getId());
+
+			configDAO.renameNode(folder1.getId(), "Renamed");
+			assertEquals("Renamed", configDAO.getFolder(folder1.getId()).getName());
+
+			configDAO.deleteNode(folder2.getId());
+			assertEquals(2, nodeTreeIndex.size());
+
+			try {
+				configDAO.getFolder(folder2.getId());
+				fail("NodeNotFoundException expected here.");
+			} catch (NodeNotFoundException e) {
+				// Expected = OK
+			}
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "jdbcTemplate", jdbcTemplate);
+			ReflectionTestUtils.setField(configDAO, "nodeTreeIndex", null);
+		}
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetNodesByPath() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+
+		Folder folder1 = configDAO.createFolder(Folder.builder().name("Linac").parent(root).build());
+		Folder folder2 = configDAO.createFolder(Folder.builder().name("RF").parent(folder1).build());
+		Config config = configDAO
+				.createConfiguration(Config.builder().description("description").name("Cavity-3").parent(folder2).build());
+		configDAO.createFolder(Folder.builder().name("Cavity-3").parent(folder2).build());
+
+		List<Node> nodes = configDAO.getNodesByPath("/Linac/RF");
+		assertEquals(1, nodes.size());
+		assertEquals(folder2.getId(), nodes.get(0).getId());
+
+		// Folder and configuration of same name
+		nodes = configDAO.getNodesByPath("/Linac/RF/Cavity-3");
+		assertEquals(2, nodes.size());
+
+		assertEquals(Node.ROOT_NODE_ID, configDAO.getNodesByPath("/").get(0).getId());
+
+		try {
+			configDAO.getNodesByPath("/Linac/Cavity-3");
+			fail("NodeNotFoundException expected here.");
+		} catch (NodeNotFoundException e) {
+			// Expected = OK
+		}
+
+		List<Node> path = configDAO.getNodePath(config.getId());
+		assertEquals(4, path.size());
+		assertEquals(Node.ROOT_NODE_ID, path.get(0).getId());
+		assertEquals(folder1.getId(), path.get(1).getId());
+		assertEquals(folder2.getId(), path.get(2).getId());
+		assertEquals(config.getId(), path.get(3).getId());
+	}
+
+	@Test(expected = NodeNotFoundException.class)
+	@FlywayTest(invokeCleanDB = true)
+	public void testGetNodePathNonExistingNode() {
+		configDAO.getNodePath(-1);
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testRenameConfigReturnsPvs() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+
+		Config config = configDAO.createConfiguration(Config.builder().description("description").name("Config1")
+				.parent(root).configPvList(Arrays.asList(ConfigPv.builder().pvName("pvName1").build(),
+						ConfigPv.builder().pvName("pvName2").build()))
+				.build());
+
+		CountingJdbcTemplate countingJdbcTemplate = new CountingJdbcTemplate(jdbcTemplate.getDataSource());
+		ReflectionTestUtils.setField(configDAO, "jdbcTemplate", countingJdbcTemplate);
+
+		try {
+			Node node = configDAO.renameNode(config.getId(), "NewName");
+			assertEquals("NewName", node.getName());
+			assertEquals(Node.ROOT_NODE_ID, node.getParent().getId());
+			// The response shape of the rename endpoint is kept
+			assertEquals(2, ((Config) node).getConfigPvList().size());
+			// Update, updated node and its PVs. The node to rename is not read beforehand.
+			assertEquals(3, countingJdbcTemplate.getStatementCount());
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "jdbcTemplate", jdbcTemplate);
+		}
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testSnapshotSchedules() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+		Config config = configDAO.createConfiguration(Config.builder().description("description").name("Config1")
+				.parent(root).build());
+
+		SnapshotSchedule schedule = new SnapshotSchedule();
+		schedule.setConfigId(config.getId());
+		schedule.setCron("0 0 6 * * *");
+		schedule.setUserName("operator");
+		schedule.setCommentTemplate("Daily {time}");
+		schedule.setNextRun(new Date(10000));
+		schedule = snapshotScheduleDAO.createSchedule(schedule);
+
+		assertEquals(config.getId(), snapshotScheduleDAO.getSchedule(schedule.getId()).getConfigId());
+		assertTrue(schedule.isEnabled());
+		assertNull(schedule.getLastRun());
+		assertNull(schedule.getLastSnapshotId());
+		assertEquals(1, snapshotScheduleDAO.getSchedules(config.getId()).size());
+
+		assertTrue(snapshotScheduleDAO.getDueSchedules(new Date(9999)).isEmpty());
+		assertEquals(1, snapshotScheduleDAO.getDueSchedules(new Date(10000)).size());
+
+		// A run in progress cannot be claimed until it is stale
+		assertTrue(snapshotScheduleDAO.claimRun(schedule.getId(), new Date(10000), new Date(0)));
+		assertFalse(snapshotScheduleDAO.claimRun(schedule.getId(), new Date(11000), new Date(9000)));
+		assertTrue(snapshotScheduleDAO.claimRun(schedule.getId(), new Date(12000), new Date(10001)));
+
+		snapshotScheduleDAO.finishRun(schedule.getId(), new Date(12000), new Date(20000), null, "Failed");
+		schedule = snapshotScheduleDAO.getSchedule(schedule.getId());
+		assertEquals(12000, schedule.getLastRun().getTime());
+		assertEquals(20000, schedule.getNextRun().getTime());
+		assertNull(schedule.getLastSnapshotId());
+		assertEquals("Failed", schedule.getLastError());
+		assertTrue(snapshotScheduleDAO.claimRun(schedule.getId(), new Date(13000), new Date(0)));
+
+		configDAO.deleteNode(config.getId());
+		assertNull(snapshotScheduleDAO.getSchedule(schedule.getId()));
+		assertFalse(snapshotScheduleDAO.deleteSchedule(schedule.getId()));
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testLease() {
+
+		assertTrue(leaseDAO.acquireLease("snapshot-scheduler", "a", new Date(1000), new Date(61000)));
+		// Renewed by the owner only
+		assertTrue(leaseDAO.acquireLease("snapshot-scheduler", "a", new Date(2000), new Date(62000)));
+		assertFalse(leaseDAO.acquireLease("snapshot-scheduler", "b", new Date(3000), new Date(63000)));
+		// Taken over once expired
+		assertTrue(leaseDAO.acquireLease("snapshot-scheduler", "b", new Date(62001), new Date(122001)));
+		assertFalse(leaseDAO.acquireLease("snapshot-scheduler", "a", new Date(62002), new Date(122002)));
+
+		leaseDAO.releaseLease("snapshot-scheduler", "a");
+		assertFalse(leaseDAO.acquireLease("snapshot-scheduler", "a", new Date(62003), new Date(122003)));
+		leaseDAO.releaseLease("snapshot-scheduler", "b");
+		assertTrue(leaseDAO.acquireLease("snapshot-scheduler", "a", new Date(62004), new Date(122004)));
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testSnapshotTriggers() {
+
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+		Config config = configDAO.createConfiguration(Config.builder().description("description").name("Config1")
+				.parent(root).build());
+
+		SnapshotTrigger trigger = new SnapshotTrigger();
+		trigger.setConfigId(config.getId());
+		trigger.setPvName("ACC:BEAM:MODE");
+		trigger.setCondition(Condition.EQUALS);
+		trigger.setValue("Production");
+		trigger.setDebounceMillis(500);
+		trigger.setUserName("operator");
+		trigger.setCommentTemplate("{pv} changed to {value}");
+		trigger = snapshotTriggerDAO.createTrigger(trigger);
+
+		trigger = snapshotTriggerDAO.getTrigger(trigger.getId());
+		assertEquals("ACC:BEAM:MODE", trigger.getPvName());
+		assertNull(trigger.getGroupName());
+		assertEquals(Condition.EQUALS, trigger.getCondition());
+		assertEquals("Production", trigger.getValue());
+		assertEquals(2, trigger.getMinSeverity());
+		assertEquals(500, trigger.getDebounceMillis());
+		assertEquals(60, trigger.getMinIntervalSeconds());
+		assertTrue(trigger.isEnabled());
+		assertNull(trigger.getLastFired());
+		assertEquals(1, snapshotTriggerDAO.getTriggers(config.getId()).size());
+		assertEquals(1, snapshotTriggerDAO.getEnabledTriggers().size());
+
+		snapshotTriggerDAO.triggerFired(trigger.getId(), new Date(10000), null, "Failed");
+		trigger = snapshotTriggerDAO.getTrigger(trigger.getId());
+		assertEquals(10000, trigger.getLastFired().getTime());
+		assertNull(trigger.getLastSnapshotId());
+		assertEquals("Failed", trigger.getLastError());
+
+		assertTrue(snapshotTriggerDAO.deleteTrigger(trigger.getId()));
+		assertTrue(snapshotTriggerDAO.getEnabledTriggers().isEmpty());
+		assertFalse(snapshotTriggerDAO.deleteTrigger(trigger.getId()));
+
+		// Leases are held independently
+		assertTrue(leaseDAO.acquireLease("snapshot-scheduler", "a", new Date(1000), new Date(61000)));
+		assertTrue(leaseDAO.acquireLease("snapshot-trigger", "b", new Date(1000), new Date(61000)));
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testDriftReference() {
+
+		Config config = configDAO.createConfiguration(Config.builder().name("Config1").description("description")
+				.parent(configDAO.getFolder(Node.ROOT_NODE_ID))
+				.configPvList(Arrays.asList(ConfigPv.builder().pvName("pv1").build())).build());
+		SnapshotPv<Double> snapshotPv = SnapshotPv.<Double>builder().fetchStatus(true).value(1.5)
+				.configPv(config.getConfigPvList().get(0)).build();
+		Snapshot snapshot = configDAO.savePreliminarySnapshot(Snapshot.builder().configId(config.getId())
+				.snapshotPvList(Arrays.asList(snapshotPv)).build());
+		snapshotDAO.commitSnapshot(snapshot.getId(), "user", "comment");
+
+		assertNull(driftReferenceDAO.getReference(config.getId()));
+
+		DriftReference reference = new DriftReference();
+		reference.setConfigId(config.getId());
+		reference.setSnapshotId(snapshot.getId());
+		reference.setDefaultTolerance(0.1);
+		reference.getTolerances().put("pv1", 0.5);
+		driftReferenceDAO.setReference(reference);
+
+		reference = driftReferenceDAO.getReference(config.getId());
+		assertEquals(snapshot.getId(), reference.getSnapshotId());
+		assertEquals(0.5, reference.getTolerance("pv1"), 0.0);
+		assertEquals(0.1, reference.getTolerance("pv2"), 0.0);
+		assertNotNull(reference.getCreated());
+
+		// Replaces the previous reference and its tolerances
+		reference.getTolerances().clear();
+		driftReferenceDAO.setReference(reference);
+		assertEquals(1, driftReferenceDAO.getReferences().size());
+		assertTrue(driftReferenceDAO.getReference(config.getId()).getTolerances().isEmpty());
+
+		assertTrue(driftReferenceDAO.deleteReference(config.getId()));
+		assertFalse(driftReferenceDAO.deleteReference(config.getId()));
+		assertTrue(driftReferenceDAO.getReferences().isEmpty());
+
+		// Deleted with the snapshot
+		driftReferenceDAO.setReference(reference);
+		snapshotDAO.deleteSnapshot(snapshot.getId());
+		assertNull(driftReferenceDAO.getReference(config.getId()));
+	}
 }
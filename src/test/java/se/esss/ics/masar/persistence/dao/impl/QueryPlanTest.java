@@ -0,0 +1,187 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.ContextHierarchy;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.esss.ics.masar.model.Config;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.config.PersistenceConfiguration;
+import se.esss.ics.masar.persistence.config.PersistenceTestConfig;
+import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.TreeStore;
+import se.esss.ics.masar.persistence.dao.impl.RecordingJdbcTemplate.RecordedQuery;
+
+/**
+ * Verifies that the queries issued by the DAOs are served by indexes. The queries are recorded
+ * while running DAO operations on a seeded data set, and then re-issued as <code>EXPLAIN</code>
+ * statements. A test fails if any plan contains a table scan.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@EnableConfigurationProperties
+@ContextHierarchy({ @ContextConfiguration(classes = { PersistenceConfiguration.class, PersistenceTestConfig.class }) })
+@TestPropertySource(properties = { "dbengine = h2" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, FlywayTestExecutionListener.class })
+public class QueryPlanTest {
+
+	private static final int FOLDERS = 5;
+	private static final int SUB_FOLDERS = 4;
+	private static final int CONFIGS = 5;
+	private static final int PVS = 10;
+	private static final int SNAPSHOTS = 2;
+
+	@Autowired
+	private ConfigDAO configDAO;
+
+	@Autowired
+	private SnapshotDAO snapshotDAO;
+
+	@Autowired
+	private TreeStore treeStore;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testTreeQueriesUseIndexes() {
+
+		List<Config> configs = seed();
+		Config config = configs.get(configs.size() / 2);
+		int folderId = config.getParent().getId();
+
+		assertNoTableScans(() -> {
+			configDAO.getFolder(folderId);
+			configDAO.getConfiguration(config.getId());
+			configDAO.getFolderTree(folderId, Integer.MAX_VALUE, true);
+			configDAO.getNodePath(config.getId());
+			StringBuilder path = new StringBuilder();
+			for (Node node : configDAO.getNodePath(config.getId()).subList(1, 4)) {
+				path.append('/').append(node.getName());
+			}
+			configDAO.getNodesByPath(path.toString());
+			configDAO.renameNode(config.getId(), "Renamed");
+		});
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testSnapshotQueriesUseIndexes() {
+
+		List<Config> configs = seed();
+		Config config = configs.get(configs.size() / 2);
+
+		assertNoTableScans(() -> {
+			for (Snapshot snapshot : snapshotDAO.getSnapshots(config.getId())) {
+				snapshotDAO.getSnapshot(snapshot.getId(), true);
+				snapshotDAO.getSnapshot(snapshot.getId(), false);
+			}
+			snapshotDAO.commitSnapshot(configDAO.savePreliminarySnapshot(newSnapshot(config)).getId(), "user1",
+					"comment");
+		});
+	}
+
+	private void assertNoTableScans(Runnable daoOperations) {
+
+		RecordingJdbcTemplate recordingJdbcTemplate = new RecordingJdbcTemplate(jdbcTemplate.getDataSource());
+		ReflectionTestUtils.setField(configDAO, "jdbcTemplate", recordingJdbcTemplate);
+		ReflectionTestUtils.setField(snapshotDAO, "jdbcTemplate", recordingJdbcTemplate);
+		ReflectionTestUtils.setField(treeStore, "jdbcTemplate", recordingJdbcTemplate);
+
+		try {
+			daoOperations.run();
+
+			List<RecordedQuery> queries = recordingJdbcTemplate.explain();
+			assertFalse(queries.isEmpty());
+			for (RecordedQuery query : queries) {
+				assertFalse(String.format("Table scan in query %s%nPlan: %s", query.getSql(), query.getPlan()),
+						query.getPlan().contains("tableScan"));
+			}
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "jdbcTemplate", jdbcTemplate);
+			ReflectionTestUtils.setField(snapshotDAO, "jdbcTemplate", jdbcTemplate);
+			ReflectionTestUtils.setField(treeStore, "jdbcTemplate", jdbcTemplate);
+		}
+	}
+
+	/**
+	 * Creates a tree of folders, sub folders and configurations sharing a set of PVs, and a number of committed
+	 * snapshots for each configuration.
+	 * @return The created configurations
+	 */
+	private List<Config> seed() {
+
+		List<Config> configs = new ArrayList<>();
+		Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+		for (int i = 0; i < FOLDERS; i++) {
+			Folder folder = configDAO.createFolder(Folder.builder().name("Folder" + i).parent(root).build());
+			for (int j = 0; j < SUB_FOLDERS; j++) {
+				Folder subFolder = configDAO.createFolder(Folder.builder().name("SubFolder" + j).parent(folder).build());
+				for (int k = 0; k < CONFIGS; k++) {
+					List<ConfigPv> configPvs = new ArrayList<>();
+					for (int l = 0; l < PVS; l++) {
+						configPvs.add(ConfigPv.builder().pvName("pv" + ((j * CONFIGS + k + l) % (PVS * 4))).build());
+					}
+					Config config = configDAO.createConfiguration(Config.builder().name("Config" + k)
+							.description("description").parent(subFolder).configPvList(configPvs).build());
+					for (int s = 0; s < SNAPSHOTS; s++) {
+						Snapshot snapshot = configDAO.savePreliminarySnapshot(newSnapshot(config));
+						snapshotDAO.commitSnapshot(snapshot.getId(), "user" + (s % 3), "comment");
+					}
+					configs.add(config);
+				}
+			}
+		}
+		assertEquals(FOLDERS * SUB_FOLDERS * CONFIGS, configs.size());
+		return configs;
+	}
+
+	private Snapshot newSnapshot(Config config) {
+
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>();
+		for (ConfigPv configPv : config.getConfigPvList()) {
+			snapshotPvs.add(SnapshotPv.<Integer>builder().dtype(1).fetchStatus(true).severity(0).status(0)
+					.time(1000L).timens(0).value(1).configPv(configPv).build());
+		}
+		return Snapshot.builder().approve(true).configId(config.getId()).snapshotPvList(snapshotPvs).build();
+	}
+}
@@ -0,0 +1,96 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.SqlProvider;
+
+/**
+ * {@link JdbcTemplate} recording the parameterized queries sent to the database together
+ * with their arguments, such that the queries can be re-issued as <code>EXPLAIN</code> statements.
+ */
+public class RecordingJdbcTemplate extends JdbcTemplate {
+
+	private List<RecordedQuery> queries = Collections.synchronizedList(new ArrayList<>());
+
+	public RecordingJdbcTemplate(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	@Override
+	public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse)
+			throws DataAccessException {
+		if (psc instanceof SqlProvider) {
+			queries.add(new RecordedQuery(((SqlProvider) psc).getSql(), pss));
+		}
+		return super.query(psc, pss, rse);
+	}
+
+	/**
+	 * Runs <code>EXPLAIN</code> for all recorded queries, using the same arguments as the
+	 * original query.
+	 * @return The query plans, in the order the queries were recorded.
+	 */
+	public List<RecordedQuery> explain() {
+		List<RecordedQuery> explained = new ArrayList<>(queries);
+		for (RecordedQuery query : explained) {
+			query.plan = super.query("EXPLAIN " + query.sql, query.setter, resultSet -> {
+				StringBuilder plan = new StringBuilder();
+				while (resultSet.next()) {
+					plan.append(resultSet.getString(1)).append('\n');
+				}
+				return plan.toString();
+			});
+		}
+		return explained;
+	}
+
+	public void clear() {
+		queries.clear();
+	}
+
+	public static class RecordedQuery {
+
+		private String sql;
+		private PreparedStatementSetter setter;
+		private String plan;
+
+		private RecordedQuery(String sql, PreparedStatementSetter setter) {
+			this.sql = sql;
+			this.setter = setter;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public String getPlan() {
+			return plan;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * JMH benchmark of {@link SnapshotPvRowMapper} reading a large snapshot from an in-memory H2 database, compared to
+ * the previous implementation resolving the value class and every column by name for each row.
+ * 
+ * Run the main method from the IDE, or with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=se.esss.ics.masar.persistence.dao.impl.SnapshotPvRowMapperBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnapshotPvRowMapperBenchmark {
+
+	private static final String QUERY = "select * from snapshot_pv join config_pv on snapshot_pv.config_pv_id=config_pv.id";
+
+	@Param({ "50000" })
+	private int pvCount;
+
+	private Connection connection;
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	private TypedValueReaders typedValueReaders = new TypedValueReaders(objectMapper);
+
+	@Setup(Level.Trial)
+	public void setup() throws SQLException {
+
+		connection = DriverManager.getConnection("jdbc:h2:mem:benchmark", "", "");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("create table config_pv (id integer primary key, name varchar(255), tags varchar(255), "
+					+ "groupName varchar(255), readonly int)");
+			statement.execute("create table snapshot_pv (snapshot_id integer, config_pv_id integer, dtype integer, "
+					+ "severity integer, status integer, time bigint, timens integer, clazz varchar(255), "
+					+ "value varchar(4096), fetch_status boolean)");
+		}
+
+		Object[] values = { 1.5, 42, "text", new double[] { 1, 2, 3 }, new int[] { 4, 5 } };
+		try (PreparedStatement configPvInsert = connection
+				.prepareStatement("insert into config_pv values (?, ?, null, null, 0)");
+				PreparedStatement snapshotPvInsert = connection
+						.prepareStatement("insert into snapshot_pv values (1, ?, 1, 0, 0, 1000, 0, ?, ?, true)")) {
+			for (int i = 0; i < pvCount; i++) {
+				Object value = values[i % values.length];
+				configPvInsert.setInt(1, i);
+				configPvInsert.setString(2, "pv" + i);
+				configPvInsert.addBatch();
+				snapshotPvInsert.setInt(1, i);
+				snapshotPvInsert.setString(2, value.getClass().getCanonicalName());
+				snapshotPvInsert.setString(3, objectMapper.writeValueAsString(value));
+				snapshotPvInsert.addBatch();
+			}
+			configPvInsert.executeBatch();
+			snapshotPvInsert.executeBatch();
+		} catch (Exception e) {
+			throw new SQLException(e);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Benchmark
+	public List<SnapshotPv<?>> cachedReaders() throws SQLException {
+
+		SnapshotPvRowMapper rowMapper = new SnapshotPvRowMapper(typedValueReaders);
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>(pvCount);
+		try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(QUERY)) {
+			while (resultSet.next()) {
+				snapshotPvs.add(rowMapper.mapRow(resultSet, resultSet.getRow()));
+			}
+		}
+		return snapshotPvs;
+	}
+
+	@Benchmark
+	public List<SnapshotPv<?>> perRowLookup() throws SQLException {
+
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>(pvCount);
+		try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(QUERY)) {
+			while (resultSet.next()) {
+				snapshotPvs.add(mapRowPerRowLookup(resultSet, resultSet.getRow()));
+			}
+		}
+		return snapshotPvs;
+	}
+
+	/**
+	 * The mapping as implemented before the introduction of {@link TypedValueReaders}. Array values are read as
+	 * null, as <code>Class.forName</code> does not understand canonical array class names.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private SnapshotPv<?> mapRowPerRowLookup(ResultSet resultSet, int rowIndex) throws SQLException {
+
+		ConfigPv configPv = new ConfigPvRowMapper().mapRow(resultSet, rowIndex);
+
+		Object value;
+		try {
+			Class clazz = Class.forName(resultSet.getString("clazz"));
+			value = objectMapper.readValue(resultSet.getString("value"), clazz);
+		} catch (Exception e) {
+			value = null;
+		}
+
+		return SnapshotPv.builder().dtype(resultSet.getInt("dtype")).fetchStatus(resultSet.getBoolean("fetch_status"))
+				.snapshotId(resultSet.getInt("snapshot_id")).severity(resultSet.getInt("severity"))
+				.status(resultSet.getInt("status")).time(resultSet.getLong("time")).timens(resultSet.getInt("timens"))
+				.configPv(configPv).value(value).build();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SnapshotPvRowMapperBenchmark.class.getSimpleName()).build()).run();
+	}
+}
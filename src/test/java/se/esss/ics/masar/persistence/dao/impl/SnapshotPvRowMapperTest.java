@@ -29,4 +29,14 @@ public class SnapshotPvRowMapperTest {
 		Object object = mapper.getTypedValue("2.0", "java.lang.Double");
 		assertTrue(object instanceof Double);
 	}
+
+	@Test
+	public void testGetTypedValueArray() {
+		
+		Object object = mapper.getTypedValue("[1.0, 2.0]", double[].class.getCanonicalName());
+		assertArrayEquals(new double[] {1.0, 2.0}, (double[])object, 0.0);
+		
+		object = mapper.getTypedValue("[\"a\", \"b\"]", String[].class.getCanonicalName());
+		assertArrayEquals(new String[] {"a", "b"}, (String[])object);
+	}
 }
@@ -0,0 +1,187 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.ContextHierarchy;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.esss.ics.masar.model.Config;
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.persistence.config.PersistenceConfiguration;
+import se.esss.ics.masar.persistence.config.PersistenceTestConfig;
+import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.TreeStore;
+
+/**
+ * Compares move and sub-tree queries of the {@link TreeStore} implementations on a deep and a wide tree. 
+ * Not part of the regular test run as the name does not match the Surefire includes, run with
+ * <code>mvn test -Dtest=TreeStoreBenchmark</code>. Timings are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@EnableConfigurationProperties
+@ContextHierarchy({ @ContextConfiguration(classes = { PersistenceConfiguration.class, PersistenceTestConfig.class }) })
+@TestPropertySource(properties = { "dbengine = h2" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, FlywayTestExecutionListener.class })
+public class TreeStoreBenchmark {
+
+	private static final int DEEP_TREE_DEPTH = 100;
+	private static final int DEEP_TREE_CONFIGS_PER_LEVEL = 5;
+	private static final int WIDE_TREE_FOLDERS = 50;
+	private static final int WIDE_TREE_CONFIGS_PER_FOLDER = 40;
+	private static final int ITERATIONS = 50;
+
+	@Autowired
+	private ConfigDAO configDAO;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Logger logger = LoggerFactory.getLogger(TreeStoreBenchmark.class);
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void benchmarkClosureTableDeepTree() {
+		benchmarkDeepTree(new ClosureTableTreeStore());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void benchmarkMaterializedPathDeepTree() {
+		benchmarkDeepTree(new MaterializedPathTreeStore());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void benchmarkClosureTableWideTree() {
+		benchmarkWideTree(new ClosureTableTreeStore());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void benchmarkMaterializedPathWideTree() {
+		benchmarkWideTree(new MaterializedPathTreeStore());
+	}
+
+	/**
+	 * A chain of nested folders with a number of configurations at each level. The second level folder, i.e. almost
+	 * the complete tree, is moved back and forth between two top level folders.
+	 */
+	private void benchmarkDeepTree(TreeStore treeStore) {
+
+		withTreeStore(treeStore, () -> {
+			Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+			Folder source = configDAO.createFolder(Folder.builder().name("Source").parent(root).build());
+			Folder target = configDAO.createFolder(Folder.builder().name("Target").parent(root).build());
+			Folder top = null;
+			Folder parent = source;
+			for (int i = 0; i < DEEP_TREE_DEPTH; i++) {
+				parent = configDAO.createFolder(Folder.builder().name("Folder" + i).parent(parent).build());
+				if (top == null) {
+					top = parent;
+				}
+				createConfigs(parent, DEEP_TREE_CONFIGS_PER_LEVEL);
+			}
+			run(treeStore, "deep tree", top, source, target,
+					DEEP_TREE_DEPTH * (DEEP_TREE_CONFIGS_PER_LEVEL + 1));
+		});
+	}
+
+	/**
+	 * A single folder containing a number of folders, each holding a number of configurations. The folder is moved
+	 * back and forth between two top level folders.
+	 */
+	private void benchmarkWideTree(TreeStore treeStore) {
+
+		withTreeStore(treeStore, () -> {
+			Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+			Folder source = configDAO.createFolder(Folder.builder().name("Source").parent(root).build());
+			Folder target = configDAO.createFolder(Folder.builder().name("Target").parent(root).build());
+			Folder top = configDAO.createFolder(Folder.builder().name("Top").parent(source).build());
+			for (int i = 0; i < WIDE_TREE_FOLDERS; i++) {
+				createConfigs(configDAO.createFolder(Folder.builder().name("Folder" + i).parent(top).build()),
+						WIDE_TREE_CONFIGS_PER_FOLDER);
+			}
+			run(treeStore, "wide tree", top, source, target,
+					1 + WIDE_TREE_FOLDERS * (WIDE_TREE_CONFIGS_PER_FOLDER + 1));
+		});
+	}
+
+	private void run(TreeStore treeStore, String treeName, Folder top, Folder source, Folder target, int treeSize) {
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			configDAO.moveNode(top.getId(), i % 2 == 0 ? target.getId() : source.getId());
+		}
+		long moveTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertEquals(treeSize, count(configDAO.getFolderTree(source.getId(), Integer.MAX_VALUE, false)) - 1);
+		}
+		long subTreeTime = System.nanoTime() - start;
+
+		logger.info("{} {} nodes, {}: move {} us, sub-tree {} us", treeStore.getClass().getSimpleName(), treeSize,
+				treeName, moveTime / ITERATIONS / 1000, subTreeTime / ITERATIONS / 1000);
+	}
+
+	private void createConfigs(Folder parent, int count) {
+		for (int i = 0; i < count; i++) {
+			configDAO.createConfiguration(
+					Config.builder().name("Config" + i).description("description").parent(parent).build());
+		}
+	}
+
+	private int count(Node node) {
+		int count = 1;
+		if (node instanceof Folder) {
+			for (Node childNode : ((Folder) node).getChildNodes()) {
+				count += count(childNode);
+			}
+		}
+		return count;
+	}
+
+	private void withTreeStore(TreeStore treeStore, Runnable runnable) {
+
+		TreeStore defaultTreeStore = (TreeStore) ReflectionTestUtils.getField(configDAO, "treeStore");
+		ReflectionTestUtils.setField(treeStore, "jdbcTemplate", jdbcTemplate);
+		ReflectionTestUtils.setField(configDAO, "treeStore", treeStore);
+		try {
+			runnable.run();
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "treeStore", defaultTreeStore);
+		}
+	}
+}
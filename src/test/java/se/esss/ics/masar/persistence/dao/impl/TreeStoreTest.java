@@ -0,0 +1,195 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.persistence.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.flywaydb.test.FlywayTestExecutionListener;
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.ContextHierarchy;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.esss.ics.masar.model.Config;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Folder;
+import se.esss.ics.masar.model.Node;
+import se.esss.ics.masar.persistence.config.PersistenceConfiguration;
+import se.esss.ics.masar.persistence.config.PersistenceTestConfig;
+import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.TreeStore;
+
+/**
+ * Runs the same tree operations through {@link ConfigDAO} with each {@link TreeStore} implementation.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@EnableConfigurationProperties
+@ContextHierarchy({ @ContextConfiguration(classes = { PersistenceConfiguration.class, PersistenceTestConfig.class }) })
+@TestPropertySource(properties = { "dbengine = h2" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, FlywayTestExecutionListener.class })
+public class TreeStoreTest {
+
+	@Autowired
+	private ConfigDAO configDAO;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testClosureTableTreeStore() {
+		verifyTreeOperations(new ClosureTableTreeStore());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testMaterializedPathTreeStore() {
+		verifyTreeOperations(new MaterializedPathTreeStore());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testSwitchToMaterializedPathTreeStore() {
+		verifySwitch(new ClosureTableTreeStore(), new MaterializedPathTreeStore());
+	}
+
+	@Test
+	@FlywayTest(invokeCleanDB = true)
+	public void testSwitchToClosureTableTreeStore() {
+		verifySwitch(new MaterializedPathTreeStore(), new ClosureTableTreeStore());
+	}
+
+	/**
+	 * Changes the tree with one store, then verifies that the other store answers correctly once rebuilt.
+	 */
+	private void verifySwitch(TreeStore previousTreeStore, TreeStore treeStore) {
+
+		TreeStore defaultTreeStore = (TreeStore) ReflectionTestUtils.getField(configDAO, "treeStore");
+		ReflectionTestUtils.setField(previousTreeStore, "jdbcTemplate", jdbcTemplate);
+		ReflectionTestUtils.setField(treeStore, "jdbcTemplate", jdbcTemplate);
+
+		try {
+			ReflectionTestUtils.setField(configDAO, "treeStore", treeStore);
+			Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+			Folder a = configDAO.createFolder(Folder.builder().name("A").parent(root).build());
+			Folder d = configDAO.createFolder(Folder.builder().name("D").parent(root).build());
+			assertEquals(0, treeStore.rebuild());
+
+			ReflectionTestUtils.setField(configDAO, "treeStore", previousTreeStore);
+			Folder b = configDAO.createFolder(Folder.builder().name("B").parent(a).build());
+			Config c = configDAO.createConfiguration(Config.builder().name("C").description("description").parent(b)
+					.configPvList(Arrays.asList(ConfigPv.builder().pvName("pv1").build())).build());
+			configDAO.moveNode(b.getId(), d.getId());
+			Date lastModified = configDAO.getConfiguration(c.getId()).getLastModified();
+
+			ReflectionTestUtils.setField(configDAO, "treeStore", treeStore);
+			assertTrue(treeStore.rebuild() > 0);
+			assertEquals(0, treeStore.rebuild());
+
+			assertEquals(Arrays.asList("Save & Restore Root", "D", "B", "C"), names(configDAO.getNodePath(c.getId())));
+			assertTrue(configDAO.getFolderTree(a.getId(), Integer.MAX_VALUE, true).getChildNodes().isEmpty());
+			Folder movedFolder = (Folder) configDAO.getFolderTree(d.getId(), Integer.MAX_VALUE, true).getChildNodes()
+					.get(0);
+			assertEquals("B", movedFolder.getName());
+			Config config = (Config) movedFolder.getChildNodes().get(0);
+			assertEquals(1, config.getConfigPvList().size());
+			// Rebuilding does not modify the nodes
+			assertEquals(lastModified, config.getLastModified());
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "treeStore", defaultTreeStore);
+		}
+	}
+
+	private void verifyTreeOperations(TreeStore treeStore) {
+
+		TreeStore defaultTreeStore = (TreeStore) ReflectionTestUtils.getField(configDAO, "treeStore");
+		ReflectionTestUtils.setField(treeStore, "jdbcTemplate", jdbcTemplate);
+		ReflectionTestUtils.setField(configDAO, "treeStore", treeStore);
+
+		try {
+			Folder root = configDAO.getFolder(Node.ROOT_NODE_ID);
+			Folder a = configDAO.createFolder(Folder.builder().name("A").parent(root).build());
+			Folder b = configDAO.createFolder(Folder.builder().name("B").parent(a).build());
+			Folder d = configDAO.createFolder(Folder.builder().name("D").parent(root).build());
+			Config c = configDAO.createConfiguration(Config.builder().name("C").description("description").parent(b)
+					.configPvList(Arrays.asList(ConfigPv.builder().pvName("pv1").build(),
+							ConfigPv.builder().pvName("pv2").build()))
+					.build());
+
+			assertEquals(Arrays.asList("Save & Restore Root", "A", "B", "C"), names(configDAO.getNodePath(c.getId())));
+
+			Folder tree = configDAO.getFolderTree(Node.ROOT_NODE_ID, 1, false);
+			assertEquals(Arrays.asList("A", "D"),
+					names(tree.getChildNodes()).stream().sorted().collect(Collectors.toList()));
+			for (Node childNode : tree.getChildNodes()) {
+				assertTrue(((Folder) childNode).getChildNodes().isEmpty());
+			}
+
+			Date lastModified = configDAO.getConfiguration(c.getId()).getLastModified();
+
+			configDAO.moveNode(b.getId(), d.getId());
+
+			assertEquals(Arrays.asList("Save & Restore Root", "D", "B", "C"), names(configDAO.getNodePath(c.getId())));
+			assertTrue(configDAO.getFolderTree(a.getId(), Integer.MAX_VALUE, true).getChildNodes().isEmpty());
+
+			tree = configDAO.getFolderTree(d.getId(), Integer.MAX_VALUE, true);
+			Folder movedFolder = (Folder) tree.getChildNodes().get(0);
+			assertEquals("B", movedFolder.getName());
+			Config config = (Config) movedFolder.getChildNodes().get(0);
+			assertEquals(2, config.getConfigPvList().size());
+			// Moving a folder does not modify the nodes of its sub-tree
+			assertEquals(lastModified, config.getLastModified());
+
+			// Move a sub-tree into a deeper folder
+			configDAO.moveNode(d.getId(), a.getId());
+
+			assertEquals(Arrays.asList("Save & Restore Root", "A", "D", "B", "C"),
+					names(configDAO.getNodePath(c.getId())));
+			tree = configDAO.getFolderTree(a.getId(), 2, false);
+			Folder folderD = (Folder) tree.getChildNodes().get(0);
+			assertEquals("D", folderD.getName());
+			assertEquals("B", folderD.getChildNodes().get(0).getName());
+			assertTrue(((Folder) folderD.getChildNodes().get(0)).getChildNodes().isEmpty());
+
+			configDAO.deleteNode(a.getId());
+
+			assertEquals(0, configDAO.getFolderTree(Node.ROOT_NODE_ID, Integer.MAX_VALUE, false).getChildNodes().size());
+		} finally {
+			ReflectionTestUtils.setField(configDAO, "treeStore", defaultTreeStore);
+		}
+	}
+
+	private List<String> names(List<Node> nodes) {
+		return nodes.stream().map(Node::getName).collect(Collectors.toList());
+	}
+}
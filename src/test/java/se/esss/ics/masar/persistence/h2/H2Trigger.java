@@ -2,9 +2,11 @@ package se.esss.ics.masar.persistence.h2;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.Objects;
 
 import org.h2.tools.TriggerAdapter;
 
@@ -12,6 +14,20 @@ public class H2Trigger extends TriggerAdapter {
 
 	@Override
 	public void fire(Connection conn, ResultSet oldRow, ResultSet newRow) throws SQLException {
+		// Moving a folder updates the path of all nodes in its sub-tree, which should not count as a modification
+		if (hasColumn(newRow, "path") && !Objects.equals(oldRow.getString("path"), newRow.getString("path"))) {
+			return;
+		}
 		newRow.updateTimestamp("last_modified", Timestamp.from(Instant.now()));
 	}
+
+	private boolean hasColumn(ResultSet row, String column) throws SQLException {
+		ResultSetMetaData metaData = row.getMetaData();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			if (column.equalsIgnoreCase(metaData.getColumnName(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
@@ -2,14 +2,29 @@ package se.esss.ics.masar.services.config;
 
 import static org.mockito.Mockito.mock;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 
 import se.esss.ics.masar.epics.IEpicsService;
+import se.esss.ics.masar.epics.impl.PvReadScheduler;
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
 import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.impl.AdmissionController;
+import se.esss.ics.masar.services.impl.AdmissionController.Limits;
+import se.esss.ics.masar.services.impl.AdmissionController.Workload;
 import se.esss.ics.masar.services.impl.Services;
+import se.esss.ics.masar.services.impl.SnapshotCache;
+import se.esss.ics.masar.services.impl.SnapshotCoalescer;
 
 @Configuration
 public class ServicesTestConfig {
@@ -29,6 +44,55 @@ public class ServicesTestConfig {
 		return mock(SnapshotDAO.class);
 	}
 	
+	@Bean
+	public LeaseDAO leaseDAO() {
+		return mock(LeaseDAO.class);
+	}
+
+	@Bean
+	public SnapshotScheduleDAO snapshotScheduleDAO() {
+		return mock(SnapshotScheduleDAO.class);
+	}
+	
+	@Bean
+	public SnapshotTriggerDAO snapshotTriggerDAO() {
+		return mock(SnapshotTriggerDAO.class);
+	}
+	
+	@Bean
+	public DriftReferenceDAO driftReferenceDAO() {
+		return mock(DriftReferenceDAO.class);
+	}
+	
+	@Bean
+	public SnapshotCache snapshotCache() {
+		return new SnapshotCache(1024 * 1024);
+	}
+	
+	@Bean
+	public SnapshotCoalescer snapshotCoalescer() {
+		return new SnapshotCoalescer(0, false);
+	}
+	
+	@Bean
+	public AdmissionController admissionController() {
+		Map<Workload, Limits> limits = new EnumMap<>(Workload.class);
+		for (Workload workload : Workload.values()) {
+			limits.put(workload, new Limits(1, 0, 0));
+		}
+		return new AdmissionController(limits);
+	}
+	
+	@Bean
+	public TaskExecutor snapshotJobExecutor() {
+		return new SyncTaskExecutor();
+	}
+	
+	@Bean
+	public PvReadScheduler pvReadScheduler() {
+		return new PvReadScheduler(epicsService(), new SyncTaskExecutor(), null, 1, 0);
+	}
+	
 	@Bean
 	public IServices services() {
 		return new Services();
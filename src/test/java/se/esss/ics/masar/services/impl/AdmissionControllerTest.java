@@ -0,0 +1,124 @@
+package se.esss.ics.masar.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import se.esss.ics.masar.services.exception.AdmissionRejectedException;
+import se.esss.ics.masar.services.impl.AdmissionController.Limits;
+import se.esss.ics.masar.services.impl.AdmissionController.Workload;
+
+public class AdmissionControllerTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private final CountDownLatch running = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testBulkheads() throws Exception {
+
+		AdmissionController admissionController = admissionController(60000);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		admissionController.bindTo(registry);
+
+		CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> 
+			admissionController.execute(Workload.BATCH, this::block), executor);
+		running.await(10, TimeUnit.SECONDS);
+		CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> 
+			admissionController.execute(Workload.BATCH, () -> "second"), executor);
+		awaitQueued(registry, 1);
+
+		// The queue of the batch workload is full
+		try {
+			admissionController.execute(Workload.BATCH, () -> "third");
+			fail("Expected rejection");
+		} catch (AdmissionRejectedException e) {
+			assertTrue(e.getRetryAfterSeconds() >= 1);
+		}
+		try {
+			admissionController.checkCapacity(Workload.BATCH);
+			fail("Expected rejection");
+		} catch (AdmissionRejectedException e) {
+		}
+		assertEquals(2.0, registry.get("masar.snapshot.admission.rejected").tag("workload", "batch")
+				.functionCounter().count(), 0.0);
+		assertEquals(1.0, registry.get("masar.snapshot.admission.active").tag("workload", "batch")
+				.gauge().value(), 0.0);
+
+		// Other workloads are not affected
+		assertEquals("interactive", admissionController.execute(Workload.INTERACTIVE, () -> "interactive"));
+
+		release.countDown();
+		assertEquals("first", first.get(10, TimeUnit.SECONDS));
+		assertEquals("second", second.get(10, TimeUnit.SECONDS));
+		assertEquals(0.0, registry.get("masar.snapshot.admission.queued").tag("workload", "batch")
+				.gauge().value(), 0.0);
+	}
+
+	@Test
+	public void testMaxWait() throws Exception {
+
+		AdmissionController admissionController = admissionController(10);
+		CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> 
+			admissionController.execute(Workload.SCHEDULED, this::block), executor);
+		running.await(10, TimeUnit.SECONDS);
+
+		try {
+			admissionController.execute(Workload.SCHEDULED, () -> "second");
+			fail("Expected rejection");
+		} catch (AdmissionRejectedException e) {
+		}
+		release.countDown();
+		first.get(10, TimeUnit.SECONDS);
+
+		assertEquals("third", admissionController.execute(Workload.SCHEDULED, () -> "third"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingLimits() {
+		new AdmissionController(new EnumMap<>(Workload.class));
+	}
+
+	private AdmissionController admissionController(long maxWaitMillis) {
+		Map<Workload, Limits> limits = new EnumMap<>(Workload.class);
+		for (Workload workload : Workload.values()) {
+			limits.put(workload, new Limits(1, 1, maxWaitMillis));
+		}
+		return new AdmissionController(limits);
+	}
+
+	private String block() {
+		running.countDown();
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return "first";
+	}
+
+	private void awaitQueued(SimpleMeterRegistry registry, int queued) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (registry.get("masar.snapshot.admission.queued").tag("workload", "batch").gauge().value() < queued
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+}
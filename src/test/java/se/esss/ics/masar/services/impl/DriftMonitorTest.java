@@ -0,0 +1,230 @@
+package se.esss.ics.masar.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import se.esss.ics.masar.epics.FakeEpicsService;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.services.DriftReport;
+import se.esss.ics.masar.services.DriftReport.DriftedPv;
+
+public class DriftMonitorTest {
+
+	private DriftReferenceDAO driftReferenceDAO;
+	private SnapshotDAO snapshotDAO;
+	private FakeEpicsService epicsService;
+	private DriftMonitor driftMonitor;
+
+	@Before
+	public void setUp() {
+		driftReferenceDAO = mock(DriftReferenceDAO.class);
+		snapshotDAO = mock(SnapshotDAO.class);
+		epicsService = new FakeEpicsService();
+		driftMonitor = new DriftMonitor(driftReferenceDAO, snapshotDAO, epicsService, 1000, 10);
+
+		when(snapshotDAO.getSnapshot(11, true)).thenReturn(Snapshot.builder().id(11).configId(7)
+				.snapshotPvList(Arrays.asList(pv("pv1", 1.0, true), pv("pv2", "On", true),
+						pv("pv3", new double[] { 1, 2 }, true), pv("pv4", null, false)))
+				.build());
+		when(snapshotDAO.getSnapshot(12, true)).thenReturn(Snapshot.builder().id(12).configId(7)
+				.snapshotPvList(Arrays.asList(pv("pv1", 2.0, true), pv("pv2", "On", true),
+						pv("pv3", new double[] { 1, 2 }, true)))
+				.build());
+	}
+
+	@After
+	public void tearDown() {
+		driftMonitor.stop();
+	}
+
+	@Test
+	public void testDrift() {
+
+		DriftReference reference = reference(7, 11);
+		reference.setDefaultTolerance(0.1);
+		reference.getTolerances().put("pv3", 0.5);
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(reference));
+
+		driftMonitor.poll();
+		// PVs that could not be read in the reference snapshot are not monitored
+		assertEquals(1, epicsService.getMonitorCount("pv1"));
+		assertEquals(1, epicsService.getMonitorCount("pv2"));
+		assertEquals(1, epicsService.getMonitorCount("pv3"));
+		assertEquals(0, epicsService.getMonitorCount("pv4"));
+		assertEquals(0, driftMonitor.getDrift(7).getConnectedCount());
+		assertNull(driftMonitor.getDrift(8));
+
+		event("pv1", 1.05);
+		event("pv2", "On");
+		event("pv3", new double[] { 1.4, 2 });
+		DriftReport report = driftMonitor.getDrift(7);
+		assertEquals(3, report.getPvCount());
+		assertEquals(3, report.getConnectedCount());
+		assertTrue(report.getDriftedPvs().isEmpty());
+
+		event("pv1", 1.2);
+		event("pv2", "Off");
+		event("pv3", new double[] { 1, 2, 3 });
+		report = driftMonitor.getDrift(7);
+		assertEquals(3, report.getDriftedPvs().size());
+		DriftedPv driftedPv = report.getDriftedPvs().get(0);
+		assertEquals("pv1", driftedPv.getPvName());
+		assertEquals(0.2, driftedPv.getDeviation(), 1e-9);
+		assertEquals(0.1, driftedPv.getTolerance(), 0.0);
+		assertNotNull(driftedPv.getSince());
+		assertNull(report.getDriftedPvs().get(1).getDeviation());
+
+		// The time of the first drift is kept
+		Date since = driftedPv.getSince();
+		event("pv1", 1.3);
+		assertEquals(since, driftMonitor.getDrift(7).getDriftedPvs().get(0).getSince());
+
+		// Disconnected PVs keep their last state
+		epicsService.post("pv2", SnapshotPv.builder().fetchStatus(false).build());
+		event("pv1", 1.0);
+		assertEquals(Arrays.asList("pv2", "pv3"), driftedPvNames());
+	}
+
+	@Test
+	public void testReload() {
+
+		DriftReference reference = reference(7, 11);
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(reference));
+		driftMonitor.poll();
+		event("pv1", 2.0);
+		assertEquals(Arrays.asList("pv1"), driftedPvNames());
+
+		// Unchanged references keep their monitors
+		driftMonitor.poll();
+		assertTrue(epicsService.getClosed().isEmpty());
+		assertEquals(Arrays.asList("pv1"), driftedPvNames());
+
+		// A new reference starts afresh
+		DriftReference newReference = reference(7, 12);
+		newReference.setCreated(new Date(2000));
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(newReference));
+		driftMonitor.poll();
+		assertEquals(3, epicsService.getClosed().size());
+		assertTrue(driftMonitor.getDrift(7).getDriftedPvs().isEmpty());
+
+		when(driftReferenceDAO.getReferences()).thenReturn(Collections.emptyList());
+		driftMonitor.poll();
+		assertEquals(6, epicsService.getClosed().size());
+		assertNull(driftMonitor.getDrift(7));
+	}
+
+	@Test
+	public void testSharedMonitors() {
+
+		DriftReference reference = reference(7, 11);
+		DriftReference otherReference = reference(8, 12);
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(reference));
+		driftMonitor.poll();
+		event("pv1", 2.0);
+
+		// The PVs of both references are monitored once, and the current value is compared with the new reference
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(reference, otherReference));
+		driftMonitor.poll();
+		assertEquals(1, epicsService.getMonitorCount("pv1"));
+		assertEquals(1, driftMonitor.getDrift(8).getConnectedCount());
+		assertTrue(driftMonitor.getDrift(8).getDriftedPvs().isEmpty());
+
+		event("pv2", "Off");
+		assertEquals(Arrays.asList("pv1", "pv2"), driftedPvNames());
+		assertEquals(1, driftMonitor.getDrift(8).getDriftedPvs().size());
+
+		// The monitors are closed with the last reference of their PVs
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(otherReference));
+		driftMonitor.poll();
+		assertTrue(epicsService.getClosed().isEmpty());
+		when(driftReferenceDAO.getReferences()).thenReturn(Collections.emptyList());
+		driftMonitor.poll();
+		assertEquals(3, epicsService.getClosed().size());
+	}
+
+	@Test
+	public void testMaxMonitors() {
+
+		driftMonitor = new DriftMonitor(driftReferenceDAO, snapshotDAO, epicsService, 1000, 2);
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(reference(7, 11)));
+		driftMonitor.poll();
+		event("pv1", 1.0);
+		event("pv2", "On");
+
+		DriftReport report = driftMonitor.getDrift(7);
+		assertEquals(3, report.getPvCount());
+		assertEquals(2, report.getConnectedCount());
+		assertEquals(0, epicsService.getMonitorCount("pv3"));
+	}
+
+	@Test
+	public void testMetrics() {
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		driftMonitor.bindTo(registry);
+		when(driftReferenceDAO.getReferences()).thenReturn(Arrays.asList(reference(7, 11)));
+		driftMonitor.poll();
+		event("pv1", 2.0);
+
+		assertEquals(1, registry.get("masar.drift.pvs").tag("config", "7").gauge().value(), 0.0);
+		assertEquals(3, registry.get("masar.drift.monitors").gauge().value(), 0.0);
+
+		when(driftReferenceDAO.getReferences()).thenReturn(Collections.emptyList());
+		driftMonitor.poll();
+		assertEquals(0, registry.get("masar.drift.pvs").tag("config", "7").gauge().value(), 0.0);
+	}
+
+	@Test
+	public void testGetDeviation() {
+
+		assertEquals(0.5, DriftMonitor.getDeviation(1, 1.5), 0.0);
+		assertEquals(3, DriftMonitor.getDeviation(new int[] { 1, 2 }, new int[] { 4, 2 }), 0.0);
+		assertNull(DriftMonitor.getDeviation(new int[] { 1, 2 }, new int[] { 1 }));
+		assertNull(DriftMonitor.getDeviation(new String[] { "a" }, new String[] { "a" }));
+		assertNull(DriftMonitor.getDeviation("a", 1));
+	}
+
+	private List<String> driftedPvNames() {
+		List<String> pvNames = new ArrayList<>();
+		driftMonitor.getDrift(7).getDriftedPvs().forEach(driftedPv -> pvNames.add(driftedPv.getPvName()));
+		return pvNames;
+	}
+
+	private void event(String pvName, Object value) {
+		epicsService.post(pvName, pv(pvName, value, true));
+	}
+
+	private DriftReference reference(int configId, int snapshotId) {
+		DriftReference reference = new DriftReference();
+		reference.setConfigId(configId);
+		reference.setSnapshotId(snapshotId);
+		reference.setCreated(new Date(1000));
+		return reference;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private SnapshotPv<?> pv(String pvName, Object value, boolean fetchStatus) {
+		return SnapshotPv.builder().value(value).fetchStatus(fetchStatus)
+				.configPv(ConfigPv.builder().pvName(pvName).build()).build();
+	}
+}
@@ -2,6 +2,9 @@ package se.esss.ics.masar.services.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
@@ -14,8 +17,11 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -36,10 +42,24 @@ import se.esss.ics.masar.model.Node;
 import se.esss.ics.masar.model.Snapshot;
 import se.esss.ics.masar.model.SnapshotPv;
 import se.esss.ics.masar.persistence.dao.ConfigDAO;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.DriftReferenceDAO;
 import se.esss.ics.masar.persistence.dao.SnapshotDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
 import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.SnapshotJob;
+import se.esss.ics.masar.services.SnapshotJobListener;
 import se.esss.ics.masar.services.config.ServicesTestConfig;
 import se.esss.ics.masar.services.exception.ConfigNotFoundException;
+import se.esss.ics.masar.services.exception.DriftReferenceNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotJobNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotScheduleNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotTriggerNotFoundException;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextHierarchy({ @ContextConfiguration(classes = { ServicesTestConfig.class}) })
@@ -50,10 +70,22 @@ public class ServicesTest {
 	
 	@Autowired
 	private ConfigDAO configDAO;
+
+	@Autowired
+	private SnapshotCache snapshotCache;
 	
 	@Autowired
 	private SnapshotDAO snapshotDAO;
 	
+	@Autowired
+	private SnapshotScheduleDAO snapshotScheduleDAO;
+	
+	@Autowired
+	private SnapshotTriggerDAO snapshotTriggerDAO;
+	
+	@Autowired
+	private DriftReferenceDAO driftReferenceDAO;
+	
 	@Autowired
 	private IEpicsService epicsServices;
 		
@@ -198,6 +230,148 @@ public class ServicesTest {
 		reset(snapshotDAO);
 	}
 	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testTakeSnapshots() throws Exception{
+		
+		ConfigPv configPv1 = ConfigPv.builder().id(11).pvName("pv11").build();
+		ConfigPv configPv2 = ConfigPv.builder().id(12).pvName("pv12").build();
+		ConfigPv configPv3 = ConfigPv.builder().id(13).pvName("pv13").build();
+		Config config7 = Config.builder().configPvList(Arrays.asList(configPv1, configPv2)).build();
+		config7.setId(7);
+		Config config8 = Config.builder().configPvList(Arrays.asList(configPv2, configPv3)).build();
+		config8.setId(8);
+		
+		when(configDAO.getConfiguration(7)).thenReturn(config7);
+		when(configDAO.getConfiguration(8)).thenReturn(config8);
+		when(epicsServices.getPv(any(ConfigPv.class))).thenAnswer(invocation -> 
+			SnapshotPv.builder().configPv(invocation.getArgument(0)).build());
+		when(epicsServices.getPv(configPv3)).thenThrow(new PVReadException("PV Read Failure"));
+		when(configDAO.savePreliminarySnapshots(any(List.class), any(Date.class)))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+		
+		List<Snapshot> snapshots = services.takeSnapshots(Arrays.asList(7, 8, 7));
+		
+		// The shared PV is read once, and the duplicate configuration is ignored
+		verify(epicsServices, times(3)).getPv(any(ConfigPv.class));
+		assertEquals(2, snapshots.size());
+		assertEquals(7, snapshots.get(0).getConfigId());
+		assertEquals(2, snapshots.get(0).getSnapshotPvList().size());
+		assertEquals(8, snapshots.get(1).getConfigId());
+		assertEquals(1, snapshots.get(1).getSnapshotPvList().size());
+		assertSame(snapshots.get(0).getSnapshotPvList().get(1), snapshots.get(1).getSnapshotPvList().get(0));
+		
+		reset(configDAO, epicsServices);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTakeSnapshotsNoConfig() {
+		services.takeSnapshots(Collections.emptyList());
+	}
+	
+	@Test
+	public void testSnapshotJob() throws Exception{
+		
+		ConfigPv configPv1 = ConfigPv.builder().pvName("pvName1").build();
+		ConfigPv configPv2 = ConfigPv.builder().pvName("pvName2").build();
+		Config config4 = Config.builder().configPvList(Arrays.asList(configPv1, configPv2)).build();
+		
+		when(configDAO.getConfiguration(4)).thenReturn(config4);
+		when(epicsServices.getPv(configPv1)).thenReturn(SnapshotPv.builder().fetchStatus(true).configPv(configPv1).build());
+		when(epicsServices.getPv(configPv2)).thenThrow(new PVReadException("PV Read Failure"));
+		when(configDAO.savePreliminarySnapshot(any(Snapshot.class))).thenReturn(Snapshot.builder().id(8).build());
+		
+		List<String> events = new ArrayList<>();
+		SnapshotJobListener listener = new SnapshotJobListener() {
+			
+			@Override
+			public void pvRead(SnapshotPv<?> snapshotPv) {
+				events.add("read");
+			}
+			
+			@Override
+			public void pvFailed(ConfigPv configPv, String error) {
+				events.add("failed " + configPv.getPvName());
+			}
+			
+			@Override
+			public void jobFinished(SnapshotJob job) {
+				events.add("finished " + job.getSnapshotId());
+			}
+		};
+		
+		// The test executor runs the job on submission
+		SnapshotJob job = services.submitSnapshotJob(4, listener);
+		
+		assertEquals(Arrays.asList("read", "failed pvName2", "finished 8"), events);
+		
+		assertSame(job, services.getSnapshotJob(job.getId()));
+		assertEquals(SnapshotJob.Status.COMPLETED, job.getStatus());
+		assertEquals(2, job.getPvCount());
+		assertEquals(1, job.getRead());
+		assertEquals(1, job.getFailed());
+		assertEquals(0, job.getPending());
+		assertEquals(Integer.valueOf(8), job.getSnapshotId());
+		assertNotNull(job.getFinished());
+		
+		reset(configDAO, epicsServices);
+	}
+	
+	@Test
+	public void testSnapshotJobUnreadablePv() {
+		
+		ConfigPv configPv1 = ConfigPv.builder().pvName("pvName1").build();
+		ConfigPv configPv2 = ConfigPv.builder().pvName("pvName2").build();
+		Config config6 = Config.builder().configPvList(Arrays.asList(configPv1, configPv2)).build();
+		
+		// The EPICS layer reports a PV it cannot read with fetch status false rather than an exception
+		when(configDAO.getConfiguration(6)).thenReturn(config6);
+		when(epicsServices.getPv(configPv1)).thenReturn(SnapshotPv.builder().fetchStatus(true).configPv(configPv1).build());
+		when(epicsServices.getPv(configPv2)).thenReturn(SnapshotPv.builder().fetchStatus(false).configPv(configPv2).build());
+		when(configDAO.savePreliminarySnapshot(any(Snapshot.class))).thenReturn(Snapshot.builder().id(9).build());
+		
+		List<String> events = new ArrayList<>();
+		SnapshotJob job = services.submitSnapshotJob(6, new SnapshotJobListener() {
+			
+			@Override
+			public void pvFailed(ConfigPv configPv, String error) {
+				events.add("failed " + configPv.getPvName());
+			}
+		});
+		
+		assertEquals(Arrays.asList("failed pvName2"), events);
+		assertEquals(1, job.getRead());
+		assertEquals(1, job.getFailed());
+		
+		reset(configDAO, epicsServices);
+	}
+	
+	@Test
+	public void testSnapshotJobFailure() {
+		
+		Config config5 = Config.builder().configPvList(Collections.emptyList()).build();
+		when(configDAO.getConfiguration(5)).thenReturn(config5);
+		when(configDAO.savePreliminarySnapshot(any(Snapshot.class))).thenThrow(new RuntimeException("Database down"));
+		
+		SnapshotJob job = services.submitSnapshotJob(5);
+		
+		assertEquals(SnapshotJob.Status.FAILED, job.getStatus());
+		assertEquals("Database down", job.getError());
+		assertNull(job.getSnapshotId());
+		
+		reset(configDAO);
+	}
+	
+	@Test(expected = ConfigNotFoundException.class)
+	public void testSnapshotJobConfigNotFound() {
+		services.submitSnapshotJob(6);
+	}
+	
+	@Test(expected = SnapshotJobNotFoundException.class)
+	public void testSnapshotJobNotFound() {
+		services.getSnapshotJob("unknown");
+	}
+	
 	@Test
 	public void testDeleteSnapshot() {
 		
@@ -300,9 +474,17 @@ public class ServicesTest {
 	@Test
 	public void testDeleteFolder() {
 			
+		when(configDAO.deleteNode(1)).thenReturn(Arrays.asList(2, 3));
+		snapshotCache.get(100, id -> Snapshot.builder().id(100).configId(2).build());
+		snapshotCache.get(101, id -> Snapshot.builder().id(101).configId(4).build());
+		
 		services.deleteNode(1);
 		
 		verify(configDAO, atLeast(1)).deleteNode(1);
+		// Only the snapshots of the deleted configurations are evicted
+		assertNull(snapshotCache.get(100, id -> null));
+		assertNotNull(snapshotCache.get(101, id -> null));
+		snapshotCache.evictSnapshot(101);
 		
 		reset(configDAO);
 	}
@@ -327,4 +509,155 @@ public class ServicesTest {
 		reset(configDAO);
 	}
 	
+	@Test
+	public void testGetFolderTree() {
+		
+		services.getFolderTree(1, null, true);
+		
+		verify(configDAO, atLeast(1)).getFolderTree(1, Integer.MAX_VALUE, true);
+		
+		reset(configDAO);
+	}
+	
+	@Test
+	public void testTakeScheduledSnapshot() throws Exception {
+		
+		when(configDAO.getConfiguration(1)).thenReturn(configFromClient);
+		when(epicsServices.getPv(any(ConfigPv.class))).thenReturn(mock(SnapshotPv.class));
+		when(configDAO.savePreliminarySnapshot(any(Snapshot.class))).thenReturn(Snapshot.builder().id(277).build());
+		when(snapshotDAO.getSnapshot(277, true)).thenReturn(Snapshot.builder().id(277).build());
+		
+		assertEquals(277, services.takeScheduledSnapshot(1, "operator", "Daily").getId());
+		verify(snapshotDAO, times(1)).commitSnapshot(277, "operator", "Daily");
+		
+		reset(configDAO, snapshotDAO, epicsServices);
+	}
+	
+	@Test
+	public void testCreateSnapshotSchedule() {
+		
+		when(configDAO.getConfiguration(1)).thenReturn(configFromClient);
+		when(snapshotScheduleDAO.createSchedule(any(SnapshotSchedule.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		
+		SnapshotSchedule schedule = new SnapshotSchedule();
+		schedule.setConfigId(1);
+		schedule.setCron("0 0 6 * * *");
+		schedule.setUserName("operator");
+		schedule.setCommentTemplate("Daily {time}");
+		
+		Date before = new Date();
+		schedule = services.createSnapshotSchedule(schedule);
+		assertTrue(schedule.getNextRun().after(before));
+		
+		schedule.setCron("0 0 6 * *");
+		try {
+			services.createSnapshotSchedule(schedule);
+			fail("IllegalArgumentException expected here.");
+		} catch (IllegalArgumentException e) {
+			// Expected = OK
+		}
+		
+		reset(configDAO, snapshotScheduleDAO);
+	}
+	
+	@Test(expected = SnapshotScheduleNotFoundException.class)
+	public void testDeleteSnapshotScheduleNotFound() {
+		
+		services.deleteSnapshotSchedule(1);
+	}
+	
+	@Test
+	public void testCreateSnapshotTrigger() {
+		
+		when(configDAO.getConfiguration(1)).thenReturn(configFromClient);
+		when(snapshotTriggerDAO.createTrigger(any(SnapshotTrigger.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		
+		SnapshotTrigger trigger = new SnapshotTrigger();
+		trigger.setConfigId(1);
+		trigger.setGroupName("groupname");
+		trigger.setCondition(Condition.SEVERITY);
+		trigger.setUserName("operator");
+		trigger.setCommentTemplate("{pv} in alarm");
+		assertSame(trigger, services.createSnapshotTrigger(trigger));
+		
+		// Both a PV and a group
+		trigger.setPvName("pvName");
+		try {
+			services.createSnapshotTrigger(trigger);
+			fail("IllegalArgumentException expected here.");
+		} catch (IllegalArgumentException e) {
+			// Expected = OK
+		}
+		
+		trigger.setGroupName(null);
+		trigger.setCondition(Condition.EQUALS);
+		try {
+			services.createSnapshotTrigger(trigger);
+			fail("IllegalArgumentException expected here.");
+		} catch (IllegalArgumentException e) {
+			// Expected = OK
+		}
+		
+		reset(configDAO, snapshotTriggerDAO);
+	}
+	
+	@Test(expected = SnapshotTriggerNotFoundException.class)
+	public void testDeleteSnapshotTriggerNotFound() {
+		
+		services.deleteSnapshotTrigger(1);
+	}
+	
+	@Test
+	public void testSetDriftReference() {
+		
+		when(snapshotDAO.getSnapshotHeader(2, true)).thenReturn(Snapshot.builder().id(2).configId(1).build());
+		when(driftReferenceDAO.setReference(any(DriftReference.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		
+		DriftReference reference = new DriftReference();
+		reference.setConfigId(1);
+		reference.setSnapshotId(2);
+		reference.getTolerances().put("pvName", 0.5);
+		
+		assertSame(reference, services.setDriftReference(reference));
+		
+		reference.getTolerances().put("pvName", -0.5);
+		try {
+			services.setDriftReference(reference);
+			fail("IllegalArgumentException expected here.");
+		} catch (IllegalArgumentException e) {
+			// Expected = OK
+		}
+		
+		// Snapshot of another configuration
+		reference.getTolerances().clear();
+		reference.setConfigId(3);
+		try {
+			services.setDriftReference(reference);
+			fail("IllegalArgumentException expected here.");
+		} catch (IllegalArgumentException e) {
+			// Expected = OK
+		}
+		
+		reference.setSnapshotId(4);
+		try {
+			services.setDriftReference(reference);
+			fail("SnapshotNotFoundException expected here.");
+		} catch (SnapshotNotFoundException e) {
+			// Expected = OK
+		}
+		
+		reset(snapshotDAO, driftReferenceDAO);
+	}
+	
+	@Test(expected = DriftReferenceNotFoundException.class)
+	public void testGetDriftReferenceNotFound() {
+		
+		services.getDriftReference(1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetDriftNotEnabled() {
+		
+		services.getDrift(1);
+	}
 }
@@ -0,0 +1,122 @@
+package se.esss.ics.masar.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+
+public class SnapshotCacheTest {
+
+	@Test
+	public void testReadThrough() {
+
+		SnapshotCache snapshotCache = new SnapshotCache(1024 * 1024);
+		AtomicInteger loads = new AtomicInteger();
+		Snapshot snapshot = snapshot(1, 10);
+
+		assertSame(snapshot, snapshotCache.get(1, id -> {
+			loads.incrementAndGet();
+			return snapshot;
+		}));
+		assertSame(snapshot, snapshotCache.get(1, id -> {
+			loads.incrementAndGet();
+			return snapshot;
+		}));
+		assertEquals(1, loads.get());
+
+		// Missing snapshots are not cached
+		assertNull(snapshotCache.get(2, id -> null));
+		assertSame(snapshot, snapshotCache.get(2, id -> snapshot));
+
+		snapshotCache.evictSnapshot(1);
+		snapshotCache.get(1, id -> {
+			loads.incrementAndGet();
+			return snapshot;
+		});
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testEvictConfigurations() {
+
+		SnapshotCache snapshotCache = new SnapshotCache(1024 * 1024);
+		snapshotCache.get(1, id -> snapshot(1, 10));
+		snapshotCache.get(2, id -> snapshot(2, 11));
+		snapshotCache.get(3, id -> snapshot(3, 12));
+
+		snapshotCache.evictConfigurations(Arrays.asList(10));
+		assertNull(snapshotCache.get(1, id -> null));
+		assertEquals(2, snapshotCache.get(2, id -> null).getId());
+
+		// A folder without configurations leaves the cache as is
+		snapshotCache.evictConfigurations(Collections.emptyList());
+		assertEquals(2, snapshotCache.get(2, id -> null).getId());
+
+		// A folder containing configuration 11
+		snapshotCache.evictConfigurations(Arrays.asList(11, 13));
+		assertNull(snapshotCache.get(2, id -> null));
+		assertEquals(3, snapshotCache.get(3, id -> null).getId());
+	}
+
+	@Test
+	public void testEvictAfterCommit() {
+
+		SnapshotCache snapshotCache = new SnapshotCache(1024 * 1024);
+		snapshotCache.get(1, id -> snapshot(1, 10));
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			snapshotCache.evictConfigurations(Arrays.asList(10));
+			assertEquals(1, snapshotCache.get(1, id -> null).getId());
+
+			TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+			assertNull(snapshotCache.get(1, id -> null));
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	public void testSizeOf() {
+
+		Snapshot small = snapshot(1, 10);
+		Snapshot large = Snapshot.builder().id(1).configId(10)
+				.snapshotPvList(Arrays.asList(SnapshotPv.<double[]>builder().value(new double[1000]).build())).build();
+
+		assertTrue(SnapshotCache.sizeOf(large) - SnapshotCache.sizeOf(small) >= 8000);
+	}
+
+	@Test
+	public void testMetrics() {
+
+		SnapshotCache snapshotCache = new SnapshotCache(1024 * 1024);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		snapshotCache.bindTo(registry);
+
+		snapshotCache.get(1, id -> snapshot(1, 10));
+		snapshotCache.get(1, id -> snapshot(1, 10));
+
+		assertEquals(0.5, registry.get("masar.snapshot.cache.hit.ratio").gauge().value(), 0.0);
+		assertTrue(registry.get("masar.snapshot.cache.size").gauge().value() > 0);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Snapshot snapshot(int id, int configId) {
+		SnapshotPv snapshotPv = SnapshotPv.builder().value(7.7).configPv(ConfigPv.builder().pvName("pv").build())
+				.build();
+		return Snapshot.builder().id(id).configId(configId).snapshotPvList(Arrays.asList(snapshotPv)).build();
+	}
+}
@@ -0,0 +1,155 @@
+package se.esss.ics.masar.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+
+public class SnapshotCoalescerTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+	private final AtomicInteger reads = new AtomicInteger();
+	private final AtomicInteger writes = new AtomicInteger();
+	private final CountDownLatch reading = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final List<SnapshotPv<?>> values = Collections.<SnapshotPv<?>>singletonList(SnapshotPv.builder().value(7.7).build());
+
+	private final Supplier<List<SnapshotPv<?>>> blockingReader = () -> {
+		reads.incrementAndGet();
+		reading.countDown();
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return values;
+	};
+
+	private final Supplier<List<SnapshotPv<?>>> reader = () -> {
+		reads.incrementAndGet();
+		return values;
+	};
+
+	private final Function<List<SnapshotPv<?>>, Snapshot> writer = snapshotPvs -> Snapshot.builder()
+			.id(writes.incrementAndGet()).snapshotPvList(snapshotPvs).build();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSeparateSnapshots() throws Exception {
+
+		SnapshotCoalescer coalescer = new SnapshotCoalescer(60000, false);
+		Snapshot[] snapshots = takeConcurrently(coalescer);
+
+		assertEquals(1, reads.get());
+		assertEquals(2, writes.get());
+		assertNotEquals(snapshots[0].getId(), snapshots[1].getId());
+		assertSame(snapshots[0].getSnapshotPvList(), snapshots[1].getSnapshotPvList());
+		assertEquals(1, coalescer.getCoalescedCount());
+	}
+
+	@Test
+	public void testSharedSnapshot() throws Exception {
+
+		SnapshotCoalescer coalescer = new SnapshotCoalescer(60000, true);
+		Snapshot[] snapshots = takeConcurrently(coalescer);
+
+		assertEquals(1, reads.get());
+		assertEquals(1, writes.get());
+		assertSame(snapshots[0], snapshots[1]);
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+
+		SnapshotCoalescer coalescer = new SnapshotCoalescer(60000, false);
+		coalescer.takeSnapshot(1, reader, writer);
+		coalescer.takeSnapshot(1, reader, writer);
+		coalescer.takeSnapshot(2, reader, writer);
+		assertEquals(2, reads.get());
+
+		coalescer = new SnapshotCoalescer(1, false);
+		coalescer.takeSnapshot(1, reader, writer);
+		Thread.sleep(10);
+		coalescer.takeSnapshot(1, reader, writer);
+		assertEquals(4, reads.get());
+	}
+
+	@Test
+	public void testDisabled() {
+
+		SnapshotCoalescer coalescer = new SnapshotCoalescer(0, true);
+		coalescer.takeSnapshot(1, reader, writer);
+		coalescer.takeSnapshot(1, reader, writer);
+		assertEquals(2, reads.get());
+		assertEquals(2, writes.get());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+
+		SnapshotCoalescer coalescer = new SnapshotCoalescer(60000, false);
+		CompletableFuture<Snapshot> first = CompletableFuture.supplyAsync(() -> coalescer.takeSnapshot(1, () -> {
+			blockingReader.get();
+			throw new IllegalStateException("Read failure");
+		}, writer), executor);
+		reading.await(10, TimeUnit.SECONDS);
+		CompletableFuture<Snapshot> second = CompletableFuture.supplyAsync(() -> coalescer.takeSnapshot(1, reader, writer), executor);
+		awaitCoalesced(coalescer);
+		release.countDown();
+
+		for (CompletableFuture<Snapshot> future : Arrays.asList(first, second)) {
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("Expected failure");
+			} catch (ExecutionException e) {
+				assertEquals("Read failure", e.getCause().getMessage());
+			}
+		}
+
+		// The failed acquisition is not reused
+		coalescer.takeSnapshot(1, reader, writer);
+		assertEquals(2, reads.get());
+	}
+
+	private Snapshot[] takeConcurrently(SnapshotCoalescer coalescer) throws Exception {
+
+		CompletableFuture<Snapshot> first = CompletableFuture.supplyAsync(() -> coalescer.takeSnapshot(1, blockingReader, writer), executor);
+		reading.await(10, TimeUnit.SECONDS);
+		CompletableFuture<Snapshot> second = CompletableFuture.supplyAsync(() -> coalescer.takeSnapshot(1, reader, writer), executor);
+		awaitCoalesced(coalescer);
+		release.countDown();
+
+		return new Snapshot[] { first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS) };
+	}
+
+	private void awaitCoalesced(SnapshotCoalescer coalescer) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (coalescer.getCoalescedCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package se.esss.ics.masar.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotScheduleDAO;
+import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.exception.ConfigNotFoundException;
+
+public class SnapshotSchedulerTest {
+
+	private SnapshotScheduleDAO snapshotScheduleDAO;
+	private LeaseDAO leaseDAO;
+	private IServices services;
+	private List<Runnable> runs;
+	private SnapshotScheduler snapshotScheduler;
+	private SnapshotSchedule schedule;
+
+	@Before
+	public void setUp() {
+		snapshotScheduleDAO = mock(SnapshotScheduleDAO.class);
+		leaseDAO = mock(LeaseDAO.class);
+		services = mock(IServices.class);
+		runs = new ArrayList<>();
+		snapshotScheduler = new SnapshotScheduler(snapshotScheduleDAO, leaseDAO, services, runs::add, 1000, 5000, 60000);
+
+		schedule = new SnapshotSchedule();
+		schedule.setId(3);
+		schedule.setConfigId(7);
+		schedule.setCron("0 0 6 * * *");
+		schedule.setUserName("operator");
+		schedule.setCommentTemplate("Schedule {schedule} of {config}");
+		when(snapshotScheduleDAO.getDueSchedules(any(Date.class))).thenReturn(Arrays.asList(schedule));
+	}
+
+	@Test
+	public void testRun() {
+
+		when(leaseDAO.acquireLease(eq(SnapshotScheduler.LEASE_NAME), anyString(), any(Date.class),
+				any(Date.class))).thenReturn(true);
+		when(snapshotScheduleDAO.claimRun(eq(3), any(Date.class), any(Date.class))).thenReturn(true);
+		when(services.takeScheduledSnapshot(7, "operator", "Schedule 3 of 7")).thenReturn(Snapshot.builder().id(11).build());
+
+		snapshotScheduler.poll();
+		assertTrue(snapshotScheduler.isLeader());
+		assertEquals(1, runs.size());
+		runs.get(0).run();
+
+		verify(snapshotScheduleDAO).finishRun(eq(3), any(Date.class), any(Date.class), eq(11), isNull());
+	}
+
+	@Test
+	public void testRunFailed() {
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		snapshotScheduler.bindTo(registry);
+		when(leaseDAO.acquireLease(eq(SnapshotScheduler.LEASE_NAME), anyString(), any(Date.class),
+				any(Date.class))).thenReturn(true);
+		when(snapshotScheduleDAO.claimRun(eq(3), any(Date.class), any(Date.class))).thenReturn(true);
+		when(services.takeScheduledSnapshot(anyInt(), anyString(), anyString()))
+				.thenThrow(new ConfigNotFoundException("Not found"));
+
+		snapshotScheduler.poll();
+		runs.get(0).run();
+
+		verify(snapshotScheduleDAO).finishRun(eq(3), any(Date.class), any(Date.class), isNull(), eq("Not found"));
+		assertEquals(1, registry.get("masar.scheduler.runs").tag("outcome", "failure").functionCounter().count(), 0);
+	}
+
+	@Test
+	public void testNotLeader() {
+
+		snapshotScheduler.poll();
+
+		assertFalse(snapshotScheduler.isLeader());
+		verify(snapshotScheduleDAO, never()).getDueSchedules(any(Date.class));
+		assertTrue(runs.isEmpty());
+	}
+
+	@Test
+	public void testPreviousRunInProgress() {
+
+		when(leaseDAO.acquireLease(eq(SnapshotScheduler.LEASE_NAME), anyString(), any(Date.class),
+				any(Date.class))).thenReturn(true);
+		when(snapshotScheduleDAO.claimRun(eq(3), any(Date.class), any(Date.class))).thenReturn(true);
+
+		snapshotScheduler.poll();
+		// Not claimed again while the run started by this instance is in progress
+		snapshotScheduler.poll();
+		assertEquals(1, runs.size());
+
+		// Nor while claimed by another instance
+		when(snapshotScheduleDAO.claimRun(eq(3), any(Date.class), any(Date.class))).thenReturn(false);
+		runs.get(0).run();
+		snapshotScheduler.poll();
+		assertEquals(1, runs.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCron() {
+		SnapshotScheduler.getNextRun("0 6 * * *", new Date());
+	}
+}
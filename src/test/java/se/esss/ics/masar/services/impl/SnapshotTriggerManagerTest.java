@@ -0,0 +1,177 @@
+package se.esss.ics.masar.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.esss.ics.masar.epics.FakeEpicsService;
+import se.esss.ics.masar.model.Config;
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.LeaseDAO;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+import se.esss.ics.masar.persistence.dao.SnapshotTriggerDAO;
+import se.esss.ics.masar.services.IServices;
+
+public class SnapshotTriggerManagerTest {
+
+	private SnapshotTriggerDAO snapshotTriggerDAO;
+	private LeaseDAO leaseDAO;
+	private IServices services;
+	private FakeEpicsService epicsService;
+	private SnapshotTriggerManager snapshotTriggerManager;
+
+	@Before
+	public void setUp() {
+		snapshotTriggerDAO = mock(SnapshotTriggerDAO.class);
+		leaseDAO = mock(LeaseDAO.class);
+		services = mock(IServices.class);
+		epicsService = new FakeEpicsService();
+		snapshotTriggerManager = new SnapshotTriggerManager(snapshotTriggerDAO, leaseDAO, services,
+				epicsService, Runnable::run, 1000, 5000, 2);
+		when(leaseDAO.acquireLease(eq(SnapshotTriggerManager.LEASE_NAME), anyString(), any(Date.class),
+				any(Date.class))).thenReturn(true);
+		when(services.takeScheduledSnapshot(anyInt(), anyString(), anyString())).thenReturn(Snapshot.builder().id(11).build());
+	}
+
+	@After
+	public void tearDown() {
+		snapshotTriggerManager.stop();
+	}
+
+	@Test
+	public void testEquals() {
+
+		SnapshotTrigger trigger = trigger(1, Condition.EQUALS);
+		trigger.setPvName("ACC:BEAM:MODE");
+		trigger.setValue("Production");
+		when(snapshotTriggerDAO.getEnabledTriggers()).thenReturn(Arrays.asList(trigger));
+
+		snapshotTriggerManager.poll();
+		assertEquals(Arrays.asList("ACC:BEAM:MODE"), snapshotTriggerManager.getMonitoredPvNames());
+
+		// The initial value does not fire
+		event("ACC:BEAM:MODE", "Production", 0);
+		event("ACC:BEAM:MODE", "Tuning", 0);
+		event("ACC:BEAM:MODE", "Production", 0);
+
+		verify(services, timeout(5000)).takeScheduledSnapshot(7, "operator", "ACC:BEAM:MODE is Production");
+		verify(snapshotTriggerDAO, timeout(5000)).triggerFired(eq(1), any(Date.class), eq(11), isNull());
+	}
+
+	@Test
+	public void testSeverityOfGroup() {
+
+		SnapshotTrigger trigger = trigger(2, Condition.SEVERITY);
+		trigger.setGroupName("RF");
+		trigger.setMinIntervalSeconds(0);
+		when(snapshotTriggerDAO.getEnabledTriggers()).thenReturn(Arrays.asList(trigger));
+		when(services.getConfiguration(7)).thenReturn(Config.builder().configPvList(Arrays.asList(
+				ConfigPv.builder().pvName("RF1").groupname("RF").build(),
+				ConfigPv.builder().pvName("RF2").groupname("RF").build(),
+				ConfigPv.builder().pvName("MAG1").groupname("Magnets").build())).build());
+
+		snapshotTriggerManager.poll();
+		assertEquals(Arrays.asList("RF1", "RF2"), snapshotTriggerManager.getMonitoredPvNames());
+
+		event("RF1", 1.0, 0);
+		event("RF2", 1.0, 0);
+		event("RF2", 1.0, 1);
+		event("RF2", 1.0, 2);
+		verify(services, timeout(5000)).takeScheduledSnapshot(7, "operator", "RF2 is 1.0");
+		// Still in alarm
+		event("RF2", 2.0, 3);
+		event("RF1", 1.0, 3);
+		verify(services, timeout(5000)).takeScheduledSnapshot(7, "operator", "RF1 is 1.0");
+	}
+
+	@Test
+	public void testRateLimit() throws InterruptedException {
+
+		SnapshotTrigger trigger = trigger(3, Condition.CHANGES);
+		trigger.setPvName("PV");
+		when(snapshotTriggerDAO.getEnabledTriggers()).thenReturn(Arrays.asList(trigger));
+
+		snapshotTriggerManager.poll();
+		event("PV", 1.0, 0);
+		event("PV", 2.0, 0);
+		verify(services, timeout(5000)).takeScheduledSnapshot(anyInt(), anyString(), anyString());
+		// Within the minimum interval of the trigger
+		event("PV", 3.0, 0);
+		Thread.sleep(200);
+		verify(services, times(1)).takeScheduledSnapshot(anyInt(), anyString(), anyString());
+	}
+
+	@Test
+	public void testDebounce() throws InterruptedException {
+
+		SnapshotTrigger trigger = trigger(4, Condition.EQUALS);
+		trigger.setPvName("PV");
+		trigger.setValue("1");
+		trigger.setDebounceMillis(200);
+		when(snapshotTriggerDAO.getEnabledTriggers()).thenReturn(Arrays.asList(trigger));
+
+		snapshotTriggerManager.poll();
+		event("PV", 0.0, 0);
+		// Flaps back within the debounce time
+		event("PV", 1.0, 0);
+		event("PV", 0.0, 0);
+		Thread.sleep(400);
+		verify(services, times(0)).takeScheduledSnapshot(anyInt(), anyString(), anyString());
+
+		event("PV", 1.0, 0);
+		verify(services, timeout(5000)).takeScheduledSnapshot(anyInt(), anyString(), anyString());
+	}
+
+	@Test
+	public void testLeaseLost() {
+
+		SnapshotTrigger trigger = trigger(5, Condition.CHANGES);
+		trigger.setPvName("PV");
+		when(snapshotTriggerDAO.getEnabledTriggers()).thenReturn(Arrays.asList(trigger));
+
+		snapshotTriggerManager.poll();
+		assertTrue(snapshotTriggerManager.isLeader());
+
+		when(leaseDAO.acquireLease(eq(SnapshotTriggerManager.LEASE_NAME), anyString(), any(Date.class),
+				any(Date.class))).thenReturn(false);
+		snapshotTriggerManager.poll();
+		assertFalse(snapshotTriggerManager.isLeader());
+		assertEquals(Collections.emptyList(), snapshotTriggerManager.getMonitoredPvNames());
+		assertEquals(Arrays.asList("PV"), epicsService.getClosed());
+	}
+
+	private SnapshotTrigger trigger(int id, Condition condition) {
+		SnapshotTrigger trigger = new SnapshotTrigger();
+		trigger.setId(id);
+		trigger.setConfigId(7);
+		trigger.setCondition(condition);
+		trigger.setUserName("operator");
+		trigger.setCommentTemplate("{pv} is {value}");
+		return trigger;
+	}
+
+	private void event(String pvName, Object value, int severity) {
+		epicsService.post(pvName, SnapshotPv.builder().value(value).severity(severity).fetchStatus(true).build());
+	}
+}
@@ -1,15 +1,22 @@
 package se.esss.ics.masar.web.controllers;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import org.junit.Before;
@@ -18,6 +25,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.ContextHierarchy;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -35,9 +43,20 @@ import se.esss.ics.masar.model.Folder;
 import se.esss.ics.masar.model.Node;
 import se.esss.ics.masar.model.Snapshot;
 import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.DriftReference;
+import se.esss.ics.masar.persistence.dao.NodeVersion;
+import se.esss.ics.masar.persistence.dao.SnapshotQuery;
+import se.esss.ics.masar.persistence.dao.SnapshotSchedule;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger;
+import se.esss.ics.masar.persistence.dao.SnapshotTrigger.Condition;
+import se.esss.ics.masar.services.DriftReport;
+import se.esss.ics.masar.services.DriftReport.DriftedPv;
 import se.esss.ics.masar.services.IServices;
 import se.esss.ics.masar.services.exception.ConfigNotFoundException;
+import se.esss.ics.masar.services.exception.DriftReferenceNotFoundException;
 import se.esss.ics.masar.services.exception.NodeNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotScheduleNotFoundException;
+import se.esss.ics.masar.services.exception.SnapshotTriggerNotFoundException;
 import se.esss.ics.masar.web.config.ControllersTestConfig;
 import springfox.documentation.spring.web.plugins.Docket;
 
@@ -169,6 +188,36 @@ public class ConfigurationControllerTest {
 		});
 	}
 
+	@Test
+	public void testGetSnapshotsPaginated() throws Exception {
+
+		Snapshot snapshot = Snapshot.builder().id(3).created(new Date()).build();
+		when(services.getSnapshots(Mockito.eq(1), Mockito.any(SnapshotQuery.class)))
+				.thenReturn(Arrays.asList(snapshot));
+
+		MockHttpServletRequestBuilder request = get("/config/1/snapshots?limit=1&user=user");
+
+		MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON))
+				.andReturn();
+
+		String link = result.getResponse().getHeader("Link");
+		assertTrue(link.contains("cursor=" + SnapshotQuery.cursorOf(snapshot)));
+		assertTrue(link.endsWith("rel=\"next\""));
+
+		request = get("/config/1/snapshots?limit=2");
+
+		result = mockMvc.perform(request).andExpect(status().isOk()).andReturn();
+
+		assertNull(result.getResponse().getHeader("Link"));
+	}
+
+	@Test
+	public void testGetSnapshotsInvalidLimit() throws Exception {
+
+		mockMvc.perform(get("/config/1/snapshots?limit=0")).andExpect(status().isBadRequest());
+		mockMvc.perform(get("/config/1/snapshots?limit=-1")).andExpect(status().isBadRequest());
+	}
+
 	@Test
 	public void testGetSnapshotsForNonExistingConfig() throws Exception {
 
@@ -206,6 +255,49 @@ public class ConfigurationControllerTest {
 		objectMapper.readValue(result.getResponse().getContentAsString(), Folder.class);
 	}
 
+	@Test
+	public void testGetFolderNotModified() throws Exception {
+		when(services.getNodeVersion(5)).thenReturn(new NodeVersion("abc", new Date(1000000)));
+		when(services.getFolder(5)).thenReturn(Folder.builder().id(5).build());
+
+		MvcResult result = mockMvc.perform(get("/folder/5")).andExpect(status().isOk())
+				.andExpect(header().exists(HttpHeaders.ETAG)).andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+				.andReturn();
+		String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get("/folder/5").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+		verify(services, times(1)).getFolder(5);
+
+		// The ETag depends on the node version
+		when(services.getNodeVersion(5)).thenReturn(new NodeVersion("abcd", new Date(1000000)));
+		mockMvc.perform(get("/folder/5").header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isOk());
+
+		mockMvc.perform(get("/folder/5").header(HttpHeaders.IF_MODIFIED_SINCE, 
+				result.getResponse().getHeader(HttpHeaders.LAST_MODIFIED))).andExpect(status().isNotModified());
+
+		Mockito.reset(services);
+	}
+
+	@Test
+	public void testGetFolderTreeNotModified() throws Exception {
+		when(services.getFolderTreeVersion(5, 2)).thenReturn(new NodeVersion("abc", new Date(1000000)));
+		when(services.getFolderTree(5, 2, true)).thenReturn(Folder.builder().id(5).build());
+
+		String etag = mockMvc.perform(get("/folder/5/tree").param("depth", "2")).andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get("/folder/5/tree").param("depth", "2").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		// Other parameters select another representation
+		when(services.getFolderTree(5, 2, false)).thenReturn(Folder.builder().id(5).build());
+		mockMvc.perform(get("/folder/5/tree").param("depth", "2").param("includePvs", "false")
+				.header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isOk());
+
+		Mockito.reset(services);
+	}
+
 	@Test
 	public void testGetConfiguration() throws Exception {
 		when(services.getConfiguration(1)).thenReturn(Config.builder().build());
@@ -320,4 +412,162 @@ public class ConfigurationControllerTest {
 		objectMapper.readValue(result.getResponse().getContentAsString(), Node.class);
 		
 	}
+
+	@Test
+	public void testGetFolderTree() throws Exception {
+		when(services.getFolderTree(1, 2, false)).thenReturn(Folder.builder().id(1)
+				.childNodes(Arrays.asList(Folder.builder().id(2).build())).build());
+
+		MockHttpServletRequestBuilder request = get("/folder/1/tree?depth=2&includePvs=false");
+
+		MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON))
+				.andReturn();
+
+		// Make sure response contains expected data
+		objectMapper.readValue(result.getResponse().getContentAsString(), Folder.class);
+	}
+
+	@Test
+	public void testGetNodesByPath() throws Exception {
+		Node node = new Node();
+		node.setId(3);
+		when(services.getNodesByPath("Linac/RF/Cavity-3")).thenReturn(Arrays.asList(node));
+
+		MockHttpServletRequestBuilder request = get("/path/Linac/RF/Cavity-3");
+
+		MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON))
+				.andReturn();
+
+		// Make sure response contains expected data
+		objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<Node>>() {
+		});
+	}
+
+	@Test
+	public void testGetNodePath() throws Exception {
+		when(services.getNodePath(1)).thenReturn(Arrays.asList(new Node(), new Node()));
+
+		MockHttpServletRequestBuilder request = get("/node/1/path");
+
+		MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON))
+				.andReturn();
+
+		// Make sure response contains expected data
+		objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<Node>>() {
+		});
+	}
+
+	@Test
+	public void testCreateSnapshotSchedule() throws Exception {
+
+		SnapshotSchedule schedule = new SnapshotSchedule();
+		schedule.setCron("0 0 6 * * *");
+		schedule.setUserName("operator");
+		schedule.setCommentTemplate("Daily {time}");
+
+		SnapshotSchedule savedSchedule = new SnapshotSchedule();
+		savedSchedule.setId(7);
+		savedSchedule.setConfigId(1);
+		savedSchedule.setNextRun(new Date());
+		when(services.createSnapshotSchedule(Mockito.argThat(s -> s.getConfigId() == 1 && "operator".equals(s.getUserName()))))
+				.thenReturn(savedSchedule);
+
+		MockHttpServletRequestBuilder request = put("/config/1/schedule").contentType(JSON)
+				.content(objectMapper.writeValueAsString(schedule));
+
+		MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON))
+				.andReturn();
+
+		assertEquals(7, objectMapper.readValue(result.getResponse().getContentAsString(), SnapshotSchedule.class).getId());
+	}
+
+	@Test
+	public void testGetSnapshotSchedules() throws Exception {
+		when(services.getSnapshotSchedules(1)).thenReturn(Arrays.asList(new SnapshotSchedule()));
+
+		MockHttpServletRequestBuilder request = get("/config/1/schedules");
+
+		MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON))
+				.andReturn();
+
+		// Make sure response contains expected data
+		objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<SnapshotSchedule>>() {
+		});
+	}
+
+	@Test
+	public void testDeleteSnapshotSchedule() throws Exception {
+		Mockito.doThrow(new SnapshotScheduleNotFoundException("")).when(services).deleteSnapshotSchedule(2);
+
+		mockMvc.perform(delete("/schedule/1")).andExpect(status().isOk());
+		verify(services, times(1)).deleteSnapshotSchedule(1);
+
+		mockMvc.perform(delete("/schedule/2")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void testSnapshotTriggers() throws Exception {
+
+		SnapshotTrigger trigger = new SnapshotTrigger();
+		trigger.setPvName("ACC:BEAM:MODE");
+		trigger.setCondition(Condition.EQUALS);
+		trigger.setValue("Production");
+		trigger.setUserName("operator");
+		trigger.setCommentTemplate("{pv} changed to {value}");
+		when(services.createSnapshotTrigger(Mockito.argThat(t -> t.getConfigId() == 1 && t.getCondition() == Condition.EQUALS)))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+
+		MvcResult result = mockMvc.perform(put("/config/1/trigger").contentType(JSON)
+				.content(objectMapper.writeValueAsString(trigger))).andExpect(status().isOk())
+				.andExpect(content().contentType(JSON)).andReturn();
+		assertEquals("Production", objectMapper.readValue(result.getResponse().getContentAsString(), SnapshotTrigger.class).getValue());
+
+		when(services.getSnapshotTriggers(1)).thenReturn(Arrays.asList(trigger));
+		result = mockMvc.perform(get("/config/1/triggers")).andExpect(status().isOk())
+				.andExpect(content().contentType(JSON)).andReturn();
+		objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<SnapshotTrigger>>() {
+		});
+
+		Mockito.doThrow(new SnapshotTriggerNotFoundException("")).when(services).deleteSnapshotTrigger(2);
+		mockMvc.perform(delete("/trigger/1")).andExpect(status().isOk());
+		mockMvc.perform(delete("/trigger/2")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void testDriftReference() throws Exception {
+
+		DriftReference reference = new DriftReference();
+		reference.setSnapshotId(2);
+		reference.getTolerances().put("pv1", 0.5);
+		when(services.setDriftReference(Mockito.argThat(r -> r.getConfigId() == 1 && r.getSnapshotId() == 2)))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+
+		MvcResult result = mockMvc.perform(put("/config/1/reference").contentType(JSON)
+				.content(objectMapper.writeValueAsString(reference))).andExpect(status().isOk())
+				.andExpect(content().contentType(JSON)).andReturn();
+		assertEquals(0.5, objectMapper.readValue(result.getResponse().getContentAsString(), DriftReference.class)
+				.getTolerance("pv1"), 0.0);
+
+		Mockito.doThrow(new DriftReferenceNotFoundException("")).when(services).getDriftReference(2);
+		mockMvc.perform(get("/config/2/reference")).andExpect(status().isNotFound());
+
+		Mockito.doThrow(new DriftReferenceNotFoundException("")).when(services).deleteDriftReference(2);
+		mockMvc.perform(delete("/config/1/reference")).andExpect(status().isOk());
+		mockMvc.perform(delete("/config/2/reference")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void testGetDrift() throws Exception {
+
+		when(services.getDrift(1)).thenReturn(new DriftReport(1, 2, 10, 9,
+				Arrays.asList(new DriftedPv("pv1", 1.0, 1.5, 0.5, 0.1, new Date()))));
+
+		MvcResult result = mockMvc.perform(get("/config/1/drift")).andExpect(status().isOk())
+				.andExpect(content().contentType(JSON)).andReturn();
+		assertEquals("pv1", objectMapper.readTree(result.getResponse().getContentAsString()).get("driftedPvs").get(0)
+				.get("pvName").asText());
+
+		Mockito.doThrow(new DriftReferenceNotFoundException("")).when(services).getDrift(2);
+		mockMvc.perform(get("/config/2/drift")).andExpect(status().isNotFound());
+	}
 }
@@ -0,0 +1,125 @@
+/** 
+ * Copyright (C) ${year} European Spallation Source ERIC.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.esss.ics.masar.web.controllers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import se.esss.ics.masar.model.ConfigPv;
+import se.esss.ics.masar.model.Snapshot;
+import se.esss.ics.masar.model.SnapshotPv;
+
+/**
+ * JMH benchmark of the representations of a snapshot holding numeric waveforms, as negotiated by the Accept header.
+ * Measures serialization on the server and parsing on the client. The payload size of each format is printed
+ * during setup.
+ * 
+ * Run the main method from the IDE, or with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=se.esss.ics.masar.web.controllers.SerializationFormatBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SerializationFormatBenchmark {
+
+	@Param({ "json", "cbor", "smile" })
+	private String format;
+
+	@Param({ "1000" })
+	private int pvCount;
+
+	@Param({ "1000" })
+	private int waveformLength;
+
+	private ObjectMapper objectMapper;
+
+	private Snapshot snapshot;
+
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void setup() throws IOException {
+
+		switch (format) {
+		case "cbor":
+			objectMapper = new ObjectMapper(new CBORFactory());
+			break;
+		case "smile":
+			objectMapper = new ObjectMapper(new SmileFactory());
+			break;
+		default:
+			objectMapper = new ObjectMapper();
+		}
+
+		List<SnapshotPv<?>> snapshotPvs = new ArrayList<>(pvCount);
+		for (int i = 0; i < pvCount; i++) {
+			double[] waveform = new double[waveformLength];
+			for (int j = 0; j < waveformLength; j++) {
+				waveform[j] = Math.sin(i + j * 0.001);
+			}
+			SnapshotPv snapshotPv = SnapshotPv.builder().dtype(1).fetchStatus(true).severity(0).status(0)
+					.time(System.currentTimeMillis()).timens(0).value(waveform)
+					.configPv(ConfigPv.builder().id(i).pvName("LINAC:RF-" + i + ":Waveform").build()).build();
+			snapshotPvs.add(snapshotPv);
+		}
+		snapshot = Snapshot.builder().id(1).configId(1).comment("benchmark").snapshotPvList(snapshotPvs).build();
+
+		payload = objectMapper.writeValueAsBytes(snapshot);
+		System.out.println(String.format("%n%s payload: %d bytes", format, payload.length));
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		return objectMapper.writeValueAsBytes(snapshot);
+	}
+
+	@Benchmark
+	public Snapshot parse() throws IOException {
+		return objectMapper.readValue(payload, Snapshot.class);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SerializationFormatBenchmark.class.getSimpleName()).build()).run();
+	}
+}
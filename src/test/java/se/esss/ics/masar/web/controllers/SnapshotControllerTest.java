@@ -1,21 +1,35 @@
 package se.esss.ics.masar.web.controllers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.Arrays;
+import java.util.Date;
+import java.util.function.Consumer;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.ContextHierarchy;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -23,13 +37,21 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import se.esss.ics.masar.model.Config;
 import se.esss.ics.masar.model.ConfigPv;
 import se.esss.ics.masar.model.Snapshot;
 import se.esss.ics.masar.model.SnapshotPv;
+import se.esss.ics.masar.persistence.dao.SnapshotPvFilter;
 import se.esss.ics.masar.services.IServices;
+import se.esss.ics.masar.services.SnapshotJob;
+import se.esss.ics.masar.services.SnapshotJobListener;
+import se.esss.ics.masar.services.exception.AdmissionRejectedException;
+import se.esss.ics.masar.services.exception.SnapshotJobNotFoundException;
 import se.esss.ics.masar.services.exception.SnapshotNotFoundException;
 import se.esss.ics.masar.web.config.ControllersTestConfig;
 
@@ -98,6 +120,87 @@ public class SnapshotControllerTest {
 	}
 	
 	
+	@Test
+	public void testTakeSnapshotRejected() throws Exception{
+		
+		when(services.takeSnapshot(5)).thenThrow(new AdmissionRejectedException("Too many snapshots", 3));
+		
+		mockMvc.perform(put("/snapshot/5")).andExpect(status().isTooManyRequests())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"));
+	}
+	
+	@Test
+	public void testTakeSnapshots() throws Exception{
+		
+		when(services.takeSnapshots(Arrays.asList(1, 2))).thenReturn(Arrays.asList(
+				Snapshot.builder().id(21).configId(1).build(), Snapshot.builder().id(22).configId(2).build()));
+		
+		MvcResult result = mockMvc.perform(post("/snapshot/batch").contentType(JSON).content("[1,2]"))
+				.andExpect(status().isOk()).andExpect(content().contentType(JSON)).andReturn();
+		
+		Snapshot[] snapshots = objectMapper.readValue(result.getResponse().getContentAsString(), Snapshot[].class);
+		assertEquals(2, snapshots.length);
+		assertEquals(22, snapshots[1].getId());
+	}
+	
+	@Test
+	public void testTakeSnapshotAsync() throws Exception{
+		
+		SnapshotJob job = new SnapshotJob("job1", 1, 3);
+		when(services.submitSnapshotJob(1)).thenReturn(job);
+		
+		mockMvc.perform(put("/snapshot/1").param("async", "true")).andExpect(status().isAccepted())
+				.andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/snapshot/jobs/job1"));
+		
+		job.started();
+		job.pvRead();
+		job.pvFailed();
+		when(services.getSnapshotJob("job1")).thenReturn(job);
+		
+		MvcResult result = mockMvc.perform(get("/snapshot/jobs/job1")).andExpect(status().isOk())
+				.andExpect(content().contentType(JSON)).andReturn();
+		
+		JsonNode json = objectMapper.readTree(result.getResponse().getContentAsString());
+		assertEquals("RUNNING", json.get("status").asText());
+		assertEquals(1, json.get("read").asInt());
+		assertEquals(1, json.get("failed").asInt());
+		assertEquals(1, json.get("pending").asInt());
+		assertTrue(json.get("snapshotId").isNull());
+		
+		when(services.getSnapshotJob("job2")).thenThrow(new SnapshotJobNotFoundException("Not found"));
+		mockMvc.perform(get("/snapshot/jobs/job2")).andExpect(status().isNotFound());
+	}
+	
+	@Test
+	public void testTakeSnapshotLive() throws Exception{
+		
+		SnapshotJob job = new SnapshotJob("job3", 3, 2);
+		// As reported by the services for a PV read with fetch status false
+		SnapshotPv<?> failedPv = SnapshotPv.builder().fetchStatus(false)
+				.configPv(ConfigPv.builder().pvName("failedPv").build()).build();
+		doAnswer(invocation -> {
+			SnapshotJobListener listener = invocation.getArgument(1);
+			listener.pvRead(snapshotPv);
+			listener.pvFailed(failedPv.getConfigPv(), "PV could not be read");
+			job.completed(8);
+			listener.jobFinished(job);
+			return job;
+		}).when(services).submitSnapshotJob(eq(3), any(SnapshotJobListener.class));
+		
+		MvcResult result = mockMvc.perform(get("/snapshot/3/live")).andExpect(request().asyncStarted())
+				.andReturn();
+		
+		String events = result.getResponse().getContentAsString();
+		assertTrue(events.contains("event:pv\ndata:{"));
+		assertTrue(events.contains("\"timens\":777"));
+		assertTrue(events.contains("event:failed\ndata:{"));
+		assertTrue(events.contains("\"pvName\":\"failedPv\""));
+		// The unreadable PV is not sent as a value
+		assertEquals(events.indexOf("event:pv\n"), events.lastIndexOf("event:pv\n"));
+		assertTrue(events.indexOf("event:job\ndata:{") > events.indexOf("event:failed"));
+		assertTrue(events.contains("\"snapshotId\":8"));
+	}
+	
 	@Test
 	public void testGetSnapshot() throws Exception{
 		
@@ -112,6 +215,110 @@ public class SnapshotControllerTest {
 		objectMapper.readValue(result.getResponse().getContentAsString(), Snapshot.class);
 	}
 	
+	@Test
+	public void testGetSnapshotBinaryFormats() throws Exception{
+		
+		Snapshot waveform = Snapshot.builder().id(10).comment("comment").snapshotPvList(Arrays.asList(SnapshotPv
+				.builder().dtype(1).time(1000L).value(new double[] { 1.5, 2.5 }).build())).build();
+		when(services.getSnapshot(10)).thenReturn(waveform);
+		
+		MvcResult result = mockMvc.perform(get("/snapshot/10").accept("application/cbor"))
+				.andExpect(status().isOk()).andExpect(content().contentType("application/cbor")).andReturn();
+		Snapshot snapshot = new ObjectMapper(new CBORFactory()).readValue(result.getResponse().getContentAsByteArray(),
+				Snapshot.class);
+		assertEquals("comment", snapshot.getComment());
+		assertEquals(Arrays.asList(1.5, 2.5), snapshot.getSnapshotPvList().get(0).getValue());
+		
+		result = mockMvc.perform(get("/snapshot/10").accept("application/x-jackson-smile"))
+				.andExpect(status().isOk()).andExpect(content().contentType("application/x-jackson-smile")).andReturn();
+		snapshot = new ObjectMapper(new SmileFactory()).readValue(result.getResponse().getContentAsByteArray(),
+				Snapshot.class);
+		assertEquals(10, snapshot.getId());
+		
+		// JSON remains the default
+		mockMvc.perform(get("/snapshot/10")).andExpect(content().contentType(JSON));
+	}
+	
+	@Test
+	public void testGetSnapshotNotModified() throws Exception{
+		
+		Snapshot committed = Snapshot.builder().id(9).created(new Date(1000000)).comment("comment")
+				.snapshotPvList(Arrays.asList(snapshotPv)).build();
+		when(services.getSnapshot(9)).thenReturn(committed);
+		when(services.getSnapshotHeader(9)).thenReturn(committed);
+		
+		String etag = mockMvc.perform(get("/snapshot/9")).andExpect(status().isOk())
+				.andExpect(header().exists(HttpHeaders.LAST_MODIFIED)).andReturn().getResponse()
+				.getHeader(HttpHeaders.ETAG);
+		
+		mockMvc.perform(get("/snapshot/9").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		// The values are not loaded for a conditional request
+		verify(services, times(1)).getSnapshot(9);
+		
+		// A subset of the PVs is another representation
+		when(services.getSnapshot(eq(9), any(SnapshotPvFilter.class))).thenReturn(committed);
+		mockMvc.perform(get("/snapshot/9").param("values", "false").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+	}
+	
+	@Test
+	public void testGetSnapshotFiltered() throws Exception{
+		
+		when(services.getSnapshot(eq(7), any(SnapshotPvFilter.class))).thenReturn(snapshot);
+		
+		MockHttpServletRequestBuilder request = get("/snapshot/7").param("pv", "a,b").param("glob", "RF:*")
+				.param("group", "rf").param("tag", "t").param("values", "false");
+
+		mockMvc.perform(request).andExpect(status().isOk()).andExpect(content().contentType(JSON));
+		
+		ArgumentCaptor<SnapshotPvFilter> filter = ArgumentCaptor.forClass(SnapshotPvFilter.class);
+		verify(services).getSnapshot(eq(7), filter.capture());
+		assertEquals(Arrays.asList("a", "b"), filter.getValue().getPvNames());
+		assertEquals("RF:*", filter.getValue().getGlob());
+		assertEquals("rf", filter.getValue().getGroupName());
+		assertEquals("t", filter.getValue().getTag());
+		assertFalse(filter.getValue().isValuesIncluded());
+	}
+	
+	@Test
+	public void testGetSnapshotInvalidRegex() throws Exception{
+		
+		mockMvc.perform(get("/snapshot/7").param("regex", "[")).andExpect(status().isBadRequest());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testStreamSnapshot() throws Exception{
+		
+		Snapshot header = Snapshot.builder().approve(true).comment("comment").id(7).build();
+		when(services.getSnapshotHeader(7)).thenReturn(header);
+		doAnswer(invocation -> {
+			Consumer<SnapshotPv<?>> consumer = invocation.getArgument(1);
+			consumer.accept(snapshotPv);
+			consumer.accept(snapshotPv);
+			return null;
+		}).when(services).streamSnapshotPvs(eq(7), any());
+		
+		MvcResult result = mockMvc.perform(get("/snapshot/7/stream")).andExpect(request().asyncStarted()).andReturn();
+		
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+		
+		Snapshot snapshot = objectMapper.readValue(result.getResponse().getContentAsString(), Snapshot.class);
+		
+		assertEquals(7, snapshot.getId());
+		assertEquals("comment", snapshot.getComment());
+		assertEquals(2, snapshot.getSnapshotPvList().size());
+	}
+	
+	@Test
+	public void testStreamNonExistingSnapshot() throws Exception{
+		
+		when(services.getSnapshotHeader(8)).thenThrow(new SnapshotNotFoundException("askdmdsf"));
+		
+		mockMvc.perform(get("/snapshot/8/stream")).andExpect(status().isNotFound());
+	}
+	
 	@Test
 	public void testGetNonExistingSnapshot() throws Exception{
 		
@@ -0,0 +1,12 @@
+-- Denormalized parent id of a node, used to enforce unique name and type
+-- among the child nodes of a folder. The root folder has no parent.
+ALTER TABLE node ADD COLUMN parent_id INTEGER;
+ALTER TABLE node ADD CONSTRAINT node_parent_fk FOREIGN KEY (parent_id) REFERENCES node(id);
+
+UPDATE node SET parent_id = (SELECT ancestor FROM node_closure WHERE descendant = node.id AND depth = 1);
+
+-- TEXT is a CLOB in H2, which cannot be indexed
+ALTER TABLE node ALTER COLUMN name VARCHAR(255) NOT NULL;
+ALTER TABLE node ALTER COLUMN type VARCHAR(20) NOT NULL;
+
+CREATE UNIQUE INDEX IF NOT EXISTS node_parent_name_type_idx ON node(parent_id, name, type);
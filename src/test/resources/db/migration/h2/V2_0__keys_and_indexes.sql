@@ -0,0 +1,32 @@
+-- Primary keys and indexes matching the queries issued by ConfigJdbcDAO and SnapshotJdbcDAO.
+
+-- Every tree query looks up the closure table on (ancestor, depth) or (descendant, depth).
+-- The third column makes the indexes covering for the closure-only sub queries.
+ALTER TABLE node_closure ADD CONSTRAINT node_closure_pk PRIMARY KEY (ancestor, descendant);
+CREATE INDEX IF NOT EXISTS node_closure_ancestor_idx ON node_closure(ancestor, depth, descendant);
+CREATE INDEX IF NOT EXISTS node_closure_descendant_idx ON node_closure(descendant, depth, ancestor);
+
+ALTER TABLE config ADD CONSTRAINT config_pk PRIMARY KEY (node_id);
+
+-- config_pv_idx is superseded by the primary key. The reverse index is used when
+-- checking if a PV is still referenced by any configuration.
+ALTER TABLE config_pv_relation ADD CONSTRAINT config_pv_relation_pk PRIMARY KEY (config_id, config_pv_id);
+DROP INDEX IF EXISTS config_pv_idx;
+CREATE INDEX IF NOT EXISTS config_pv_relation_pv_idx ON config_pv_relation(config_pv_id);
+
+-- TEXT is a CLOB in H2, which cannot be indexed
+ALTER TABLE config_pv ALTER COLUMN name VARCHAR(255) NOT NULL;
+ALTER TABLE config_pv ADD CONSTRAINT config_pv_name_unique UNIQUE (name);
+
+ALTER TABLE snapshot_pv ADD CONSTRAINT snapshot_pv_pk PRIMARY KEY (snapshot_id, config_pv_id);
+CREATE INDEX IF NOT EXISTS snapshot_pv_config_pv_idx ON snapshot_pv(config_pv_id);
+
+UPDATE snapshot SET username_id = (SELECT MIN(k.id) FROM username AS k JOIN username AS u ON k.name = u.name 
+  WHERE u.id = snapshot.username_id) 
+  WHERE username_id IS NOT NULL;
+DELETE FROM username WHERE id NOT IN (SELECT MIN(id) FROM username GROUP BY name);
+
+ALTER TABLE username ALTER COLUMN name VARCHAR(255) NOT NULL;
+ALTER TABLE username ADD CONSTRAINT username_name_unique UNIQUE (name);
+
+CREATE INDEX IF NOT EXISTS snapshot_username_idx ON snapshot(username_id);
@@ -0,0 +1,8 @@
+-- Materialized path of each node of the form /0/5/12/, maintained by MaterializedPathTreeStore 
+-- (masar.tree-store=path).
+ALTER TABLE node ADD COLUMN path VARCHAR(2048);
+
+UPDATE node SET path = (SELECT CONCAT('/', GROUP_CONCAT(ancestor ORDER BY depth DESC SEPARATOR '/'), '/') 
+  FROM node_closure WHERE descendant = node.id);
+
+CREATE INDEX IF NOT EXISTS node_path_idx ON node(path);
@@ -0,0 +1,5 @@
+-- Keyset pagination of the snapshots of a configuration, ordered by (created, id)
+CREATE INDEX IF NOT EXISTS snapshot_config_created_idx ON snapshot(config_id, created, id);
+
+-- Superseded by the index above
+DROP INDEX IF EXISTS snapshot_config_idx;
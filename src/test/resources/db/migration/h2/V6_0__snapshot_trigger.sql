@@ -0,0 +1,21 @@
+CREATE TABLE IF NOT EXISTS snapshot_trigger (
+  id SERIAL PRIMARY KEY,
+  config_id INTEGER NOT NULL REFERENCES node(id) ON DELETE CASCADE,
+  pv_name TEXT,
+  group_name TEXT,
+  condition_type VARCHAR(20) NOT NULL,
+  condition_value TEXT,
+  min_severity INTEGER NOT NULL DEFAULT 2,
+  debounce_ms BIGINT NOT NULL DEFAULT 0,
+  min_interval_seconds BIGINT NOT NULL DEFAULT 60,
+  user_name TEXT NOT NULL,
+  comment_template TEXT NOT NULL,
+  enabled BOOLEAN NOT NULL DEFAULT TRUE,
+  last_fired TIMESTAMP,
+  last_snapshot_id INTEGER,
+  last_error TEXT
+);
+
+CREATE INDEX IF NOT EXISTS snapshot_trigger_config_idx ON snapshot_trigger(config_id);
+
+INSERT INTO lease (name, owner, expires) VALUES ('snapshot-trigger', NULL, '1970-01-01 00:00:00');